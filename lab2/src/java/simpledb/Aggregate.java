@@ -118,8 +118,11 @@ public class Aggregate extends Operator {
 
         super.open();
         this.child.open();
-        while (this.child.hasNext()) {
-            this.aggregator.mergeTupleIntoGroup(this.child.next());
+        // consume the child a batch at a time
+        BatchIterator in = BatchAdapter.adapt(this.child);
+        TupleBatch batch;
+        while ((batch = in.nextBatch()) != null) {
+            this.aggregator.mergeBatchIntoGroup(batch);
         }
         this.aggregatedIterator = this.aggregator.iterator();
         if (this.aggregatedIterator != null) {
@@ -170,7 +173,7 @@ public class Aggregate extends Operator {
             return new TupleDesc(typeAr, nameAr);
         } else {
             Type[] typeAr = new Type[2];
-            typeAr[0] = this.child.getTupleDesc().getFieldType(this.aField);
+            typeAr[0] = this.child.getTupleDesc().getFieldType(this.gField);
             typeAr[1] = Type.INT_TYPE;
             String[] nameAr = new String[2];
             nameAr[0] = this.groupFieldName();
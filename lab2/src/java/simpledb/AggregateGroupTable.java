@@ -0,0 +1,213 @@
+package simpledb;
+
+import java.io.Serializable;
+import java.util.*;
+
+/**
+ * Running aggregate state for the groups of an {@link Aggregator}. Each
+ * group has a count, a sum, a minimum and a maximum, kept in parallel
+ * primitive arrays indexed by group number, so memory grows with the number
+ * of groups rather than with the number of input tuples.
+ * <p>
+ * Groups are numbered in order of first appearance. INT_TYPE group keys are
+ * looked up in an open-addressing table of primitive ints; other keys go
+ * through a HashMap. Without grouping there is exactly one group, 0.
+ */
+final class AggregateGroupTable implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    /**
+     * @param gbFieldType the type of the group-by field, or null if there is
+     *            no grouping
+     */
+    AggregateGroupTable(Type gbFieldType) {
+        this.gbFieldType = gbFieldType;
+        this.numGroups = 0;
+        this.counts = new long[INITIAL_CAPACITY];
+        this.sums = new long[INITIAL_CAPACITY];
+        this.mins = new int[INITIAL_CAPACITY];
+        this.maxs = new int[INITIAL_CAPACITY];
+        if (gbFieldType == null) {
+            this.newGroup();
+        } else if (gbFieldType == Type.INT_TYPE) {
+            this.intKeys = new int[INITIAL_CAPACITY];
+            this.slots = new int[INITIAL_CAPACITY * 2];
+        } else {
+            this.fieldKeys = new ArrayList<Field>();
+            this.fieldGroups = new HashMap<Field, Integer>();
+        }
+    }
+
+    /** @return the number of groups seen so far */
+    int numGroups() {
+        return this.numGroups;
+    }
+
+    /**
+     * @return the group number of the given group-by value, creating the
+     *         group if it is new; always 0 without grouping
+     */
+    int groupOf(Field key) {
+        if (this.gbFieldType == null) {
+            return 0;
+        } else if (this.intKeys != null) {
+            return this.groupOfInt(((IntField) key).getValue());
+        }
+        Integer group = this.fieldGroups.get(key);
+        if (group == null) {
+            group = this.newGroup();
+            this.fieldKeys.add(key);
+            this.fieldGroups.put(key, group);
+        }
+        return group;
+    }
+
+    /** @return the group-by value of the given group */
+    Field keyOf(int group) {
+        if (this.intKeys != null) {
+            return new IntField(this.intKeys[group]);
+        }
+        return this.fieldKeys.get(group);
+    }
+
+    /**
+     * @return the group number of the given INT_TYPE group-by value,
+     *         creating the group if it is new
+     */
+    int groupOfInt(int key) {
+        int mask = this.slots.length - 1;
+        int i = hash(key) & mask;
+        while (this.slots[i] != 0) {
+            int group = this.slots[i] - 1;
+            if (this.intKeys[group] == key) {
+                return group;
+            }
+            i = (i + 1) & mask;
+        }
+        int group = this.newGroup();
+        this.intKeys[group] = key;
+        this.slots[i] = group + 1;
+        if (this.numGroups * 2 > this.slots.length) {
+            this.rehash();
+        }
+        return group;
+    }
+
+    private static int hash(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /** Doubles the slot array, keeping it at most half full. */
+    private void rehash() {
+        this.slots = new int[this.slots.length * 2];
+        int mask = this.slots.length - 1;
+        for (int group = 0; group < this.numGroups; group++) {
+            int i = hash(this.intKeys[group]) & mask;
+            while (this.slots[i] != 0) {
+                i = (i + 1) & mask;
+            }
+            this.slots[i] = group + 1;
+        }
+    }
+
+    private int newGroup() {
+        if (this.numGroups == this.counts.length) {
+            int capacity = this.counts.length * 2;
+            this.counts = Arrays.copyOf(this.counts, capacity);
+            this.sums = Arrays.copyOf(this.sums, capacity);
+            this.mins = Arrays.copyOf(this.mins, capacity);
+            this.maxs = Arrays.copyOf(this.maxs, capacity);
+            if (this.intKeys != null) {
+                this.intKeys = Arrays.copyOf(this.intKeys, capacity);
+            }
+        }
+        int group = this.numGroups++;
+        this.mins[group] = Integer.MAX_VALUE;
+        this.maxs[group] = Integer.MIN_VALUE;
+        return group;
+    }
+
+    /** Adds one value to the running count, sum, min and max of a group. */
+    void add(int group, int value) {
+        this.counts[group]++;
+        this.sums[group] += value;
+        if (value < this.mins[group]) {
+            this.mins[group] = value;
+        }
+        if (value > this.maxs[group]) {
+            this.maxs[group] = value;
+        }
+    }
+
+    /** Counts one value in a group without tracking sum, min or max. */
+    void count(int group) {
+        this.counts[group]++;
+    }
+
+    /**
+     * @return the value of the given aggregate for a group, or null if it is
+     *         undefined (MIN, MAX or AVG of an empty group, or an op that is
+     *         not supported)
+     */
+    IntField aggregate(int group, Aggregator.Op op) {
+        long count = this.counts[group];
+        switch (op) {
+            case MIN:
+                return count > 0 ? new IntField(this.mins[group]) : null;
+            case MAX:
+                return count > 0 ? new IntField(this.maxs[group]) : null;
+            case AVG:
+                return count > 0 ? new IntField((int) (this.sums[group] / count)) : null;
+            case SUM:
+                return new IntField((int) this.sums[group]);
+            case COUNT:
+                return new IntField((int) count);
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * @return the (group-by value, aggregate) tuples of all groups, or the
+     *         single (aggregate) tuple without grouping
+     */
+    DbIterator iterator(Aggregator.Op op) {
+        TupleDesc td;
+        if (this.gbFieldType == null) {
+            td = new TupleDesc(new Type[] { Type.INT_TYPE });
+        } else {
+            td = new TupleDesc(new Type[] { this.gbFieldType, Type.INT_TYPE });
+        }
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>(this.numGroups);
+        for (int group = 0; group < this.numGroups; group++) {
+            Tuple tup = new Tuple(td);
+            if (this.gbFieldType == null) {
+                tup.setField(0, this.aggregate(group, op));
+            } else {
+                tup.setField(0, this.keyOf(group));
+                tup.setField(1, this.aggregate(group, op));
+            }
+            tuples.add(tup);
+        }
+        return new TupleIterator(td, tuples);
+    }
+
+    private final Type gbFieldType;
+    private int numGroups;
+    private long[] counts;
+    private long[] sums;
+    private int[] mins;
+    private int[] maxs;
+
+    // INT_TYPE group keys: group numbers + 1 in open-addressing slots, 0 if empty
+    private int[] intKeys;
+    private int[] slots;
+
+    // other group keys
+    private ArrayList<Field> fieldKeys;
+    private HashMap<Field, Integer> fieldGroups;
+}
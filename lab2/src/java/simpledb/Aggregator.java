@@ -76,6 +76,14 @@ public interface Aggregator extends Serializable {
      */
     public void mergeTupleIntoGroup(Tuple tup);
 
+    /**
+     * Merge every row of a batch into the aggregate, as if each row had been
+     * passed to {@link #mergeTupleIntoGroup}.
+     *
+     * @param batch rows containing an aggregate field and a group-by field
+     */
+    public void mergeBatchIntoGroup(TupleBatch batch);
+
     /**
      * Create a DbIterator over group aggregate results.
      * @see simpledb.TupleIterator for a possible helper
@@ -0,0 +1,480 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * BTreeFile is a DbFile that keeps its tuples in a B+ tree ordered by one of
+ * their fields, the key field. Duplicate keys are allowed. The tree is made
+ * of {@link BTreePage}s: page 0 points to the root, internal pages route a
+ * key to the child that may hold it, and the leaves hold the tuples and are
+ * linked to their neighbours, so a range is read by descending to its first
+ * leaf and following the links.
+ * <p>
+ * A BTreeFile may store a table itself, but it is mostly used as a secondary
+ * index: its tuples are then entries of the form (key, page number, tuple
+ * number) pointing at the tuples of another table, see
+ * {@link #indexTupleDesc} and {@link #createIndex}. The catalog records the
+ * indexes of a table, and {@link BufferPool#insertTuple} and
+ * {@link BufferPool#deleteTuple} keep them up to date.
+ * <p>
+ * All pages are read and modified through the BufferPool, so the file must
+ * be registered in the catalog. Pages are split when they overflow, but are
+ * not merged when they become underfull; a leaf emptied by deletes stays in
+ * the tree until its keys are inserted again. Page I/O and page counting are
+ * those of {@link HeapFile}.
+ *
+ * @see BTreePage
+ * @see IndexScan
+ */
+public class BTreeFile extends HeapFile {
+
+    /**
+     * Constructs a B+ tree file backed by the specified file. An empty file
+     * is initialized on first use.
+     *
+     * @param f
+     *            the file that stores the on-disk backing store for this
+     *            file.
+     * @param td
+     *            the schema of the tuples stored in f.
+     * @param keyField
+     *            the index of the field the tuples are ordered by.
+     */
+    public BTreeFile(File f, TupleDesc td, int keyField) {
+        super(f, td);
+        this.keyField = keyField;
+    }
+
+    /**
+     * @return the schema of the entries of a secondary index over a field of
+     *         the given type: the key followed by the page number and tuple
+     *         number of the indexed tuple
+     */
+    public static TupleDesc indexTupleDesc(Type keyType) {
+        return new TupleDesc(new Type[] { keyType, Type.INT_TYPE, Type.INT_TYPE },
+                new String[] { "key", "pageNo", "tupleNo" });
+    }
+
+    /**
+     * @return the entry of a secondary index over field of t, pointing at t;
+     *         t must be stored in a table, i.e. have a RecordId
+     */
+    public static Tuple indexEntry(TupleDesc indexTd, Tuple t, int field) {
+        RecordId rid = t.getRecordId();
+        Tuple entry = new Tuple(indexTd);
+        entry.setField(0, t, field);
+        entry.setInt(1, rid.getPageId().pageNumber());
+        entry.setInt(2, rid.tupleno());
+        return entry;
+    }
+
+    /** @return the RecordId of the tuple of table tableid an index entry points at */
+    public static RecordId entryRecordId(Tuple entry, int tableid) {
+        return new RecordId(new HeapPageId(tableid, entry.getInt(1)), entry.getInt(2));
+    }
+
+    /**
+     * Builds a secondary index over a field of a table, registers it in the
+     * catalog and fills it with the entries of the tuples already in the
+     * table.
+     *
+     * @param tid
+     *            the transaction reading the table and writing the index
+     * @param tableid
+     *            the table to index
+     * @param field
+     *            the field of the table to index
+     * @param f
+     *            the file to store the index in; must be empty or not exist
+     * @return the new index
+     */
+    public static BTreeFile createIndex(TransactionId tid, int tableid, int field, File f)
+            throws DbException, IOException, TransactionAbortedException {
+        if (f.length() > 0) {
+            throw new IllegalArgumentException("index file " + f + " is not empty");
+        }
+        Catalog catalog = Database.getCatalog();
+        Type keyType = catalog.getTupleDesc(tableid).getFieldType(field);
+        BTreeFile index = new BTreeFile(f, indexTupleDesc(keyType), 0);
+        catalog.addIndex(tableid, field, index);
+
+        DbFileIterator it = catalog.getDatabaseFile(tableid).iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            index.insertTuple(tid, indexEntry(index.getTupleDesc(), it.next(), field));
+        }
+        it.close();
+        return index;
+    }
+
+    /** Zone maps describe HeapPages only; this file keeps none. */
+    public ZoneMap getZoneMap() {
+        return null;
+    }
+
+    /** @return the index of the field the tuples of this file are ordered by */
+    public int keyField() {
+        return this.keyField;
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        try {
+            return new BTreePage((HeapPageId) pid, this.readPageData(pid), this);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    /**
+     * @return the number of levels of the tree, i.e. the number of pages read
+     *         to reach a leaf from the root
+     */
+    public int getHeight(TransactionId tid) throws DbException, TransactionAbortedException {
+        return this.rootPointer(tid).getHeight();
+    }
+
+    /**
+     * Writes the root pointer and an empty root leaf to the file if it has no
+     * pages yet.
+     */
+    private synchronized void init() throws DbException {
+        if (this.numPages() > 0) {
+            return;
+        }
+        try {
+            BTreePage rootPointer = new BTreePage(new HeapPageId(this.getId(), 0),
+                    BTreePage.createEmptyPageData(BTreePage.ROOT_POINTER), this);
+            rootPointer.setRoot(1, 1);
+            this.writePage(rootPointer);
+            this.writePage(new BTreePage(new HeapPageId(this.getId(), 1),
+                    BTreePage.createEmptyPageData(BTreePage.LEAF), this));
+        } catch (IOException e) {
+            throw new DbException("could not initialize B+ tree file: " + e.getMessage());
+        }
+    }
+
+    private BTreePage rootPointer(TransactionId tid) throws DbException, TransactionAbortedException {
+        this.init();
+        return this.getPage(tid, 0, Permissions.READ_ONLY);
+    }
+
+    private BTreePage getPage(TransactionId tid, int pageNo, Permissions perm)
+            throws DbException, TransactionAbortedException {
+        return (BTreePage) Database.getBufferPool().getPage(tid, new HeapPageId(this.getId(), pageNo), perm);
+    }
+
+    /**
+     * Fetches a page for modification and pins it; an operation keeps the
+     * pages it works on pinned until it is done, so that no page is evicted
+     * (and re-read without the changes) while it is being split.
+     */
+    private BTreePage getPinnedPage(TransactionId tid, int pageNo, List<PageId> pinned)
+            throws DbException, TransactionAbortedException {
+        Page page = Database.getBufferPool().getPinnedPage(tid, new HeapPageId(this.getId(), pageNo),
+            Permissions.READ_WRITE);
+        pinned.add(page.getId());
+        return (BTreePage) page;
+    }
+
+    /**
+     * Appends a new, empty page of the given kind to the file and returns it
+     * pinned.
+     */
+    private BTreePage newPage(TransactionId tid, byte kind, List<PageId> pinned)
+            throws DbException, IOException, TransactionAbortedException {
+        HeapPageId pid = new HeapPageId(this.getId(), this.numPages());
+        this.writePage(new BTreePage(pid, BTreePage.createEmptyPageData(kind), this));
+        return this.getPinnedPage(tid, pid.pageNumber(), pinned);
+    }
+
+    /** @return the child of an internal page that holds the first occurrence of key */
+    private static int lowerChild(BTreePage page, Field key) {
+        List<Field> keys = page.keys();
+        for (int i = 0; i < keys.size(); i++) {
+            if (key.compare(Predicate.Op.LESS_THAN_OR_EQ, keys.get(i))) {
+                return i;
+            }
+        }
+        return keys.size();
+    }
+
+    /** @return the child of an internal page a new entry with the given key goes to */
+    private static int upperChild(BTreePage page, Field key) {
+        List<Field> keys = page.keys();
+        for (int i = 0; i < keys.size(); i++) {
+            if (key.compare(Predicate.Op.LESS_THAN, keys.get(i))) {
+                return i;
+            }
+        }
+        return keys.size();
+    }
+
+    /** @return the first leaf that may hold key, or the leftmost leaf if key is null */
+    private int findLeaf(TransactionId tid, Field key) throws DbException, TransactionAbortedException {
+        int pageNo = this.rootPointer(tid).getRootPage();
+        BTreePage page = this.getPage(tid, pageNo, Permissions.READ_ONLY);
+        while (!page.isLeaf()) {
+            pageNo = page.children().get(key == null ? 0 : lowerChild(page, key));
+            page = this.getPage(tid, pageNo, Permissions.READ_ONLY);
+        }
+        return pageNo;
+    }
+
+    private static void markDirty(BTreePage page, TransactionId tid, ArrayList<Page> modifiedPages) {
+        page.markDirty(true, tid);
+        if (!modifiedPages.contains(page)) {
+            modifiedPages.add(page);
+        }
+    }
+
+    private static void unpinAll(List<PageId> pinned) {
+        for (PageId pid : pinned) {
+            Database.getBufferPool().unpinPage(pid);
+        }
+    }
+
+    /**
+     * Inserts a tuple into the tree, after the tuples with the same key. Full
+     * pages are split, from the leaf up to the root as needed. The RecordId
+     * of t is set to its current position, which changes as other tuples are
+     * inserted.
+     *
+     * @see DbFile#insertTuple
+     */
+    public synchronized ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        if (!t.getTupleDesc().equals(this.getTupleDesc())) {
+            throw new DbException("TupleDesc does not match");
+        }
+        this.init();
+        Field key = t.getField(this.keyField);
+        ArrayList<Page> modifiedPages = new ArrayList<Page>();
+        List<PageId> pinned = new ArrayList<PageId>();
+        try {
+            BTreePage rootPointer = this.getPinnedPage(tid, 0, pinned);
+            ArrayList<BTreePage> path = new ArrayList<BTreePage>();
+            BTreePage page = this.getPinnedPage(tid, rootPointer.getRootPage(), pinned);
+            while (!page.isLeaf()) {
+                path.add(page);
+                page = this.getPinnedPage(tid, page.children().get(upperChild(page, key)), pinned);
+            }
+
+            List<Tuple> entries = page.entries();
+            int pos = entries.size();
+            while (pos > 0 && key.compare(Predicate.Op.LESS_THAN, page.keyOf(pos - 1))) {
+                pos--;
+            }
+            Tuple entry = new Tuple(this.getTupleDesc());
+            for (int j = 0; j < this.getTupleDesc().numFields(); j++) {
+                entry.setField(j, t, j);
+            }
+            entries.add(pos, entry);
+            markDirty(page, tid, modifiedPages);
+            t.setRecordId(new RecordId(page.getId(), pos));
+
+            while (page.isOverfull()) {
+                Field separator;
+                BTreePage right;
+                if (page.isLeaf()) {
+                    right = this.newPage(tid, BTreePage.LEAF, pinned);
+                    int mid = page.entries().size() / 2;
+                    List<Tuple> moved = page.entries().subList(mid, page.entries().size());
+                    right.entries().addAll(moved);
+                    moved.clear();
+                    separator = right.keyOf(0);
+                    right.setNextLeaf(page.getNextLeaf());
+                    right.setPrevLeaf(page.getId().pageNumber());
+                    if (page.getNextLeaf() >= 0) {
+                        BTreePage next = this.getPinnedPage(tid, page.getNextLeaf(), pinned);
+                        next.setPrevLeaf(right.getId().pageNumber());
+                        markDirty(next, tid, modifiedPages);
+                    }
+                    page.setNextLeaf(right.getId().pageNumber());
+                    if (t.getRecordId().getPageId().equals(page.getId()) && pos >= mid) {
+                        t.setRecordId(new RecordId(right.getId(), pos - mid));
+                    }
+                } else {
+                    // the middle key moves up to the parent
+                    right = this.newPage(tid, BTreePage.INTERNAL, pinned);
+                    List<Field> keys = page.keys();
+                    int mid = keys.size() / 2;
+                    separator = keys.get(mid);
+                    List<Field> movedKeys = keys.subList(mid + 1, keys.size());
+                    right.keys().addAll(movedKeys);
+                    movedKeys.clear();
+                    keys.remove(mid);
+                    List<Integer> movedChildren = page.children().subList(mid + 1, page.children().size());
+                    right.children().addAll(movedChildren);
+                    movedChildren.clear();
+                }
+                markDirty(right, tid, modifiedPages);
+
+                if (path.isEmpty()) {
+                    BTreePage root = this.newPage(tid, BTreePage.INTERNAL, pinned);
+                    root.children().add(page.getId().pageNumber());
+                    root.children().add(right.getId().pageNumber());
+                    root.keys().add(separator);
+                    markDirty(root, tid, modifiedPages);
+                    rootPointer.setRoot(root.getId().pageNumber(), rootPointer.getHeight() + 1);
+                    markDirty(rootPointer, tid, modifiedPages);
+                    break;
+                }
+                BTreePage parent = path.remove(path.size() - 1);
+                int child = parent.children().indexOf(page.getId().pageNumber());
+                parent.keys().add(child, separator);
+                parent.children().add(child + 1, right.getId().pageNumber());
+                markDirty(parent, tid, modifiedPages);
+                page = parent;
+            }
+        } finally {
+            unpinAll(pinned);
+        }
+        return modifiedPages;
+    }
+
+    /**
+     * Deletes a tuple from the tree. The tuple is looked up by value: the
+     * first stored tuple with the same values in all fields is removed, so
+     * the RecordId of t is not used.
+     *
+     * @throws DbException if no such tuple is stored in this file
+     * @see DbFile#deleteTuple
+     */
+    public synchronized ArrayList<Page> deleteTuple(TransactionId tid, Tuple t)
+            throws DbException, TransactionAbortedException {
+        Field key = t.getField(this.keyField);
+        ArrayList<Page> modifiedPages = new ArrayList<Page>();
+        int pageNo = this.findLeaf(tid, key);
+        while (pageNo >= 0) {
+            BTreePage page = this.getPage(tid, pageNo, Permissions.READ_WRITE);
+            List<Tuple> entries = page.entries();
+            for (int i = 0; i < entries.size(); i++) {
+                Field k = page.keyOf(i);
+                if (key.compare(Predicate.Op.LESS_THAN, k)) {
+                    throw new DbException("tuple to delete is not in the B+ tree");
+                }
+                if (key.equals(k) && this.sameValues(entries.get(i), t)) {
+                    entries.remove(i);
+                    markDirty(page, tid, modifiedPages);
+                    t.setRecordId(null);
+                    return modifiedPages;
+                }
+            }
+            pageNo = page.getNextLeaf();
+        }
+        throw new DbException("tuple to delete is not in the B+ tree");
+    }
+
+    private boolean sameValues(Tuple stored, Tuple t) {
+        for (int j = 0; j < this.getTupleDesc().numFields(); j++) {
+            if (!stored.getField(j).equals(t.getField(j))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns an iterator over all tuples of this file in key order.
+     *
+     * @see DbFile#iterator
+     */
+    public DbFileIterator iterator(TransactionId tid) {
+        return this.indexIterator(tid, null, null);
+    }
+
+    /**
+     * Returns an iterator over the tuples of this file whose key satisfies
+     * <tt>key op operand</tt>, in key order. EQUALS, GREATER_THAN and
+     * GREATER_THAN_OR_EQ start at the first leaf that may hold a match, and
+     * EQUALS, LESS_THAN and LESS_THAN_OR_EQ stop at the first key past the
+     * range; the other operators read all leaves.
+     *
+     * @param op
+     *            the comparison, or null to return all tuples
+     * @param operand
+     *            the value keys are compared to; ignored if op is null
+     */
+    public DbFileIterator indexIterator(final TransactionId tid, final Predicate.Op op, final Field operand) {
+        return new AbstractDbFileIterator() {
+            private int nextLeaf;
+            private Iterator<Tuple> entries;
+
+            public void open() throws DbException, TransactionAbortedException {
+                boolean seek = op == Predicate.Op.EQUALS || op == Predicate.Op.GREATER_THAN
+                        || op == Predicate.Op.GREATER_THAN_OR_EQ;
+                this.nextLeaf = BTreeFile.this.findLeaf(tid, seek ? operand : null);
+                this.entries = Collections.<Tuple>emptyList().iterator();
+            }
+
+            protected Tuple readNext() throws DbException, TransactionAbortedException {
+                if (this.entries == null) {
+                    return null;
+                }
+                while (true) {
+                    while (this.entries.hasNext()) {
+                        Tuple t = this.entries.next();
+                        Field key = t.getField(BTreeFile.this.keyField);
+                        if (op == null || key.compare(op, operand)) {
+                            return t;
+                        }
+                        if (this.pastRange(key)) {
+                            this.close();
+                            return null;
+                        }
+                    }
+                    if (this.nextLeaf < 0) {
+                        return null;
+                    }
+                    this.readLeaf();
+                }
+            }
+
+            /**
+             * Copies the entries of the next leaf, so that the iteration is
+             * not disturbed by changes to the leaf, e.g. by a Delete reading
+             * from this iterator.
+             */
+            private void readLeaf() throws DbException, TransactionAbortedException {
+                BTreePage page = BTreeFile.this.getPage(tid, this.nextLeaf, Permissions.READ_ONLY);
+                ArrayList<Tuple> copies = new ArrayList<Tuple>(page.entries().size());
+                int i = 0;
+                for (Tuple entry : page.entries()) {
+                    Tuple t = new Tuple(BTreeFile.this.getTupleDesc());
+                    for (int j = 0; j < t.getTupleDesc().numFields(); j++) {
+                        t.setField(j, entry, j);
+                    }
+                    t.setRecordId(new RecordId(page.getId(), i++));
+                    copies.add(t);
+                }
+                this.entries = copies.iterator();
+                this.nextLeaf = page.getNextLeaf();
+            }
+
+            private boolean pastRange(Field key) {
+                if (op == Predicate.Op.EQUALS || op == Predicate.Op.LESS_THAN_OR_EQ) {
+                    return key.compare(Predicate.Op.GREATER_THAN, operand);
+                }
+                if (op == Predicate.Op.LESS_THAN) {
+                    return key.compare(Predicate.Op.GREATER_THAN_OR_EQ, operand);
+                }
+                return false;
+            }
+
+            public void rewind() throws DbException, TransactionAbortedException {
+                this.close();
+                this.open();
+            }
+
+            public void close() {
+                super.close();
+                this.entries = null;
+            }
+        };
+    }
+
+    private final int keyField;
+}
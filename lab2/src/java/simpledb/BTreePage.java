@@ -0,0 +1,279 @@
+package simpledb;
+
+import java.io.*;
+import java.text.ParseException;
+import java.util.*;
+
+/**
+ * BTreePage stores one page of a {@link BTreeFile}. The first byte of a page
+ * gives its kind:
+ * <ul>
+ * <li>a root pointer page (only page 0 of a file) holds the page number of
+ * the root and the height of the tree;</li>
+ * <li>a leaf page holds the number of entries, the page numbers of its right
+ * and left neighbours (or -1) and then the entries, i.e. whole tuples of the
+ * file's schema, sorted by the key field;</li>
+ * <li>an internal page holds its number of children n + 1, the child page
+ * numbers and n separator keys. All keys below child i are less than or
+ * equal to key i, and all keys below child i + 1 are greater than or equal
+ * to it.</li>
+ * </ul>
+ * The page is decoded when it is read and kept as lists, which may grow past
+ * the capacity of a page while BTreeFile splits it; {@link #getPageData}
+ * must only be called on pages that fit.
+ *
+ * @see BTreeFile
+ */
+public class BTreePage implements Page {
+
+    static final byte ROOT_POINTER = 0;
+    static final byte LEAF = 1;
+    static final byte INTERNAL = 2;
+
+    static final int LEAF_HEADER_SIZE = 13;
+    static final int INTERNAL_HEADER_SIZE = 5;
+
+    /**
+     * Create a BTreePage from a set of bytes of data read from disk. The page
+     * belongs to the BTreeFile registered in the catalog under the page's
+     * table id.
+     */
+    public BTreePage(HeapPageId id, byte[] data) throws IOException {
+        this(id, data, (BTreeFile) Database.getCatalog().getDatabaseFile(id.getTableId()));
+    }
+
+    BTreePage(HeapPageId id, byte[] data, BTreeFile file) throws IOException {
+        this.pid = id;
+        this.td = file.getTupleDesc();
+        this.keyField = file.keyField();
+        this.entries = new ArrayList<Tuple>();
+        this.keys = new ArrayList<Field>();
+        this.children = new ArrayList<Integer>();
+        this.oldData = data.clone();
+        this.dirty = false;
+        this.dirtyTid = null;
+
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        this.kind = dis.readByte();
+        try {
+            if (this.kind == ROOT_POINTER) {
+                this.rootPage = dis.readInt();
+                this.height = dis.readInt();
+            } else if (this.kind == LEAF) {
+                int count = dis.readInt();
+                this.nextLeaf = dis.readInt();
+                this.prevLeaf = dis.readInt();
+                for (int i = 0; i < count; i++) {
+                    Tuple t = new Tuple(this.td);
+                    for (int j = 0; j < this.td.numFields(); j++) {
+                        t.setField(j, this.td.getFieldType(j).parse(dis));
+                    }
+                    this.entries.add(t);
+                }
+            } else if (this.kind == INTERNAL) {
+                int count = dis.readInt();
+                int maxKeys = maxKeys(this.td.getFieldType(this.keyField));
+                for (int i = 0; i <= maxKeys; i++) {
+                    int child = dis.readInt();
+                    if (i < count) {
+                        this.children.add(child);
+                    }
+                }
+                Type keyType = this.td.getFieldType(this.keyField);
+                for (int i = 0; i < count - 1; i++) {
+                    this.keys.add(keyType.parse(dis));
+                }
+            } else {
+                throw new IOException("unknown B+ tree page kind " + this.kind);
+            }
+        } catch (ParseException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /** @return the number of entries of the given schema that fit on a leaf */
+    static int maxEntries(TupleDesc td) {
+        return (BufferPool.getPageSize() - LEAF_HEADER_SIZE) / td.getSize();
+    }
+
+    /** @return the number of keys of the given type that fit on an internal page */
+    static int maxKeys(Type keyType) {
+        // header, one child more than keys
+        return (BufferPool.getPageSize() - INTERNAL_HEADER_SIZE - 4) / (keyType.getLen() + 4);
+    }
+
+    /** @return the bytes of an empty page of the given kind */
+    static byte[] createEmptyPageData(byte kind) {
+        byte[] data = new byte[BufferPool.getPageSize()];
+        data[0] = kind;
+        if (kind == LEAF) {
+            // no neighbours
+            Arrays.fill(data, 5, LEAF_HEADER_SIZE, (byte) 0xff);
+        }
+        return data;
+    }
+
+    public HeapPageId getId() {
+        return this.pid;
+    }
+
+    boolean isLeaf() {
+        return this.kind == LEAF;
+    }
+
+    // root pointer page
+
+    int getRootPage() {
+        return this.rootPage;
+    }
+
+    int getHeight() {
+        return this.height;
+    }
+
+    void setRoot(int rootPage, int height) {
+        this.rootPage = rootPage;
+        this.height = height;
+    }
+
+    // leaf page
+
+    /** The sorted entries of a leaf; modified in place by BTreeFile. */
+    List<Tuple> entries() {
+        return this.entries;
+    }
+
+    Field keyOf(int i) {
+        return this.entries.get(i).getField(this.keyField);
+    }
+
+    int getNextLeaf() {
+        return this.nextLeaf;
+    }
+
+    void setNextLeaf(int pageNo) {
+        this.nextLeaf = pageNo;
+    }
+
+    int getPrevLeaf() {
+        return this.prevLeaf;
+    }
+
+    void setPrevLeaf(int pageNo) {
+        this.prevLeaf = pageNo;
+    }
+
+    // internal page
+
+    /** The separator keys of an internal page; modified in place by BTreeFile. */
+    List<Field> keys() {
+        return this.keys;
+    }
+
+    /** The child page numbers of an internal page, one more than keys. */
+    List<Integer> children() {
+        return this.children;
+    }
+
+    /** @return true if this page holds more than a page's worth of data */
+    boolean isOverfull() {
+        if (this.kind == LEAF) {
+            return this.entries.size() > maxEntries(this.td);
+        }
+        return this.kind == INTERNAL && this.keys.size() > maxKeys(this.td.getFieldType(this.keyField));
+    }
+
+    public BTreePage getBeforeImage() {
+        try {
+            byte[] oldDataRef;
+            synchronized (this.oldDataLock) {
+                oldDataRef = this.oldData;
+            }
+            return new BTreePage(this.pid, oldDataRef, (BTreeFile) Database.getCatalog().getDatabaseFile(
+                    this.pid.getTableId()));
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    public void setBeforeImage() {
+        synchronized (this.oldDataLock) {
+            this.oldData = this.getPageData();
+        }
+    }
+
+    /**
+     * Generates a byte array representing the contents of this page.
+     *
+     * @throws IllegalStateException if the page is overfull
+     */
+    public byte[] getPageData() {
+        if (this.isOverfull()) {
+            throw new IllegalStateException("B+ tree page " + this.pid.pageNumber() + " is overfull");
+        }
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(BufferPool.getPageSize());
+        DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            dos.writeByte(this.kind);
+            if (this.kind == ROOT_POINTER) {
+                dos.writeInt(this.rootPage);
+                dos.writeInt(this.height);
+            } else if (this.kind == LEAF) {
+                dos.writeInt(this.entries.size());
+                dos.writeInt(this.nextLeaf);
+                dos.writeInt(this.prevLeaf);
+                for (Tuple t : this.entries) {
+                    for (int j = 0; j < this.td.numFields(); j++) {
+                        t.getField(j).serialize(dos);
+                    }
+                }
+            } else {
+                int maxKeys = maxKeys(this.td.getFieldType(this.keyField));
+                dos.writeInt(this.children.size());
+                for (int i = 0; i <= maxKeys; i++) {
+                    dos.writeInt(i < this.children.size() ? this.children.get(i) : 0);
+                }
+                for (Field key : this.keys) {
+                    key.serialize(dos);
+                }
+            }
+            dos.flush();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return Arrays.copyOf(baos.toByteArray(), BufferPool.getPageSize());
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.dirty = dirty;
+        this.dirtyTid = tid;
+    }
+
+    public TransactionId isDirty() {
+        return this.dirty ? this.dirtyTid : null;
+    }
+
+    private final HeapPageId pid;
+    private final TupleDesc td;
+    private final int keyField;
+    private final byte kind;
+
+    private int rootPage;
+    private int height;
+
+    private final List<Tuple> entries;
+    private int nextLeaf = -1;
+    private int prevLeaf = -1;
+
+    private final List<Field> keys;
+    private final List<Integer> children;
+
+    private boolean dirty;
+    private TransactionId dirtyTid;
+
+    private byte[] oldData;
+    private final Object oldDataLock = new Object();
+}
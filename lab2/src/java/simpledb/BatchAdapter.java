@@ -0,0 +1,77 @@
+package simpledb;
+
+import java.util.NoSuchElementException;
+
+/**
+ * BatchAdapter gives any DbIterator a {@link BatchIterator} interface by
+ * filling batches one tuple at a time.
+ */
+public class BatchAdapter implements BatchIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * @return it itself if it already is a BatchIterator, otherwise an
+     *         adapter around it
+     */
+    public static BatchIterator adapt(DbIterator it) {
+        if (it instanceof BatchIterator) {
+            return (BatchIterator) it;
+        }
+        return new BatchAdapter(it);
+    }
+
+    /**
+     * Moves tuples from it into batch until the batch is full or it is
+     * exhausted.
+     *
+     * @return batch, or null if it had no more tuples
+     */
+    static TupleBatch fill(DbIterator it, TupleBatch batch)
+            throws DbException, TransactionAbortedException {
+        batch.clear();
+        while (!batch.isFull() && it.hasNext()) {
+            batch.add(it.next());
+        }
+        return batch.isEmpty() ? null : batch;
+    }
+
+    private BatchAdapter(DbIterator child) {
+        this.child = child;
+    }
+
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (this.batch == null) {
+            this.batch = new TupleBatch(this.child.getTupleDesc());
+        }
+        return fill(this.child, this.batch);
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        this.child.open();
+    }
+
+    public boolean hasNext() throws DbException, TransactionAbortedException {
+        return this.child.hasNext();
+    }
+
+    public Tuple next() throws DbException, TransactionAbortedException,
+            NoSuchElementException {
+        return this.child.next();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        this.child.rewind();
+    }
+
+    public TupleDesc getTupleDesc() {
+        return this.child.getTupleDesc();
+    }
+
+    public void close() {
+        this.child.close();
+    }
+
+    private final DbIterator child;
+    private transient TupleBatch batch;
+}
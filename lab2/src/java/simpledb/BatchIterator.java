@@ -0,0 +1,23 @@
+package simpledb;
+
+/**
+ * BatchIterator is an optional extension of {@link DbIterator} that returns
+ * tuples a batch at a time, which avoids a virtual call and a Tuple
+ * allocation per row. Operators that do not implement it can be used
+ * through {@link BatchAdapter#adapt}.
+ * <p>
+ * A consumer should use either next() or nextBatch() between an open() or
+ * rewind() and the next one, not both.
+ */
+public interface BatchIterator extends DbIterator {
+
+    /**
+     * Returns the next rows of this iterator. The batch is only valid until
+     * the next call to nextBatch(), rewind() or close(), and the caller may
+     * modify it in the meantime.
+     *
+     * @return a non-empty batch, or null if there are no more tuples
+     * @throws IllegalStateException If the iterator has not been opened
+     */
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException;
+}
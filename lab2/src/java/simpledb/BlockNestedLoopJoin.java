@@ -0,0 +1,211 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * BlockNestedLoopJoin evaluates an arbitrary join predicate like
+ * {@link Join}, but reads the left (outer) child a block at a time. Each
+ * block holds as many outer tuples as fit into a configurable number of
+ * pages, and the right (inner) child is scanned once per block rather than
+ * once per outer tuple. With b tuples per block, an outer input of |R|
+ * tuples causes |R|/b inner scans instead of |R|.
+ * <p>
+ * Output tuples are the concatenation of a tuple from child1 and a tuple
+ * from child2, as in Join; within a block they are ordered by the inner
+ * tuple.
+ */
+public class BlockNestedLoopJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private DbIterator child1;
+    private DbIterator child2;
+
+    private JoinPredicate predicate;
+    private TupleDesc td;
+    private final int blockPages;
+
+    private ArrayList<Tuple> block;
+    private boolean firstBlock;
+    private Tuple innerTup;
+    private int blockPos;
+
+    /**
+     * Constructor. Uses blocks of {@link #defaultBlockPages()} pages.
+     *
+     * @param p
+     *            The predicate to use to join the children
+     * @param child1
+     *            Iterator for the left(outer) relation to join
+     * @param child2
+     *            Iterator for the right(inner) relation to join
+     */
+    public BlockNestedLoopJoin(JoinPredicate p, DbIterator child1, DbIterator child2) {
+        this(p, child1, child2, defaultBlockPages());
+    }
+
+    /**
+     * Constructor with an explicit block size.
+     *
+     * @param blockPages
+     *            the size of an outer block, in pages of
+     *            {@link BufferPool#getPageSize()} bytes
+     */
+    public BlockNestedLoopJoin(JoinPredicate p, DbIterator child1, DbIterator child2,
+            int blockPages) {
+        if (blockPages < 1) {
+            throw new IllegalArgumentException("a block needs at least one page");
+        }
+        this.predicate = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.td = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+        this.blockPages = blockPages;
+    }
+
+    /**
+     * @return the default block size: every page of the buffer pool except
+     *         one for the inner input and one for the output
+     */
+    public static int defaultBlockPages() {
+        return Math.max(1, Database.getBufferPool().getMaxPages() - 2);
+    }
+
+    /**
+     * @return the number of tuples of the given schema that fit into an
+     *         outer block of blockPages pages
+     */
+    public static int blockTuples(TupleDesc td, int blockPages) {
+        long bytes = (long) blockPages * BufferPool.getPageSize();
+        return (int) Math.max(1, Math.min(Integer.MAX_VALUE, bytes / td.getSize()));
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return this.predicate;
+    }
+
+    /**
+     * @return
+     *       the field name of join field1. Should be quantified by
+     *       alias or table name.
+     * */
+    public String getJoinField1Name() {
+        return this.child1.getTupleDesc().getFieldName(this.predicate.getField1());
+    }
+
+    /**
+     * @return
+     *       the field name of join field2. Should be quantified by
+     *       alias or table name.
+     * */
+    public String getJoinField2Name() {
+        return this.child2.getTupleDesc().getFieldName(this.predicate.getField2());
+    }
+
+    public int getBlockPages() {
+        return this.blockPages;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return this.td;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        super.open();
+        this.child1.open();
+        this.child2.open();
+        this.block = new ArrayList<Tuple>();
+        this.firstBlock = true;
+        this.innerTup = null;
+    }
+
+    public void close() {
+        super.close();
+        this.child1.close();
+        this.child2.close();
+        this.block = null;
+        this.innerTup = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        this.child1.rewind();
+        this.child2.rewind();
+        this.block.clear();
+        this.firstBlock = true;
+        this.innerTup = null;
+    }
+
+    /**
+     * Replaces the current block with the next block of outer tuples and
+     * restarts the inner child.
+     *
+     * @return false if the outer child is exhausted
+     */
+    private boolean nextBlock() throws DbException, TransactionAbortedException {
+        this.block.clear();
+        int capacity = blockTuples(this.child1.getTupleDesc(), this.blockPages);
+        while (this.block.size() < capacity && this.child1.hasNext()) {
+            this.block.add(this.child1.next());
+        }
+        if (this.block.isEmpty()) {
+            return false;
+        }
+        if (!this.firstBlock) {
+            this.child2.rewind();
+        }
+        this.firstBlock = false;
+        return true;
+    }
+
+    /**
+     * Returns the next tuple generated by the join, or null if there are no
+     * more tuples.
+     *
+     * @return The next matching tuple.
+     * @see JoinPredicate#filter
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (true) {
+            if (this.innerTup != null) {
+                while (this.blockPos < this.block.size()) {
+                    Tuple outerTup = this.block.get(this.blockPos++);
+                    if (this.predicate.filter(outerTup, this.innerTup)) {
+                        return this.joinTuples(outerTup, this.innerTup);
+                    }
+                }
+                this.innerTup = null;
+            }
+            if (this.block.isEmpty() || !this.child2.hasNext()) {
+                if (!this.nextBlock()) {
+                    return null;
+                }
+                if (!this.child2.hasNext()) {
+                    // empty inner input
+                    return null;
+                }
+            }
+            this.innerTup = this.child2.next();
+            this.blockPos = 0;
+        }
+    }
+
+    private Tuple joinTuples(Tuple tup1, Tuple tup2) {
+        return Tuple.merge(this.td, tup1, tup2);
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { this.child1, this.child2 };
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        if (children.length > 1) {
+            this.child1 = children[0];
+            this.child2 = children[1];
+            this.td = TupleDesc.merge(this.child1.getTupleDesc(), this.child2.getTupleDesc());
+        }
+    }
+
+}
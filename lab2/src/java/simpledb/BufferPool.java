@@ -4,6 +4,9 @@ import java.io.*;
 
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 /**
  * BufferPool manages the reading and writing of pages into memory from
@@ -28,13 +31,29 @@ public class BufferPool {
     public static final int DEFAULT_PAGES = 50;
 
     /**
-     * Creates a BufferPool that caches up to numPages pages.
+     * Creates a BufferPool that caches up to numPages pages, replacing pages
+     * with the scan resistant {@link TwoQueueEvictionPolicy}.
      *
      * @param numPages maximum number of pages in this buffer pool.
      */
     public BufferPool(int numPages) {
+        this(numPages, new TwoQueueEvictionPolicy(numPages));
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages and chooses
+     * victims with the given eviction policy.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param policy the eviction policy; must not be shared with another pool.
+     */
+    public BufferPool(int numPages, EvictionPolicy policy) {
         this.maxPages = numPages;
         this.pages = new ConcurrentHashMap<PageId, Page>();
+        this.policy = policy;
+        this.pinCounts = new HashMap<PageId, Integer>();
+        this.hits = 0;
+        this.misses = 0;
     }
     
     public static int getPageSize() {
@@ -56,6 +75,12 @@ public class BufferPool {
      * be added to the buffer pool and returned.  If there is insufficient
      * space in the buffer pool, an page should be evicted and the new page
      * should be added in its place.
+     * <p>
+     * The disk read of a missing page happens without holding the
+     * BufferPool monitor, so that concurrent scans overlap their reads. If
+     * another thread loads the page in the meantime, its copy is returned;
+     * if a page is flushed in the meantime, the read is repeated, since the
+     * copy read may predate the flush.
      *
      * @param tid the ID of the transaction requesting the page
      * @param pid the ID of the requested page
@@ -63,18 +88,418 @@ public class BufferPool {
      */
     public Page getPage(TransactionId tid, PageId pid, Permissions perm)
         throws TransactionAbortedException, DbException {
-        if (this.pages.containsKey(pid)) {
-            return this.pages.get(pid);
-        } else {
-            if (this.pages.size() >= this.maxPages) {
-                this.evictPage();
+        return this.getPage(tid, pid, perm, false);
+    }
+
+    /**
+     * Retrieves the specified page as {@link #getPage} does and pins it
+     * before returning it, under the BufferPool monitor, so that the page
+     * cannot be evicted between the two. The caller must release the pin
+     * with {@link #unpinPage}.
+     *
+     * @param tid the ID of the transaction requesting the page
+     * @param pid the ID of the requested page
+     * @param perm the requested permissions on the page
+     */
+    public Page getPinnedPage(TransactionId tid, PageId pid, Permissions perm)
+        throws TransactionAbortedException, DbException {
+        return this.getPage(tid, pid, perm, true);
+    }
+
+    private Page getPage(TransactionId tid, PageId pid, Permissions perm, boolean pin)
+        throws TransactionAbortedException, DbException {
+        boolean counted = false;
+        while (true) {
+            long epoch;
+            synchronized (this) {
+                Page cached = this.pages.get(pid);
+                if (cached != null) {
+                    if (!counted) {
+                        this.hits++;
+                    }
+                    this.policy.pageAccessed(pid);
+                    if (pin) {
+                        this.pinPage(pid);
+                    }
+                    return cached;
+                }
+                if (!counted) {
+                    this.misses++;
+                    counted = true;
+                }
+                epoch = this.flushEpoch;
             }
             // Check: possible exceptions, such as FileNotExist (when open) or IOException (when read) is caught by readPage
             Page page = Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid);
             // (Not explicitly creating HeapFile actually allowed us to use the interface DbFile)
+            synchronized (this) {
+                Page cached = this.pages.get(pid);
+                if (cached != null) {
+                    this.policy.pageAccessed(pid);
+                    if (pin) {
+                        this.pinPage(pid);
+                    }
+                    return cached;
+                }
+                if (epoch != this.flushEpoch) {
+                    continue;
+                }
+                if (this.pages.size() >= this.maxPages) {
+                    this.evictPage();
+                }
+                this.pages.put(pid, page);
+                this.policy.pageLoaded(pid);
+                if (pin) {
+                    this.pinPage(pid);
+                }
+                return page;
+            }
+        }
+    }
+
+    /**
+     * Pins the specified page, so that it will not be evicted until a
+     * matching call to {@link #unpinPage}. Pins nest; a page pinned twice
+     * must be unpinned twice. Callers that keep working on a page across
+     * further getPage calls (e.g. a scan iterating over the tuples of its
+     * current page) should get it with {@link #getPinnedPage} instead, since
+     * the page may be evicted between getPage and pinPage.
+     *
+     * @param pid the ID of the page to pin
+     */
+    public synchronized void pinPage(PageId pid) {
+        Integer count = this.pinCounts.get(pid);
+        this.pinCounts.put(pid, count == null ? 1 : count + 1);
+    }
+
+    /**
+     * Releases one pin on the specified page.
+     *
+     * @param pid the ID of the page to unpin
+     */
+    public synchronized void unpinPage(PageId pid) {
+        Integer count = this.pinCounts.get(pid);
+        if (count == null) {
+            return;
+        }
+        if (count <= 1) {
+            this.pinCounts.remove(pid);
+        } else {
+            this.pinCounts.put(pid, count - 1);
+        }
+    }
+
+    /** Return true if the specified page is pinned */
+    public synchronized boolean isPinned(PageId pid) {
+        return this.pinCounts.containsKey(pid);
+    }
+
+    /** Return true if the specified page is currently cached in the buffer pool */
+    public boolean isResident(PageId pid) {
+        return this.pages.containsKey(pid);
+    }
+
+    /** @return the maximum number of pages this buffer pool caches */
+    public int getMaxPages() {
+        return this.maxPages;
+    }
+
+    /**
+     * @return the number of tuples of the given schema that fit into the
+     *         pages of this buffer pool; memory-hungry operators use this as
+     *         their budget
+     */
+    public int getTupleCapacity(TupleDesc td) {
+        long bytes = (long) this.maxPages * getPageSize();
+        return (int) Math.max(1, Math.min(Integer.MAX_VALUE, bytes / td.getSize()));
+    }
+
+    /**
+     * Asynchronously loads the specified pages into the buffer pool on a
+     * background I/O thread, in list order. Used for read-ahead by
+     * sequential scans.
+     * <p>
+     * Prefetching is best effort: a page is skipped if it cannot be read, if
+     * the pool has no free frame, or if a page was flushed while it was being
+     * read (the read may then be stale). Read-ahead never evicts: a caller of
+     * getPage may be about to change the page it got without having marked
+     * it dirty yet, and evicting it would lose the change.
+     *
+     * @param pids the pages to load
+     */
+    public void prefetchPages(final List<PageId> pids) {
+        getIoExecutor().execute(new Runnable() {
+            public void run() {
+                for (PageId pid : pids) {
+                    if (!prefetchPage(pid)) {
+                        break;
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Loads the specified page into a free frame of the buffer pool if it is
+     * not already resident. The disk read happens without holding the BufferPool monitor,
+     * so concurrent getPage calls are not blocked by it.
+     *
+     * @return false if the page could not be loaded
+     */
+    boolean prefetchPage(PageId pid) {
+        long epoch;
+        synchronized (this) {
+            if (this.pages.containsKey(pid)) {
+                return true;
+            }
+            epoch = this.flushEpoch;
+        }
+
+        Page page;
+        try {
+            page = Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid);
+        } catch (IllegalArgumentException e) {
+            // the page does not exist (anymore)
+            return false;
+        } catch (NoSuchElementException e) {
+            // the table was removed from the catalog
+            return false;
+        }
+        if (page == null) {
+            return false;
+        }
+
+        synchronized (this) {
+            if (this.pages.containsKey(pid)) {
+                return true;
+            }
+            // a page flushed while we were reading may have been evicted
+            // right after, in which case our copy may predate the flush
+            if (epoch != this.flushEpoch || this.pages.size() >= this.maxPages) {
+                return false;
+            }
             this.pages.put(pid, page);
-            return page;
+            this.policy.pageLoaded(pid);
+            return true;
+        }
+    }
+
+    /** Returns the shared executor running background page reads. */
+    private static synchronized ExecutorService getIoExecutor() {
+        if (ioExecutor == null) {
+            ioExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "BufferPool-io");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        return ioExecutor;
+    }
+
+    /**
+     * Starts a background writer that keeps at least cleanFraction of the
+     * frames of this pool free or holding clean pages, so that eviction
+     * rarely has to write a victim. Every intervalMillis, or sooner when an
+     * eviction had to write, it cleans the dirty, unpinned pages of
+     * HeapFiles that the eviction policy would evict first. It forces the
+     * log as write ahead logging requires, writes the pages outside the pool
+     * monitor in page-number order per file, coalescing adjacent pages into
+     * a single write, and keeps them pinned until they are on disk. This
+     * also keeps the dirty page table that fuzzy checkpoints record short.
+     * An interval of 0 stops the writer.
+     *
+     * @param intervalMillis the time between rounds, or 0 to stop
+     * @param cleanFraction the fraction of frames to keep clean, in [0, 1]
+     * @see LogFile#logCheckpoint
+     */
+    public synchronized void setBackgroundWriter(long intervalMillis, double cleanFraction) {
+        if (intervalMillis < 0 || cleanFraction < 0 || cleanFraction > 1) {
+            throw new IllegalArgumentException("invalid background writer setting");
+        }
+        this.writerIntervalMillis = intervalMillis;
+        this.writerCleanFraction = cleanFraction;
+        if (intervalMillis == 0) {
+            this.writer = null;
+            this.notifyAll();
+        } else if (this.writer == null) {
+            this.writer = new Thread("BufferPool-writer") {
+                public void run() {
+                    writeBack();
+                }
+            };
+            this.writer.setDaemon(true);
+            this.writer.start();
+        }
+    }
+
+    /** Cleans pages in rounds until the writer is stopped. */
+    private void writeBack() {
+        Thread self = Thread.currentThread();
+        while (true) {
+            List<PageId> pids = new ArrayList<PageId>();
+            List<byte[]> data = new ArrayList<byte[]>();
+            List<Long> lsns = new ArrayList<Long>();
+            List<TransactionId> dirtiers = new ArrayList<TransactionId>();
+            synchronized (this) {
+                try {
+                    if (this.writer == self) {
+                        this.wait(this.writerIntervalMillis);
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (this.writer != self) {
+                    return;
+                }
+                try {
+                    this.collectDirtyPages(pids, data, lsns, dirtiers);
+                } catch (IOException exception) {
+                    exception.printStackTrace();
+                }
+                this.writesInFlight = !pids.isEmpty();
+            }
+            if (pids.isEmpty()) {
+                continue;
+            }
+            boolean written = false;
+            try {
+                this.writeCollected(pids, data, lsns);
+                written = true;
+            } catch (IOException exception) {
+                exception.printStackTrace();
+            } finally {
+                synchronized (this) {
+                    for (int i = 0; i < pids.size(); i++) {
+                        // the pages were marked clean when collected; a
+                        // failed write must not lose their changes
+                        Page page = this.pages.get(pids.get(i));
+                        if (!written && page != null && page.isDirty() == null) {
+                            page.markDirty(true, dirtiers.get(i));
+                        }
+                        this.unpinPage(pids.get(i));
+                    }
+                    this.writesInFlight = false;
+                    this.notifyAll();
+                }
+            }
+        }
+    }
+
+    /**
+     * Takes copies of the coldest dirty pages until cleanFraction of the
+     * frames are free or clean, marks the pages clean and pins them until
+     * the copies are written. The transactions that dirtied the pages are
+     * returned in dirtiers, to mark the pages dirty again if the write
+     * fails.
+     */
+    private synchronized void collectDirtyPages(List<PageId> pids, List<byte[]> data, List<Long> lsns,
+        List<TransactionId> dirtiers) throws IOException {
+        int target = (int) Math.ceil(this.writerCleanFraction * this.maxPages);
+        int clean = this.maxPages - this.pages.size();
+        for (Page page : this.pages.values()) {
+            if (page.isDirty() == null) {
+                clean++;
+            }
+        }
+        LogFile log = Database.getLogFile();
+        Iterator<PageId> candidates = this.policy.victims();
+        while (clean < target && candidates.hasNext()) {
+            PageId pid = candidates.next();
+            Page page = this.pages.get(pid);
+            if (page == null || page.isDirty() == null || this.pinCounts.containsKey(pid)) {
+                continue;
+            }
+            DbFile file;
+            try {
+                file = Database.getCatalog().getDatabaseFile(pid.getTableId());
+            } catch (NoSuchElementException e) {
+                continue;
+            }
+            if (!(file instanceof HeapFile) || file instanceof MappedHeapFile) {
+                continue;
+            }
+            lsns.add(log.getPageLsn(pid));
+            data.add(page.getPageData());
+            dirtiers.add(page.isDirty());
+            page.markDirty(false, null);
+            this.pinPage(pid);
+            pids.add(pid);
+            clean++;
+        }
+    }
+
+    /**
+     * Writes the copies taken by collectDirtyPages once the log is forced
+     * far enough, in page-number order per file, each run of adjacent pages
+     * with one write.
+     */
+    private void writeCollected(final List<PageId> pids, List<byte[]> data, List<Long> lsns)
+        throws IOException {
+        LogFile log = Database.getLogFile();
+        log.forceTo(Collections.max(lsns));
+
+        Integer[] order = new Integer[pids.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                PageId p = pids.get(a);
+                PageId q = pids.get(b);
+                if (p.getTableId() != q.getTableId()) {
+                    return p.getTableId() < q.getTableId() ? -1 : 1;
+                }
+                return p.pageNumber() - q.pageNumber();
+            }
+        });
+
+        int runStart = 0;
+        for (int i = 1; i <= order.length; i++) {
+            if (i < order.length) {
+                PageId prev = pids.get(order[i - 1]);
+                PageId next = pids.get(order[i]);
+                if (prev.getTableId() == next.getTableId() && prev.pageNumber() + 1 == next.pageNumber()) {
+                    continue;
+                }
+            }
+            List<byte[]> run = new ArrayList<byte[]>();
+            for (int k = runStart; k < i; k++) {
+                run.add(data.get(order[k]));
+            }
+            PageId first = pids.get(order[runStart]);
+            HeapFile file = (HeapFile) Database.getCatalog().getDatabaseFile(first.getTableId());
+            file.writePages(first.pageNumber(), run);
+            synchronized (this) {
+                this.backgroundWrites++;
+                this.backgroundPagesWritten += run.size();
+            }
+            runStart = i;
         }
+        for (int i = 0; i < pids.size(); i++) {
+            log.pageFlushed(pids.get(i), lsns.get(i));
+        }
+    }
+
+    /** @return the number of writes the background writer has issued */
+    synchronized long getBackgroundWriteCount() {
+        return this.backgroundWrites;
+    }
+
+    /** @return the number of pages the background writer has written */
+    synchronized long getBackgroundPagesWritten() {
+        return this.backgroundPagesWritten;
+    }
+
+    /** @return the number of getPage calls served from the buffer pool */
+    public synchronized long getHitCount() {
+        return this.hits;
+    }
+
+    /** @return the number of getPage calls that had to read from disk */
+    public synchronized long getMissCount() {
+        return this.misses;
     }
 
     /**
@@ -130,6 +555,7 @@ public class BufferPool {
      * Marks any pages that were dirtied by the operation as dirty by calling
      * their markDirty bit, and updates cached versions of any pages that have 
      * been dirtied so that future requests see up-to-date pages. 
+     * The new tuple is also added to the table's indexes.
      *
      * @param tid the transaction adding the tuple
      * @param tableId the table to add the tuple to
@@ -139,6 +565,10 @@ public class BufferPool {
         throws DbException, IOException, TransactionAbortedException {
         // Similar with getPage, relies on the insertTuple method of the table's associated file object
         Database.getCatalog().getDatabaseFile(tableId).insertTuple(tid, t);
+        for (Catalog.Index index : Database.getCatalog().getIndexes(tableId)) {
+            DbFile file = index.getFile();
+            file.insertTuple(tid, BTreeFile.indexEntry(file.getTupleDesc(), t, index.getField()));
+        }
     }
 
     /**
@@ -149,6 +579,7 @@ public class BufferPool {
      * Marks any pages that were dirtied by the operation as dirty by calling
      * their markDirty bit, and updates cached versions of any pages that have 
      * been dirtied so that future requests see up-to-date pages. 
+     * The tuple's entries are removed from the table's indexes.
      *
      * @param tid the transaction deleting the tuple.
      * @param t the tuple to delete
@@ -156,6 +587,11 @@ public class BufferPool {
     public  void deleteTuple(TransactionId tid, Tuple t)
         throws DbException, IOException, TransactionAbortedException {
         int tableId = t.getRecordId().getPageId().getTableId();
+        // the entries point at t's RecordId, which the delete clears
+        for (Catalog.Index index : Database.getCatalog().getIndexes(tableId)) {
+            DbFile file = index.getFile();
+            file.deleteTuple(tid, BTreeFile.indexEntry(file.getTupleDesc(), t, index.getField()));
+        }
         // Similar with getPage, relies on the deleteTuple method of the table's associated file object
         Database.getCatalog().getDatabaseFile(tableId).deleteTuple(tid, t);
     }
@@ -166,6 +602,8 @@ public class BufferPool {
      *     break simpledb if running in NO STEAL mode.
      */
     public synchronized void flushAllPages() throws IOException {
+        // pages the background writer is writing are already marked clean
+        this.awaitWritesInFlight();
         for (ConcurrentHashMap.Entry<PageId, Page> entry : this.pages.entrySet()) {
             this.flushPage(entry.getKey());
         }
@@ -174,22 +612,54 @@ public class BufferPool {
     /** Remove the specific page id from the buffer pool.
         Needed by the recovery manager to ensure that the
         buffer pool doesn't keep a rolled back page in its
-        cache.
+        cache.  Waits for the background writer to finish its
+        writes first, so that it cannot overwrite a page the caller
+        wrote with an older copy.
     */
     public synchronized void discardPage(PageId pid) {
-        // some code goes here
-        // only necessary for lab5
+        this.awaitWritesInFlight();
+        if (this.pages.remove(pid) != null) {
+            this.policy.pageRemoved(pid);
+        }
+    }
+
+    /**
+     * Waits until the background writer has written the copies it took.
+     * No new writes start while the caller holds the pool monitor, but the
+     * writer needs the LogFile monitor to finish its writes, so callers
+     * must not hold it.
+     */
+    synchronized void awaitWritesInFlight() {
+        boolean interrupted = false;
+        while (this.writesInFlight) {
+            try {
+                this.wait();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
     }
 
     /**
-     * Flushes a certain page to disk
+     * Flushes a certain page to disk, after forcing the log records for it,
+     * and marks it clean.
      * @param pid an ID indicating the page to flush
      */
     private synchronized void flushPage(PageId pid) throws IOException {
         // Similar with getPage, relies on the writePage method of the table's associated file object
-        if (this.pages.containsKey(pid) && this.pages.get(pid).isDirty() != null) {
+        Page page = this.pages.get(pid);
+        if (page != null && page.isDirty() != null) {
             int tableId = pid.getTableId();
-            Database.getCatalog().getDatabaseFile(tableId).writePage(this.pages.get(pid));
+            LogFile log = Database.getLogFile();
+            long lsn = log.getPageLsn(pid);
+            log.forceTo(lsn);
+            this.flushEpoch++;
+            Database.getCatalog().getDatabaseFile(tableId).writePage(page);
+            page.markDirty(false, null);
+            log.pageFlushed(pid, lsn);
         }
     }
 
@@ -203,24 +673,50 @@ public class BufferPool {
     /**
      * Discards a page from the buffer pool.
      * Flushes the page to disk to ensure dirty pages are updated on disk.
+     * The victim is the first unpinned page proposed by the eviction policy.
      */
     private synchronized void evictPage() throws DbException {
         if (this.pages.size() == 0)
             throw new DbException("BufferPool empty");
 
-        // Here we use a random eviction, since eviction mechanism does not matter
-        Random random = new Random();
-        List<PageId> keys = new ArrayList<PageId>(this.pages.keySet());
-        PageId randomKey = keys.get(random.nextInt(keys.size()));
-        
+        PageId victim = null;
+        Iterator<PageId> candidates = this.policy.victims();
+        while (candidates.hasNext()) {
+            PageId candidate = candidates.next();
+            if (!this.pinCounts.containsKey(candidate)) {
+                victim = candidate;
+                break;
+            }
+        }
+        if (victim == null)
+            throw new DbException("All pages in BufferPool are pinned");
+
+        if (this.writer != null && this.pages.get(victim).isDirty() != null) {
+            // the background writer fell behind
+            this.notifyAll();
+        }
         try {
-            flushPage(randomKey);
+            flushPage(victim);
         } catch (IOException exception) {
             exception.printStackTrace();
         }
-        this.pages.remove(randomKey);
+        this.pages.remove(victim);
+        this.policy.pageRemoved(victim);
     }
 
     private int maxPages;
     private ConcurrentHashMap<PageId, Page> pages;
+    private final EvictionPolicy policy;
+    private final HashMap<PageId, Integer> pinCounts;
+    private long hits;
+    private long misses;
+    private long flushEpoch = 0;
+    private Thread writer = null;
+    private long writerIntervalMillis;
+    private double writerCleanFraction;
+    // true while the background writer writes pages it marked clean
+    private boolean writesInFlight = false;
+    private long backgroundWrites;
+    private long backgroundPagesWritten;
+    private static ExecutorService ioExecutor = null;
 }
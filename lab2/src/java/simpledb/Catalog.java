@@ -6,6 +6,7 @@ import java.io.FileReader;
 import java.io.IOException;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * The Catalog keeps track of all available tables in the database and their
@@ -51,6 +52,29 @@ public class Catalog {
         }
     }
 
+    /**
+     * Index class that keeps the file of an index and the field of the table
+     * it indexes. The entries of all kinds of index are described by
+     * {@link BTreeFile#indexTupleDesc}.
+     */
+    public static class Index {
+        private final int field;
+        private final DbFile file;
+
+        public Index(int field, DbFile file) {
+            this.field = field;
+            this.file = file;
+        }
+
+        public int getField() {
+            return this.field;
+        }
+
+        public DbFile getFile() {
+            return this.file;
+        }
+    }
+
     /**
      * Constructor.
      * Creates a new, empty catalog.
@@ -58,6 +82,7 @@ public class Catalog {
     public Catalog() {
         tables = new ConcurrentHashMap<Integer, Table>();
         tableNameIdMapping = new ConcurrentHashMap<String, Integer>();
+        indexes = new ConcurrentHashMap<Integer, List<Index>>();
     }
 
     /**
@@ -152,6 +177,82 @@ public class Catalog {
         }
     }
 
+    /**
+     * Records a B+ tree index over a field of a table, replacing any B+ tree
+     * index previously recorded for that field. The index file is added to
+     * the catalog as a table of its own, so its pages can be read through
+     * the BufferPool.
+     * @param tableid the id of the indexed table
+     * @param field the indexed field of the table
+     * @param index the index; its entries are described by
+     *     {@link BTreeFile#indexTupleDesc}
+     * @throws NoSuchElementException if the table doesn't exist
+     */
+    public void addIndex(int tableid, int field, BTreeFile index) throws NoSuchElementException {
+        addIndexFile(tableid, field, index, "btree");
+    }
+
+    /**
+     * Records a hash index over a field of a table, replacing any hash index
+     * previously recorded for that field.
+     * @see #addIndex(int, int, BTreeFile)
+     */
+    public void addIndex(int tableid, int field, HashIndexFile index) throws NoSuchElementException {
+        addIndexFile(tableid, field, index, "hash");
+    }
+
+    private synchronized void addIndexFile(int tableid, int field, DbFile file, String kind) {
+        addTable(file, kind + "_" + this.getTableName(tableid) + "_" + field);
+        List<Index> tableIndexes = this.indexes.get(tableid);
+        if (tableIndexes == null) {
+            tableIndexes = new CopyOnWriteArrayList<Index>();
+            this.indexes.put(tableid, tableIndexes);
+        }
+        for (Index index : tableIndexes) {
+            if (index.getField() == field && index.getFile().getClass() == file.getClass()) {
+                tableIndexes.remove(index);
+            }
+        }
+        tableIndexes.add(new Index(field, file));
+    }
+
+    /**
+     * Returns the B+ tree index over a field of a table, or null if there is
+     * none.
+     */
+    public BTreeFile getIndex(int tableid, int field) {
+        return (BTreeFile) this.findIndex(tableid, field, BTreeFile.class);
+    }
+
+    /**
+     * Returns the hash index over a field of a table, or null if there is
+     * none.
+     */
+    public HashIndexFile getHashIndex(int tableid, int field) {
+        return (HashIndexFile) this.findIndex(tableid, field, HashIndexFile.class);
+    }
+
+    private DbFile findIndex(int tableid, int field, Class<? extends DbFile> kind) {
+        for (Index index : this.getIndexes(tableid)) {
+            if (index.getField() == field && kind.isInstance(index.getFile())) {
+                return index.getFile();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the indexes of a table, of all kinds; empty if the table has
+     * none.
+     */
+    public List<Index> getIndexes(int tableid) {
+        List<Index> tableIndexes = this.indexes.get(tableid);
+        if (tableIndexes == null) {
+            return Collections.emptyList();
+        }
+        return Collections.unmodifiableList(tableIndexes);
+    }
+
     public Iterator<Integer> tableIdIterator() {
         return this.tables.keySet().iterator();
     }
@@ -161,6 +262,7 @@ public class Catalog {
         // Clear merely reinstantiates the mappings
         this.tables = new ConcurrentHashMap<Integer, Table>();
         this.tableNameIdMapping = new ConcurrentHashMap<String, Integer>();
+        this.indexes = new ConcurrentHashMap<Integer, List<Index>>();
     }
     
     /**
@@ -221,5 +323,7 @@ public class Catalog {
     private ConcurrentHashMap<Integer, Table> tables;
     // we have this mapping since table names are unique, and we want to refer to a table by both its name or its ID
     private ConcurrentHashMap<String, Integer> tableNameIdMapping;
+    // the indexes of each table, by table id
+    private ConcurrentHashMap<Integer, List<Index>> indexes;
 }
 
@@ -0,0 +1,127 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * ColumnFile is a DbFile that stores its tuples on {@link ColumnPage}s, i.e.
+ * in PAX layout: each page holds the same slots as a HeapPage would, but
+ * grouped column by column. It is meant for wide tables that are mostly
+ * scanned for a few of their columns; {@link ColumnScan} decodes only the
+ * columns a query uses.
+ * <p>
+ * Page I/O, page counting and the free space map are those of
+ * {@link HeapFile}; only the page format differs. Files are produced by
+ * {@link ColumnFileEncoder}.
+ *
+ * @see ColumnPage
+ * @see ColumnScan
+ */
+public class ColumnFile extends HeapFile {
+
+    /**
+     * Constructs a column file backed by the specified file.
+     *
+     * @param f
+     *            the file that stores the on-disk backing store for this
+     *            file, in the format written by {@link ColumnFileEncoder}.
+     * @param td
+     *            the schema of the table stored in f.
+     */
+    public ColumnFile(File f, TupleDesc td) {
+        super(f, td);
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        try {
+            return new ColumnPage((HeapPageId) pid, this.readPageData(pid));
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    /** Zone maps describe HeapPages only; this file keeps none. */
+    public ZoneMap getZoneMap() {
+        return null;
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        ArrayList<Page> modifiedPages = new ArrayList<Page>();
+        FreeSpaceMap freeSpaceMap = this.getFreeSpaceMap();
+        int pageNo;
+        while ((pageNo = freeSpaceMap.nextCandidate(this.numPages())) >= 0) {
+            PageId pageId = new HeapPageId(this.getId(), pageNo);
+            ColumnPage page = (ColumnPage) Database.getBufferPool().getPage(tid, pageId, Permissions.READ_WRITE);
+            if (page.getNumEmptySlots() > 0) {
+                page.insertTuple(t);
+                page.markDirty(true, tid);
+                modifiedPages.add(page);
+                return modifiedPages;
+            }
+            freeSpaceMap.update(pageNo, false);
+        }
+        HeapPageId pageId = new HeapPageId(this.getId(), this.numPages());
+        ColumnPage newPage = new ColumnPage(pageId, ColumnPage.createEmptyPageData());
+        newPage.insertTuple(t);
+        newPage.markDirty(true, tid);
+        modifiedPages.add(newPage);
+        this.writePage(newPage);
+        freeSpaceMap.pageAppended(pageId.pageNumber(), newPage.getNumEmptySlots() > 0);
+        return modifiedPages;
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t) throws DbException,
+            TransactionAbortedException {
+        ArrayList<Page> modifiedPages = new ArrayList<Page>();
+        ColumnPage page = (ColumnPage) Database.getBufferPool().getPage(tid, t.getRecordId().getPageId(),
+                Permissions.READ_WRITE);
+        page.deleteTuple(t);
+        page.markDirty(true, tid);
+        modifiedPages.add(page);
+        return modifiedPages;
+    }
+
+    // see DbFile.java for javadocs
+    public DbFileIterator iterator(final TransactionId tid) {
+        return new AbstractDbFileIterator() {
+            private int pageNo;
+            private Iterator<Tuple> tuples;
+
+            public void open() throws DbException, TransactionAbortedException {
+                this.pageNo = 0;
+                this.tuples = Collections.<Tuple>emptyList().iterator();
+            }
+
+            protected Tuple readNext() throws DbException, TransactionAbortedException {
+                if (this.tuples == null) {
+                    return null;
+                }
+                while (!this.tuples.hasNext()) {
+                    if (this.pageNo >= ColumnFile.this.numPages()) {
+                        return null;
+                    }
+                    HeapPageId pid = new HeapPageId(ColumnFile.this.getId(), this.pageNo++);
+                    ColumnPage page = (ColumnPage) Database.getBufferPool().getPage(tid, pid,
+                            Permissions.READ_ONLY);
+                    this.tuples = page.iterator();
+                }
+                return this.tuples.next();
+            }
+
+            public void rewind() throws DbException, TransactionAbortedException {
+                this.close();
+                this.open();
+            }
+
+            public void close() {
+                super.close();
+                this.tuples = null;
+            }
+        };
+    }
+}
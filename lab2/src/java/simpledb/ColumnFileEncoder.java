@@ -0,0 +1,113 @@
+package simpledb;
+
+import java.io.*;
+import java.util.ArrayList;
+
+/**
+ * ColumnFileEncoder converts the same inputs as {@link HeapFileEncoder} into
+ * the PAX page format of {@link ColumnFile}. The input is first encoded as
+ * heap pages; since a ColumnPage holds the same slots as a HeapPage, each
+ * heap page is then rearranged column by column without re-parsing any
+ * values.
+ *
+ * @see ColumnPage
+ * @see HeapFileEncoder
+ */
+public class ColumnFileEncoder {
+
+  /** Convert the specified tuple list (with only integer fields) into a
+   * column page file.
+   *
+   * @see HeapFileEncoder#convert(ArrayList, File, int, int)
+   */
+  public static void convert(ArrayList<ArrayList<Integer>> tuples, File outFile, int npagebytes, int numFields) throws IOException {
+      File tempHeap = File.createTempFile("tempTable", ".dat");
+      tempHeap.deleteOnExit();
+      HeapFileEncoder.convert(tuples, tempHeap, npagebytes, numFields);
+      transpose(tempHeap, outFile, npagebytes, intTypes(numFields));
+      tempHeap.delete();
+  }
+
+  public static void convert(File inFile, File outFile, int npagebytes,
+                 int numFields) throws IOException {
+      convert(inFile, outFile, npagebytes, numFields, intTypes(numFields));
+  }
+
+  public static void convert(File inFile, File outFile, int npagebytes,
+                 int numFields, Type[] typeAr) throws IOException {
+      convert(inFile, outFile, npagebytes, numFields, typeAr, ',');
+  }
+
+  /** Convert the specified input text file into a column page file. The
+   * input format is the one accepted by HeapFileEncoder.
+   *
+   * @see HeapFileEncoder#convert(File, File, int, int, Type[], char)
+   * @throws IOException if the input/output file can't be opened or a
+   *   malformed input line is encountered
+   */
+  public static void convert(File inFile, File outFile, int npagebytes,
+                 int numFields, Type[] typeAr, char fieldSeparator) throws IOException {
+      File tempHeap = File.createTempFile("tempTable", ".dat");
+      tempHeap.deleteOnExit();
+      HeapFileEncoder.convert(inFile, tempHeap, npagebytes, numFields, typeAr, fieldSeparator);
+      transpose(tempHeap, outFile, npagebytes, typeAr);
+      tempHeap.delete();
+  }
+
+  /** Rewrites a file of heap pages, e.g. an existing HeapFile, as a file of
+   * column pages holding the same tuples in the same slots.
+   *
+   * @param heapFile the file in HeapPage format to read
+   * @param outFile The output file to write data to
+   * @param npagebytes The number of bytes per page in both files
+   * @param typeAr the types of the fields of the table
+   * @throws IOException if a file can't be read or written
+   */
+  public static void transpose(File heapFile, File outFile, int npagebytes, Type[] typeAr) throws IOException {
+      int nrecbytes = 0;
+      int[] fieldOffsets = new int[typeAr.length];
+      for (int j = 0; j < typeAr.length; j++) {
+          fieldOffsets[j] = nrecbytes;
+          nrecbytes += typeAr[j].getLen();
+      }
+      int nrecords = (npagebytes * 8) / (nrecbytes * 8 + 1);  //floor comes for free
+      int nheaderbytes = (nrecords + 7) / 8;
+
+      DataInputStream is = new DataInputStream(new BufferedInputStream(new FileInputStream(heapFile)));
+      OutputStream os = new BufferedOutputStream(new FileOutputStream(outFile));
+      byte[] in = new byte[npagebytes];
+      byte[] out = new byte[npagebytes];
+      try {
+          long npages = heapFile.length() / npagebytes;
+          for (long p = 0; p < npages; p++) {
+              is.readFully(in);
+              // the header is the same in both formats
+              System.arraycopy(in, 0, out, 0, nheaderbytes);
+              int pos = nheaderbytes;
+              for (int j = 0; j < typeAr.length; j++) {
+                  int len = typeAr[j].getLen();
+                  for (int i = 0; i < nrecords; i++) {
+                      System.arraycopy(in, nheaderbytes + i * nrecbytes + fieldOffsets[j], out, pos, len);
+                      pos += len;
+                  }
+              }
+              // padding
+              for (int i = pos; i < npagebytes; i++) {
+                  out[i] = 0;
+              }
+              os.write(out);
+          }
+      } finally {
+          is.close();
+          os.close();
+      }
+  }
+
+  private static Type[] intTypes(int numFields) {
+      Type[] ts = new Type[numFields];
+      for (int i = 0; i < ts.length; i++) {
+          ts[i] = Type.INT_TYPE;
+      }
+      return ts;
+  }
+}
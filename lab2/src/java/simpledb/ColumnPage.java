@@ -0,0 +1,360 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * ColumnPage stores one page of a {@link ColumnFile} in PAX layout: the page
+ * holds the same set of slots as a {@link HeapPage} of the same schema, but
+ * the values are grouped by column instead of by row.
+ * <p>
+ * The format is a header bitmap of used slots, identical to HeapPage's,
+ * followed by one contiguous region per field. The region of field j holds
+ * the values of field j for all slots, in slot order, each in the field's
+ * serialized form; it starts at
+ * <p>
+ *      header size + number of slots * (sum of the sizes of fields 0..j-1)
+ * <p>
+ * Columns are decoded lazily, the first time they are asked for, into an
+ * int[] or String[] indexed by slot. A scan that needs only some of the
+ * columns never decodes the others.
+ *
+ * @see ColumnFile
+ * @see HeapPage
+ */
+public class ColumnPage implements Page {
+
+    /**
+     * Create a ColumnPage from a set of bytes of data read from disk.
+     *
+     * @see #ColumnPage
+     * @see BufferPool#getPageSize()
+     */
+    public ColumnPage(HeapPageId id, byte[] data) throws IOException {
+        this.pid = id;
+        this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        this.numSlots = numSlots(this.td);
+        // the copy doubles as the before image, so callers may reuse data
+        this.data = data.clone();
+        this.header = Arrays.copyOf(this.data, headerSize(this.numSlots));
+        this.columns = new Object[this.td.numFields()];
+        this.oldData = null;
+        this.dirty = false;
+        this.dirtyTid = null;
+    }
+
+    /**
+     * @return the number of slots on a page of the given schema; the same
+     *         as for a HeapPage, so both formats hold the same tuples per page
+     */
+    static int numSlots(TupleDesc td) {
+        return (BufferPool.getPageSize() * 8) / (td.getSize() * 8 + 1);
+    }
+
+    /** @return the number of header bytes of a page with the given slots */
+    static int headerSize(int numSlots) {
+        return (numSlots + 7) / 8;
+    }
+
+    /** @return the byte offset of the region of field j on a page */
+    static int columnOffset(TupleDesc td, int numSlots, int j) {
+        int offset = headerSize(numSlots);
+        for (int i = 0; i < j; i++) {
+            offset += numSlots * td.getFieldType(i).getLen();
+        }
+        return offset;
+    }
+
+    /**
+     * @return the PageId associated with this page.
+     */
+    public HeapPageId getId() {
+        return this.pid;
+    }
+
+    /** @return the number of slots on this page, used or not */
+    public int getNumSlots() {
+        return this.numSlots;
+    }
+
+    /**
+     * Returns the values of INT_TYPE field j of every slot, decoding the
+     * column if it has not been used before. Entries of empty slots are
+     * undefined. The array belongs to the page and must not be modified.
+     */
+    public int[] getIntColumn(int j) {
+        return (int[]) this.column(j);
+    }
+
+    /**
+     * Returns the values of STRING_TYPE field j of every slot.
+     *
+     * @see #getIntColumn
+     */
+    public String[] getStringColumn(int j) {
+        return (String[]) this.column(j);
+    }
+
+    private synchronized Object column(int j) {
+        if (this.columns[j] == null) {
+            this.columns[j] = this.decodeColumn(j);
+        }
+        return this.columns[j];
+    }
+
+    private Object decodeColumn(int j) {
+        ByteBuffer buffer = ByteBuffer.wrap(this.data);
+        int offset = columnOffset(this.td, this.numSlots, j);
+        if (this.td.getFieldType(j) == Type.INT_TYPE) {
+            int[] values = new int[this.numSlots];
+            for (int i = 0; i < this.numSlots; i++) {
+                values[i] = buffer.getInt(offset + i * 4);
+            }
+            return values;
+        }
+        int len = Type.STRING_TYPE.getLen();
+        String[] values = new String[this.numSlots];
+        for (int i = 0; i < this.numSlots; i++) {
+            if (this.isSlotUsed(i)) {
+                int start = offset + i * len;
+                int strLen = Math.max(0, Math.min(buffer.getInt(start), Type.STRING_LEN));
+                values[i] = new String(this.data, start + 4, strLen);
+            }
+        }
+        return values;
+    }
+
+    /** @return the tuple in slot i, with all of its fields */
+    public Tuple getTuple(int i) {
+        if (!this.isSlotUsed(i)) {
+            throw new NoSuchElementException("slot " + i + " is empty");
+        }
+        Tuple t = new Tuple(this.td);
+        for (int j = 0; j < this.columns.length; j++) {
+            Object column = this.column(j);
+            if (column instanceof int[]) {
+                t.setInt(j, ((int[]) column)[i]);
+            } else {
+                t.setString(j, ((String[]) column)[i]);
+            }
+        }
+        t.setRecordId(new RecordId(this.pid, i));
+        return t;
+    }
+
+    /** Return a view of this page before it was modified
+        -- used by recovery */
+    public ColumnPage getBeforeImage() {
+        try {
+            byte[] oldDataRef;
+            synchronized (this.oldDataLock) {
+                oldDataRef = this.oldData != null ? this.oldData : this.data;
+            }
+            return new ColumnPage(this.pid, oldDataRef);
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    public void setBeforeImage() {
+        synchronized (this.oldDataLock) {
+            this.oldData = this.getPageData();
+        }
+    }
+
+    /**
+     * Generates a byte array representing the contents of this page. Empty
+     * slots are written as zeroes.
+     *
+     * @see #ColumnPage
+     */
+    public byte[] getPageData() {
+        ByteBuffer buffer = ByteBuffer.allocate(BufferPool.getPageSize());
+        buffer.put(this.header);
+        for (int j = 0; j < this.columns.length; j++) {
+            Object column = this.column(j);
+            int offset = columnOffset(this.td, this.numSlots, j);
+            int len = this.td.getFieldType(j).getLen();
+            for (int i = 0; i < this.numSlots; i++) {
+                if (!this.isSlotUsed(i)) {
+                    continue;
+                }
+                buffer.position(offset + i * len);
+                if (column instanceof int[]) {
+                    buffer.putInt(((int[]) column)[i]);
+                } else {
+                    byte[] s = ((String[]) column)[i].getBytes();
+                    int strLen = Math.min(s.length, Type.STRING_LEN);
+                    buffer.putInt(strLen);
+                    buffer.put(s, 0, strLen);
+                }
+            }
+        }
+        return buffer.array();
+    }
+
+    /**
+     * Static method to generate a byte array corresponding to an empty
+     * ColumnPage.
+     *
+     * @return The returned ByteArray.
+     */
+    public static byte[] createEmptyPageData() {
+        return new byte[BufferPool.getPageSize()]; //all 0
+    }
+
+    /**
+     * Delete the specified tuple from the page; the tuple should be updated
+     * to reflect that it is no longer stored on any page.
+     *
+     * @throws DbException if this tuple is not on this page, or tuple slot is
+     *         already empty.
+     */
+    public void deleteTuple(Tuple t) throws DbException {
+        RecordId rid = t.getRecordId();
+        if (rid != null && rid.getPageId().equals(this.pid) && this.isSlotUsed(rid.tupleno())) {
+            this.markSlotUsed(rid.tupleno(), false);
+            t.setRecordId(null);
+            this.updateFreeSpaceMap();
+        } else {
+            throw new DbException("The tuple to be deleted is not on this page, or is already empty.");
+        }
+    }
+
+    /**
+     * Adds the specified tuple to the page; the tuple should be updated to
+     * reflect that it is now stored on this page.
+     *
+     * @throws DbException if the page is full (no empty slots) or tupledesc
+     *         is mismatch.
+     */
+    public void insertTuple(Tuple t) throws DbException {
+        if (!t.getTupleDesc().equals(this.td)) {
+            throw new DbException("TupleDesc does not match");
+        }
+        for (int i = 0; i < this.numSlots; i++) {
+            if (!this.isSlotUsed(i)) {
+                for (int j = 0; j < this.columns.length; j++) {
+                    Object column = this.column(j);
+                    if (column instanceof int[]) {
+                        ((int[]) column)[i] = t.getInt(j);
+                    } else {
+                        ((String[]) column)[i] = t.getString(j);
+                    }
+                }
+                this.markSlotUsed(i, true);
+                t.setRecordId(new RecordId(this.pid, i));
+                this.updateFreeSpaceMap();
+                return;
+            }
+        }
+        throw new DbException("Page is full");
+    }
+
+    /**
+     * Reports this page's free space to the free space map of the file it
+     * belongs to, if that file is registered in the catalog.
+     */
+    private void updateFreeSpaceMap() {
+        DbFile file;
+        try {
+            file = Database.getCatalog().getDatabaseFile(this.pid.getTableId());
+        } catch (NoSuchElementException e) {
+            return;
+        }
+        if (file instanceof HeapFile) {
+            ((HeapFile) file).getFreeSpaceMap().update(this.pid.pageNumber(), this.getNumEmptySlots() > 0);
+        }
+    }
+
+    /**
+     * Marks this page as dirty/not dirty and record that transaction
+     * that did the dirtying
+     */
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.dirty = dirty;
+        this.dirtyTid = tid;
+    }
+
+    /**
+     * Returns the tid of the transaction that last dirtied this page, or null if the page is not dirty
+     */
+    public TransactionId isDirty() {
+        return this.dirty ? this.dirtyTid : null;
+    }
+
+    /**
+     * Returns the number of empty slots on this page.
+     */
+    public int getNumEmptySlots() {
+        return this.numSlots - BitSet.valueOf(this.header).cardinality();
+    }
+
+    /**
+     * Returns true if associated slot on this page is filled.
+     */
+    public boolean isSlotUsed(int i) {
+        return ((this.header[i / 8] >> (i % 8)) & 1) == 1;
+    }
+
+    private void markSlotUsed(int i, boolean value) {
+        if (value) {
+            this.header[i / 8] = (byte) (this.header[i / 8] | (1 << (i % 8)));
+        } else {
+            this.header[i / 8] = (byte) (this.header[i / 8] & ~(1 << (i % 8)));
+        }
+    }
+
+    /**
+     * @return an iterator over all tuples on this page (calling remove on
+     *         this iterator throws an UnsupportedOperationException)
+     */
+    public Iterator<Tuple> iterator() {
+        return new Iterator<Tuple>() {
+            private int slot = this.advance(0);
+
+            private int advance(int from) {
+                while (from < ColumnPage.this.numSlots && !ColumnPage.this.isSlotUsed(from)) {
+                    from++;
+                }
+                return from;
+            }
+
+            public boolean hasNext() {
+                return this.slot < ColumnPage.this.numSlots;
+            }
+
+            public Tuple next() {
+                if (!this.hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                Tuple t = ColumnPage.this.getTuple(this.slot);
+                this.slot = this.advance(this.slot + 1);
+                return t;
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    private final HeapPageId pid;
+    private final TupleDesc td;
+    private final int numSlots;
+    private final byte[] header;
+
+    // the page as read; columns are decoded from it on first use
+    private final byte[] data;
+    private final Object[] columns;
+
+    private boolean dirty;
+    private TransactionId dirtyTid;
+
+    private byte[] oldData;
+    private final Object oldDataLock = new Object();
+}
@@ -0,0 +1,220 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * ColumnScan is a sequential scan over a {@link ColumnFile} that returns
+ * only some of the table's fields. It decodes only the columns it returns,
+ * plus the column of an optional predicate, and copies them into batches
+ * straight from the pages' column arrays.
+ * <p>
+ * The predicate refers to a field of the table, not of the output, so a
+ * scan can filter on a column it does not return. It is evaluated on the
+ * page's column before any of the returned fields are read.
+ */
+public class ColumnScan implements BatchIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Creates a scan over the given fields of the specified table.
+     *
+     * @param tid
+     *            The transaction this scan is running as a part of.
+     * @param tableid
+     *            the table to scan; must be stored in a ColumnFile.
+     * @param tableAlias
+     *            the alias of this table
+     * @param fields
+     *            the fields of the table to return, in output order
+     */
+    public ColumnScan(TransactionId tid, int tableid, String tableAlias, int[] fields) {
+        this(tid, tableid, tableAlias, fields, null);
+    }
+
+    /**
+     * Creates a scan over the given fields of the rows of the specified table
+     * that satisfy a predicate.
+     *
+     * @param predicate
+     *            a predicate on a field of the table, or null to return all
+     *            rows
+     * @see #ColumnScan(TransactionId, int, String, int[])
+     */
+    public ColumnScan(TransactionId tid, int tableid, String tableAlias, int[] fields, Predicate predicate) {
+        DbFile file = Database.getCatalog().getDatabaseFile(tableid);
+        if (!(file instanceof ColumnFile)) {
+            throw new IllegalArgumentException("table " + tableid + " is not a ColumnFile");
+        }
+        this.transactionId = tid;
+        this.file = (ColumnFile) file;
+        this.tableAlias = tableAlias;
+        this.fields = fields.clone();
+        this.predicate = predicate;
+
+        TupleDesc tableTd = file.getTupleDesc();
+        Type[] types = new Type[fields.length];
+        String[] names = new String[fields.length];
+        for (int i = 0; i < fields.length; i++) {
+            types[i] = tableTd.getFieldType(fields[i]);
+            names[i] = tableTd.getFieldName(fields[i]);
+        }
+        this.td = new TupleDesc(types, names);
+    }
+
+    /** @return the alias of the table this operator scans. */
+    public String getAlias() {
+        return this.tableAlias;
+    }
+
+    /** @return the fields of the table this scan returns */
+    public int[] getFields() {
+        return this.fields.clone();
+    }
+
+    /**
+     * Returns the projected TupleDesc, with the field names of the
+     * underlying table.
+     */
+    public TupleDesc getTupleDesc() {
+        return this.td;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        this.pageNo = 0;
+        this.page = null;
+        this.slot = 0;
+        this.current = null;
+        this.row = 0;
+        this.open = true;
+    }
+
+    public boolean hasNext() throws DbException, TransactionAbortedException {
+        if (!this.open) {
+            throw new IllegalStateException("ColumnScan not yet open");
+        }
+        if (this.current == null || this.row >= this.current.size()) {
+            this.current = this.nextBatch();
+            this.row = 0;
+        }
+        return this.current != null;
+    }
+
+    public Tuple next() throws DbException, TransactionAbortedException,
+            NoSuchElementException {
+        if (!this.hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return this.current.getTuple(this.row++);
+    }
+
+    /**
+     * Fills the next batch from the current page's columns, moving on to the
+     * following pages as needed.
+     *
+     * @see BatchIterator#nextBatch
+     */
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (!this.open) {
+            throw new IllegalStateException("ColumnScan not yet open");
+        }
+        if (this.batch == null) {
+            this.batch = new TupleBatch(this.td);
+        }
+        TupleBatch out = this.batch;
+        int n = 0;
+        while (n < out.capacity()) {
+            if (this.page == null || this.slot >= this.page.getNumSlots()) {
+                if (this.pageNo >= this.file.numPages()) {
+                    break;
+                }
+                this.loadPage(this.pageNo++);
+                continue;
+            }
+            int i = this.slot++;
+            if (!this.page.isSlotUsed(i) || !this.matches(i)) {
+                continue;
+            }
+            for (int k = 0; k < this.columns.length; k++) {
+                if (this.columns[k] instanceof int[]) {
+                    out.getIntColumn(k)[n] = ((int[]) this.columns[k])[i];
+                } else {
+                    out.getStringColumn(k)[n] = ((String[]) this.columns[k])[i];
+                }
+            }
+            out.setRecordId(n, new RecordId(this.page.getId(), i));
+            n++;
+        }
+        out.setSize(n);
+        return n == 0 ? null : out;
+    }
+
+    private void loadPage(int pageNo) throws DbException, TransactionAbortedException {
+        HeapPageId pid = new HeapPageId(this.file.getId(), pageNo);
+        this.page = (ColumnPage) Database.getBufferPool().getPage(this.transactionId, pid, Permissions.READ_ONLY);
+        this.slot = 0;
+        this.columns = new Object[this.fields.length];
+        for (int k = 0; k < this.fields.length; k++) {
+            this.columns[k] = this.column(this.fields[k]);
+        }
+        if (this.predicate != null) {
+            this.predicateColumn = this.column(this.predicate.getField());
+        }
+    }
+
+    private Object column(int field) {
+        if (this.file.getTupleDesc().getFieldType(field) == Type.INT_TYPE) {
+            return this.page.getIntColumn(field);
+        }
+        return this.page.getStringColumn(field);
+    }
+
+    private boolean matches(int i) {
+        if (this.predicate == null) {
+            return true;
+        }
+        Field operand = this.predicate.getOperand();
+        if (this.predicateColumn instanceof int[]) {
+            int value = ((int[]) this.predicateColumn)[i];
+            if (operand instanceof IntField) {
+                return IntField.compare(this.predicate.getOp(), value, ((IntField) operand).getValue());
+            }
+            return new IntField(value).compare(this.predicate.getOp(), operand);
+        }
+        return new StringField(((String[]) this.predicateColumn)[i], Type.STRING_LEN)
+                .compare(this.predicate.getOp(), operand);
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        this.close();
+        this.open();
+    }
+
+    public void close() {
+        this.open = false;
+        this.page = null;
+        this.columns = null;
+        this.predicateColumn = null;
+        this.current = null;
+    }
+
+    private final TransactionId transactionId;
+    private final ColumnFile file;
+    private final String tableAlias;
+    private final int[] fields;
+    private final Predicate predicate;
+    private final TupleDesc td;
+
+    private boolean open;
+    private int pageNo;
+    private transient ColumnPage page;
+    private int slot;
+    // the current page's returned columns, and the predicate's column
+    private transient Object[] columns;
+    private transient Object predicateColumn;
+
+    private transient TupleBatch batch;
+    // tuple-at-a-time access walks a batch of its own
+    private transient TupleBatch current;
+    private int row;
+}
@@ -0,0 +1,49 @@
+package simpledb;
+
+import java.util.Iterator;
+
+/**
+ * EvictionPolicy decides which resident page the BufferPool gives up when it
+ * needs a free frame. The BufferPool reports every page it loads, every hit
+ * on a resident page and every page it drops; the policy keeps whatever
+ * bookkeeping it needs to rank victims from these calls alone.
+ * <p>
+ * Implementations are not thread safe; the BufferPool calls them while
+ * holding its own monitor.
+ *
+ * @see BufferPool#BufferPool(int, EvictionPolicy)
+ */
+public interface EvictionPolicy {
+
+    /**
+     * Called after a page has been read from disk into the buffer pool.
+     *
+     * @param pid the id of the newly resident page
+     */
+    public void pageLoaded(PageId pid);
+
+    /**
+     * Called when a request is served by a page that is already resident.
+     *
+     * @param pid the id of the page that was hit
+     */
+    public void pageAccessed(PageId pid);
+
+    /**
+     * Called after a page has left the buffer pool, either because it was
+     * evicted or because it was discarded.
+     *
+     * @param pid the id of the page that is no longer resident
+     */
+    public void pageRemoved(PageId pid);
+
+    /**
+     * Returns the resident pages in the order in which they should be
+     * evicted, best victim first. The BufferPool walks this iterator until it
+     * finds a page that is not pinned, so implementations should produce
+     * candidates lazily rather than copying their state.
+     *
+     * @return an iterator over eviction candidates, best victim first
+     */
+    public Iterator<PageId> victims();
+}
@@ -10,6 +10,7 @@ public class Filter extends Operator {
     private static final long serialVersionUID = 1L;
     private Predicate predicate;
     private DbIterator child;
+    private transient BatchIterator batchChild;
 
     /**
      * Constructor accepts a predicate to apply and a child operator to read
@@ -75,6 +76,58 @@ public class Filter extends Operator {
         return null;
     }
 
+    /**
+     * Filters batches of the child in place. A comparison of an INT_TYPE
+     * field with an IntField runs directly over the int column.
+     *
+     * @see BatchIterator#nextBatch
+     */
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        BatchIterator in = this.batchChild();
+        int field = this.predicate.getField();
+        Predicate.Op op = this.predicate.getOp();
+        Field operand = this.predicate.getOperand();
+        TupleBatch batch;
+        while ((batch = in.nextBatch()) != null) {
+            int n = batch.size();
+            int kept = 0;
+            if (operand instanceof IntField) {
+                int[] column = batch.getIntColumn(field);
+                int value = ((IntField) operand).getValue();
+                for (int row = 0; row < n; row++) {
+                    if (IntField.compare(op, column[row], value)) {
+                        if (kept != row) {
+                            batch.copyRow(row, kept);
+                        }
+                        kept++;
+                    }
+                }
+            } else {
+                for (int row = 0; row < n; row++) {
+                    if (batch.getField(field, row).compare(op, operand)) {
+                        if (kept != row) {
+                            batch.copyRow(row, kept);
+                        }
+                        kept++;
+                    }
+                }
+            }
+            if (kept > 0) {
+                batch.setSize(kept);
+                return batch;
+            }
+        }
+        return null;
+    }
+
+    /** @return the child as a BatchIterator, adapting it if necessary */
+    private BatchIterator batchChild() {
+        if (this.batchChild == null) {
+            this.batchChild = BatchAdapter.adapt(this.child);
+        }
+        return this.batchChild;
+    }
+
     @Override
     public DbIterator[] getChildren() {
         DbIterator[] childrenArray = new DbIterator[1];
@@ -86,6 +139,7 @@ public class Filter extends Operator {
     public void setChildren(DbIterator[] children) {
         if (children.length > 0) {
             this.child = children[0];
+            this.batchChild = null;
         }
     }
 
@@ -0,0 +1,75 @@
+package simpledb;
+
+import java.util.BitSet;
+
+/**
+ * FreeSpaceMap tracks which pages of a HeapFile have at least one empty
+ * slot, so that inserts can go straight to such a page instead of probing
+ * every page from the start of the file.
+ * <p>
+ * The map lives in memory only and is rebuilt lazily: a page's state is
+ * unknown until the page has been looked at once, either because an insert
+ * probed it or because a tuple was inserted into or deleted from it. Inserts
+ * probe unknown pages in file order, so over the lifetime of the file every
+ * page is probed at most once and a sequence of n inserts costs O(n) page
+ * accesses in total.
+ * <p>
+ * A set bit is a hint, not a guarantee (e.g. after a rollback); callers
+ * must check the page and report it full if the hint was stale.
+ *
+ * @Threadsafe
+ */
+public class FreeSpaceMap {
+
+    /** Creates an empty map; every page starts out unknown. */
+    public FreeSpaceMap() {
+        this.free = new BitSet();
+        this.scannedUpTo = 0;
+    }
+
+    /**
+     * Returns a page that should be tried for an insert: a page known to
+     * have free space if there is one, otherwise the next page whose state
+     * is still unknown.
+     *
+     * @param numPages the current number of pages in the file
+     * @return a page number, or -1 if every page is known to be full
+     */
+    public synchronized int nextCandidate(int numPages) {
+        int pageNo = this.free.nextSetBit(0);
+        if (pageNo >= 0 && pageNo < numPages) {
+            return pageNo;
+        }
+        if (this.scannedUpTo < numPages) {
+            return this.scannedUpTo++;
+        }
+        return -1;
+    }
+
+    /**
+     * Records whether the given page has free slots.
+     *
+     * @param pageNo the page whose state changed
+     * @param hasFreeSlots true if at least one slot of the page is empty
+     */
+    public synchronized void update(int pageNo, boolean hasFreeSlots) {
+        this.free.set(pageNo, hasFreeSlots);
+    }
+
+    /**
+     * Records that a page was appended at the end of a file whose pages were
+     * all known, so the new page does not need to be probed again.
+     *
+     * @param pageNo the number of the new page
+     * @param hasFreeSlots true if at least one slot of the new page is empty
+     */
+    public synchronized void pageAppended(int pageNo, boolean hasFreeSlots) {
+        if (this.scannedUpTo == pageNo) {
+            this.scannedUpTo++;
+        }
+        this.free.set(pageNo, hasFreeSlots);
+    }
+
+    private final BitSet free;
+    private int scannedUpTo;
+}
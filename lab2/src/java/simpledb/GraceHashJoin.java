@@ -0,0 +1,354 @@
+package simpledb;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * GraceHashJoin is an equi-join that works within a fixed memory budget.
+ * <p>
+ * open() loads the right (inner) child into an in-memory hash table. If the
+ * inner child fits into the budget, the left child is simply streamed
+ * against that table. Otherwise both children are partitioned by a hash of
+ * their join key into {@link TupleSpillFile}s, and matching partition pairs
+ * are joined one after the other:
+ * <ul>
+ * <li>a pair whose smaller side fits into the budget is joined with an
+ * in-memory {@link HashJoin};
+ * <li>a pair that is still too large is partitioned again by a
+ * GraceHashJoin with a different hash function;
+ * <li>a pair that is still too large after {@link #MAX_DEPTH} rounds (e.g.
+ * a single, very frequent key) falls back to a
+ * {@link BlockNestedLoopJoin} over the two spill files.
+ * </ul>
+ * The budget is the number of inner tuples that fit into the pages of the
+ * buffer pool; see {@link #memoryBudget}.
+ */
+public class GraceHashJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Maximum number of partitioning rounds before falling back to nested loops. */
+    public static final int MAX_DEPTH = 3;
+
+    /** Upper bound on the fan-out of one partitioning round. */
+    public static final int MAX_PARTITIONS = 64;
+
+    private DbIterator child1;
+    private DbIterator child2;
+    private JoinPredicate predicate;
+    private TupleDesc td;
+    private final int budget;
+    private final int depth;
+
+    // in-memory mode
+    private HashMap<Field, ArrayList<Tuple>> hashTable;
+    private Tuple probeTup;
+    private ArrayList<Tuple> matches;
+    private int matchPos;
+
+    // spill mode
+    private ArrayList<TupleSpillFile> partitions1;
+    private ArrayList<TupleSpillFile> partitions2;
+    private int currentPartition;
+    private DbIterator partitionJoin;
+
+    /**
+     * Constructor. Uses a memory budget derived from the capacity of the
+     * buffer pool.
+     *
+     * @param p
+     *            The predicate to use to join the children; its operator must
+     *            be Predicate.Op.EQUALS
+     * @param child1
+     *            Iterator for the left(outer) relation to join
+     * @param child2
+     *            Iterator for the right(inner) relation to join, which is the
+     *            one loaded into memory
+     */
+    public GraceHashJoin(JoinPredicate p, DbIterator child1, DbIterator child2) {
+        this(p, child1, child2, memoryBudget(child2.getTupleDesc()));
+    }
+
+    /**
+     * Constructor with an explicit memory budget.
+     *
+     * @param budget
+     *            the maximum number of inner tuples held in memory at once
+     */
+    public GraceHashJoin(JoinPredicate p, DbIterator child1, DbIterator child2, int budget) {
+        this(p, child1, child2, budget, 0);
+    }
+
+    private GraceHashJoin(JoinPredicate p, DbIterator child1, DbIterator child2,
+            int budget, int depth) {
+        if (p.getOperator() != Predicate.Op.EQUALS) {
+            throw new IllegalArgumentException("GraceHashJoin only supports equality predicates");
+        }
+        this.predicate = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.td = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+        this.budget = Math.max(1, budget);
+        this.depth = depth;
+    }
+
+    /**
+     * @return the number of tuples of the given schema that fit into the
+     *         pages of the current buffer pool
+     */
+    public static int memoryBudget(TupleDesc td) {
+        return Database.getBufferPool().getTupleCapacity(td);
+    }
+
+    /**
+     * @return the number of partitions written by one partitioning round:
+     *         one output buffer per buffer pool page, keeping one page for
+     *         the input
+     */
+    public static int numPartitions() {
+        return Math.max(2, Math.min(MAX_PARTITIONS, Database.getBufferPool().getMaxPages() - 1));
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return this.predicate;
+    }
+
+    /**
+     * @return
+     *       the field name of join field1. Should be quantified by
+     *       alias or table name.
+     * */
+    public String getJoinField1Name() {
+        return this.child1.getTupleDesc().getFieldName(this.predicate.getField1());
+    }
+
+    /**
+     * @return
+     *       the field name of join field2. Should be quantified by
+     *       alias or table name.
+     * */
+    public String getJoinField2Name() {
+        return this.child2.getTupleDesc().getFieldName(this.predicate.getField2());
+    }
+
+    public TupleDesc getTupleDesc() {
+        return this.td;
+    }
+
+    /** @return true if open() had to spill partitions to disk */
+    public boolean isSpilling() {
+        return this.partitions1 != null;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        super.open();
+        this.child1.open();
+        this.child2.open();
+        this.build();
+    }
+
+    public void close() {
+        super.close();
+        this.child1.close();
+        this.child2.close();
+        this.hashTable = null;
+        this.probeTup = null;
+        this.matches = null;
+        this.dropPartitions();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        if (this.isSpilling()) {
+            // the partitions are still on disk; just start over with the first pair
+            if (this.partitionJoin != null) {
+                this.partitionJoin.close();
+                this.partitionJoin = null;
+            }
+            this.currentPartition = -1;
+        } else {
+            this.child1.rewind();
+            this.probeTup = null;
+            this.matches = null;
+        }
+    }
+
+    /**
+     * Loads the inner child into the hash table, switching to partitioning
+     * if it turns out to be larger than the budget.
+     */
+    private void build() throws DbException, TransactionAbortedException {
+        int field2 = this.predicate.getField2();
+        ArrayList<Tuple> buffered = new ArrayList<Tuple>();
+        while (this.child2.hasNext()) {
+            if (buffered.size() >= this.budget) {
+                this.partition(buffered);
+                return;
+            }
+            buffered.add(this.child2.next());
+        }
+
+        this.hashTable = new HashMap<Field, ArrayList<Tuple>>();
+        for (Tuple t : buffered) {
+            Field key = t.getField(field2);
+            ArrayList<Tuple> bucket = this.hashTable.get(key);
+            if (bucket == null) {
+                bucket = new ArrayList<Tuple>(1);
+                this.hashTable.put(key, bucket);
+            }
+            bucket.add(t);
+        }
+        this.probeTup = null;
+        this.matches = null;
+    }
+
+    /**
+     * Writes both children to partition files: first the inner tuples read
+     * so far, then the rest of the inner child, then the outer child.
+     */
+    private void partition(ArrayList<Tuple> buffered)
+            throws DbException, TransactionAbortedException {
+        int n = numPartitions();
+        this.partitions1 = new ArrayList<TupleSpillFile>(n);
+        this.partitions2 = new ArrayList<TupleSpillFile>(n);
+        try {
+            for (int i = 0; i < n; i++) {
+                this.partitions1.add(new TupleSpillFile(this.child1.getTupleDesc()));
+                this.partitions2.add(new TupleSpillFile(this.child2.getTupleDesc()));
+            }
+            int field2 = this.predicate.getField2();
+            for (Tuple t : buffered) {
+                this.partitions2.get(this.partitionOf(t.getField(field2), n)).add(t);
+            }
+            buffered.clear();
+            while (this.child2.hasNext()) {
+                Tuple t = this.child2.next();
+                this.partitions2.get(this.partitionOf(t.getField(field2), n)).add(t);
+            }
+            int field1 = this.predicate.getField1();
+            while (this.child1.hasNext()) {
+                Tuple t = this.child1.next();
+                this.partitions1.get(this.partitionOf(t.getField(field1), n)).add(t);
+            }
+        } catch (IOException e) {
+            this.dropPartitions();
+            throw new DbException("failed to spill join partitions: " + e.getMessage());
+        }
+        this.currentPartition = -1;
+        this.partitionJoin = null;
+    }
+
+    /** Hashes a join key to a partition; each depth uses a different hash. */
+    private int partitionOf(Field key, int n) {
+        int h = key.hashCode() ^ ((this.depth + 1) * 0x9E3779B9);
+        h *= 0x85EBCA6B;
+        h ^= h >>> 15;
+        return (h & 0x7fffffff) % n;
+    }
+
+    private void dropPartitions() {
+        if (this.partitionJoin != null) {
+            this.partitionJoin.close();
+            this.partitionJoin = null;
+        }
+        if (this.partitions1 != null) {
+            for (TupleSpillFile f : this.partitions1) {
+                f.delete();
+            }
+            for (TupleSpillFile f : this.partitions2) {
+                f.delete();
+            }
+            this.partitions1 = null;
+            this.partitions2 = null;
+        }
+    }
+
+    /**
+     * Creates the operator joining partition pair i, picking the cheapest
+     * algorithm that respects the budget.
+     */
+    private DbIterator joinPartition(int i) throws DbException, TransactionAbortedException {
+        TupleSpillFile p1 = this.partitions1.get(i);
+        TupleSpillFile p2 = this.partitions2.get(i);
+        DbIterator it1, it2;
+        try {
+            it1 = p1.iterator();
+            it2 = p2.iterator();
+        } catch (IOException e) {
+            throw new DbException("failed to read join partition: " + e.getMessage());
+        }
+        if (Math.min(p1.size(), p2.size()) <= this.budget / 2) {
+            // HashJoin buffers up to twice its smaller input
+            return new HashJoin(this.predicate, it1, it2);
+        } else if (this.depth + 1 < MAX_DEPTH) {
+            return new GraceHashJoin(this.predicate, it1, it2, this.budget, this.depth + 1);
+        } else {
+            return new BlockNestedLoopJoin(this.predicate, it1, it2);
+        }
+    }
+
+    /**
+     * Returns the next tuple generated by the join, or null if there are no
+     * more tuples.
+     *
+     * @return The next matching tuple.
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        if (this.isSpilling()) {
+            return this.fetchNextFromPartitions();
+        }
+        int field1 = this.predicate.getField1();
+        while (true) {
+            if (this.matches != null && this.matchPos < this.matches.size()) {
+                return this.joinTuples(this.probeTup, this.matches.get(this.matchPos++));
+            }
+            if (!this.child1.hasNext()) {
+                return null;
+            }
+            this.probeTup = this.child1.next();
+            this.matches = this.hashTable.get(this.probeTup.getField(field1));
+            this.matchPos = 0;
+        }
+    }
+
+    private Tuple fetchNextFromPartitions() throws TransactionAbortedException, DbException {
+        while (true) {
+            if (this.partitionJoin != null && this.partitionJoin.hasNext()) {
+                return this.partitionJoin.next();
+            }
+            if (this.partitionJoin != null) {
+                this.partitionJoin.close();
+                this.partitionJoin = null;
+            }
+            this.currentPartition++;
+            if (this.currentPartition >= this.partitions1.size()) {
+                return null;
+            }
+            if (this.partitions1.get(this.currentPartition).size() == 0
+                    || this.partitions2.get(this.currentPartition).size() == 0) {
+                continue;
+            }
+            this.partitionJoin = this.joinPartition(this.currentPartition);
+            this.partitionJoin.open();
+        }
+    }
+
+    private Tuple joinTuples(Tuple tup1, Tuple tup2) {
+        return Tuple.merge(this.td, tup1, tup2);
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { this.child1, this.child2 };
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        if (children.length > 1) {
+            this.child1 = children[0];
+            this.child2 = children[1];
+            this.td = TupleDesc.merge(this.child1.getTupleDesc(), this.child2.getTupleDesc());
+        }
+    }
+
+}
@@ -0,0 +1,405 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * HashIndexFile is a DbFile that keeps its tuples in an extendible hash
+ * table on one of their fields, the key field, and finds all tuples with a
+ * given key by reading a single bucket. It is meant for equality lookups,
+ * e.g. as the inner side of an {@link IndexNestedLoopJoin}.
+ * <p>
+ * Page 0 holds the directory: 2^d bucket page numbers, where d is the
+ * global depth. A key goes to the bucket the low d bits of its hash select.
+ * Each bucket has a local depth l &lt;= d and is referenced by the 2^(d-l)
+ * directory entries that agree on the low l bits. A full bucket is split
+ * in two on bit l, doubling the directory first if l = d.
+ * <p>
+ * The directory is kept on a single page, so the global depth is bounded by
+ * {@link HashIndexPage#maxDepth}. A full bucket that cannot be split, because
+ * it is at that depth or because all of its keys hash alike (e.g. many
+ * duplicates of one key), gets a chain of overflow pages instead; a bucket
+ * with overflow pages is not split again. Buckets are not merged when they
+ * become empty.
+ * <p>
+ * Like {@link BTreeFile}, a HashIndexFile is mostly used as a secondary
+ * index whose tuples are entries of the form described by
+ * {@link BTreeFile#indexTupleDesc}, see {@link #createIndex}. All pages are
+ * read and modified through the BufferPool, so the file must be registered
+ * in the catalog.
+ *
+ * @see HashIndexPage
+ */
+public class HashIndexFile extends HeapFile {
+
+    /**
+     * Constructs a hash index file backed by the specified file. An empty
+     * file is initialized on first use.
+     *
+     * @param f
+     *            the file that stores the on-disk backing store for this
+     *            file.
+     * @param td
+     *            the schema of the tuples stored in f.
+     * @param keyField
+     *            the index of the field the tuples are hashed on.
+     */
+    public HashIndexFile(File f, TupleDesc td, int keyField) {
+        super(f, td);
+        this.keyField = keyField;
+    }
+
+    /**
+     * Builds a hash index over a field of a table, registers it in the
+     * catalog and fills it with the entries of the tuples already in the
+     * table.
+     *
+     * @param f
+     *            the file to store the index in; must be empty or not exist
+     * @see BTreeFile#createIndex
+     */
+    public static HashIndexFile createIndex(TransactionId tid, int tableid, int field, File f)
+            throws DbException, IOException, TransactionAbortedException {
+        if (f.length() > 0) {
+            throw new IllegalArgumentException("index file " + f + " is not empty");
+        }
+        Catalog catalog = Database.getCatalog();
+        Type keyType = catalog.getTupleDesc(tableid).getFieldType(field);
+        HashIndexFile index = new HashIndexFile(f, BTreeFile.indexTupleDesc(keyType), 0);
+        catalog.addIndex(tableid, field, index);
+
+        DbFileIterator it = catalog.getDatabaseFile(tableid).iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            index.insertTuple(tid, BTreeFile.indexEntry(index.getTupleDesc(), it.next(), field));
+        }
+        it.close();
+        return index;
+    }
+
+    /** Zone maps describe HeapPages only; this file keeps none. */
+    public ZoneMap getZoneMap() {
+        return null;
+    }
+
+    /** @return the index of the field the tuples of this file are hashed on */
+    public int keyField() {
+        return this.keyField;
+    }
+
+    /**
+     * Spreads the bits of a key's hash code, so that the low bits used by
+     * the directory depend on all of them.
+     */
+    static int hash(Field key) {
+        int h = key.hashCode();
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        return h;
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        try {
+            return new HashIndexPage((HeapPageId) pid, this.readPageData(pid), this);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    /** @return the global depth of the directory */
+    public int getGlobalDepth(TransactionId tid) throws DbException, TransactionAbortedException {
+        this.init();
+        return this.getPage(tid, 0, Permissions.READ_ONLY).getDepth();
+    }
+
+    /**
+     * Writes the directory and a single empty bucket to the file if it has no
+     * pages yet.
+     */
+    private synchronized void init() throws DbException {
+        if (this.numPages() > 0) {
+            return;
+        }
+        try {
+            HashIndexPage directory = new HashIndexPage(new HeapPageId(this.getId(), 0),
+                    HashIndexPage.createEmptyPageData(HashIndexPage.DIRECTORY), this);
+            directory.directory().set(0, 1);
+            this.writePage(directory);
+            this.writePage(new HashIndexPage(new HeapPageId(this.getId(), 1),
+                    HashIndexPage.createEmptyPageData(HashIndexPage.BUCKET), this));
+        } catch (IOException e) {
+            throw new DbException("could not initialize hash index file: " + e.getMessage());
+        }
+    }
+
+    private HashIndexPage getPage(TransactionId tid, int pageNo, Permissions perm)
+            throws DbException, TransactionAbortedException {
+        return (HashIndexPage) Database.getBufferPool().getPage(tid, new HeapPageId(this.getId(), pageNo), perm);
+    }
+
+    /**
+     * Fetches a page for modification and pins it until the operation is
+     * done, as in {@link BTreeFile}.
+     */
+    private HashIndexPage getPinnedPage(TransactionId tid, int pageNo, List<PageId> pinned)
+            throws DbException, TransactionAbortedException {
+        Page page = Database.getBufferPool().getPinnedPage(tid, new HeapPageId(this.getId(), pageNo),
+            Permissions.READ_WRITE);
+        pinned.add(page.getId());
+        return (HashIndexPage) page;
+    }
+
+    /** Appends a new, empty bucket page to the file and returns it pinned. */
+    private HashIndexPage newBucket(TransactionId tid, int depth, List<PageId> pinned)
+            throws DbException, IOException, TransactionAbortedException {
+        HeapPageId pid = new HeapPageId(this.getId(), this.numPages());
+        this.writePage(new HashIndexPage(pid, HashIndexPage.createEmptyPageData(HashIndexPage.BUCKET), this));
+        HashIndexPage page = this.getPinnedPage(tid, pid.pageNumber(), pinned);
+        page.setDepth(depth);
+        return page;
+    }
+
+    /** @return the page number of the bucket key goes to */
+    private int bucketOf(TransactionId tid, Field key) throws DbException, TransactionAbortedException {
+        this.init();
+        HashIndexPage directory = this.getPage(tid, 0, Permissions.READ_ONLY);
+        return directory.directory().get(hash(key) & ((1 << directory.getDepth()) - 1));
+    }
+
+    private static void markDirty(HashIndexPage page, TransactionId tid, ArrayList<Page> modifiedPages) {
+        page.markDirty(true, tid);
+        if (!modifiedPages.contains(page)) {
+            modifiedPages.add(page);
+        }
+    }
+
+    /**
+     * Inserts a tuple into the bucket of its key, splitting the bucket (and
+     * doubling the directory) as often as needed to make room, or adding it
+     * to the bucket's overflow chain if the bucket cannot be split. The
+     * RecordId of t is set to its position.
+     *
+     * @see DbFile#insertTuple
+     */
+    public synchronized ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        if (!t.getTupleDesc().equals(this.getTupleDesc())) {
+            throw new DbException("TupleDesc does not match");
+        }
+        this.init();
+        int hash = hash(t.getField(this.keyField));
+        Tuple entry = new Tuple(this.getTupleDesc());
+        for (int j = 0; j < this.getTupleDesc().numFields(); j++) {
+            entry.setField(j, t, j);
+        }
+        ArrayList<Page> modifiedPages = new ArrayList<Page>();
+        List<PageId> pinned = new ArrayList<PageId>();
+        try {
+            HashIndexPage directory = this.getPinnedPage(tid, 0, pinned);
+            while (true) {
+                int pageNo = directory.directory().get(hash & ((1 << directory.getDepth()) - 1));
+                HashIndexPage bucket = this.getPinnedPage(tid, pageNo, pinned);
+                if (!bucket.isFull()) {
+                    this.add(tid, bucket, entry, t, modifiedPages);
+                    break;
+                }
+                if (bucket.getDepth() >= HashIndexPage.maxDepth() || bucket.getOverflow() >= 0
+                        || this.allHash(bucket, hash)) {
+                    while (bucket.isFull()) {
+                        if (bucket.getOverflow() < 0) {
+                            HashIndexPage overflow = this.newBucket(tid, bucket.getDepth(), pinned);
+                            bucket.setOverflow(overflow.getId().pageNumber());
+                            markDirty(bucket, tid, modifiedPages);
+                            bucket = overflow;
+                        } else {
+                            bucket = this.getPinnedPage(tid, bucket.getOverflow(), pinned);
+                        }
+                    }
+                    this.add(tid, bucket, entry, t, modifiedPages);
+                    break;
+                }
+                this.split(tid, directory, bucket, pinned, modifiedPages);
+            }
+        } finally {
+            for (PageId pid : pinned) {
+                Database.getBufferPool().unpinPage(pid);
+            }
+        }
+        return modifiedPages;
+    }
+
+    private void add(TransactionId tid, HashIndexPage bucket, Tuple entry, Tuple t,
+            ArrayList<Page> modifiedPages) {
+        bucket.entries().add(entry);
+        markDirty(bucket, tid, modifiedPages);
+        t.setRecordId(new RecordId(bucket.getId(), bucket.entries().size() - 1));
+    }
+
+    /** @return true if the keys of all entries of the bucket have the given hash */
+    private boolean allHash(HashIndexPage bucket, int hash) {
+        for (Tuple entry : bucket.entries()) {
+            if (hash(entry.getField(this.keyField)) != hash) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Splits a bucket on the bit above its local depth, moving the entries
+     * with that bit set to a new bucket.
+     */
+    private void split(TransactionId tid, HashIndexPage directory, HashIndexPage bucket, List<PageId> pinned,
+            ArrayList<Page> modifiedPages) throws DbException, IOException, TransactionAbortedException {
+        int depth = bucket.getDepth();
+        List<Integer> dir = directory.directory();
+        if (depth == directory.getDepth()) {
+            int size = dir.size();
+            for (int i = 0; i < size; i++) {
+                dir.add(dir.get(i));
+            }
+            directory.setDepth(depth + 1);
+        }
+        HashIndexPage image = this.newBucket(tid, depth + 1, pinned);
+        bucket.setDepth(depth + 1);
+        Iterator<Tuple> it = bucket.entries().iterator();
+        while (it.hasNext()) {
+            Tuple entry = it.next();
+            if (((hash(entry.getField(this.keyField)) >>> depth) & 1) == 1) {
+                image.entries().add(entry);
+                it.remove();
+            }
+        }
+        int bucketNo = bucket.getId().pageNumber();
+        for (int i = 0; i < dir.size(); i++) {
+            if (dir.get(i) == bucketNo && ((i >>> depth) & 1) == 1) {
+                dir.set(i, image.getId().pageNumber());
+            }
+        }
+        markDirty(directory, tid, modifiedPages);
+        markDirty(bucket, tid, modifiedPages);
+        markDirty(image, tid, modifiedPages);
+    }
+
+    /**
+     * Deletes a tuple from its bucket. The tuple is looked up by value, as
+     * in {@link BTreeFile#deleteTuple}.
+     *
+     * @throws DbException if no such tuple is stored in this file
+     * @see DbFile#deleteTuple
+     */
+    public synchronized ArrayList<Page> deleteTuple(TransactionId tid, Tuple t)
+            throws DbException, TransactionAbortedException {
+        ArrayList<Page> modifiedPages = new ArrayList<Page>();
+        int pageNo = this.bucketOf(tid, t.getField(this.keyField));
+        while (pageNo >= 0) {
+            HashIndexPage bucket = this.getPage(tid, pageNo, Permissions.READ_WRITE);
+            Iterator<Tuple> it = bucket.entries().iterator();
+            while (it.hasNext()) {
+                if (this.sameValues(it.next(), t)) {
+                    it.remove();
+                    markDirty(bucket, tid, modifiedPages);
+                    t.setRecordId(null);
+                    return modifiedPages;
+                }
+            }
+            pageNo = bucket.getOverflow();
+        }
+        throw new DbException("tuple to delete is not in the hash index");
+    }
+
+    private boolean sameValues(Tuple stored, Tuple t) {
+        for (int j = 0; j < this.getTupleDesc().numFields(); j++) {
+            if (!stored.getField(j).equals(t.getField(j))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns an iterator over all tuples of this file, bucket page by
+     * bucket page.
+     *
+     * @see DbFile#iterator
+     */
+    public DbFileIterator iterator(TransactionId tid) {
+        return new PageIterator(tid, null);
+    }
+
+    /**
+     * Returns an iterator over the tuples of this file with the given key;
+     * it reads only the key's bucket and its overflow pages.
+     */
+    public DbFileIterator lookup(TransactionId tid, Field key) {
+        return new PageIterator(tid, key);
+    }
+
+    /**
+     * Reads bucket pages one at a time, copying their entries so that the
+     * iteration is not disturbed by changes to the page. With a key, it
+     * follows the key's bucket chain and returns the matching entries;
+     * without, it reads every page but the directory.
+     */
+    private class PageIterator extends AbstractDbFileIterator {
+        PageIterator(TransactionId tid, Field key) {
+            this.tid = tid;
+            this.key = key;
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            this.nextPage = this.key == null ? 1 : HashIndexFile.this.bucketOf(this.tid, this.key);
+            this.entries = Collections.<Tuple>emptyList().iterator();
+        }
+
+        protected Tuple readNext() throws DbException, TransactionAbortedException {
+            if (this.entries == null) {
+                return null;
+            }
+            while (true) {
+                while (this.entries.hasNext()) {
+                    Tuple t = this.entries.next();
+                    if (this.key == null || this.key.equals(t.getField(HashIndexFile.this.keyField))) {
+                        return t;
+                    }
+                }
+                if (this.nextPage < 0 || this.nextPage >= HashIndexFile.this.numPages()) {
+                    return null;
+                }
+                HashIndexPage page = HashIndexFile.this.getPage(this.tid, this.nextPage, Permissions.READ_ONLY);
+                ArrayList<Tuple> copies = new ArrayList<Tuple>(page.entries().size());
+                int i = 0;
+                for (Tuple entry : page.entries()) {
+                    Tuple t = new Tuple(HashIndexFile.this.getTupleDesc());
+                    for (int j = 0; j < t.getTupleDesc().numFields(); j++) {
+                        t.setField(j, entry, j);
+                    }
+                    t.setRecordId(new RecordId(page.getId(), i++));
+                    copies.add(t);
+                }
+                this.entries = copies.iterator();
+                this.nextPage = this.key == null ? this.nextPage + 1 : page.getOverflow();
+            }
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            this.close();
+            this.open();
+        }
+
+        public void close() {
+            super.close();
+            this.entries = null;
+        }
+
+        private final TransactionId tid;
+        private final Field key;
+        private int nextPage;
+        private Iterator<Tuple> entries;
+    }
+
+    private final int keyField;
+}
@@ -0,0 +1,220 @@
+package simpledb;
+
+import java.io.*;
+import java.text.ParseException;
+import java.util.*;
+
+/**
+ * HashIndexPage stores one page of a {@link HashIndexFile}. The first byte
+ * of a page gives its kind:
+ * <ul>
+ * <li>the directory page (only page 0 of a file) holds the global depth d
+ * and the 2^d bucket page numbers of the directory;</li>
+ * <li>a bucket page holds its local depth, the number of entries, the page
+ * number of its overflow page (or -1) and then the entries, i.e. whole
+ * tuples of the file's schema, in no particular order.</li>
+ * </ul>
+ * The page is decoded when it is read and kept as lists, which may grow past
+ * the capacity of a page while HashIndexFile splits it; {@link #getPageData}
+ * must only be called on pages that fit.
+ *
+ * @see HashIndexFile
+ */
+public class HashIndexPage implements Page {
+
+    static final byte DIRECTORY = 0;
+    static final byte BUCKET = 1;
+
+    static final int DIRECTORY_HEADER_SIZE = 5;
+    static final int BUCKET_HEADER_SIZE = 13;
+
+    /**
+     * Create a HashIndexPage from a set of bytes of data read from disk. The
+     * page belongs to the HashIndexFile registered in the catalog under the
+     * page's table id.
+     */
+    public HashIndexPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, data, (HashIndexFile) Database.getCatalog().getDatabaseFile(id.getTableId()));
+    }
+
+    HashIndexPage(HeapPageId id, byte[] data, HashIndexFile file) throws IOException {
+        this.pid = id;
+        this.td = file.getTupleDesc();
+        this.directory = new ArrayList<Integer>();
+        this.entries = new ArrayList<Tuple>();
+        this.oldData = data.clone();
+        this.dirty = false;
+        this.dirtyTid = null;
+
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        this.kind = dis.readByte();
+        if (this.kind == DIRECTORY) {
+            this.depth = dis.readInt();
+            for (int i = 0; i < (1 << this.depth); i++) {
+                this.directory.add(dis.readInt());
+            }
+        } else if (this.kind == BUCKET) {
+            this.depth = dis.readInt();
+            int count = dis.readInt();
+            this.overflow = dis.readInt();
+            try {
+                for (int i = 0; i < count; i++) {
+                    Tuple t = new Tuple(this.td);
+                    for (int j = 0; j < this.td.numFields(); j++) {
+                        t.setField(j, this.td.getFieldType(j).parse(dis));
+                    }
+                    this.entries.add(t);
+                }
+            } catch (ParseException e) {
+                throw new IOException(e);
+            }
+        } else {
+            throw new IOException("unknown hash index page kind " + this.kind);
+        }
+    }
+
+    /** @return the number of entries of the given schema that fit on a bucket */
+    static int maxEntries(TupleDesc td) {
+        return (BufferPool.getPageSize() - BUCKET_HEADER_SIZE) / td.getSize();
+    }
+
+    /**
+     * @return the largest global depth whose directory fits on a page; buckets
+     *         at this depth overflow instead of splitting
+     */
+    static int maxDepth() {
+        int entries = (BufferPool.getPageSize() - DIRECTORY_HEADER_SIZE) / 4;
+        return 31 - Integer.numberOfLeadingZeros(entries);
+    }
+
+    /** @return the bytes of an empty page of the given kind */
+    static byte[] createEmptyPageData(byte kind) {
+        byte[] data = new byte[BufferPool.getPageSize()];
+        data[0] = kind;
+        if (kind == BUCKET) {
+            // no overflow page
+            Arrays.fill(data, 9, BUCKET_HEADER_SIZE, (byte) 0xff);
+        }
+        return data;
+    }
+
+    public HeapPageId getId() {
+        return this.pid;
+    }
+
+    /** @return the global depth of the directory, or the local depth of a bucket */
+    int getDepth() {
+        return this.depth;
+    }
+
+    void setDepth(int depth) {
+        this.depth = depth;
+    }
+
+    /**
+     * The bucket page numbers of the directory, 2^depth of them; modified in
+     * place by HashIndexFile.
+     */
+    List<Integer> directory() {
+        return this.directory;
+    }
+
+    /** The entries of a bucket; modified in place by HashIndexFile. */
+    List<Tuple> entries() {
+        return this.entries;
+    }
+
+    int getOverflow() {
+        return this.overflow;
+    }
+
+    void setOverflow(int pageNo) {
+        this.overflow = pageNo;
+    }
+
+    /** @return true if this bucket holds as many entries as fit on a page */
+    boolean isFull() {
+        return this.entries.size() >= maxEntries(this.td);
+    }
+
+    public HashIndexPage getBeforeImage() {
+        try {
+            byte[] oldDataRef;
+            synchronized (this.oldDataLock) {
+                oldDataRef = this.oldData;
+            }
+            return new HashIndexPage(this.pid, oldDataRef,
+                    (HashIndexFile) Database.getCatalog().getDatabaseFile(this.pid.getTableId()));
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    public void setBeforeImage() {
+        synchronized (this.oldDataLock) {
+            this.oldData = this.getPageData();
+        }
+    }
+
+    /**
+     * Generates a byte array representing the contents of this page.
+     *
+     * @throws IllegalStateException if the page is overfull
+     */
+    public byte[] getPageData() {
+        if (this.kind == BUCKET && this.entries.size() > maxEntries(this.td)) {
+            throw new IllegalStateException("hash bucket " + this.pid.pageNumber() + " is overfull");
+        }
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(BufferPool.getPageSize());
+        DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            dos.writeByte(this.kind);
+            dos.writeInt(this.depth);
+            if (this.kind == DIRECTORY) {
+                for (int pageNo : this.directory) {
+                    dos.writeInt(pageNo);
+                }
+            } else {
+                dos.writeInt(this.entries.size());
+                dos.writeInt(this.overflow);
+                for (Tuple t : this.entries) {
+                    for (int j = 0; j < this.td.numFields(); j++) {
+                        t.getField(j).serialize(dos);
+                    }
+                }
+            }
+            dos.flush();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return Arrays.copyOf(baos.toByteArray(), BufferPool.getPageSize());
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.dirty = dirty;
+        this.dirtyTid = tid;
+    }
+
+    public TransactionId isDirty() {
+        return this.dirty ? this.dirtyTid : null;
+    }
+
+    private final HeapPageId pid;
+    private final TupleDesc td;
+    private final byte kind;
+    private int depth;
+
+    private final List<Integer> directory;
+
+    private final List<Tuple> entries;
+    private int overflow = -1;
+
+    private boolean dirty;
+    private TransactionId dirtyTid;
+
+    private byte[] oldData;
+    private final Object oldDataLock = new Object();
+}
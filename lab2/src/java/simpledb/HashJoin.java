@@ -0,0 +1,217 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * The HashJoin operator implements an equi-join by building an in-memory
+ * hash table on one input and probing it with the other.
+ * <p>
+ * Neither child knows its cardinality up front, so open() reads both
+ * children alternately, one tuple at a time. The first child to run out is
+ * the smaller input and becomes the build side; the tuples already read
+ * from the other child are probed first, followed by the rest of that child.
+ * Memory use is therefore bounded by twice the size of the smaller input.
+ * <p>
+ * Output tuples are the concatenation of a tuple from child1 and a tuple
+ * from child2, in that order, exactly as produced by {@link Join}.
+ */
+public class HashJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private DbIterator child1;
+    private DbIterator child2;
+
+    private JoinPredicate predicate;
+    private TupleDesc td;
+
+    private HashMap<Field, ArrayList<Tuple>> hashTable;
+    private boolean buildIsChild1;
+    private ArrayList<Tuple> probeBuffer;
+    private int probeBufferPos;
+
+    private Tuple probeTup;
+    private ArrayList<Tuple> matches;
+    private int matchPos;
+
+    /**
+     * Constructor. Accepts two children to join and the predicate to join
+     * them on.
+     *
+     * @param p
+     *            The predicate to use to join the children; its operator must
+     *            be Predicate.Op.EQUALS
+     * @param child1
+     *            Iterator for the left relation to join
+     * @param child2
+     *            Iterator for the right relation to join
+     * @throws IllegalArgumentException if p is not an equality predicate
+     */
+    public HashJoin(JoinPredicate p, DbIterator child1, DbIterator child2) {
+        if (p.getOperator() != Predicate.Op.EQUALS) {
+            throw new IllegalArgumentException("HashJoin only supports equality predicates");
+        }
+        this.predicate = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.td = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+        this.hashTable = null;
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return this.predicate;
+    }
+
+    /**
+     * @return
+     *       the field name of join field1. Should be quantified by
+     *       alias or table name.
+     * */
+    public String getJoinField1Name() {
+        return this.child1.getTupleDesc().getFieldName(this.predicate.getField1());
+    }
+
+    /**
+     * @return
+     *       the field name of join field2. Should be quantified by
+     *       alias or table name.
+     * */
+    public String getJoinField2Name() {
+        return this.child2.getTupleDesc().getFieldName(this.predicate.getField2());
+    }
+
+    public TupleDesc getTupleDesc() {
+        return this.td;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        super.open();
+        this.child1.open();
+        this.child2.open();
+        this.build();
+    }
+
+    public void close() {
+        super.close();
+        this.child1.close();
+        this.child2.close();
+        this.hashTable = null;
+        this.probeBuffer = null;
+        this.probeTup = null;
+        this.matches = null;
+    }
+
+    /**
+     * Rewinds only the probe side; the hash table built on the other side is
+     * kept.
+     */
+    public void rewind() throws DbException, TransactionAbortedException {
+        this.probeChild().rewind();
+        // the rewound child produces the buffered tuples again
+        this.probeBuffer = new ArrayList<Tuple>();
+        this.probeBufferPos = 0;
+        this.probeTup = null;
+        this.matches = null;
+    }
+
+    /**
+     * Reads both children alternately until one is exhausted and builds the
+     * hash table on that one.
+     */
+    private void build() throws DbException, TransactionAbortedException {
+        ArrayList<Tuple> tups1 = new ArrayList<Tuple>();
+        ArrayList<Tuple> tups2 = new ArrayList<Tuple>();
+        while (true) {
+            if (!this.child1.hasNext()) {
+                this.buildIsChild1 = true;
+                break;
+            }
+            tups1.add(this.child1.next());
+            if (!this.child2.hasNext()) {
+                this.buildIsChild1 = false;
+                break;
+            }
+            tups2.add(this.child2.next());
+        }
+
+        ArrayList<Tuple> buildTups = this.buildIsChild1 ? tups1 : tups2;
+        int buildField = this.buildIsChild1 ? this.predicate.getField1() : this.predicate.getField2();
+        this.hashTable = new HashMap<Field, ArrayList<Tuple>>();
+        for (Tuple t : buildTups) {
+            Field key = t.getField(buildField);
+            ArrayList<Tuple> bucket = this.hashTable.get(key);
+            if (bucket == null) {
+                bucket = new ArrayList<Tuple>(1);
+                this.hashTable.put(key, bucket);
+            }
+            bucket.add(t);
+        }
+
+        this.probeBuffer = this.buildIsChild1 ? tups2 : tups1;
+        this.probeBufferPos = 0;
+        this.probeTup = null;
+        this.matches = null;
+    }
+
+    private DbIterator probeChild() {
+        return this.buildIsChild1 ? this.child2 : this.child1;
+    }
+
+    /** @return the next probe side tuple, or null if the probe side is done */
+    private Tuple nextProbeTuple() throws DbException, TransactionAbortedException {
+        if (this.probeBufferPos < this.probeBuffer.size()) {
+            return this.probeBuffer.get(this.probeBufferPos++);
+        }
+        DbIterator probe = this.probeChild();
+        if (probe.hasNext()) {
+            return probe.next();
+        }
+        return null;
+    }
+
+    /**
+     * Returns the next tuple generated by the join, or null if there are no
+     * more tuples.
+     *
+     * @return The next matching tuple.
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        int probeField = this.buildIsChild1 ? this.predicate.getField2() : this.predicate.getField1();
+        while (true) {
+            if (this.matches != null && this.matchPos < this.matches.size()) {
+                Tuple buildTup = this.matches.get(this.matchPos++);
+                if (this.buildIsChild1) {
+                    return joinTuples(buildTup, this.probeTup);
+                } else {
+                    return joinTuples(this.probeTup, buildTup);
+                }
+            }
+            this.probeTup = this.nextProbeTuple();
+            if (this.probeTup == null) {
+                return null;
+            }
+            this.matches = this.hashTable.get(this.probeTup.getField(probeField));
+            this.matchPos = 0;
+        }
+    }
+
+    private Tuple joinTuples(Tuple tup1, Tuple tup2) {
+        return Tuple.merge(this.td, tup1, tup2);
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { this.child1, this.child2 };
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        if (children.length > 1) {
+            this.child1 = children[0];
+            this.child2 = children[1];
+            this.td = TupleDesc.merge(this.child1.getTupleDesc(), this.child2.getTupleDesc());
+        }
+    }
+
+}
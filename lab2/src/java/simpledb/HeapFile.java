@@ -1,6 +1,8 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.*;
 
 /**
@@ -17,20 +19,40 @@ public class HeapFile implements DbFile {
 
     public class HeapFileIterator implements DbFileIterator {
         public HeapFileIterator(TransactionId transactionId, HeapFile heapFile) {
+            this(transactionId, heapFile, null);
+        }
+
+        /**
+         * Creates an iterator that skips the pages whose zone map proves that
+         * none of their tuples satisfies all of the predicates. It still
+         * returns the other tuples of the pages it reads; filtering them is
+         * up to the caller.
+         */
+        public HeapFileIterator(TransactionId transactionId, HeapFile heapFile, Predicate[] predicates) {
             this.transactionId = transactionId;
             this.heapFile = heapFile;
+            this.predicates = predicates;
+            this.zoneMap = predicates == null ? null : heapFile.getZoneMap();
             this.currentPageNum = 0;
             this.tupleIterator = null;
+            this.pinnedPageId = null;
+            this.prefetchedUpTo = -1;
+            this.readAheadWindow = READ_AHEAD_INITIAL_WINDOW;
         }
 
         public void open()
             throws DbException, TransactionAbortedException {
-            // note the static method for getting one buffer pool
-            BufferPool bufferPool = Database.getBufferPool();
             HeapPageId pageId = new HeapPageId(this.heapFile.getId(), this.currentPageNum);
+            if (this.skips(this.currentPageNum)) {
+                // hasNext moves on to the next page that may match
+                this.tupleIterator = Collections.<Tuple>emptyList().iterator();
+                return;
+            }
+            this.readAhead(pageId);
 
             try {
-                HeapPage heapPage = (HeapPage) bufferPool.getPage(transactionId, pageId, Permissions.READ_ONLY);
+                HeapPage heapPage = this.getPinnedPage(pageId);
+                this.recordZone(heapPage);
                 this.tupleIterator = heapPage.iterator();
             } catch (ClassCastException e) {
                 // in case the indicated pageId does not correspond with a heap page
@@ -47,13 +69,17 @@ public class HeapFile implements DbFile {
                 return true;
             } else {
                 this.currentPageNum++;
-                BufferPool bufferPool = Database.getBufferPool();
-                
                 // hasNext, a peek function, would cause bufferPool to load; in case that the next page is empty
                 while (this.currentPageNum < this.heapFile.numPages()) {
+                    if (this.skips(this.currentPageNum)) {
+                        this.currentPageNum++;
+                        continue;
+                    }
                     HeapPageId pageId = new HeapPageId(this.heapFile.getId(), this.currentPageNum);
+                    this.readAhead(pageId);
                     try {
-                        HeapPage heapPage = (HeapPage) bufferPool.getPage(transactionId, pageId, Permissions.READ_ONLY);
+                        HeapPage heapPage = this.getPinnedPage(pageId);
+                        this.recordZone(heapPage);
                         if (heapPage.iterator().hasNext()) {
                             // Check: if setting iterator here would cause issues: iterator can be thought of as being the pseudohead of a linked list?
                             this.tupleIterator = heapPage.iterator();
@@ -100,11 +126,91 @@ public class HeapFile implements DbFile {
          * Closes the iterator.
          */
         public void close() {
+            this.unpin();
             this.tupleIterator = null;
             this.currentPageNum = 0;
+            this.prefetchedUpTo = -1;
+            this.readAheadWindow = READ_AHEAD_INITIAL_WINDOW;
+        }
+
+        /**
+         * Issues read-ahead for the pages following pageId, which the scan is
+         * about to fetch. The window starts small and doubles whenever the
+         * scan reaches a page that was requested but has not arrived yet,
+         * i.e. whenever the scan outruns the prefetcher. It is capped by the
+         * file's read-ahead setting and by a quarter of the buffer pool, so
+         * prefetched pages never crowd out the rest of the pool.
+         */
+        private void readAhead(HeapPageId pageId) {
+            int maxWindow = this.heapFile.getReadAhead();
+            if (maxWindow <= 0) {
+                return;
+            }
+            BufferPool bufferPool = Database.getBufferPool();
+            maxWindow = Math.min(maxWindow, Math.max(1, bufferPool.getMaxPages() / 4));
+
+            int pageNum = pageId.pageNumber();
+            if (pageNum <= this.prefetchedUpTo && !bufferPool.isResident(pageId)) {
+                this.readAheadWindow = Math.min(this.readAheadWindow * 2, maxWindow);
+            }
+            this.readAheadWindow = Math.min(this.readAheadWindow, maxWindow);
+
+            int last = Math.min(pageNum + this.readAheadWindow, this.heapFile.numPages() - 1);
+            int first = Math.max(pageNum + 1, this.prefetchedUpTo + 1);
+            if (first > last) {
+                return;
+            }
+            List<PageId> pids = new ArrayList<PageId>(last - first + 1);
+            for (int i = first; i <= last; i++) {
+                if (!this.skips(i)) {
+                    pids.add(new HeapPageId(this.heapFile.getId(), i));
+                }
+            }
+            bufferPool.prefetchPages(pids);
+            this.prefetchedUpTo = last;
+        }
+
+        /** @return true if the zone map proves the page holds no match */
+        private boolean skips(int pageNo) {
+            return this.zoneMap != null && !this.zoneMap.mayMatch(pageNo, this.predicates);
         }
 
+        /**
+         * Records the bounds of a page read for the first time by a scan with
+         * predicates, unless it holds changes that may yet be rolled back.
+         */
+        private void recordZone(HeapPage heapPage) {
+            if (this.zoneMap != null && heapPage.isDirty() == null
+                    && !this.zoneMap.isKnown(heapPage.getId().pageNumber())) {
+                this.zoneMap.record(heapPage);
+            }
+        }
+
+        /**
+         * Gets the page the tuple iterator is to walk, pinned, and releases
+         * the pin of the previous one.
+         */
+        private HeapPage getPinnedPage(HeapPageId pageId)
+            throws DbException, TransactionAbortedException {
+            Page page = Database.getBufferPool().getPinnedPage(this.transactionId, pageId, Permissions.READ_ONLY);
+            this.unpin();
+            this.pinnedPageId = pageId;
+            return (HeapPage) page;
+        }
+
+        private void unpin() {
+            if (this.pinnedPageId != null) {
+                Database.getBufferPool().unpinPage(this.pinnedPageId);
+                this.pinnedPageId = null;
+            }
+        }
+
+        private final Predicate[] predicates;
+        private final ZoneMap zoneMap;
         private Iterator<Tuple> tupleIterator;
+        private HeapPageId pinnedPageId;
+        private int prefetchedUpTo;
+        private int readAheadWindow;
         private int currentPageNum;
         private TransactionId transactionId;
         private HeapFile heapFile;
@@ -121,6 +227,27 @@ public class HeapFile implements DbFile {
         this.file = f;
         this.tupleDesc = td;
         this.pageSize = BufferPool.getPageSize();
+        this.channel = null;
+        this.cachedNumPages = -1;
+        this.readAhead = 0;
+        this.freeSpaceMap = new FreeSpaceMap();
+    }
+
+    /**
+     * Enables asynchronous read-ahead for sequential scans of this file.
+     * Iterators then prefetch up to the given number of pages past the page
+     * they are reading into the buffer pool on a background thread.
+     *
+     * @param pages the maximum read-ahead window in pages, or 0 to disable
+     *            read-ahead (the default)
+     */
+    public void setReadAhead(int pages) {
+        this.readAhead = Math.max(0, pages);
+    }
+
+    /** @return the maximum read-ahead window in pages; 0 if disabled */
+    public int getReadAhead() {
+        return this.readAhead;
     }
 
     /**
@@ -154,25 +281,43 @@ public class HeapFile implements DbFile {
         return this.tupleDesc;
     }
 
+    /**
+     * Returns the channel used for all reads and writes of this file, opening
+     * it on first use. The channel stays open for the lifetime of the
+     * HeapFile; reads and writes use explicit positions, so concurrent
+     * readers never share a file pointer.
+     */
+    private synchronized FileChannel getChannel() throws IOException {
+        if (this.channel == null || !this.channel.isOpen()) {
+            RandomAccessFile raf;
+            if (this.file.exists() && !this.file.canWrite()) {
+                raf = new RandomAccessFile(this.file, "r");
+            } else {
+                raf = new RandomAccessFile(this.file, "rw");
+            }
+            this.channel = raf.getChannel();
+            this.cachedNumPages = (int) (this.channel.size() / (long)this.pageSize);
+        }
+        return this.channel;
+    }
+
+    /**
+     * Closes the channel backing this file. A later read or write reopens it.
+     */
+    public synchronized void close() throws IOException {
+        if (this.channel != null) {
+            this.channel.close();
+            this.channel = null;
+            this.cachedNumPages = -1;
+        }
+    }
+
     // see DbFile.java for javadocs
     // Check: for now process FileNotFoundException and IOException are caught here, probably don't want them thrown to calling function
     public Page readPage(PageId pid) {
-        int pageNo = pid.pageNumber();
         try {
-            RandomAccessFile raf = new RandomAccessFile(this.file, "r");
-            if (pageNo < numPages()) {
-                byte[] pageData = new byte[this.pageSize];
-                // Check: the offset param in read's not doing what I supposed it would do; added seek call instead
-                raf.seek(pageNo * this.pageSize);
-                raf.read(pageData, 0, this.pageSize);
-                // A cast exception would be thrown if pid cannot be converted to HeapPageId
-                HeapPage heapPage = new HeapPage((HeapPageId)pid, pageData);
-                raf.close();
-                return heapPage;
-            } else {
-                raf.close();
-                throw new IllegalArgumentException();
-            }
+            // A cast exception would be thrown if pid cannot be converted to HeapPageId
+            return new HeapPage((HeapPageId)pid, this.readPageData(pid));
         } catch (FileNotFoundException e) {
             e.printStackTrace();
         } catch (IOException e) {
@@ -181,30 +326,122 @@ public class HeapFile implements DbFile {
         return null;
     }
 
+    /**
+     * Reads the raw bytes of the specified page from disk; subclasses with a
+     * different page format build their pages from these bytes.
+     *
+     * @throws IllegalArgumentException if the page does not exist in this file.
+     */
+    protected byte[] readPageData(PageId pid) throws IOException {
+        int pageNo = pid.pageNumber();
+        if (pageNo < 0 || pageNo >= numPages()) {
+            throw new IllegalArgumentException();
+        }
+        FileChannel fc = this.getChannel();
+        ByteBuffer buffer = ByteBuffer.allocate(this.pageSize);
+        long position = (long)pageNo * this.pageSize;
+        // a positional read may return short; keep reading until the page is full or the file ends
+        while (buffer.hasRemaining()) {
+            int read = fc.read(buffer, position + buffer.position());
+            if (read < 0) {
+                break;
+            }
+        }
+        return buffer.array();
+    }
+
     // see DbFile.java for javadocs
     public void writePage(Page page) throws IOException {
-        RandomAccessFile raf = new RandomAccessFile(this.file, "rw");
-        byte[] data = page.getPageData();
+        FileChannel fc = this.getChannel();
+        ByteBuffer buffer = ByteBuffer.wrap(page.getPageData(), 0, this.pageSize);
+        int pageNo = page.getId().pageNumber();
         // we are not always writing to the end of the file, so it's wrong to use numPages() here
-        raf.seek(page.getId().pageNumber() * this.pageSize);
+        long position = (long)pageNo * this.pageSize;
         page.markDirty(false, null);
-        raf.write(data, 0, this.pageSize);
-        raf.close();
+        while (buffer.hasRemaining()) {
+            fc.write(buffer, position + buffer.position());
+        }
+        synchronized (this) {
+            if (pageNo >= this.cachedNumPages) {
+                this.cachedNumPages = pageNo + 1;
+            }
+        }
+    }
+
+    /**
+     * Writes the data of consecutive pages, starting at page firstPageNo,
+     * with a single positional write. Used by the BufferPool's background
+     * writer to coalesce the writes of adjacent dirty pages.
+     *
+     * @param firstPageNo the number of the first page to write
+     * @param pageData the bytes of each page, as returned by getPageData
+     */
+    void writePages(int firstPageNo, List<byte[]> pageData) throws IOException {
+        FileChannel fc = this.getChannel();
+        ByteBuffer buffer = ByteBuffer.allocate(pageData.size() * this.pageSize);
+        for (byte[] data : pageData) {
+            buffer.put(data, 0, this.pageSize);
+        }
+        buffer.flip();
+        long position = (long)firstPageNo * this.pageSize;
+        while (buffer.hasRemaining()) {
+            fc.write(buffer, position + buffer.position());
+        }
+        synchronized (this) {
+            if (firstPageNo + pageData.size() > this.cachedNumPages) {
+                this.cachedNumPages = firstPageNo + pageData.size();
+            }
+        }
+    }
+
+    /**
+     * Returns the number of pages in this HeapFile. The count is read from
+     * the file once and then maintained by writePage, so calling this in a
+     * loop does not stat the file.
+     */
+    public synchronized int numPages() {
+        if (this.cachedNumPages < 0) {
+            if (!this.file.exists()) {
+                return 0;
+            }
+            try {
+                this.getChannel();
+            } catch (IOException e) {
+                // file cannot be opened (yet); fall back to its length on disk
+                return (int) (this.file.length() / (long)this.pageSize);
+            }
+        }
+        return this.cachedNumPages;
     }
 
     /**
-     * Returns the number of pages in this HeapFile.
+     * Returns the map of pages with free slots in this file. It is kept up
+     * to date by {@link HeapPage#insertTuple} and {@link HeapPage#deleteTuple}.
      */
-    public int numPages() {
-        return (int) (this.file.length() / (long)this.pageSize);
+    public FreeSpaceMap getFreeSpaceMap() {
+        return this.freeSpaceMap;
+    }
+
+    /**
+     * Returns the zone map of this file, loading it on first use. The zone
+     * map describes HeapPages; subclasses with another page format return
+     * null.
+     */
+    public synchronized ZoneMap getZoneMap() {
+        if (this.zoneMap == null) {
+            this.zoneMap = new ZoneMap(ZoneMap.sidecarFile(this.file), this.tupleDesc);
+        }
+        return this.zoneMap;
     }
 
     // see DbFile.java for javadocs
     public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
             throws DbException, IOException, TransactionAbortedException {
         ArrayList<Page> modifiedPages = new ArrayList<Page>();
-        for (int i = 0; i < this.numPages(); i++) {
-            PageId pageId = new HeapPageId(this.getId(), i);
+        // the free space map hands out pages with room, and each unknown page at most once
+        int pageNo;
+        while ((pageNo = this.freeSpaceMap.nextCandidate(this.numPages())) >= 0) {
+            PageId pageId = new HeapPageId(this.getId(), pageNo);
             // use BufferPool's get page to access the desired page, instead of readPage from this class
             HeapPage heapPage = (HeapPage) Database.getBufferPool().getPage(tid, pageId, Permissions.READ_WRITE);
             if (heapPage.getNumEmptySlots() > 0) {
@@ -213,6 +450,7 @@ public class HeapFile implements DbFile {
                 modifiedPages.add(heapPage);
                 return modifiedPages;
             }
+            this.freeSpaceMap.update(pageNo, false);
         }
         // Create a new page and append it to the physical file on disk
         HeapPageId pageId = new HeapPageId(this.getId(), this.numPages());
@@ -223,6 +461,12 @@ public class HeapFile implements DbFile {
         modifiedPages.add(newHeapPage);
         // whenever we add a new page, we write the page to file immediately per the spec
         this.writePage(newHeapPage);
+        this.freeSpaceMap.pageAppended(pageId.pageNumber(), newHeapPage.getNumEmptySlots() > 0);
+        // keep the zone map of a file whose pages scans have already recorded complete
+        ZoneMap zones = this.getZoneMap();
+        if (zones != null && zones.isKnown(pageId.pageNumber() - 1)) {
+            zones.record(newHeapPage);
+        }
         return modifiedPages;
     }
 
@@ -242,8 +486,25 @@ public class HeapFile implements DbFile {
         return new HeapFileIterator(tid, this);
     }
 
+    /**
+     * Returns an iterator over the tuples of this file that skips the pages
+     * whose zone map proves that no tuple on them satisfies all of the given
+     * predicates. The tuples of the remaining pages are returned unfiltered.
+     */
+    public DbFileIterator iterator(TransactionId tid, Predicate[] predicates) {
+        return new HeapFileIterator(tid, this, predicates);
+    }
+
     File file;
     TupleDesc tupleDesc;
     int pageSize;
+    private FileChannel channel;
+    private int cachedNumPages;
+    private volatile int readAhead;
+    private final FreeSpaceMap freeSpaceMap;
+    private ZoneMap zoneMap;
+
+    /** Read-ahead window of a scan before it has adapted to the scan rate. */
+    static final int READ_AHEAD_INITIAL_WINDOW = 2;
 }
 
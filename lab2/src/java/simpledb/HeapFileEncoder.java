@@ -106,6 +106,8 @@ public class HeapFileEncoder {
 
     BufferedReader br = new BufferedReader(new FileReader(inFile));
     FileOutputStream os = new FileOutputStream(outFile);
+    // the zone map of a previous file of this name describes other pages
+    ZoneMap.sidecarFile(outFile).delete();
 
     // our numbers probably won't be much larger than 1024 digits
     char buf[] = new char[1024];
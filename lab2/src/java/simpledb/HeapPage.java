@@ -2,6 +2,7 @@ package simpledb;
 
 import java.util.*;
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Each instance of HeapPage stores data for one page of HeapFiles and 
@@ -18,11 +19,14 @@ public class HeapPage implements Page {
     final byte header[];
     final Tuple tuples[];
     final int numSlots;
+    private final ByteBuffer source;
+    private final int[] fieldOffsets;
 
     private boolean dirty;
     private TransactionId dirtyTid;
 
     byte[] oldData;
+    private ByteBuffer oldDataSource;
     private final Byte oldDataLock=new Byte((byte)0);
 
     /**
@@ -42,27 +46,41 @@ public class HeapPage implements Page {
      * @see BufferPool#getPageSize()
      */
     public HeapPage(HeapPageId id, byte[] data) throws IOException {
+        // the copy doubles as the before image, so callers may reuse data
+        this(id, ByteBuffer.wrap(data.clone()));
+    }
+
+    /**
+     * Create a HeapPage from a buffer holding the page bytes, e.g. a slice
+     * of a memory mapped file. The page is parsed from the buffer's current
+     * position; the buffer is not copied and must not change while this
+     * page, its tuples or its before image may still be read.
+     *
+     * @see #HeapPage(HeapPageId, byte[])
+     * @see MappedHeapFile
+     */
+    public HeapPage(HeapPageId id, ByteBuffer data) throws IOException {
         this.pid = id;
         this.td = Database.getCatalog().getTupleDesc(id.getTableId());
         this.numSlots = getNumTuples();
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        this.oldDataSource = data.slice();
+        // the page bytes are kept as they are and never written to; tuples
+        // and fields are decoded from them when they are first asked for
+        this.source = this.oldDataSource.duplicate();
 
         // allocate and read the header slots of this page
         header = new byte[getHeaderSize()];
-        for (int i=0; i<header.length; i++)
-            header[i] = dis.readByte();
-        
+        this.source.get(header);
+
         tuples = new Tuple[numSlots];
-        try{
-            // allocate and read the actual records of this page
-            for (int i=0; i<tuples.length; i++)
-                tuples[i] = readNextTuple(dis,i);
-        } catch (NoSuchElementException e) {
-            e.printStackTrace();
+        fieldOffsets = new int[td.numFields()];
+        for (int j = 1; j < fieldOffsets.length; j++) {
+            fieldOffsets[j] = fieldOffsets[j-1] + td.getFieldType(j-1).getLen();
         }
-        dis.close();
 
-        setBeforeImage();
+        // the before image is the unmodified page data; it is only copied out
+        // of oldDataSource if someone asks for it
+        this.oldData = null;
 
         this.dirty = false;
         this.dirtyTid = null;
@@ -91,6 +109,11 @@ public class HeapPage implements Page {
             byte[] oldDataRef = null;
             synchronized(oldDataLock)
             {
+                if (oldData == null) {
+                    oldData = new byte[oldDataSource.remaining()];
+                    oldDataSource.duplicate().get(oldData);
+                    oldDataSource = null;
+                }
                 oldDataRef = oldData;
             }
             return new HeapPage(pid,oldDataRef);
@@ -106,6 +129,7 @@ public class HeapPage implements Page {
         synchronized(oldDataLock)
         {
             oldData = getPageData().clone();
+            oldDataSource = null;
         }
     }
 
@@ -117,39 +141,56 @@ public class HeapPage implements Page {
     }
 
     /**
-     * Suck up tuples from the source file.
+     * @return the tuple in slot i
+     * @throws NoSuchElementException if the slot is empty
      */
-    private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-        // if associated bit is not set, read forward to the next tuple, and
-        // return null.
-        if (!isSlotUsed(slotId)) {
-            for (int i=0; i<td.getSize(); i++) {
-                try {
-                    dis.readByte();
-                } catch (IOException e) {
-                    throw new NoSuchElementException("error reading empty tuple");
-                }
-            }
-            return null;
+    public Tuple getTuple(int i) {
+        if (i < 0 || i >= this.numSlots || !this.isSlotUsed(i)) {
+            throw new NoSuchElementException("slot " + i + " is empty");
         }
+        return this.tupleAt(i);
+    }
 
-        // read fields in the tuple
-        Tuple t = new Tuple(td);
-        RecordId rid = new RecordId(pid, slotId);
-        t.setRecordId(rid);
-        try {
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = td.getFieldType(j).parse(dis);
-                t.setField(j, f);
-            }
-        } catch (java.text.ParseException e) {
-            e.printStackTrace();
-            throw new NoSuchElementException("parsing error!");
+    /**
+     * Returns the tuple in the given used slot. Tuples read from disk are
+     * created on first access as views that decode each field from the page
+     * bytes when it is first read. Threads that race to create the view of
+     * a slot may each get their own; either is valid.
+     */
+    private Tuple tupleAt(int slotId) {
+        Tuple t = this.tuples[slotId];
+        if (t == null) {
+            t = new LazyTuple(this, slotId);
+            this.tuples[slotId] = t;
         }
-
         return t;
     }
 
+    /** @return the byte offset of the given slot's record in the page */
+    int slotOffset(int slotId) {
+        return this.header.length + slotId * this.td.getSize();
+    }
+
+    /**
+     * Decodes field j of the record in the given slot from the page bytes
+     * into t. Only absolute reads of the page bytes are used, so the page
+     * needs no locking; the caller must hold the monitor of t, since cached
+     * tuples are shared by the threads that read the page.
+     */
+    private void decodeField(int slotId, int j, Tuple t) {
+        int offset = this.slotOffset(slotId) + this.fieldOffsets[j];
+        if (this.td.getFieldType(j) == Type.INT_TYPE) {
+            t.setInt(j, this.source.getInt(offset));
+            return;
+        }
+        int strLen = Math.max(0, Math.min(this.source.getInt(offset), Type.STRING_LEN));
+        byte[] bs = new byte[strLen];
+        for (int k = 0; k < strLen; k++) {
+            bs[k] = this.source.get(offset + 4 + k);
+        }
+        t.setString(j, new String(bs));
+    }
+
     /**
      * Generates a byte array representing the contents of this page.
      * Used to serialize this page to disk.
@@ -163,63 +204,39 @@ public class HeapPage implements Page {
      */
     public byte[] getPageData() {
         int len = BufferPool.getPageSize();
-        ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
-        DataOutputStream dos = new DataOutputStream(baos);
+        byte[] data = new byte[len];
+        ByteBuffer out = ByteBuffer.wrap(data);
 
         // create the header of the page
-        for (int i=0; i<header.length; i++) {
-            try {
-                dos.writeByte(header[i]);
-            } catch (IOException e) {
-                // this really shouldn't happen
-                e.printStackTrace();
-            }
-        }
+        out.put(header);
 
-        // create the tuples
+        // create the tuples; empty slots and the padding stay zero
+        int tupleSize = td.getSize();
         for (int i=0; i<tuples.length; i++) {
-
-            // empty slot
             if (!isSlotUsed(i)) {
-                for (int j=0; j<td.getSize(); j++) {
-                    try {
-                        dos.writeByte(0);
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-
+                continue;
+            }
+            int offset = slotOffset(i);
+            if (tuples[i] == null) {
+                // never looked at, so still exactly as read
+                for (int k=0; k<tupleSize; k++) {
+                    data[offset + k] = source.get(offset + k);
                 }
                 continue;
             }
-
-            // non-empty slot
             for (int j=0; j<td.numFields(); j++) {
-                Field f = tuples[i].getField(j);
-                try {
-                    f.serialize(dos);
-                
-                } catch (IOException e) {
-                    e.printStackTrace();
+                out.position(offset + fieldOffsets[j]);
+                if (td.getFieldType(j) == Type.INT_TYPE) {
+                    out.putInt(tuples[i].getInt(j));
+                } else {
+                    byte[] bs = tuples[i].getString(j).getBytes();
+                    int strLen = Math.min(bs.length, Type.STRING_LEN);
+                    out.putInt(strLen);
+                    out.put(bs, 0, strLen);
                 }
             }
         }
-
-        // padding
-        int zerolen = BufferPool.getPageSize() - (header.length + td.getSize() * tuples.length); //- numSlots * td.getSize();
-        byte[] zeroes = new byte[zerolen];
-        try {
-            dos.write(zeroes, 0, zerolen);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        try {
-            dos.flush();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        return baos.toByteArray();
+        return data;
     }
 
     /**
@@ -249,6 +266,7 @@ public class HeapPage implements Page {
             //this.tuples[rid.tupleno()] = null;
             this.markSlotUsed(rid.tupleno(), false);
             t.setRecordId(null);
+            this.updateFreeSpaceMap();
         } else {
             throw new DbException("The tuple to be deleted is not on this page, or is already empty.");
         }
@@ -275,6 +293,43 @@ public class HeapPage implements Page {
                     break;
                 }
             }
+            this.updateFreeSpaceMap();
+            this.updateZoneMap(t);
+        }
+    }
+
+    /**
+     * Reports this page's free space to the free space map of the HeapFile
+     * it belongs to, if that file is registered in the catalog.
+     */
+    private void updateFreeSpaceMap() {
+        DbFile file;
+        try {
+            file = Database.getCatalog().getDatabaseFile(this.pid.getTableId());
+        } catch (NoSuchElementException e) {
+            return;
+        }
+        if (file instanceof HeapFile) {
+            ((HeapFile) file).getFreeSpaceMap().update(this.pid.pageNumber(), this.getNumEmptySlots() > 0);
+        }
+    }
+
+    /**
+     * Widens this page's bounds in the zone map of the HeapFile it belongs
+     * to, if that file is registered in the catalog, to cover a new tuple.
+     */
+    private void updateZoneMap(Tuple t) {
+        DbFile file;
+        try {
+            file = Database.getCatalog().getDatabaseFile(this.pid.getTableId());
+        } catch (NoSuchElementException e) {
+            return;
+        }
+        if (file instanceof HeapFile) {
+            ZoneMap zones = ((HeapFile) file).getZoneMap();
+            if (zones != null) {
+                zones.include(this.pid.pageNumber(), t);
+            }
         }
     }
 
@@ -338,14 +393,112 @@ public class HeapPage implements Page {
      * (note that this iterator shouldn't return tuples in empty slots!)
      */
     public Iterator<Tuple> iterator() {
-        List<Tuple> usedTuples = new ArrayList<Tuple>();
-        for (int i = 0; i < this.tuples.length; i++) {
-            if (isSlotUsed(i)) {
-                usedTuples.add(this.tuples[i]);
+        return new Iterator<Tuple>() {
+            private int slot = nextUsedSlot(0);
+
+            public boolean hasNext() {
+                return this.slot < numSlots;
             }
+
+            public Tuple next() {
+                if (!this.hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                Tuple t = tupleAt(this.slot);
+                this.slot = nextUsedSlot(this.slot + 1);
+                return t;
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    /** @return the first used slot at or after from, or numSlots if none */
+    private int nextUsedSlot(int from) {
+        while (from < this.numSlots && !isSlotUsed(from)) {
+            from++;
         }
-        return usedTuples.listIterator();
+        return from;
     }
 
-}
+    /**
+     * A tuple of a HeapPage that decodes its fields from the page bytes on
+     * first access. The bytes it reads from are never modified, so the view
+     * stays valid after its slot is deleted or the page is evicted.
+     * <p>
+     * The view is cached in the page and shared by every thread that reads
+     * the page, so fields are decoded and set under the tuple's monitor, and
+     * a field is marked loaded only once its value is in place. Every read
+     * of a field calls load first, which takes the monitor and so sees the
+     * value another thread decoded.
+     */
+    private static final class LazyTuple extends Tuple {
+
+        private static final long serialVersionUID = 1L;
 
+        LazyTuple(HeapPage page, int slotId) {
+            super(page.td);
+            this.page = page;
+            this.slotId = slotId;
+            this.loaded = new long[(page.td.numFields() + 63) / 64];
+            this.setRecordId(new RecordId(page.pid, slotId));
+        }
+
+        protected synchronized void load(int i) {
+            if (!this.isLoaded(i) && i < this.getTupleDesc().numFields()) {
+                // decodeField sets the field, which marks it loaded
+                this.page.decodeField(this.slotId, i, this);
+            }
+        }
+
+        protected synchronized void loadAll() {
+            for (int i = 0; i < this.getTupleDesc().numFields(); i++) {
+                this.load(i);
+            }
+        }
+
+        // a field that is set is never decoded again
+
+        public synchronized void setField(int i, Field f) {
+            super.setField(i, f);
+            this.markLoaded(i);
+        }
+
+        public synchronized void setInt(int i, int value) {
+            super.setInt(i, value);
+            this.markLoaded(i);
+        }
+
+        public synchronized void setString(int i, String value) {
+            super.setString(i, value);
+            this.markLoaded(i);
+        }
+
+        private boolean isLoaded(int i) {
+            return (this.loaded[i >>> 6] & (1L << i)) != 0;
+        }
+
+        private void markLoaded(int i) {
+            if (i < this.getTupleDesc().numFields()) {
+                this.loaded[i >>> 6] |= 1L << i;
+            }
+        }
+
+        /** Serializes as a plain tuple; the page bytes are not serializable. */
+        private synchronized Object writeReplace() {
+            Tuple t = new Tuple(this.getTupleDesc());
+            for (int i = 0; i < this.getTupleDesc().numFields(); i++) {
+                t.setField(i, this, i);
+            }
+            t.setRecordId(this.getRecordId());
+            return t;
+        }
+
+        private final transient HeapPage page;
+        private final int slotId;
+        private final long[] loaded;
+    }
+
+}
@@ -0,0 +1,128 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * IndexNestedLoopJoin is an equi-join whose inner side is a base table with
+ * a {@link HashIndexFile} on the join field. For each outer tuple it looks
+ * up the outer join value in the index and fetches the inner tuples the
+ * matching entries point at, so the inner table is never scanned.
+ * <p>
+ * The inner child is the SeqScan of the indexed table; it describes the
+ * inner tuples but is not read. Output tuples are the concatenation of an
+ * outer and an inner tuple, exactly as produced by {@link Join}.
+ */
+public class IndexNestedLoopJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private DbIterator child1;
+    private SeqScan child2;
+    private final HashIndexFile index;
+    private final JoinPredicate predicate;
+    private TupleDesc td;
+
+    private Tuple outerTup;
+    private transient DbFileIterator matches;
+
+    /**
+     * Constructor.
+     *
+     * @param p
+     *            The predicate to use to join the children; its operator must
+     *            be Predicate.Op.EQUALS, and its second field the field of the
+     *            inner table the index is built on
+     * @param child1
+     *            Iterator for the left (outer) relation to join
+     * @param child2
+     *            the scan of the right (inner) table
+     * @param index
+     *            a hash index on the join field of the inner table, as built
+     *            by {@link HashIndexFile#createIndex}
+     * @throws IllegalArgumentException if p is not an equality predicate
+     */
+    public IndexNestedLoopJoin(JoinPredicate p, DbIterator child1, SeqScan child2, HashIndexFile index) {
+        if (p.getOperator() != Predicate.Op.EQUALS) {
+            throw new IllegalArgumentException("IndexNestedLoopJoin only supports equality predicates");
+        }
+        this.predicate = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.index = index;
+        this.td = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return this.predicate;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return this.td;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        super.open();
+        this.child1.open();
+        this.outerTup = null;
+        this.matches = null;
+    }
+
+    public void close() {
+        super.close();
+        this.child1.close();
+        this.closeMatches();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        this.child1.rewind();
+        this.outerTup = null;
+        this.closeMatches();
+    }
+
+    private void closeMatches() {
+        if (this.matches != null) {
+            this.matches.close();
+            this.matches = null;
+        }
+    }
+
+    /**
+     * Returns the next joined tuple: the next inner tuple matching the
+     * current outer tuple, or else the first match of a following outer
+     * tuple.
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        TransactionId tid = this.child2.getTransactionId();
+        while (true) {
+            if (this.matches != null && this.matches.hasNext()) {
+                RecordId rid = BTreeFile.entryRecordId(this.matches.next(), this.child2.getTableId());
+                return Tuple.merge(this.td, this.outerTup, IndexScan.fetch(tid, rid));
+            }
+            this.closeMatches();
+            if (!this.child1.hasNext()) {
+                return null;
+            }
+            this.outerTup = this.child1.next();
+            Field key = this.outerTup.getField(this.predicate.getField1());
+            if (key != null) {
+                this.matches = this.index.lookup(tid, key);
+                this.matches.open();
+            }
+        }
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { this.child1, this.child2 };
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        if (children.length > 1 && children[1] instanceof SeqScan) {
+            this.child1 = children[0];
+            this.child2 = (SeqScan) children[1];
+            this.td = TupleDesc.merge(this.child1.getTupleDesc(), this.child2.getTupleDesc());
+        }
+    }
+}
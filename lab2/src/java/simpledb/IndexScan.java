@@ -0,0 +1,120 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * IndexScan returns the tuples of a table whose value in an indexed field
+ * satisfies a comparison with a constant. It reads the matching entries from
+ * the field's {@link BTreeFile} index, in key order, and fetches each tuple
+ * they point at from the table's pages through the BufferPool.
+ * <p>
+ * The tuples have the schema of the table, like those of a {@link SeqScan}.
+ */
+public class IndexScan implements DbIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Creates an index scan over the tuples of the specified table that
+     * satisfy <tt>field op key</tt>, where field is the field the index is
+     * built on.
+     *
+     * @param tid
+     *            The transaction this scan is running as a part of.
+     * @param tableid
+     *            the table to scan; must be stored in a HeapFile or a
+     *            ColumnFile.
+     * @param tableAlias
+     *            the alias of this table
+     * @param index
+     *            an index over a field of the table, as built by
+     *            {@link BTreeFile#createIndex}
+     * @param op
+     *            the comparison; one of those {@link #supports} accepts
+     * @param key
+     *            the value the indexed field is compared to
+     */
+    public IndexScan(TransactionId tid, int tableid, String tableAlias, BTreeFile index,
+            Predicate.Op op, Field key) {
+        if (!supports(op)) {
+            throw new IllegalArgumentException("an index scan cannot evaluate " + op);
+        }
+        this.transactionId = tid;
+        this.tableId = tableid;
+        this.tableAlias = tableAlias;
+        this.op = op;
+        this.key = key;
+        this.entries = index.indexIterator(tid, op, key);
+    }
+
+    /**
+     * @return true if an index scan can find the keys satisfying op by
+     *         reading a single range of the index
+     */
+    public static boolean supports(Predicate.Op op) {
+        return op == Predicate.Op.EQUALS || op == Predicate.Op.LESS_THAN
+                || op == Predicate.Op.LESS_THAN_OR_EQ || op == Predicate.Op.GREATER_THAN
+                || op == Predicate.Op.GREATER_THAN_OR_EQ;
+    }
+
+    /** @return the alias of the table this operator scans. */
+    public String getAlias() {
+        return this.tableAlias;
+    }
+
+    /** @return the comparison this scan evaluates */
+    public Predicate.Op getOp() {
+        return this.op;
+    }
+
+    /** @return the value the indexed field is compared to */
+    public Field getKey() {
+        return this.key;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return Database.getCatalog().getTupleDesc(this.tableId);
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        this.entries.open();
+    }
+
+    public boolean hasNext() throws DbException, TransactionAbortedException {
+        return this.entries.hasNext();
+    }
+
+    public Tuple next() throws DbException, TransactionAbortedException,
+            NoSuchElementException {
+        return fetch(this.transactionId, BTreeFile.entryRecordId(this.entries.next(), this.tableId));
+    }
+
+    /**
+     * Reads the tuple with the given RecordId from its page, which must be a
+     * HeapPage or a ColumnPage.
+     */
+    static Tuple fetch(TransactionId tid, RecordId rid) throws DbException, TransactionAbortedException {
+        Page page = Database.getBufferPool().getPage(tid, rid.getPageId(), Permissions.READ_ONLY);
+        if (page instanceof HeapPage) {
+            return ((HeapPage) page).getTuple(rid.tupleno());
+        } else if (page instanceof ColumnPage) {
+            return ((ColumnPage) page).getTuple(rid.tupleno());
+        }
+        throw new DbException("cannot fetch tuples from pages of table " + rid.getPageId().getTableId());
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        this.entries.rewind();
+    }
+
+    public void close() {
+        this.entries.close();
+    }
+
+    private final TransactionId transactionId;
+    private final int tableId;
+    private final String tableAlias;
+    private final Predicate.Op op;
+    private final Field key;
+    private final DbFileIterator entries;
+}
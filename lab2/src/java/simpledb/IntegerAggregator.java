@@ -1,9 +1,11 @@
 package simpledb;
 
-import java.util.*;
-
 /**
  * Knows how to compute some aggregate over a set of IntFields.
+ * <p>
+ * Only a running count, sum, min and max are kept per group (see
+ * {@link AggregateGroupTable}), so memory use is proportional to the number
+ * of groups.
  */
 public class IntegerAggregator implements Aggregator {
 
@@ -13,8 +15,7 @@ public class IntegerAggregator implements Aggregator {
     private int aField;
     private Op op;
 
-    private HashMap<Field, ArrayList<IntField>> tupleStorage;
-    private ArrayList<IntField> tupleStorageNoGrouping;
+    private AggregateGroupTable groups;
 
     /**
      * Aggregate constructor
@@ -36,11 +37,7 @@ public class IntegerAggregator implements Aggregator {
         this.aField = afield;
         this.op = what;
 
-        if (isGrouping()) {
-            this.tupleStorage = new HashMap<Field, ArrayList<IntField>>();
-        } else {
-            this.tupleStorageNoGrouping = new ArrayList<IntField>();
-        }
+        this.groups = new AggregateGroupTable(isGrouping() ? gbfieldtype : null);
     }
 
     public boolean isGrouping() {
@@ -55,87 +52,31 @@ public class IntegerAggregator implements Aggregator {
      *            the Tuple containing an aggregate field and a group-by field
      */
     public void mergeTupleIntoGroup(Tuple tup) {
+        int group = 0;
         if (isGrouping()) {
-            Field gbValue = tup.getField(this.gbField);
-            if (this.tupleStorage.containsKey(gbValue)) {
-                this.tupleStorage.get(gbValue).add((IntField)tup.getField(this.aField));
-            } else {
-                this.tupleStorage.put(gbValue, new ArrayList<IntField>());
-                this.tupleStorage.get(gbValue).add((IntField)tup.getField(this.aField));
-            }
-        } else {
-            this.tupleStorageNoGrouping.add((IntField)tup.getField(this.aField));
+            group = this.gbFieldType == Type.INT_TYPE ? this.groups.groupOfInt(tup.getInt(this.gbField))
+                    : this.groups.groupOf(tup.getField(this.gbField));
         }
+        this.groups.add(group, tup.getInt(this.aField));
     }
 
-    /* This should be called with fields.size() > 0; similar for the following functions */
-    public IntField getAvg(ArrayList<IntField> fields) {
-        int sum = 0;
-        for (int i = 0; i < fields.size(); i++) {
-            sum += fields.get(i).getValue();
-        }
-        return new IntField(sum / fields.size());
-    }
-
-    public IntField getMin(ArrayList<IntField> fields) {
-        int min = Integer.MAX_VALUE;
-        for (int i = 0; i < fields.size(); i++) {
-            if (fields.get(i).getValue() < min) {
-                min = fields.get(i).getValue();
+    public void mergeBatchIntoGroup(TupleBatch batch) {
+        int n = batch.size();
+        int[] values = batch.getIntColumn(this.aField);
+        if (!isGrouping()) {
+            for (int row = 0; row < n; row++) {
+                this.groups.add(0, values[row]);
             }
-        }
-        return new IntField(min);
-    }
-
-    public IntField getMax(ArrayList<IntField> fields) {
-        int max = Integer.MIN_VALUE;
-        for (int i = 0; i < fields.size(); i++) {
-            if (fields.get(i).getValue() > max) {
-                max = fields.get(i).getValue();
+        } else if (this.gbFieldType == Type.INT_TYPE) {
+            int[] keys = batch.getIntColumn(this.gbField);
+            for (int row = 0; row < n; row++) {
+                this.groups.add(this.groups.groupOfInt(keys[row]), values[row]);
+            }
+        } else {
+            for (int row = 0; row < n; row++) {
+                this.groups.add(this.groups.groupOf(batch.getField(this.gbField, row)), values[row]);
             }
         }
-        return new IntField(max);
-    }
-
-    public IntField getCount(ArrayList<IntField> fields) {
-        return new IntField(fields.size());
-    }
-
-    public IntField getSum(ArrayList<IntField> fields) {
-        int sum = 0;
-        for (int i = 0; i < fields.size(); i++) {
-            sum += fields.get(i).getValue();
-        }
-        return new IntField(sum);
-    }
-
-    public IntField getAggregate(ArrayList<IntField> fields) {
-        switch (this.op) {
-            case MIN:
-                if (fields.size() > 0) {
-                    return this.getMin(fields);
-                } else {
-                    return null;
-                }
-            case MAX:
-                if (fields.size() > 0) {
-                    return this.getMax(fields);
-                } else {
-                    return null;
-                }
-            case AVG:
-                if (fields.size() > 0) {
-                    return this.getAvg(fields);
-                } else {
-                    return null;
-                }
-            case SUM:
-                return this.getSum(fields);
-            case COUNT:
-                return this.getCount(fields);
-        }
-        // we return null for aggregation op that we don't recognize
-        return null;
     }
 
     /**
@@ -147,36 +88,8 @@ public class IntegerAggregator implements Aggregator {
      *         the constructor.
      */
     public DbIterator iterator() {
-        /* TODO: write about iterator() call recalculates all the aggregates, which seems necessary given how the test case is formulated 
-                 (merge one tuple, get iterator, expect the result to be updated). Note that recalculate is not necessary unless the source tuples 
-                 change, but as a simplification here we implement it like this. */
-        TupleDesc td;
-        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
-
-        if (isGrouping()) {
-            Type[] typeAr = new Type[2];
-            typeAr[0] = this.gbFieldType;
-            typeAr[1] = Type.INT_TYPE;
-            td = new TupleDesc(typeAr);
-
-            for (Map.Entry<Field, ArrayList<IntField>> entry : this.tupleStorage.entrySet()) {
-                IntField aggregate = this.getAggregate(entry.getValue());
-                Tuple tup = new Tuple(td);
-                tup.setField(0, entry.getKey());
-                tup.setField(1, aggregate);
-                tuples.add(tup);
-            }
-        } else {
-            Type[] typeAr = new Type[1];
-            typeAr[0] = Type.INT_TYPE;
-            td = new TupleDesc(typeAr);
-
-            Tuple tup = new Tuple(td);
-            tup.setField(0, this.getAggregate(this.tupleStorageNoGrouping));
-            tuples.add(tup);
-        }
-
-        TupleIterator iterator = new TupleIterator(td, tuples);
-        return iterator;
+        // the aggregates are kept up to date by mergeTupleIntoGroup, so this
+        // only materializes one tuple per group
+        return this.groups.iterator(this.op);
     }
 }
@@ -16,6 +16,16 @@ public class Join extends Operator {
 
     private JoinPredicate predicate;
 
+    // batch mode state
+    private transient BatchIterator batchChild1;
+    private transient BatchIterator batchChild2;
+    private transient TupleBatch outBatch;
+    private transient TupleBatch outerBatch;
+    private transient TupleBatch innerBatch;
+    private int outerPos;
+    private int innerPos;
+    private boolean firstOuterBatch;
+
     /**
      * Constructor. Accepts to children to join and the predicate to join them
      * on
@@ -71,6 +81,7 @@ public class Join extends Operator {
         super.open();
         this.child1.open();
         this.child2.open();
+        this.resetBatchState();
    }
 
     public void close() {
@@ -83,6 +94,88 @@ public class Join extends Operator {
         this.child1.rewind();
         this.child2.rewind();
         this.child1Tup = null;
+        this.resetBatchState();
+    }
+
+    private void resetBatchState() {
+        this.outerBatch = null;
+        this.innerBatch = null;
+        this.firstOuterBatch = true;
+    }
+
+    /**
+     * Returns the next batch of joined tuples. In batch mode the outer child
+     * is read a batch at a time and the inner child is scanned once per outer
+     * batch, comparing every inner row with every row of the outer batch.
+     * INT_TYPE join fields are compared without creating Field objects.
+     * Within an outer batch, the output is ordered by the inner tuple.
+     *
+     * @see BatchIterator#nextBatch
+     */
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (this.batchChild1 == null) {
+            this.batchChild1 = BatchAdapter.adapt(this.child1);
+            this.batchChild2 = BatchAdapter.adapt(this.child2);
+        }
+        if (this.outBatch == null) {
+            this.outBatch = new TupleBatch(this.getTupleDesc());
+        }
+        this.outBatch.clear();
+        int field1 = this.predicate.getField1();
+        int field2 = this.predicate.getField2();
+        Predicate.Op op = this.predicate.getOperator();
+        boolean ints = this.child1.getTupleDesc().getFieldType(field1) == Type.INT_TYPE
+                && this.child2.getTupleDesc().getFieldType(field2) == Type.INT_TYPE;
+
+        while (!this.outBatch.isFull()) {
+            if (this.outerBatch == null) {
+                this.outerBatch = this.batchChild1.nextBatch();
+                if (this.outerBatch == null) {
+                    break;
+                }
+                if (!this.firstOuterBatch) {
+                    this.child2.rewind();
+                }
+                this.firstOuterBatch = false;
+                this.innerBatch = null;
+            }
+            if (this.innerBatch == null || this.innerPos >= this.innerBatch.size()) {
+                this.innerBatch = this.batchChild2.nextBatch();
+                this.innerPos = 0;
+                this.outerPos = 0;
+                if (this.innerBatch == null) {
+                    // this outer batch is done
+                    this.outerBatch = null;
+                    continue;
+                }
+            }
+            int outerSize = this.outerBatch.size();
+            if (ints) {
+                int[] outerKeys = this.outerBatch.getIntColumn(field1);
+                int innerKey = this.innerBatch.getInt(field2, this.innerPos);
+                while (this.outerPos < outerSize && !this.outBatch.isFull()) {
+                    if (IntField.compare(op, outerKeys[this.outerPos], innerKey)) {
+                        this.outBatch.addJoined(this.outerBatch, this.outerPos,
+                                this.innerBatch, this.innerPos);
+                    }
+                    this.outerPos++;
+                }
+            } else {
+                Field innerKey = this.innerBatch.getField(field2, this.innerPos);
+                while (this.outerPos < outerSize && !this.outBatch.isFull()) {
+                    if (this.outerBatch.getField(field1, this.outerPos).compare(op, innerKey)) {
+                        this.outBatch.addJoined(this.outerBatch, this.outerPos,
+                                this.innerBatch, this.innerPos);
+                    }
+                    this.outerPos++;
+                }
+            }
+            if (this.outerPos >= outerSize) {
+                this.innerPos++;
+                this.outerPos = 0;
+            }
+        }
+        return this.outBatch.isEmpty() ? null : this.outBatch;
     }
 
     /**
@@ -142,14 +235,7 @@ public class Join extends Operator {
     }
 
     private Tuple joinTuples(Tuple tup1, Tuple tup2) {
-        Tuple result = new Tuple(this.getTupleDesc());
-        for (int i = 0; i < this.child1.getTupleDesc().numFields(); i++) {
-            result.setField(i, tup1.getField(i));
-        }
-        for (int i = 0; i < this.child2.getTupleDesc().numFields(); i++) {
-            result.setField(i + this.child1.getTupleDesc().numFields(), tup2.getField(i));
-        }
-        return result;
+        return Tuple.merge(this.getTupleDesc(), tup1, tup2);
     }
 
     @Override
@@ -165,6 +251,9 @@ public class Join extends Operator {
         if (children.length > 1) {
             this.child1 = children[0];
             this.child2 = children[1];
+            this.batchChild1 = null;
+            this.batchChild2 = null;
+            this.outBatch = null;
         }
     }
 
@@ -68,7 +68,22 @@ public class JoinOptimizer {
 
         JoinPredicate p = new JoinPredicate(t1id, lj.p, t2id);
 
-        j = new Join(p,plan1,plan2);
+        HashIndexFile index = null;
+        if (lj.p == Predicate.Op.EQUALS && plan2 instanceof SeqScan
+                && ((SeqScan) plan2).getPredicates().length == 0) {
+            index = Database.getCatalog().getHashIndex(((SeqScan) plan2).getTableId(), t2id);
+        }
+
+        if (index != null) {
+            // the inner side is an unfiltered base table: probe its index
+            j = new IndexNestedLoopJoin(p,plan1,(SeqScan) plan2,index);
+        } else if (lj.p == Predicate.Op.EQUALS) {
+            j = new GraceHashJoin(p,plan1,plan2);
+        } else if (SortMergeJoin.supports(lj.p)) {
+            j = new SortMergeJoin(p,plan1,plan2);
+        } else {
+            j = new BlockNestedLoopJoin(p,plan1,plan2);
+        }
 
         return j;
 
@@ -106,13 +121,111 @@ public class JoinOptimizer {
             // A LogicalSubplanJoinNode represents a subquery.
             // You do not need to implement proper support for these for Lab 4.
             return card1 + cost1 + cost2;
+        } else if (j.p == Predicate.Op.EQUALS) {
+            int budget = GraceHashJoin.memoryBudget(this.tableTupleDesc(j.t2Alias));
+            return estimateGraceHashJoinCost(card1, card2, cost1, cost2,
+                    budget, GraceHashJoin.numPartitions());
+        } else if (SortMergeJoin.supports(j.p)) {
+            return estimateSortMergeJoinCost(card1, card2, cost1, cost2);
         } else {
-            // Insert your code here.
-            // HINT: You may need to use the variable "j" if you implemented
-            // a join algorithm that's more complicated than a basic
-            // nested-loops join.
-            return -1.0;
+            // the outer side may itself be a join; size blocks by its base table
+            int blockTuples = BlockNestedLoopJoin.blockTuples(this.tableTupleDesc(j.t1Alias),
+                    BlockNestedLoopJoin.defaultBlockPages());
+            return estimateBlockNestedLoopJoinCost(card1, card2, cost1, cost2, blockTuples);
+        }
+    }
+
+    /**
+     * Estimate the cost of a nested-loops {@link Join}: one scan of the
+     * outer, one scan of the inner per outer tuple, and one predicate
+     * application per pair of tuples.
+     */
+    static double estimateNestedLoopJoinCost(int card1, int card2,
+            double cost1, double cost2) {
+        return cost1 + card1 * cost2 + (double) card1 * card2;
+    }
+
+    /**
+     * Estimate the cost of a {@link BlockNestedLoopJoin}: one scan of the
+     * outer, one scan of the inner per block of blockTuples outer tuples, and
+     * one predicate application per pair of tuples.
+     */
+    static double estimateBlockNestedLoopJoinCost(int card1, int card2,
+            double cost1, double cost2, int blockTuples) {
+        double blocks = Math.max(1, Math.ceil((double) card1 / blockTuples));
+        return cost1 + blocks * cost2 + (double) card1 * card2;
+    }
+
+    /**
+     * Estimate the cost of a {@link HashJoin}: one scan of each input, and one
+     * hash table insert or probe per input tuple.
+     */
+    static double estimateHashJoinCost(int card1, int card2,
+            double cost1, double cost2) {
+        return cost1 + cost2 + card1 + card2;
+    }
+
+    /**
+     * Estimate the cost of a {@link SortMergeJoin}: one scan of each input,
+     * n log n comparisons to sort each input, and a merge that touches every
+     * input tuple once. Tuples inside a matching window are emitted without
+     * comparisons, so the output size does not add to the cost.
+     */
+    static double estimateSortMergeJoinCost(int card1, int card2,
+            double cost1, double cost2) {
+        return cost1 + cost2 + sortCost(card1) + sortCost(card2) + card1 + card2;
+    }
+
+    /** @return the number of comparisons needed to sort card tuples */
+    static double sortCost(int card) {
+        return card <= 1 ? 0 : card * (Math.log(card) / Math.log(2));
+    }
+
+    /**
+     * Estimate the cost of a {@link GraceHashJoin}. If the inner input fits
+     * into the memory budget this is the cost of an in-memory hash join;
+     * otherwise every partitioning pass writes both inputs to spill files and
+     * reads them back, which is charged as one extra scan of each input per
+     * direction. Each pass divides the inner input by the fan-out.
+     *
+     * @param budget
+     *            the number of inner tuples that fit into memory
+     * @param fanout
+     *            the number of partitions written by one pass
+     */
+    static double estimateGraceHashJoinCost(int card1, int card2,
+            double cost1, double cost2, int budget, int fanout) {
+        int passes = 0;
+        double partitionCard = card2;
+        while (partitionCard > budget && passes < GraceHashJoin.MAX_DEPTH) {
+            partitionCard /= fanout;
+            passes++;
+        }
+        double cost = estimateHashJoinCost(card1, card2, cost1, cost2)
+                + passes * 2 * (cost1 + cost2);
+        if (partitionCard > budget) {
+            // partitions still oversized after the last pass use nested
+            // loops: each outer tuple meets every tuple of its partition
+            cost += card1 * partitionCard;
+        }
+        return cost;
+    }
+
+    /**
+     * @return the schema of the table with the given alias, used to size
+     *         join memory; falls back to a single integer column if the
+     *         table is unknown
+     */
+    private TupleDesc tableTupleDesc(String alias) {
+        try {
+            Integer tableId = this.p == null ? null : this.p.getTableId(alias);
+            if (tableId != null) {
+                return Database.getCatalog().getTupleDesc(tableId);
+            }
+        } catch (NoSuchElementException e) {
+            // fall through
         }
+        return new TupleDesc(new Type[] { Type.INT_TYPE });
     }
 
     /**
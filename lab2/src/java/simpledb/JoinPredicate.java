@@ -40,6 +40,9 @@ public class JoinPredicate implements Serializable {
      * @return true if the tuples satisfy the predicate.
      */
     public boolean filter(Tuple t1, Tuple t2) {
+        if (t1.getTupleDesc().getFieldType(this.fieldId1) == Type.INT_TYPE) {
+            return IntField.compare(this.op, t1.getInt(this.fieldId1), t2.getInt(this.fieldId2));
+        }
         Predicate predicate = new Predicate(this.fieldId1, this.op, t2.getField(this.fieldId2));
         return predicate.filter(t1);
     }
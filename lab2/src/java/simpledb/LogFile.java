@@ -2,7 +2,19 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import java.lang.reflect.*;
 
 /**
@@ -51,24 +63,45 @@ transaction id.
 <li> Each log record ends with a long integer file offset representing
 the position in the log file where the record began.
 
-<li> There are five record types: ABORT, COMMIT, UPDATE, BEGIN, and
-CHECKPOINT
+<li> There are six record types: ABORT, COMMIT, UPDATE, SLOT_UPDATE,
+BEGIN, and CHECKPOINT
 
 <li> ABORT, COMMIT, and BEGIN records contain no additional data
 
 <li>UPDATE RECORDS consist of two entries, a before image and an
 after image.  These images are serialized Page objects, and can be
 accessed with the LogFile.readPageData() and LogFile.writePageData()
-methods.  See LogFile.print() for an example.
+methods.  See LogFile.print() for an example.  A page is logged this
+way the first time it is updated after a checkpoint.
+
+<li>SLOT_UPDATE records log the later updates of a HeapPage.  They
+consist of the table id and page number, the header size and tuple
+size of the page, and a count of changed slots, followed for each
+changed slot by its number, two booleans telling whether the slot was
+used before and after the update, and the before and after bytes of
+the slot's tuple for each of these that was used.
 
 <li> CHECKPOINT records consist of active transactions at the time
-the checkpoint was taken and their first log record on disk.  The format
-of the record is an integer count of the number of transactions, as well
-as a long integer transaction id and a long integer first record offset
-for each active transaction.
+the checkpoint was taken and their first log record on disk, followed
+by the dirty page table.  The format of the record is an integer count
+of the number of transactions, as well as a long integer transaction id
+and a long integer first record offset for each active transaction;
+then an integer count of dirty pages, and for each the page id (as in
+UPDATE records) and the long integer offset of the first record that
+updated the page since it was last written (its recLSN).
 
 </ul>
 
+<u> Group commit: </u>
+<p>
+
+By default every commit forces the log on its own. After {@link
+#setGroupCommit} records are appended to an in-memory log buffer
+instead, and a flusher thread writes out and forces the buffer once
+per window, completing the commits of the whole batch with a single
+fsync. Operations that read or rewrite the log file, and aborts,
+drain the buffer first.
+
 */
 
 public class LogFile {
@@ -82,6 +115,7 @@ public class LogFile {
     static final int UPDATE_RECORD = 3;
     static final int BEGIN_RECORD = 4;
     static final int CHECKPOINT_RECORD = 5;
+    static final int SLOT_UPDATE_RECORD = 6;
     static final long NO_CHECKPOINT_ID = -1;
 
     final static int INT_SIZE = 4;
@@ -93,6 +127,37 @@ public class LogFile {
 
     HashMap<Long,Long> tidToFirstLogRecord = new HashMap<Long,Long>();
 
+    // pages logged with a full image since the last checkpoint; later
+    // updates of these pages log only the slots they change
+    private final HashSet<PageId> imagedPages = new HashSet<PageId>(); //protected by this
+
+    // dirty page table: for each page updated since it was last written
+    // to its file, the offset of the first record that updated it
+    private final HashMap<PageId,Long> dirtyPages = new HashMap<PageId,Long>(); //protected by this
+    // for each page in dirtyPages, the offset of its last record
+    private final HashMap<PageId,Long> pageLsns = new HashMap<PageId,Long>(); //protected by this
+    private long durableOffset = 0; // the log is forced up to here //protected by this
+    // bytes logTruncate has removed from the front of the log; the offset
+    // of a record plus this is its log sequence number, which truncation
+    // does not change
+    private long truncatedBytes = 0; //protected by this
+
+    private int recoveryThreads = Runtime.getRuntime().availableProcessors(); //protected by this
+
+    /** Bytes of buffered log records after which the flusher does not
+        wait for the rest of the window. */
+    static final int LOG_BUFFER_SIZE = 64 * 1024;
+
+    int totalForces = 0; // for tests //protected by this
+
+    // records not yet written to raf; they follow its file pointer
+    private final ByteArrayOutputStream logBuffer = new ByteArrayOutputStream();
+    private final DataOutputStream bufferOut = new DataOutputStream(logBuffer);
+    // the following are protected by this
+    private Thread flusher = null; // non-null in group commit mode
+    private long groupCommitWindowNanos = 0;
+    private List<DurableFuture> pendingCommits = new ArrayList<DurableFuture>();
+
     /** Constructor.
         Initialize and back the log file with the specified file.
         We're not sure yet whether the caller is creating a brand new DB,
@@ -138,6 +203,51 @@ public class LogFile {
     public synchronized int getTotalRecords() {
         return totalRecords;
     }
+
+    /** Turn group commit on or off. With group commit on, commits wait
+        at most about window microseconds for others to share their
+        fsync; with it off (window 0, the default) each commit forces
+        the log itself.
+
+        @param windowMicros how long the flusher collects commits before
+        forcing the log, or 0 to force on every commit
+    */
+    public synchronized void setGroupCommit(long windowMicros) throws IOException {
+        if (windowMicros < 0) {
+            throw new IllegalArgumentException("negative group commit window");
+        }
+        groupCommitWindowNanos = TimeUnit.MICROSECONDS.toNanos(windowMicros);
+        if (windowMicros > 0 && flusher == null) {
+            flusher = new Thread("LogFile-flusher") {
+                    public void run() { flushLoop(); }
+                };
+            flusher.setDaemon(true);
+            flusher.start();
+        } else if (windowMicros == 0 && flusher != null) {
+            force(); // completes the pending commits
+            flusher = null;
+            notifyAll();
+        }
+    }
+
+    /** @return the stream new log records are appended to */
+    private DataOutput out() {
+        return flusher != null ? bufferOut : raf;
+    }
+
+    /** @return the log offset at which the next record starts */
+    private long appendOffset() throws IOException {
+        return raf.getFilePointer() + logBuffer.size();
+    }
+
+    /** Write the buffered log records to the end of the log file,
+        without forcing them. */
+    private synchronized void drain() throws IOException {
+        if (logBuffer.size() > 0) {
+            raf.write(logBuffer.toByteArray());
+            logBuffer.reset();
+        }
+    }
     
     /** Write an abort record to the log for the specified tid, force
         the log to disk, and perform a rollback
@@ -147,7 +257,9 @@ public class LogFile {
         // must have buffer pool lock before proceeding, since this
         // calls rollback
 
-        synchronized (Database.getBufferPool()) {
+        BufferPool bufferPool = Database.getBufferPool();
+        synchronized (bufferPool) {
+            bufferPool.awaitWritesInFlight();
 
             synchronized(this) {
                 preAppend();
@@ -156,6 +268,7 @@ public class LogFile {
 
                 // must do this here, since rollback only works for
                 // live transactions (needs tidToFirstLogRecord)
+                drain();
                 rollback(tid);
 
                 raf.writeInt(ABORT_RECORD);
@@ -169,25 +282,144 @@ public class LogFile {
     }
 
     /** Write a commit record to disk for the specified tid,
-        and force the log to disk.
+        and force the log to disk.  In group commit mode, this waits
+        for the flusher to force the batch the record is part of.
 
         @param tid The committing transaction.
     */
-    public synchronized void logCommit(TransactionId tid) throws IOException {
+    public void logCommit(TransactionId tid) throws IOException {
+        Future<Long> durable = appendCommit(tid);
+        try {
+            durable.get();
+        } catch (InterruptedException e) {
+            throw new IOException("interrupted while waiting for commit of " + tid.getId());
+        } catch (ExecutionException e) {
+            throw (IOException) new IOException("could not force commit of " + tid.getId())
+                .initCause(e.getCause());
+        }
+    }
+
+    /** Append a commit record for the specified tid.
+
+        @return a future completed with the log offset following the
+        record once the record is on disk
+    */
+    synchronized Future<Long> appendCommit(TransactionId tid) throws IOException {
         preAppend();
         Debug.log("COMMIT " + tid.getId());
         //should we verify that this is a live transaction?
 
-        raf.writeInt(COMMIT_RECORD);
-        raf.writeLong(tid.getId());
-        raf.writeLong(currentOffset);
-        currentOffset = raf.getFilePointer();
-        force();
+        DataOutput out = out();
+        out.writeInt(COMMIT_RECORD);
+        out.writeLong(tid.getId());
+        out.writeLong(currentOffset);
+        currentOffset = appendOffset();
         tidToFirstLogRecord.remove(tid.getId());
+
+        DurableFuture durable = new DurableFuture(currentOffset);
+        if (flusher == null) {
+            force();
+            durable.complete();
+        } else {
+            pendingCommits.add(durable);
+            notifyAll();
+        }
+        return durable;
+    }
+
+    /** Collect commits for a window (or until the log buffer fills),
+        then write and force them with one fsync, until group commit is
+        turned off. */
+    private void flushLoop() {
+        Thread self = Thread.currentThread();
+        while (true) {
+            List<DurableFuture> batch;
+            FileChannel channel;
+            long drainedTo;
+            synchronized (this) {
+                try {
+                    while (pendingCommits.isEmpty() && flusher == self) {
+                        wait();
+                    }
+                    long deadline = System.nanoTime() + groupCommitWindowNanos;
+                    long left;
+                    while (flusher == self && logBuffer.size() < LOG_BUFFER_SIZE
+                           && (left = deadline - System.nanoTime()) > 0) {
+                        TimeUnit.NANOSECONDS.timedWait(this, left);
+                    }
+                } catch (InterruptedException e) {
+                    // flush what we have
+                }
+                if (pendingCommits.isEmpty()) {
+                    if (flusher != self) {
+                        return;
+                    }
+                    continue;
+                }
+                batch = pendingCommits;
+                pendingCommits = new ArrayList<DurableFuture>();
+                try {
+                    drain();
+                    drainedTo = raf.getFilePointer();
+                } catch (IOException e) {
+                    fail(batch, e);
+                    continue;
+                }
+                channel = raf.getChannel();
+                totalForces++;
+            }
+
+            // the fsync happens outside the monitor, so that the next
+            // batch can be appended meanwhile
+            try {
+                try {
+                    channel.force(true);
+                    synchronized (this) {
+                        if (channel == raf.getChannel() && drainedTo > durableOffset) {
+                            durableOffset = drainedTo;
+                        }
+                    }
+                } catch (ClosedChannelException e) {
+                    // the log was truncated into a new file meanwhile
+                    force();
+                }
+                for (DurableFuture d : batch) {
+                    d.complete();
+                }
+            } catch (IOException e) {
+                fail(batch, e);
+            }
+        }
+    }
+
+    private static void fail(List<DurableFuture> batch, IOException e) {
+        for (DurableFuture d : batch) {
+            d.fail(e);
+        }
+    }
+
+    /** The result of a commit: the log offset it is durable up to. */
+    private static class DurableFuture extends FutureTask<Long> {
+        private final long lsn;
+
+        DurableFuture(long lsn) {
+            super(new Runnable() { public void run() { } }, null);
+            this.lsn = lsn;
+        }
+
+        void complete() {
+            set(lsn);
+        }
+
+        void fail(IOException e) {
+            setException(e);
+        }
     }
 
     /** Write an UPDATE record to disk for the specified tid and page
-        (with provided         before and after images.)
+        (with provided         before and after images.)  If the page is
+        a HeapPage that was logged in full since the last checkpoint, a
+        SLOT_UPDATE record of the changed slots is written instead.
         @param tid The transaction performing the write
         @param before The before image of the page
         @param after The after image of the page
@@ -197,7 +429,7 @@ public class LogFile {
     public  synchronized void logWrite(TransactionId tid, Page before,
                                        Page after)
         throws IOException  {
-        Debug.log("WRITE, offset = " + raf.getFilePointer());
+        Debug.log("WRITE, offset = " + appendOffset());
         preAppend();
         /* update record conists of
 
@@ -207,21 +439,30 @@ public class LogFile {
            after page data
            start offset
         */
-        raf.writeInt(UPDATE_RECORD);
-        raf.writeLong(tid.getId());
-
-        writePageData(raf,before);
-        writePageData(raf,after);
-        raf.writeLong(currentOffset);
-        currentOffset = raf.getFilePointer();
+        if (!dirtyPages.containsKey(after.getId())) {
+            dirtyPages.put(after.getId(), currentOffset);
+        }
+        pageLsns.put(after.getId(), currentOffset);
+        DataOutput out = out();
+        if (after instanceof HeapPage && imagedPages.contains(after.getId())) {
+            out.writeInt(SLOT_UPDATE_RECORD);
+            out.writeLong(tid.getId());
+            SlotUpdate.diff((HeapPage) before, (HeapPage) after).write(out);
+        } else {
+            out.writeInt(UPDATE_RECORD);
+            out.writeLong(tid.getId());
+
+            writePageData(out,before);
+            writePageData(out,after);
+            imagedPages.add(after.getId());
+        }
+        out.writeLong(currentOffset);
+        currentOffset = appendOffset();
 
         Debug.log("WRITE OFFSET = " + currentOffset);
     }
 
-    void writePageData(RandomAccessFile raf, Page p) throws IOException{
-        PageId pid = p.getId();
-        int pageInfo[] = pid.serialize();
-
+    void writePageData(DataOutput raf, Page p) throws IOException{
         //page data is:
         // page class name
         // id class name
@@ -231,51 +472,83 @@ public class LogFile {
         // page class data
 
         String pageClassName = p.getClass().getName();
-        String idClassName = pid.getClass().getName();
 
         raf.writeUTF(pageClassName);
-        raf.writeUTF(idClassName);
+        writePageId(raf, p.getId());
 
-        raf.writeInt(pageInfo.length);
-        for (int i = 0; i < pageInfo.length; i++) {
-            raf.writeInt(pageInfo[i]);
-        }
         byte[] pageData = p.getPageData();
         raf.writeInt(pageData.length);
         raf.write(pageData);
         //        Debug.log ("WROTE PAGE DATA, CLASS = " + pageClassName + ", table = " +  pid.getTableId() + ", page = " + pid.pageno());
     }
 
-    Page readPageData(RandomAccessFile raf) throws IOException {
-        PageId pid;
-        Page newPage = null;
+    void writePageId(DataOutput raf, PageId pid) throws IOException {
+        int pageInfo[] = pid.serialize();
+        raf.writeUTF(pid.getClass().getName());
+        raf.writeInt(pageInfo.length);
+        for (int i = 0; i < pageInfo.length; i++) {
+            raf.writeInt(pageInfo[i]);
+        }
+    }
 
-        String pageClassName = raf.readUTF();
+    PageId readPageId(DataInput raf) throws IOException {
         String idClassName = raf.readUTF();
-
         try {
             Class<?> idClass = Class.forName(idClassName);
-            Class<?> pageClass = Class.forName(pageClassName);
-
             Constructor<?>[] idConsts = idClass.getDeclaredConstructors();
             int numIdArgs = raf.readInt();
             Object idArgs[] = new Object[numIdArgs];
             for (int i = 0; i<numIdArgs;i++) {
                 idArgs[i] = new Integer(raf.readInt());
             }
-            pid = (PageId)idConsts[0].newInstance(idArgs);
+            return (PageId)idConsts[0].newInstance(idArgs);
+        } catch (ClassNotFoundException e){
+            e.printStackTrace();
+            throw new IOException();
+        } catch (InstantiationException e) {
+            e.printStackTrace();
+            throw new IOException();
+        } catch (IllegalAccessException e) {
+            e.printStackTrace();
+            throw new IOException();
+        } catch (InvocationTargetException e) {
+            e.printStackTrace();
+            throw new IOException();
+        }
+    }
+
+    Page readPageData(DataInput raf) throws IOException {
+        PageId pid;
+        Page newPage = null;
+
+        String pageClassName = raf.readUTF();
+        pid = readPageId(raf);
 
-            Constructor<?>[] pageConsts = pageClass.getDeclaredConstructors();
+        try {
+            Class<?> pageClass = Class.forName(pageClassName);
+
+            // pages may have further constructors; recovery needs the
+            // (PageId, byte[]) one
+            Constructor<?> pageConst = null;
+            for (Constructor<?> c : pageClass.getDeclaredConstructors()) {
+                Class<?>[] params = c.getParameterTypes();
+                if (params.length == 2 && params[1] == byte[].class) {
+                    pageConst = c;
+                }
+            }
+            if (pageConst == null) {
+                throw new IOException("no (PageId, byte[]) constructor in " + pageClassName);
+            }
             int pageSize = raf.readInt();
 
             byte[] pageData = new byte[pageSize];
-            raf.read(pageData); //read before image
+            raf.readFully(pageData); //read before image
 
             Object[] pageArgs = new Object[2];
             pageArgs[0] = pid;
             pageArgs[1] = pageData;
 
-            newPage = (Page)pageConsts[0].newInstance(pageArgs);
+            newPage = (Page)pageConst.newInstance(pageArgs);
 
             //            Debug.log("READ PAGE OF TYPE " + pageClassName + ", table = " + newPage.getId().getTableId() + ", page = " + newPage.getId().pageno());
         } catch (ClassNotFoundException e){
@@ -307,51 +580,64 @@ public class LogFile {
             throw new IOException("double logXactionBegin()");
         }
         preAppend();
-        raf.writeInt(BEGIN_RECORD);
-        raf.writeLong(tid.getId());
-        raf.writeLong(currentOffset);
+        DataOutput out = out();
+        out.writeInt(BEGIN_RECORD);
+        out.writeLong(tid.getId());
+        out.writeLong(currentOffset);
         tidToFirstLogRecord.put(tid.getId(), currentOffset);
-        currentOffset = raf.getFilePointer();
+        currentOffset = appendOffset();
 
         Debug.log("BEGIN OFFSET = " + currentOffset);
     }
 
-    /** Checkpoint the log and write a checkpoint record. */
+    /** Checkpoint the log and write a checkpoint record.  The
+        checkpoint is fuzzy: it records the dirty page table instead of
+        flushing pages, so it does not take the buffer pool lock, and
+        recovery redoes each page from its recLSN.  The BufferPool's
+        background writer keeps the dirty page table short.
+
+        @see BufferPool#setBackgroundWriter
+    */
     public void logCheckpoint() throws IOException {
-        //make sure we have buffer pool lock before proceeding
-        synchronized (Database.getBufferPool()) {
-            synchronized (this) {
-                //Debug.log("CHECKPOINT, offset = " + raf.getFilePointer());
-                preAppend();
-                long startCpOffset, endCpOffset;
-                Set<Long> keys = tidToFirstLogRecord.keySet();
-                Iterator<Long> els = keys.iterator();
-                force();
-                Database.getBufferPool().flushAllPages();
-                startCpOffset = raf.getFilePointer();
-                raf.writeInt(CHECKPOINT_RECORD);
-                raf.writeLong(-1); //no tid , but leave space for convenience
-
-                //write list of outstanding transactions
-                raf.writeInt(keys.size());
-                while (els.hasNext()) {
-                    Long key = els.next();
-                    Debug.log("WRITING CHECKPOINT TRANSACTION ID: " + key);
-                    raf.writeLong(key);
-                    //Debug.log("WRITING CHECKPOINT TRANSACTION OFFSET: " + tidToFirstLogRecord.get(key));
-                    raf.writeLong(tidToFirstLogRecord.get(key));
-                }
+        synchronized (this) {
+            //Debug.log("CHECKPOINT, offset = " + raf.getFilePointer());
+            preAppend();
+            long startCpOffset, endCpOffset;
+            Set<Long> keys = tidToFirstLogRecord.keySet();
+            Iterator<Long> els = keys.iterator();
+            drain();
+            imagedPages.clear();
+            startCpOffset = raf.getFilePointer();
+            raf.writeInt(CHECKPOINT_RECORD);
+            raf.writeLong(-1); //no tid , but leave space for convenience
+
+            //write list of outstanding transactions
+            raf.writeInt(keys.size());
+            while (els.hasNext()) {
+                Long key = els.next();
+                Debug.log("WRITING CHECKPOINT TRANSACTION ID: " + key);
+                raf.writeLong(key);
+                //Debug.log("WRITING CHECKPOINT TRANSACTION OFFSET: " + tidToFirstLogRecord.get(key));
+                raf.writeLong(tidToFirstLogRecord.get(key));
+            }
 
-                //once the CP is written, make sure the CP location at the
-                // beginning of the log file is updated
-                endCpOffset = raf.getFilePointer();
-                raf.seek(0);
-                raf.writeLong(startCpOffset);
-                raf.seek(endCpOffset);
-                raf.writeLong(currentOffset);
-                currentOffset = raf.getFilePointer();
-                //Debug.log("CP OFFSET = " + currentOffset);
+            //write the dirty page table
+            raf.writeInt(dirtyPages.size());
+            for (Map.Entry<PageId,Long> e : dirtyPages.entrySet()) {
+                writePageId(raf, e.getKey());
+                raf.writeLong(e.getValue());
             }
+
+            //once the CP is written, make sure the CP location at the
+            // beginning of the log file is updated
+            endCpOffset = raf.getFilePointer();
+            raf.seek(0);
+            raf.writeLong(startCpOffset);
+            raf.seek(endCpOffset);
+            raf.writeLong(currentOffset);
+            currentOffset = raf.getFilePointer();
+            force();
+            //Debug.log("CP OFFSET = " + currentOffset);
         }
 
         logTruncate();
@@ -361,6 +647,7 @@ public class LogFile {
         consumption */
     public synchronized void logTruncate() throws IOException {
         preAppend();
+        drain();
         raf.seek(0);
         long cpLoc = raf.readLong();
 
@@ -386,6 +673,16 @@ public class LogFile {
                     minLogRecord = firstLogRecord;
                 }
             }
+
+            // redo starts at the oldest recLSN
+            int numDirty = raf.readInt();
+            for (int i = 0; i < numDirty; i++) {
+                readPageId(raf);
+                long recLsn = raf.readLong();
+                if (recLsn < minLogRecord) {
+                    minLogRecord = recLsn;
+                }
+            }
         }
 
         // we can truncate everything before minLogRecord
@@ -416,6 +713,9 @@ public class LogFile {
                     writePageData(logNew, before);
                     writePageData(logNew, after);
                     break;
+                case SLOT_UPDATE_RECORD:
+                    SlotUpdate.read(raf).write(logNew);
+                    break;
                 case CHECKPOINT_RECORD:
                     int numXactions = raf.readInt();
                     logNew.writeInt(numXactions);
@@ -425,6 +725,12 @@ public class LogFile {
                         logNew.writeLong(xid);
                         logNew.writeLong((xoffset - minLogRecord) + LONG_SIZE);
                     }
+                    int numDirty = raf.readInt();
+                    logNew.writeInt(numDirty);
+                    while (numDirty-- > 0) {
+                        writePageId(logNew, readPageId(raf));
+                        logNew.writeLong((raf.readLong() - minLogRecord) + LONG_SIZE);
+                    }
                     break;
                 case BEGIN_RECORD:
                     tidToFirstLogRecord.put(record_tid,newStart);
@@ -450,6 +756,16 @@ public class LogFile {
         newFile.delete();
 
         currentOffset = raf.getFilePointer();
+        if (cpLoc != -1L) {
+            truncatedBytes += minLogRecord - LONG_SIZE;
+            for (Map.Entry<PageId,Long> e : dirtyPages.entrySet()) {
+                e.setValue((e.getValue() - minLogRecord) + LONG_SIZE);
+            }
+            for (Map.Entry<PageId,Long> e : pageLsns.entrySet()) {
+                e.setValue((e.getValue() - minLogRecord) + LONG_SIZE);
+            }
+        }
+        force();
         //print();
     }
 
@@ -463,11 +779,388 @@ public class LogFile {
     */
     public void rollback(TransactionId tid)
         throws NoSuchElementException, IOException {
-        synchronized (Database.getBufferPool()) {
+        BufferPool bufferPool = Database.getBufferPool();
+        synchronized (bufferPool) {
+            bufferPool.awaitWritesInFlight();
             synchronized(this) {
                 preAppend();
-                // some code goes here
+                drain();
+                Long firstRecord = tidToFirstLogRecord.get(tid.getId());
+                if (firstRecord == null) {
+                    throw new NoSuchElementException("transaction " + tid.getId() + " is not live");
+                }
+
+                // undo the transaction's updates, latest first, starting
+                // from the pages as the buffer pool holds them
+                List<LogRecord> updates = new ArrayList<LogRecord>();
+                for (LogRecord r : readUpdates(firstRecord)) {
+                    if (r.tid == tid.getId()) {
+                        updates.add(r);
+                    }
+                }
+                HashMap<PageId,Page> pages = new HashMap<PageId,Page>();
+                for (int i = updates.size() - 1; i >= 0; i--) {
+                    updates.get(i).undo(pages, tid);
+                }
+                installPages(pages);
+                raf.seek(raf.length());
+            }
+        }
+    }
+
+    /** Read the UPDATE and SLOT_UPDATE records from the specified
+        offset to the end of the log, in log order. */
+    private List<LogRecord> readUpdates(long offset) throws IOException {
+        List<LogRecord> updates = new ArrayList<LogRecord>();
+        LogReader in = new LogReader(offset);
+        LogRecord r;
+        while ((r = readRecord(in)) != null) {
+            if (r.type == UPDATE_RECORD || r.type == SLOT_UPDATE_RECORD) {
+                updates.add(r);
+            }
+        }
+        return updates;
+    }
+
+    /** Read the next log record.
+        @return the record, or null at the end of the log
+    */
+    private LogRecord readRecord(LogReader in) throws IOException {
+        LogRecord r = new LogRecord();
+        r.offset = in.getOffset();
+        try {
+            r.type = in.readInt();
+        } catch (EOFException e) {
+            return null;
+        }
+        r.tid = in.readLong();
+        switch (r.type) {
+        case UPDATE_RECORD:
+            r.before = readPageData(in);
+            r.after = readPageData(in);
+            break;
+        case SLOT_UPDATE_RECORD:
+            r.slots = SlotUpdate.read(in);
+            break;
+        case CHECKPOINT_RECORD:
+            int numXactions = in.readInt();
+            while (numXactions-- > 0) {
+                in.readLong();
+                in.readLong();
+            }
+            int numDirty = in.readInt();
+            while (numDirty-- > 0) {
+                readPageId(in);
+                in.readLong();
+            }
+            break;
+        }
+        in.readLong();
+        return r;
+    }
+
+    /** A buffered reader of the log from a given offset on.  It moves
+        the file pointer of raf, so callers must seek afterwards. */
+    private class LogReader extends DataInputStream {
+        LogReader(long offset) throws IOException {
+            super(new CountingInputStream(new BufferedInputStream(
+                Channels.newInputStream(raf.getChannel().position(offset)), 1 << 16), offset));
+        }
+
+        /** @return the log offset of the next byte to be read */
+        long getOffset() {
+            return ((CountingInputStream) in).offset;
+        }
+    }
+
+    /** An input stream that counts the bytes read from it. */
+    private static class CountingInputStream extends FilterInputStream {
+        long offset;
+
+        CountingInputStream(InputStream in, long offset) {
+            super(in);
+            this.offset = offset;
+        }
+
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                offset++;
+            }
+            return b;
+        }
+
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                offset += n;
             }
+            return n;
+        }
+
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            offset += skipped;
+            return skipped;
+        }
+    }
+
+    /** Write the specified pages to their files and drop any cached
+        copies from the buffer pool.  Callers hold the buffer pool
+        monitor and waited for the background writer before taking
+        the monitor of the log, so it has no writes in flight that
+        could overwrite the pages.  The zone map bounds of the pages
+        may not cover the tuples they get back, so they are forgotten. */
+    private void installPages(Map<PageId,Page> pages) throws IOException {
+        for (Page p : pages.values()) {
+            DbFile file = Database.getCatalog().getDatabaseFile(p.getId().getTableId());
+            file.writePage(p);
+            Database.getBufferPool().discardPage(p.getId());
+            if (file instanceof HeapFile && ((HeapFile) file).getZoneMap() != null) {
+                ((HeapFile) file).getZoneMap().forget(p.getId().pageNumber());
+            }
+            dirtyPages.remove(p.getId());
+            pageLsns.remove(p.getId());
+        }
+    }
+
+    /** Called by the buffer pool when it takes the copy of a page it
+        is about to write to its file.
+
+        @return the log sequence number the log must be forced to before
+        the copy may be written, as write ahead logging requires; to be
+        passed to {@link #pageFlushed} as well.  0 if the log has no
+        records for the page.  Unlike offsets, log sequence numbers stay
+        valid when a checkpoint truncates the log meanwhile.
+    */
+    public synchronized long getPageLsn(PageId pid) throws IOException {
+        return pageLsns.containsKey(pid) ? appendOffset() + truncatedBytes : 0;
+    }
+
+    /** Force the log up to the specified log sequence number, unless it
+        already is. */
+    public synchronized void forceTo(long lsn) throws IOException {
+        if (durableOffset + truncatedBytes < lsn) {
+            force();
+        }
+    }
+
+    /** Note that the buffer pool wrote a copy of the specified page to
+        its file.  The page leaves the dirty page table, unless records
+        for it were logged after the copy was taken; then its recLSN
+        moves up to where the copy was taken.
+
+        @param flushLsn the value of {@link #getPageLsn} for the copy
+    */
+    public synchronized void pageFlushed(PageId pid, long flushLsn) {
+        Long pageLsn = pageLsns.get(pid);
+        if (pageLsn == null) {
+            return;
+        }
+        // the tables hold offsets into the log as it is now
+        long flushOffset = flushLsn - truncatedBytes;
+        if (pageLsn < flushOffset) {
+            dirtyPages.remove(pid);
+            pageLsns.remove(pid);
+        } else if (dirtyPages.get(pid) < flushOffset) {
+            dirtyPages.put(pid, flushOffset);
+        }
+    }
+
+    /** @return a copy of the dirty page table */
+    synchronized Map<PageId,Long> getDirtyPages() {
+        return new HashMap<PageId,Long>(dirtyPages);
+    }
+
+    /** A log record read back from the log; before, after and slots are
+        set for the record types that carry them. */
+    private static class LogRecord {
+        long offset;
+        int type;
+        long tid;
+        Page before;
+        Page after;
+        SlotUpdate slots;
+
+        /** Apply this update to the working copy of its page. */
+        void redo(Map<PageId,Page> pages) throws IOException {
+            if (type == UPDATE_RECORD) {
+                pages.put(after.getId(), after);
+            } else {
+                PageId pid = slots.pid;
+                pages.put(pid, slots.apply(page(pages, pid, null), true));
+            }
+        }
+
+        /** Revert this update on the working copy of its page.
+            @param tid if not null, pages not yet in pages are taken from
+            the buffer pool on behalf of tid; otherwise from disk
+        */
+        void undo(Map<PageId,Page> pages, TransactionId tid) throws IOException {
+            if (type == UPDATE_RECORD) {
+                pages.put(before.getId(), before);
+            } else {
+                PageId pid = slots.pid;
+                pages.put(pid, slots.apply(page(pages, pid, tid), false));
+            }
+        }
+
+        /** @return the page an update record applies to */
+        PageId pageId() {
+            return type == UPDATE_RECORD ? after.getId() : slots.pid;
+        }
+
+        private static Page page(Map<PageId,Page> pages, PageId pid, TransactionId tid)
+            throws IOException {
+            Page p = pages.get(pid);
+            if (p != null) {
+                return p;
+            }
+            if (tid == null) {
+                return Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid);
+            }
+            try {
+                return Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
+            } catch (DbException e) {
+                throw (IOException) new IOException("cannot read page to roll back").initCause(e);
+            } catch (TransactionAbortedException e) {
+                throw (IOException) new IOException("cannot read page to roll back").initCause(e);
+            }
+        }
+    }
+
+    /** The slots of a HeapPage that an update changed, with their
+        bytes before and after the update.
+        @see #SLOT_UPDATE_RECORD
+    */
+    static class SlotUpdate {
+        HeapPageId pid;
+        int headerSize;
+        int tupleSize;
+        int[] slots;
+        boolean[] usedBefore;
+        boolean[] usedAfter;
+        byte[][] before;
+        byte[][] after;
+
+        /** @return the slots that differ between the two images of a page */
+        static SlotUpdate diff(HeapPage beforePage, HeapPage afterPage) {
+            byte[] b = beforePage.getPageData();
+            byte[] a = afterPage.getPageData();
+            SlotUpdate u = new SlotUpdate();
+            u.pid = afterPage.getId();
+            u.headerSize = afterPage.header.length;
+            u.tupleSize = afterPage.td.getSize();
+
+            List<Integer> changed = new ArrayList<Integer>();
+            for (int i = 0; i < afterPage.numSlots; i++) {
+                boolean wasUsed = isUsed(b, i);
+                boolean isUsed = isUsed(a, i);
+                if (wasUsed != isUsed || (isUsed && !u.sameTuple(a, b, i))) {
+                    changed.add(i);
+                }
+            }
+            int n = changed.size();
+            u.slots = new int[n];
+            u.usedBefore = new boolean[n];
+            u.usedAfter = new boolean[n];
+            u.before = new byte[n][];
+            u.after = new byte[n][];
+            for (int k = 0; k < n; k++) {
+                int slot = changed.get(k);
+                u.slots[k] = slot;
+                u.usedBefore[k] = isUsed(b, slot);
+                u.usedAfter[k] = isUsed(a, slot);
+                u.before[k] = u.usedBefore[k] ? u.tuple(b, slot) : null;
+                u.after[k] = u.usedAfter[k] ? u.tuple(a, slot) : null;
+            }
+            return u;
+        }
+
+        static SlotUpdate read(DataInput in) throws IOException {
+            SlotUpdate u = new SlotUpdate();
+            int tableId = in.readInt();
+            int pageNo = in.readInt();
+            u.pid = new HeapPageId(tableId, pageNo);
+            u.headerSize = in.readInt();
+            u.tupleSize = in.readInt();
+            int n = in.readInt();
+            u.slots = new int[n];
+            u.usedBefore = new boolean[n];
+            u.usedAfter = new boolean[n];
+            u.before = new byte[n][];
+            u.after = new byte[n][];
+            for (int k = 0; k < n; k++) {
+                u.slots[k] = in.readInt();
+                u.usedBefore[k] = in.readBoolean();
+                u.usedAfter[k] = in.readBoolean();
+                if (u.usedBefore[k]) {
+                    u.before[k] = new byte[u.tupleSize];
+                    in.readFully(u.before[k]);
+                }
+                if (u.usedAfter[k]) {
+                    u.after[k] = new byte[u.tupleSize];
+                    in.readFully(u.after[k]);
+                }
+            }
+            return u;
+        }
+
+        void write(DataOutput out) throws IOException {
+            out.writeInt(pid.getTableId());
+            out.writeInt(pid.pageNumber());
+            out.writeInt(headerSize);
+            out.writeInt(tupleSize);
+            out.writeInt(slots.length);
+            for (int k = 0; k < slots.length; k++) {
+                out.writeInt(slots[k]);
+                out.writeBoolean(usedBefore[k]);
+                out.writeBoolean(usedAfter[k]);
+                if (usedBefore[k]) {
+                    out.write(before[k]);
+                }
+                if (usedAfter[k]) {
+                    out.write(after[k]);
+                }
+            }
+        }
+
+        /** @return a copy of page with the changed slots set to their
+            state after (redo) or before (undo) the update */
+        HeapPage apply(Page page, boolean redo) throws IOException {
+            byte[] data = page.getPageData();
+            for (int k = 0; k < slots.length; k++) {
+                boolean used = redo ? usedAfter[k] : usedBefore[k];
+                byte[] tuple = redo ? after[k] : before[k];
+                int offset = headerSize + slots[k] * tupleSize;
+                if (used) {
+                    System.arraycopy(tuple, 0, data, offset, tupleSize);
+                    data[slots[k] / 8] |= (byte) (1 << (slots[k] % 8));
+                } else {
+                    Arrays.fill(data, offset, offset + tupleSize, (byte) 0);
+                    data[slots[k] / 8] &= (byte) ~(1 << (slots[k] % 8));
+                }
+            }
+            return new HeapPage(pid, data);
+        }
+
+        private static boolean isUsed(byte[] data, int slot) {
+            return ((data[slot / 8] >> (slot % 8)) & 1) == 1;
+        }
+
+        private boolean sameTuple(byte[] a, byte[] b, int slot) {
+            int offset = headerSize + slot * tupleSize;
+            for (int i = offset; i < offset + tupleSize; i++) {
+                if (a[i] != b[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private byte[] tuple(byte[] data, int slot) {
+            int offset = headerSize + slot * tupleSize;
+            return Arrays.copyOfRange(data, offset, offset + tupleSize);
         }
     }
 
@@ -478,6 +1171,8 @@ public class LogFile {
     public synchronized void shutdown() {
         try {
             logCheckpoint();  //simple way to shutdown is to write a checkpoint record
+            flusher = null;
+            notifyAll();
             raf.close();
         } catch (IOException e) {
             System.out.println("ERROR SHUTTING DOWN -- IGNORING.");
@@ -485,26 +1180,267 @@ public class LogFile {
         }
     }
 
+    /** Set the number of threads recover() replays the log on; by
+        default, the number of processors. */
+    public synchronized void setRecoveryThreads(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("recovery needs at least one thread");
+        }
+        recoveryThreads = threads;
+    }
+
     /** Recover the database system by ensuring that the updates of
         committed transactions are installed and that the
         updates of uncommitted transactions are not installed.
+        <p>
+        Recovery runs in three phases.  Analysis reads the log once from
+        the oldest record recovery needs.  Redo replays the updates of
+        each page, from its recLSN on, as a separate task, so pages are
+        replayed concurrently.  Undo rolls back the transactions that
+        neither committed nor aborted, each as a separate task, latest
+        update first; transactions that updated a common page are undone
+        together, in log order.
     */
     public void recover() throws IOException {
-        synchronized (Database.getBufferPool()) {
+        BufferPool bufferPool = Database.getBufferPool();
+        synchronized (bufferPool) {
+            bufferPool.awaitWritesInFlight();
             synchronized (this) {
                 recoveryUndecided = false;
-                // some code goes here
+                drain();
+                if (raf.length() < LONG_SIZE) {
+                    // nothing was ever logged
+                    raf.setLength(0);
+                    raf.writeLong(NO_CHECKPOINT_ID);
+                    currentOffset = raf.getFilePointer();
+                    return;
+                }
+
+                Analysis analysis = analyze();
+                Map<PageId,Page> pages = new ConcurrentHashMap<PageId,Page>();
+                ExecutorService pool = Executors.newFixedThreadPool(recoveryThreads, new ThreadFactory() {
+                        public Thread newThread(Runnable r) {
+                            Thread t = new Thread(r, "LogFile-recovery");
+                            t.setDaemon(true);
+                            return t;
+                        }
+                    });
+                try {
+                    runAll(pool, redoTasks(analysis, pages));
+                    runAll(pool, undoTasks(analysis, pages));
+                } finally {
+                    pool.shutdown();
+                }
+                installPages(pages);
+
+                tidToFirstLogRecord.clear();
+                dirtyPages.clear();
+                pageLsns.clear();
+                raf.seek(raf.length());
+                currentOffset = raf.getFilePointer();
+
+                // the losers are rolled back now; record that, so that
+                // recovering again does not undo them over the updates of
+                // transactions that commit from here on
+                for (Long tid : analysis.losers()) {
+                    raf.writeInt(ABORT_RECORD);
+                    raf.writeLong(tid);
+                    raf.writeLong(currentOffset);
+                    currentOffset = raf.getFilePointer();
+                }
+                force();
             }
          }
     }
 
+    /** What the analysis phase of recovery learns from the log. */
+    private static class Analysis {
+        // the update records, in log order
+        final List<LogRecord> updates = new ArrayList<LogRecord>();
+        final HashSet<Long> committed = new HashSet<Long>();
+        final HashSet<Long> aborted = new HashSet<Long>();
+        // the dirty page table as of the end of the log
+        final HashMap<PageId,Long> recLsns = new HashMap<PageId,Long>();
+
+        /** @return the transactions with updates that neither committed
+            nor aborted, in the order of their first update */
+        Set<Long> losers() {
+            LinkedHashSet<Long> losers = new LinkedHashSet<Long>();
+            for (LogRecord u : updates) {
+                if (!committed.contains(u.tid) && !aborted.contains(u.tid)) {
+                    losers.add(u.tid);
+                }
+            }
+            return losers;
+        }
+    }
+
+    /** Read the log from the oldest record recovery needs: the oldest
+        recLSN of the checkpoint's dirty page table, or the first record
+        of a transaction live at the checkpoint if that is older. */
+    private Analysis analyze() throws IOException {
+        Analysis a = new Analysis();
+        raf.seek(0);
+        long cpLoc = raf.readLong();
+        long start = raf.getFilePointer();
+        if (cpLoc != NO_CHECKPOINT_ID) {
+            start = cpLoc;
+            raf.seek(cpLoc + INT_SIZE + LONG_SIZE);
+            int numOutstanding = raf.readInt();
+            while (numOutstanding-- > 0) {
+                raf.readLong();
+                start = Math.min(start, raf.readLong());
+            }
+            int numDirty = raf.readInt();
+            while (numDirty-- > 0) {
+                PageId pid = readPageId(raf);
+                long recLsn = raf.readLong();
+                a.recLsns.put(pid, recLsn);
+                start = Math.min(start, recLsn);
+            }
+        }
+
+        LogReader in = new LogReader(start);
+        LogRecord r;
+        while ((r = readRecord(in)) != null) {
+            if (r.type == UPDATE_RECORD || r.type == SLOT_UPDATE_RECORD) {
+                a.updates.add(r);
+                // pages updated after the checkpoint join the dirty page
+                // table; before it, only pages in the table may miss an
+                // update on disk
+                if ((cpLoc == NO_CHECKPOINT_ID || r.offset >= cpLoc)
+                    && !a.recLsns.containsKey(r.pageId())) {
+                    a.recLsns.put(r.pageId(), r.offset);
+                }
+            } else if (r.type == COMMIT_RECORD) {
+                a.committed.add(r.tid);
+            } else if (r.type == ABORT_RECORD) {
+                a.aborted.add(r.tid);
+            }
+        }
+        return a;
+    }
+
+    /** @return a task per page that repeats its history from its recLSN.
+        Aborted transactions were rolled back and their pages written
+        before the abort record, so they are not redone. */
+    private List<Callable<Void>> redoTasks(Analysis a, final Map<PageId,Page> pages) {
+        LinkedHashMap<PageId,List<LogRecord>> chains = new LinkedHashMap<PageId,List<LogRecord>>();
+        for (LogRecord u : a.updates) {
+            Long recLsn = a.recLsns.get(u.pageId());
+            if (a.aborted.contains(u.tid) || recLsn == null || u.offset < recLsn) {
+                continue;
+            }
+            List<LogRecord> chain = chains.get(u.pageId());
+            if (chain == null) {
+                chain = new ArrayList<LogRecord>();
+                chains.put(u.pageId(), chain);
+            }
+            chain.add(u);
+        }
+        List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+        for (final List<LogRecord> chain : chains.values()) {
+            tasks.add(new Callable<Void>() {
+                    public Void call() throws IOException {
+                        for (LogRecord u : chain) {
+                            u.redo(pages);
+                        }
+                        return null;
+                    }
+                });
+        }
+        return tasks;
+    }
+
+    /** @return a task per group of loser transactions that updated a
+        common page, undoing their updates latest first */
+    private List<Callable<Void>> undoTasks(Analysis a, final Map<PageId,Page> pages) {
+        // group the losers by the pages they share
+        HashMap<Long,Long> group = new HashMap<Long,Long>();
+        HashMap<PageId,Long> pageOwner = new HashMap<PageId,Long>();
+        List<LogRecord> undo = new ArrayList<LogRecord>();
+        for (LogRecord u : a.updates) {
+            if (a.committed.contains(u.tid) || a.aborted.contains(u.tid)) {
+                continue;
+            }
+            undo.add(u);
+            if (!group.containsKey(u.tid)) {
+                group.put(u.tid, u.tid);
+            }
+            Long owner = pageOwner.get(u.pageId());
+            if (owner == null) {
+                pageOwner.put(u.pageId(), u.tid);
+            } else {
+                group.put(findGroup(group, u.tid), findGroup(group, owner));
+            }
+        }
+
+        LinkedHashMap<Long,List<LogRecord>> groups = new LinkedHashMap<Long,List<LogRecord>>();
+        for (LogRecord u : undo) {
+            Long g = findGroup(group, u.tid);
+            List<LogRecord> records = groups.get(g);
+            if (records == null) {
+                records = new ArrayList<LogRecord>();
+                groups.put(g, records);
+            }
+            records.add(u);
+        }
+        List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+        for (final List<LogRecord> records : groups.values()) {
+            tasks.add(new Callable<Void>() {
+                    public Void call() throws IOException {
+                        for (int i = records.size() - 1; i >= 0; i--) {
+                            records.get(i).undo(pages, null);
+                        }
+                        return null;
+                    }
+                });
+        }
+        return tasks;
+    }
+
+    private static Long findGroup(HashMap<Long,Long> group, Long tid) {
+        Long g = group.get(tid);
+        while (!g.equals(tid)) {
+            tid = g;
+            g = group.get(tid);
+        }
+        return g;
+    }
+
+    /** Run the tasks on the pool and wait for all of them. */
+    private static void runAll(ExecutorService pool, List<Callable<Void>> tasks) throws IOException {
+        List<Future<Void>> results;
+        try {
+            results = pool.invokeAll(tasks);
+            for (Future<Void> f : results) {
+                f.get();
+            }
+        } catch (InterruptedException e) {
+            throw new IOException("interrupted during recovery");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw (IOException) new IOException("recovery failed").initCause(e.getCause());
+        }
+    }
+
     /** Print out a human readable represenation of the log */
     public void print() throws IOException {
         // some code goes here
     }
 
+    /** Force the log, including any buffered records, to disk. */
     public  synchronized void force() throws IOException {
+        drain();
         raf.getChannel().force(true);
+        durableOffset = raf.getFilePointer();
+        totalForces++;
+        for (DurableFuture d : pendingCommits) {
+            d.complete();
+        }
+        pendingCommits.clear();
     }
 
 }
@@ -1,7 +1,9 @@
 package simpledb;
+import java.util.Arrays;
 import java.util.Map;
 import java.util.Vector;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.io.File;
 import java.util.ArrayList;
@@ -35,6 +37,7 @@ public class LogicalPlan {
     private String aggField;
     private boolean oByAsc, hasOrderBy = false;
     private String oByField;
+    private int limit = -1;
     private String query;
 //    private Query owner;
 
@@ -216,6 +219,23 @@ public class LogicalPlan {
         hasOrderBy = true;
     }
 
+    /** Limit the result to the first n rows.  Only supported together with an ORDER BY, in
+        which case the sort and the limit are fused into a {@link TopN} operator.
+        @param n the maximum number of rows to return
+     * @throws ParsingException if n is negative
+    */
+    public void addLimit(int n) throws ParsingException {
+        if (n < 0) {
+            throw new ParsingException("LIMIT must not be negative");
+        }
+        limit = n;
+    }
+
+    /** @return the row limit added via {@link #addLimit}, or -1 if there is none */
+    public int getLimit() {
+        return limit;
+    }
+
     /** Given a name of a field, try to figure out what table it belongs to by looking
      *   through all of the tables added via {@link #addScan}. 
      *  @return A fully qualified name of the form tableAlias.name.  If the name parameter is already qualified
@@ -271,6 +291,161 @@ public class LogicalPlan {
         throw new ParsingException("Unknown predicate " + s);
     }
 
+    /** Determine which fields of the table scanned as alias the plan refers to.
+     *  @return the indices of those fields in td, in table order, or null if
+     *   the plan needs all or none of them (e.g. SELECT *)
+     */
+    private int[] referencedFields(String alias, TupleDesc td) {
+        HashSet<String> names = new HashSet<String>();
+        for (LogicalSelectListNode si : selectList) {
+            names.add(si.fname);
+        }
+        for (LogicalFilterNode lf : filters) {
+            names.add(lf.fieldQuantifiedName);
+        }
+        for (LogicalJoinNode lj : joins) {
+            names.add(lj.f1QuantifiedName);
+            names.add(lj.f2QuantifiedName);
+        }
+        names.add(groupByField);
+        names.add(aggField);
+        names.add(oByField);
+
+        ArrayList<Integer> fields = new ArrayList<Integer>();
+        for (int i = 0; i < td.numFields(); i++) {
+            String name = td.getFieldName(i);
+            // the plan looks fields up by their qualified name; tables whose
+            // field names already carry the alias match it directly
+            if (names.contains(alias + "." + name) || names.contains(name)) {
+                fields.add(i);
+            }
+        }
+        for (String name : names) {
+            if (name != null && name.endsWith("*")) {
+                return null;
+            }
+        }
+        if (fields.isEmpty() || fields.size() == td.numFields()) {
+            return null;
+        }
+        int[] result = new int[fields.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = fields.get(i);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the constant of a filter as a Field of the type of the field
+     * it is compared to.
+     * @throws ParsingException if td has no field of the filter's name
+     */
+    private Field filterConstant(LogicalFilterNode lf, TupleDesc td) throws ParsingException {
+        Type ftyp;
+        try {//td.fieldNameToIndex(disambiguateName(lf.fieldPureName))
+            ftyp = td.getFieldType(td.fieldNameToIndex(lf.fieldQuantifiedName));
+        } catch (java.util.NoSuchElementException e) {
+            throw new ParsingException("Unknown field in filter expression " + lf.fieldQuantifiedName);
+        }
+        if (ftyp == Type.INT_TYPE)
+            return new IntField(new Integer(lf.c).intValue());
+        else
+            return new StringField(lf.c, Type.STRING_LEN);
+    }
+
+    /**
+     * Replaces the sequential scans of heap files by parallel scans that
+     * evaluate the scan's predicates and return only the fields the query
+     * uses. Tables with indexes keep their SeqScan, so that joins can still
+     * probe an index instead.
+     */
+    private void parallelizeScans(TransactionId t) {
+        for (Map.Entry<String,DbIterator> e : subplanMap.entrySet()) {
+            if (!(e.getValue() instanceof SeqScan)) {
+                continue;
+            }
+            SeqScan scan = (SeqScan) e.getValue();
+            if (!pushesDown(scan) || !Database.getCatalog().getIndexes(scan.getTableId()).isEmpty()) {
+                continue;
+            }
+            int[] fields = referencedFields(e.getKey(), scan.getTupleDesc());
+            e.setValue(new ParallelSeqScan(t, scan.getTableId(), e.getKey(), fields, scan.getPredicates()));
+        }
+    }
+
+    /** @return true if the table a scan reads keeps zone maps that can skip pages for predicates */
+    private static boolean pushesDown(SeqScan scan) {
+        DbFile file = Database.getCatalog().getDatabaseFile(scan.getTableId());
+        return file instanceof HeapFile && ((HeapFile) file).getZoneMap() != null;
+    }
+
+    /**
+     * Replaces the sequential scan of each table by an {@link IndexScan} if
+     * one of the table's filters is on an indexed field and reading the
+     * matching tuples through the index is estimated to be cheaper than
+     * scanning the table. Of several such filters, the cheapest is used.
+     * <p>
+     * An index scan reads one page per level of the index and then, in the
+     * worst case, one table page per matching tuple; a page read costs what
+     * it costs in a sequential scan.
+     * @return the filter answered by the index scan, by table alias
+     */
+    private HashMap<String,LogicalFilterNode> chooseIndexScans(TransactionId t,
+            Map<String,TableStats> statsMap, boolean explain) throws ParsingException {
+        HashMap<String,LogicalFilterNode> chosen = new HashMap<String,LogicalFilterNode>();
+        HashMap<String,Double> costs = new HashMap<String,Double>();
+        HashMap<String,BTreeFile> indexes = new HashMap<String,BTreeFile>();
+        for (LogicalFilterNode lf : filters) {
+            DbIterator subplan = subplanMap.get(lf.tableAlias);
+            if (!(subplan instanceof SeqScan) || !IndexScan.supports(lf.p)) {
+                continue;
+            }
+            TupleDesc td = subplan.getTupleDesc();
+            int field;
+            try {
+                field = td.fieldNameToIndex(lf.fieldQuantifiedName);
+            } catch (NoSuchElementException e) {
+                continue;
+            }
+            int tableId = this.getTableId(lf.tableAlias);
+            BTreeFile index = Database.getCatalog().getIndex(tableId, field);
+            TableStats s = statsMap.get(Database.getCatalog().getTableName(tableId));
+            if (index == null || s == null) {
+                continue;
+            }
+            DbFile file = Database.getCatalog().getDatabaseFile(tableId);
+            int numPages = file instanceof HeapFile ? ((HeapFile) file).numPages() : 0;
+            double scanCost = s.estimateScanCost();
+            double pageCost = numPages > 0 ? scanCost / numPages : scanCost;
+            double sel = s.estimateSelectivity(field, lf.p, filterConstant(lf, td));
+            double cost;
+            try {
+                cost = (index.getHeight(t) + sel * s.totalTuples()) * pageCost;
+            } catch (DbException e) {
+                continue;
+            } catch (TransactionAbortedException e) {
+                continue;
+            }
+            Double best = costs.get(lf.tableAlias);
+            if (cost < (best == null ? scanCost : best)) {
+                chosen.put(lf.tableAlias, lf);
+                costs.put(lf.tableAlias, cost);
+                indexes.put(lf.tableAlias, index);
+            }
+        }
+        for (Map.Entry<String,LogicalFilterNode> e : chosen.entrySet()) {
+            LogicalFilterNode lf = e.getValue();
+            int tableId = this.getTableId(lf.tableAlias);
+            Field f = filterConstant(lf, subplanMap.get(lf.tableAlias).getTupleDesc());
+            subplanMap.put(lf.tableAlias, new IndexScan(t, tableId, lf.tableAlias, indexes.get(lf.tableAlias), lf.p, f));
+            if (explain) {
+                System.out.println("Index scan of " + lf.tableAlias + " on " + lf.fieldQuantifiedName
+                        + " " + lf.p + " " + lf.c + ", estimated cost " + costs.get(lf.tableAlias));
+            }
+        }
+        return chosen;
+    }
+
     /** Convert this LogicalPlan into a physicalPlan represented by a {@link DbIterator}.  Attempts to
      *   find the optimal plan by using {@link JoinOptimizer#orderJoins} to order the joins in the plan.
      *  @param t The transaction that the returned DbIterator will run as a part of
@@ -292,9 +467,16 @@ public class LogicalPlan {
 
         while (tableIt.hasNext()) {
             LogicalScanNode table = tableIt.next();
-            SeqScan ss = null;
+            DbIterator ss = null;
             try {
-                 ss = new SeqScan(t, Database.getCatalog().getDatabaseFile(table.t).getId(), table.alias);
+                 DbFile file = Database.getCatalog().getDatabaseFile(table.t);
+                 int[] fields = file instanceof ColumnFile ? referencedFields(table.alias, file.getTupleDesc()) : null;
+                 if (fields != null) {
+                     // only decode the columns the query uses
+                     ss = new ColumnScan(t, file.getId(), table.alias, fields);
+                 } else {
+                     ss = new SeqScan(t, file.getId(), table.alias);
+                 }
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown table " + table.t);
             }
@@ -306,6 +488,8 @@ public class LogicalPlan {
 
         }
 
+        HashMap<String,LogicalFilterNode> indexFilters = chooseIndexScans(t, statsMap, explain);
+
         Iterator<LogicalFilterNode> filterIt = filters.iterator();        
         while (filterIt.hasNext()) {
             LogicalFilterNode lf = filterIt.next();
@@ -314,19 +498,7 @@ public class LogicalPlan {
                 throw new ParsingException("Unknown table in WHERE clause " + lf.tableAlias);
             }
 
-            Field f;
-            Type ftyp;
-            TupleDesc td = subplanMap.get(lf.tableAlias).getTupleDesc();
-            
-            try {//td.fieldNameToIndex(disambiguateName(lf.fieldPureName))
-                ftyp = td.getFieldType(td.fieldNameToIndex(lf.fieldQuantifiedName));
-            } catch (java.util.NoSuchElementException e) {
-                throw new ParsingException("Unknown field in filter expression " + lf.fieldQuantifiedName);
-            }
-            if (ftyp == Type.INT_TYPE)
-                f = new IntField(new Integer(lf.c).intValue());
-            else
-                f = new StringField(lf.c, Type.STRING_LEN);
+            Field f = filterConstant(lf, subplan.getTupleDesc());
 
             Predicate p = null;
             try {
@@ -334,7 +506,18 @@ public class LogicalPlan {
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown field " + lf.fieldQuantifiedName);
             }
-            subplanMap.put(lf.tableAlias, new Filter(p, subplan));
+            // a filter answered by an index scan needs no Filter operator, and
+            // a scan of a file with zone maps evaluates the filter itself
+            if (indexFilters.get(lf.tableAlias) == lf) {
+                // the index scan already returns only matching tuples
+            } else if (subplan instanceof SeqScan && pushesDown((SeqScan) subplan)) {
+                SeqScan scan = (SeqScan) subplan;
+                Predicate[] pushed = Arrays.copyOf(scan.getPredicates(), scan.getPredicates().length + 1);
+                pushed[pushed.length - 1] = p;
+                subplanMap.put(lf.tableAlias, new SeqScan(t, scan.getTableId(), lf.tableAlias, pushed));
+            } else {
+                subplanMap.put(lf.tableAlias, new Filter(p, subplan));
+            }
 
             TableStats s = statsMap.get(Database.getCatalog().getTableName(this.getTableId(lf.tableAlias)));
             
@@ -343,6 +526,10 @@ public class LogicalPlan {
 
             //s.addSelectivityFactor(estimateFilterSelectivity(lf,statsMap));
         }
+
+        if (ParallelSeqScan.getParallelism() > 1) {
+            this.parallelizeScans(t);
+        }
         
         JoinOptimizer jo = new JoinOptimizer(this,joins);
 
@@ -474,7 +661,16 @@ public class LogicalPlan {
             node = aggNode;
         }
 
-        if (hasOrderBy) {
+        if (limit >= 0 && !hasOrderBy) {
+            throw new ParsingException("LIMIT without ORDER BY is not supported");
+        }
+        if (hasOrderBy && limit >= 0) {
+            node = new TopN(node.getTupleDesc().fieldNameToIndex(oByField), oByAsc, limit, node);
+            if (explain) {
+                System.out.println("ORDER BY " + oByField + (oByAsc ? " ASC" : " DESC")
+                        + " LIMIT " + limit + " fused into TopN");
+            }
+        } else if (hasOrderBy) {
             node = new OrderBy(node.getTupleDesc().fieldNameToIndex(oByField), oByAsc, node);
         }
 
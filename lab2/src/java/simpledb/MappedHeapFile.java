@@ -0,0 +1,146 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+
+/**
+ * MappedHeapFile is a read-only variant of {@link HeapFile} for large,
+ * read-mostly tables. Instead of reading each page into a freshly allocated
+ * byte array, it memory maps the table file in segments of
+ * {@link #SEGMENT_PAGES} pages and builds each HeapPage straight from a slice
+ * of the mapping. The bytes stay in the operating system's page cache; the
+ * BufferPool only holds the decoded HeapPage objects.
+ * <p>
+ * The on-disk format is identical to HeapFile, so a file produced by
+ * {@link HeapFileEncoder} can be opened with either class. Inserts, deletes
+ * and page writes are rejected.
+ *
+ * @see HeapFile
+ * @see HeapPage#HeapPage(HeapPageId, ByteBuffer)
+ */
+public class MappedHeapFile extends HeapFile {
+
+    /** Number of pages covered by one mapped segment. */
+    public static final int SEGMENT_PAGES = 1024;
+
+    /**
+     * Constructs a read-only heap file backed by the specified file.
+     *
+     * @param f
+     *            the file that stores the on-disk backing store for this heap
+     *            file.
+     * @param td
+     *            the schema of the table stored in f.
+     */
+    public MappedHeapFile(File f, TupleDesc td) {
+        super(f, td);
+        this.channel = null;
+        this.segments = null;
+        this.mappedNumPages = -1;
+    }
+
+    /**
+     * Opens the file read-only; the page count is fixed from then on since
+     * nothing can append to a MappedHeapFile.
+     */
+    private synchronized FileChannel getReadChannel() throws IOException {
+        if (this.channel == null) {
+            this.channel = new RandomAccessFile(this.file, "r").getChannel();
+            this.mappedNumPages = (int) (this.channel.size() / (long)this.pageSize);
+            int numSegments = (this.mappedNumPages + SEGMENT_PAGES - 1) / SEGMENT_PAGES;
+            this.segments = new MappedByteBuffer[numSegments];
+        }
+        return this.channel;
+    }
+
+    /** Returns the mapped segment with the given index, mapping it on first use. */
+    private synchronized MappedByteBuffer getSegment(int index) throws IOException {
+        FileChannel fc = this.getReadChannel();
+        if (this.segments[index] == null) {
+            long start = (long)index * SEGMENT_PAGES * this.pageSize;
+            long length = Math.min((long)SEGMENT_PAGES * this.pageSize,
+                    (long)this.mappedNumPages * this.pageSize - start);
+            this.segments[index] = fc.map(FileChannel.MapMode.READ_ONLY, start, length);
+        }
+        return this.segments[index];
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        int pageNo = pid.pageNumber();
+        if (pageNo < 0 || pageNo >= numPages()) {
+            throw new IllegalArgumentException();
+        }
+        try {
+            // duplicate, so that concurrent readers never share a position
+            ByteBuffer view = this.getSegment(pageNo / SEGMENT_PAGES).duplicate();
+            int offset = (pageNo % SEGMENT_PAGES) * this.pageSize;
+            view.position(offset);
+            view.limit(offset + this.pageSize);
+            // A cast exception would be thrown if pid cannot be converted to HeapPageId
+            return new HeapPage((HeapPageId)pid, view.slice());
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page page) throws IOException {
+        throw new IOException("MappedHeapFile is read-only");
+    }
+
+    void writePages(int firstPageNo, List<byte[]> pageData) throws IOException {
+        throw new IOException("MappedHeapFile is read-only");
+    }
+
+    /**
+     * Returns the number of pages in this file, as of the first access.
+     */
+    public synchronized int numPages() {
+        if (this.mappedNumPages < 0) {
+            if (!this.file.exists()) {
+                return 0;
+            }
+            try {
+                this.getReadChannel();
+            } catch (IOException e) {
+                return (int) (this.file.length() / (long)this.pageSize);
+            }
+        }
+        return this.mappedNumPages;
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        throw new DbException("MappedHeapFile is read-only");
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t) throws DbException,
+            TransactionAbortedException {
+        throw new DbException("MappedHeapFile is read-only");
+    }
+
+    /**
+     * Closes the file and drops all mapped segments. The mappings themselves
+     * are released once the pages built on them are garbage collected.
+     */
+    public synchronized void close() throws IOException {
+        if (this.channel != null) {
+            this.channel.close();
+            this.channel = null;
+            this.segments = null;
+            this.mappedNumPages = -1;
+        }
+        super.close();
+    }
+
+    private FileChannel channel;
+    private MappedByteBuffer[] segments;
+    private int mappedNumPages;
+}
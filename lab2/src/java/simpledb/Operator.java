@@ -7,7 +7,7 @@ import java.util.NoSuchElementException;
  * <code>next</code> and <code>hasNext</code>. Subclasses only need to implement
  * <code>open</code> and <code>readNext</code>.
  */
-public abstract class Operator implements DbIterator {
+public abstract class Operator implements BatchIterator {
 
     private static final long serialVersionUID = 1L;
 
@@ -44,6 +44,21 @@ public abstract class Operator implements DbIterator {
     protected abstract Tuple fetchNext() throws DbException,
             TransactionAbortedException;
 
+    /**
+     * Returns the next batch of tuples. This default implementation fills a
+     * batch from {@link #next()}; operators that can process whole batches
+     * override it.
+     *
+     * @see BatchIterator#nextBatch
+     */
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (!this.open)
+            throw new IllegalStateException("Operator not yet open");
+        if (this.batch == null)
+            this.batch = new TupleBatch(getTupleDesc());
+        return BatchAdapter.fill(this, this.batch);
+    }
+
     /**
      * Closes this iterator. If overridden by a subclass, they should call
      * super.close() in order for Operator's internal state to be consistent.
@@ -56,6 +71,7 @@ public abstract class Operator implements DbIterator {
 
     private Tuple next = null;
     private boolean open = false;
+    private transient TupleBatch batch = null;
     private int estimatedCardinality = 0;
 
     public void open() throws DbException, TransactionAbortedException {
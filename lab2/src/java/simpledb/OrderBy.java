@@ -1,9 +1,17 @@
 package simpledb;
 
+import java.io.IOException;
 import java.util.*;
 
 /**
  * OrderBy is an operator that implements a relational ORDER BY.
+ * <p>
+ * Inputs that fit into the memory budget are sorted in memory. Larger
+ * inputs are sorted externally: open() writes sorted runs of at most budget
+ * tuples to {@link TupleSpillFile}s, merges them down to at most one run per
+ * buffer pool page, and fetchNext() then performs the final k-way merge
+ * with a heap. The merged output is written to one more spill file as it is
+ * produced, so rewind() rereads it instead of sorting again.
  */
 public class OrderBy extends Operator {
 
@@ -15,9 +23,17 @@ public class OrderBy extends Operator {
     private String orderByFieldName;
     private Iterator<Tuple> it;
     private boolean asc;
+    private final int budget;
+
+    // external sort state
+    private ArrayList<TupleSpillFile> runs;
+    private PriorityQueue<MergeEntry> heap;
+    private TupleSpillFile sorted;
+    private DbIterator sortedIt;
 
     /**
-     * Creates a new OrderBy node over the tuples from the iterator.
+     * Creates a new OrderBy node over the tuples from the iterator. The
+     * memory budget is the number of tuples that fit into the buffer pool.
      * 
      * @param orderbyField
      *            the field to which the sort is applied.
@@ -27,11 +43,23 @@ public class OrderBy extends Operator {
      *            the tuples to sort.
      */
     public OrderBy(int orderbyField, boolean asc, DbIterator child) {
+        this(orderbyField, asc, child,
+                Database.getBufferPool().getTupleCapacity(child.getTupleDesc()));
+    }
+
+    /**
+     * Creates a new OrderBy node with an explicit memory budget.
+     *
+     * @param budget
+     *            the maximum number of tuples held in memory while sorting
+     */
+    public OrderBy(int orderbyField, boolean asc, DbIterator child, int budget) {
         this.child = child;
         td = child.getTupleDesc();
         this.orderByField = orderbyField;
         this.orderByFieldName = td.getFieldName(orderbyField);
         this.asc = asc;
+        this.budget = Math.max(1, budget);
     }
     
     public boolean isASC()
@@ -53,24 +81,200 @@ public class OrderBy extends Operator {
         return td;
     }
 
+    /** @return true if the last open() had to sort externally */
+    public boolean isExternal() {
+        return this.sorted != null;
+    }
+
+    /**
+     * @return the number of sorted runs merged by the final merge pass, or
+     *         0 after an in-memory sort
+     */
+    public int getNumRuns() {
+        return this.runs == null ? 0 : this.runs.size();
+    }
+
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
+        this.dropSpillFiles();
         child.open();
-        // load all the tuples in a collection, and sort it
-        while (child.hasNext())
+        TupleComparator comparator = new TupleComparator(orderByField, asc);
+        // load the tuples in a collection, and sort it if they all fit
+        childTups.clear();
+        while (child.hasNext()) {
+            if (childTups.size() >= this.budget) {
+                break;
+            }
             childTups.add((Tuple) child.next());
-        Collections.sort(childTups, new TupleComparator(orderByField, asc));
-        it = childTups.iterator();
+        }
+        if (child.hasNext()) {
+            this.sortExternally(comparator);
+        } else {
+            Collections.sort(childTups, comparator);
+            it = childTups.iterator();
+        }
         super.open();
     }
 
+    /**
+     * Writes the buffered tuples and the rest of the child as sorted runs,
+     * merges runs until one final merge can read them all at once, and
+     * prepares that final merge.
+     */
+    private void sortExternally(TupleComparator comparator)
+            throws DbException, TransactionAbortedException {
+        it = null;
+        this.runs = new ArrayList<TupleSpillFile>();
+        try {
+            while (true) {
+                Collections.sort(childTups, comparator);
+                TupleSpillFile run = new TupleSpillFile(td);
+                for (Tuple t : childTups) {
+                    run.add(t);
+                }
+                this.runs.add(run);
+                childTups.clear();
+                if (!child.hasNext()) {
+                    break;
+                }
+                while (childTups.size() < this.budget && child.hasNext()) {
+                    childTups.add(child.next());
+                }
+            }
+            childTups.trimToSize();
+
+            // one input page per run, one output page
+            int fanIn = Math.max(2, Database.getBufferPool().getMaxPages() - 1);
+            while (this.runs.size() > fanIn) {
+                ArrayList<TupleSpillFile> merged = new ArrayList<TupleSpillFile>();
+                for (int i = 0; i < this.runs.size(); i += fanIn) {
+                    List<TupleSpillFile> group = this.runs.subList(i,
+                            Math.min(i + fanIn, this.runs.size()));
+                    TupleSpillFile out = new TupleSpillFile(td);
+                    PriorityQueue<MergeEntry> h = this.startMerge(group, comparator);
+                    while (!h.isEmpty()) {
+                        out.add(this.nextMerged(h));
+                    }
+                    for (TupleSpillFile run : group) {
+                        run.delete();
+                    }
+                    merged.add(out);
+                }
+                this.runs = merged;
+            }
+
+            this.heap = this.startMerge(this.runs, comparator);
+            this.sorted = new TupleSpillFile(td);
+            this.sortedIt = null;
+        } catch (IOException e) {
+            this.dropSpillFiles();
+            throw new DbException("external sort failed: " + e.getMessage());
+        }
+    }
+
+    /** Opens the given runs and seeds a merge heap with their first tuples. */
+    private PriorityQueue<MergeEntry> startMerge(List<TupleSpillFile> inputs,
+            final TupleComparator comparator) throws IOException, DbException,
+            TransactionAbortedException {
+        PriorityQueue<MergeEntry> h = new PriorityQueue<MergeEntry>(inputs.size(),
+                new Comparator<MergeEntry>() {
+                    public int compare(MergeEntry e1, MergeEntry e2) {
+                        int c = comparator.compare(e1.tuple, e2.tuple);
+                        // keep the sort stable across runs
+                        return c != 0 ? c : e1.run - e2.run;
+                    }
+                });
+        for (int i = 0; i < inputs.size(); i++) {
+            DbIterator input = inputs.get(i).iterator();
+            input.open();
+            if (input.hasNext()) {
+                h.add(new MergeEntry(input.next(), input, i));
+            } else {
+                input.close();
+            }
+        }
+        return h;
+    }
+
+    /** Removes the smallest tuple from a merge heap and refills it. */
+    private Tuple nextMerged(PriorityQueue<MergeEntry> h)
+            throws DbException, TransactionAbortedException {
+        MergeEntry e = h.poll();
+        Tuple t = e.tuple;
+        if (e.input.hasNext()) {
+            e.tuple = e.input.next();
+            h.add(e);
+        } else {
+            e.input.close();
+        }
+        return t;
+    }
+
+    /**
+     * Completes the final merge into the output spill file; rewind() reads
+     * the output from that file.
+     */
+    private void finishMerge() throws DbException, TransactionAbortedException {
+        try {
+            while (!this.heap.isEmpty()) {
+                this.sorted.add(this.nextMerged(this.heap));
+            }
+            this.heap = null;
+            for (TupleSpillFile run : this.runs) {
+                run.delete();
+            }
+        } catch (IOException e) {
+            throw new DbException("external sort failed: " + e.getMessage());
+        }
+    }
+
+    private void dropSpillFiles() {
+        if (this.heap != null) {
+            for (MergeEntry e : this.heap) {
+                e.input.close();
+            }
+            this.heap = null;
+        }
+        if (this.runs != null) {
+            for (TupleSpillFile run : this.runs) {
+                run.delete();
+            }
+            this.runs = null;
+        }
+        if (this.sortedIt != null) {
+            this.sortedIt.close();
+            this.sortedIt = null;
+        }
+        if (this.sorted != null) {
+            this.sorted.delete();
+            this.sorted = null;
+        }
+    }
+
     public void close() {
         super.close();
         it = null;
+        this.dropSpillFiles();
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
-        it = childTups.iterator();
+        if (this.isExternal()) {
+            if (this.heap != null) {
+                this.finishMerge();
+            }
+            if (this.sortedIt == null) {
+                try {
+                    this.sortedIt = this.sorted.iterator();
+                } catch (IOException e) {
+                    throw new DbException("external sort failed: " + e.getMessage());
+                }
+                this.sortedIt.open();
+            } else {
+                this.sortedIt.rewind();
+            }
+        } else {
+            it = childTups.iterator();
+        }
     }
 
     /**
@@ -82,7 +286,21 @@ public class OrderBy extends Operator {
      */
     protected Tuple fetchNext() throws NoSuchElementException,
             TransactionAbortedException, DbException {
-        if (it != null && it.hasNext()) {
+        if (this.heap != null) {
+            if (this.heap.isEmpty()) {
+                this.finishMerge();
+                return null;
+            }
+            Tuple t = this.nextMerged(this.heap);
+            try {
+                this.sorted.add(t);
+            } catch (IOException e) {
+                throw new DbException("external sort failed: " + e.getMessage());
+            }
+            return t;
+        } else if (this.sortedIt != null) {
+            return this.sortedIt.hasNext() ? this.sortedIt.next() : null;
+        } else if (it != null && it.hasNext()) {
             return it.next();
         } else
             return null;
@@ -98,26 +316,17 @@ public class OrderBy extends Operator {
         this.child = children[0];
     }
 
-}
-
-class TupleComparator implements Comparator<Tuple> {
-    int field;
-    boolean asc;
+    /** The current tuple of one input of a merge. */
+    private static class MergeEntry {
+        Tuple tuple;
+        final DbIterator input;
+        final int run;
 
-    public TupleComparator(int field, boolean asc) {
-        this.field = field;
-        this.asc = asc;
+        MergeEntry(Tuple tuple, DbIterator input, int run) {
+            this.tuple = tuple;
+            this.input = input;
+            this.run = run;
+        }
     }
 
-    public int compare(Tuple o1, Tuple o2) {
-        Field t1 = (o1).getField(field);
-        Field t2 = (o2).getField(field);
-        if (t1.compare(Predicate.Op.EQUALS, t2))
-            return 0;
-        if (t1.compare(Predicate.Op.GREATER_THAN, t2))
-            return asc ? 1 : -1;
-        else
-            return asc ? -1 : 1;
-    }
-    
 }
@@ -0,0 +1,398 @@
+package simpledb;
+
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * ParallelSeqScan is a sequential scan of a {@link HeapFile} that reads the
+ * file's pages on several threads. It splits the pages into ranges that
+ * tasks of a shared ForkJoinPool scan; each task evaluates the scan's
+ * predicates and projects the matching tuples onto the returned fields, and
+ * hands them to the consumer in batches through a bounded queue. Pages whose
+ * zone map proves they hold no match are skipped, as by {@link SeqScan}.
+ * <p>
+ * Tuples are returned in no particular order. The number of threads is set
+ * with {@link #setParallelism}; the planner only uses parallel scans when it
+ * is greater than one.
+ */
+public class ParallelSeqScan implements BatchIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Batches a scan may have queued for its consumer, per thread. */
+    static final int QUEUED_BATCHES_PER_THREAD = 2;
+
+    /** Tasks per thread the pages are split into, to balance uneven ranges. */
+    static final int TASKS_PER_THREAD = 4;
+
+    /**
+     * Creates a parallel scan over the given fields of the tuples of the
+     * specified table that satisfy all of the given predicates.
+     *
+     * @param tid
+     *            The transaction this scan is running as a part of.
+     * @param tableid
+     *            the table to scan; must be stored in a HeapFile whose pages
+     *            are HeapPages.
+     * @param tableAlias
+     *            the alias of this table
+     * @param fields
+     *            the fields of the table to return, in output order, or null
+     *            to return all fields
+     * @param predicates
+     *            predicates over the fields of the table, which need not be
+     *            returned
+     */
+    public ParallelSeqScan(TransactionId tid, int tableid, String tableAlias, int[] fields,
+            Predicate[] predicates) {
+        DbFile file = Database.getCatalog().getDatabaseFile(tableid);
+        if (!(file instanceof HeapFile) || ((HeapFile) file).getZoneMap() == null) {
+            throw new IllegalArgumentException("table " + tableid + " is not stored in HeapPages");
+        }
+        this.transactionId = tid;
+        this.file = (HeapFile) file;
+        this.tableAlias = tableAlias;
+        this.predicates = predicates.clone();
+
+        TupleDesc tableTd = file.getTupleDesc();
+        if (fields == null) {
+            fields = new int[tableTd.numFields()];
+            for (int i = 0; i < fields.length; i++) {
+                fields[i] = i;
+            }
+        }
+        this.fields = fields.clone();
+        Type[] types = new Type[fields.length];
+        String[] names = new String[fields.length];
+        for (int i = 0; i < fields.length; i++) {
+            types[i] = tableTd.getFieldType(fields[i]);
+            names[i] = tableTd.getFieldName(fields[i]);
+        }
+        this.td = new TupleDesc(types, names);
+    }
+
+    /**
+     * Sets the number of threads parallel scans use. Scans opened afterwards
+     * run on a pool of this size.
+     *
+     * @throws IllegalArgumentException if threads is less than one
+     */
+    public static synchronized void setParallelism(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("parallelism must be at least 1");
+        }
+        if (threads != parallelism && pool != null) {
+            pool.shutdown();
+            pool = null;
+        }
+        parallelism = threads;
+    }
+
+    /** @return the number of threads parallel scans use; 1 by default */
+    public static synchronized int getParallelism() {
+        return parallelism;
+    }
+
+    private static synchronized ForkJoinPool getPool() {
+        if (pool == null) {
+            pool = new ForkJoinPool(parallelism);
+        }
+        return pool;
+    }
+
+    /** @return the alias of the table this operator scans. */
+    public String getAlias() {
+        return this.tableAlias;
+    }
+
+    /** @return the id of the table this operator scans */
+    public int getTableId() {
+        return this.file.getId();
+    }
+
+    /** @return the fields of the table this scan returns */
+    public int[] getFields() {
+        return this.fields.clone();
+    }
+
+    /** @return the predicates every tuple of this scan satisfies */
+    public Predicate[] getPredicates() {
+        return this.predicates.clone();
+    }
+
+    /**
+     * Returns the projected TupleDesc, with the field names of the
+     * underlying table.
+     */
+    public TupleDesc getTupleDesc() {
+        return this.td;
+    }
+
+    /** Starts the tasks scanning the table. */
+    public void open() throws DbException, TransactionAbortedException {
+        this.close();
+        int threads = getParallelism();
+        int numPages = this.file.numPages();
+        this.run = new Run(threads * QUEUED_BATCHES_PER_THREAD);
+        int grain = Math.max(1, numPages / (threads * TASKS_PER_THREAD));
+        getPool().execute(new RangeTask(this.run, 0, numPages, grain, true));
+    }
+
+    public boolean hasNext() throws DbException, TransactionAbortedException {
+        if (this.run == null) {
+            throw new IllegalStateException("ParallelSeqScan not yet open");
+        }
+        if (this.current == null || this.row >= this.current.size()) {
+            this.current = this.nextBatch();
+            this.row = 0;
+        }
+        return this.current != null;
+    }
+
+    public Tuple next() throws DbException, TransactionAbortedException,
+            NoSuchElementException {
+        if (!this.hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return this.current.getTuple(this.row++);
+    }
+
+    /**
+     * Returns the next batch produced by any of the scan's tasks, waiting
+     * for one if none is ready.
+     *
+     * @throws DbException if a task failed to read a page
+     * @see BatchIterator#nextBatch
+     */
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (this.run == null) {
+            throw new IllegalStateException("ParallelSeqScan not yet open");
+        }
+        if (this.run.finished) {
+            return null;
+        }
+        TupleBatch batch;
+        try {
+            batch = this.run.queue.take();
+        } catch (InterruptedException e) {
+            throw new DbException("interrupted while waiting for scan results");
+        }
+        if (batch != this.run.end) {
+            return batch;
+        }
+        this.run.finished = true;
+        Exception failure = this.run.failure.get();
+        if (failure instanceof TransactionAbortedException) {
+            throw (TransactionAbortedException) failure;
+        } else if (failure instanceof DbException) {
+            throw (DbException) failure;
+        } else if (failure != null) {
+            throw new DbException("parallel scan failed: " + failure);
+        }
+        return null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        this.open();
+    }
+
+    /** Stops the scan's tasks; they give up at their next page or batch. */
+    public void close() {
+        if (this.run != null) {
+            this.run.closed = true;
+            this.run.queue.clear();
+            this.run = null;
+        }
+        this.current = null;
+        this.row = 0;
+    }
+
+    /** The state one open() of the scan shares with its tasks. */
+    private class Run {
+        Run(int capacity) {
+            this.queue = new ArrayBlockingQueue<TupleBatch>(capacity);
+            this.end = new TupleBatch(td, 1);
+            this.failure = new AtomicReference<Exception>();
+        }
+
+        /**
+         * Queues a batch for the consumer, waiting while the queue is full.
+         * The wait is a managed block, so the pool adds a thread while this
+         * one waits and the tasks of other scans, such as the inner scan of
+         * a join this scan feeds, can still run.
+         *
+         * @return false if the scan was closed meanwhile
+         */
+        boolean put(TupleBatch batch) {
+            Put put = new Put(this, batch);
+            try {
+                ForkJoinPool.managedBlock(put);
+            } catch (InterruptedException e) {
+                this.fail(e);
+            }
+            return put.queued;
+        }
+
+        void fail(Exception e) {
+            this.failure.compareAndSet(null, e);
+        }
+
+        /** @return true if the tasks should stop scanning */
+        boolean stopped() {
+            return this.closed || this.failure.get() != null;
+        }
+
+        final BlockingQueue<TupleBatch> queue;
+        // marks the end of the results; put by the root task
+        final TupleBatch end;
+        final AtomicReference<Exception> failure;
+        // set once the consumer has closed the scan
+        volatile boolean closed;
+        // accessed by the consumer only
+        boolean finished;
+    }
+
+    /** Waits until a batch is queued or the scan is closed. */
+    private static class Put implements ForkJoinPool.ManagedBlocker {
+        Put(Run run, TupleBatch batch) {
+            this.run = run;
+            this.batch = batch;
+        }
+
+        public boolean isReleasable() {
+            if (!this.queued) {
+                this.queued = this.run.queue.offer(this.batch);
+            }
+            return this.queued || this.run.closed;
+        }
+
+        public boolean block() throws InterruptedException {
+            while (!this.queued && !this.run.closed) {
+                this.queued = this.run.queue.offer(this.batch, 10, TimeUnit.MILLISECONDS);
+            }
+            return true;
+        }
+
+        private final Run run;
+        private final TupleBatch batch;
+        boolean queued;
+    }
+
+    /**
+     * Scans the pages [first, last), splitting ranges larger than grain
+     * pages in two. The root task queues the end marker once all pages are
+     * done.
+     */
+    private class RangeTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        RangeTask(Run run, int first, int last, int grain, boolean root) {
+            this.run = run;
+            this.first = first;
+            this.last = last;
+            this.grain = grain;
+            this.root = root;
+        }
+
+        protected void compute() {
+            try {
+                if (this.last - this.first > this.grain) {
+                    int middle = (this.first + this.last) >>> 1;
+                    invokeAll(new RangeTask(this.run, this.first, middle, this.grain, false),
+                            new RangeTask(this.run, middle, this.last, this.grain, false));
+                } else {
+                    this.scan();
+                }
+            } catch (Exception e) {
+                this.run.fail(e);
+            } finally {
+                if (this.root) {
+                    this.run.put(this.run.end);
+                }
+            }
+        }
+
+        private void scan() throws DbException, TransactionAbortedException {
+            BufferPool bufferPool = Database.getBufferPool();
+            ZoneMap zones = file.getZoneMap();
+            TupleBatch out = new TupleBatch(td);
+            for (int pageNo = this.first; pageNo < this.last && !this.run.stopped(); pageNo++) {
+                if (predicates.length > 0 && !zones.mayMatch(pageNo, predicates)) {
+                    continue;
+                }
+                // the task holds on to the page object itself, so it need not be pinned
+                HeapPageId pid = new HeapPageId(file.getId(), pageNo);
+                HeapPage page = (HeapPage) bufferPool.getPage(transactionId, pid, Permissions.READ_ONLY);
+                if (predicates.length > 0 && page.isDirty() == null && !zones.isKnown(pageNo)) {
+                    zones.record(page);
+                }
+                Iterator<Tuple> it = page.iterator();
+                while (it.hasNext()) {
+                    Tuple t = it.next();
+                    if (!matches(t)) {
+                        continue;
+                    }
+                    if (out.isFull()) {
+                        if (!this.run.put(out)) {
+                            return;
+                        }
+                        out = new TupleBatch(td);
+                    }
+                    append(out, t);
+                }
+            }
+            if (!out.isEmpty()) {
+                this.run.put(out);
+            }
+        }
+
+        private final Run run;
+        private final int first;
+        private final int last;
+        private final int grain;
+        private final boolean root;
+    }
+
+    private boolean matches(Tuple t) {
+        for (Predicate p : this.predicates) {
+            if (!p.filter(t)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Appends the returned fields of t to a batch that is not full. */
+    private void append(TupleBatch out, Tuple t) {
+        int row = out.size();
+        for (int k = 0; k < this.fields.length; k++) {
+            if (this.td.getFieldType(k) == Type.INT_TYPE) {
+                out.getIntColumn(k)[row] = t.getInt(this.fields[k]);
+            } else {
+                out.getStringColumn(k)[row] = t.getString(this.fields[k]);
+            }
+        }
+        out.setRecordId(row, t.getRecordId());
+        out.setSize(row + 1);
+    }
+
+    private static int parallelism = 1;
+    private static ForkJoinPool pool = null;
+
+    private final TransactionId transactionId;
+    private final HeapFile file;
+    private final String tableAlias;
+    private final int[] fields;
+    private final Predicate[] predicates;
+    private final TupleDesc td;
+
+    private transient Run run;
+    // tuple-at-a-time access walks the batches of the queue
+    private transient TupleBatch current;
+    private int row;
+}
@@ -4,6 +4,8 @@ import Zql.*;
 import java.io.*;
 import java.lang.reflect.InvocationTargetException;
 import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import jline.ArgumentCompletor;
 import jline.ConsoleReader;
@@ -132,6 +134,41 @@ public class Parser {
 
     }
 
+    /**
+     * Zql does not know LIMIT, so a "LIMIT n" at the end of a statement is
+     * cut off before parsing and applied to the resulting logical plan.
+     */
+    static final Pattern LIMIT_CLAUSE = Pattern.compile("(?i)\\s+limit\\s+(\\d+)\\s*(?=;|$)");
+
+    /** The LIMIT of the statement being processed, or -1 */
+    private int queryLimit = -1;
+
+    /**
+     * Removes a trailing LIMIT clause from a statement and remembers its row
+     * count for {@link #applyLimit}.
+     *
+     * @return the statement without the LIMIT clause
+     */
+    String extractLimit(String statement) throws simpledb.ParsingException {
+        queryLimit = -1;
+        Matcher m = LIMIT_CLAUSE.matcher(statement);
+        if (!m.find()) {
+            return statement;
+        }
+        try {
+            queryLimit = Integer.parseInt(m.group(1));
+        } catch (NumberFormatException e) {
+            throw new simpledb.ParsingException("LIMIT out of range: " + m.group(1));
+        }
+        return statement.substring(0, m.start()) + statement.substring(m.end());
+    }
+
+    private void applyLimit(LogicalPlan lp) throws simpledb.ParsingException {
+        if (queryLimit >= 0) {
+            lp.addLimit(queryLimit);
+        }
+    }
+
     public LogicalPlan parseQueryLogicalPlan(TransactionId tid, ZQuery q)
             throws IOException, Zql.ParseException, simpledb.ParsingException {
         @SuppressWarnings("unchecked")
@@ -279,6 +316,7 @@ public class Parser {
         Query query = new Query(tId);
 
         LogicalPlan lp = parseQueryLogicalPlan(tId, s);
+        applyLimit(lp);
         DbIterator physicalPlan = lp.physicalPlan(tId,
                 TableStats.getStatsMap(), explain);
         query.setPhysicalPlan(physicalPlan);
@@ -465,12 +503,13 @@ public class Parser {
 
     public LogicalPlan generateLogicalPlan(TransactionId tid, String s)
             throws simpledb.ParsingException {
-        ByteArrayInputStream bis = new ByteArrayInputStream(s.getBytes());
+        ByteArrayInputStream bis = new ByteArrayInputStream(extractLimit(s).getBytes());
         ZqlParser p = new ZqlParser(bis);
         try {
             ZStatement stmt = p.readStatement();
             if (stmt instanceof ZQuery) {
                 LogicalPlan lp = parseQueryLogicalPlan(tid, (ZQuery) stmt);
+                applyLimit(lp);
                 return lp;
             }
         } catch (Zql.ParseException e) {
@@ -503,7 +542,14 @@ public class Parser {
 
     public void processNextStatement(InputStream is) {
         try {
-            ZqlParser p = new ZqlParser(is);
+            ByteArrayOutputStream statement = new ByteArrayOutputStream();
+            byte[] buf = new byte[4096];
+            int n;
+            while ((n = is.read(buf)) > 0) {
+                statement.write(buf, 0, n);
+            }
+            String sql = extractLimit(statement.toString("UTF-8"));
+            ZqlParser p = new ZqlParser(new ByteArrayInputStream(sql.getBytes("UTF-8")));
             ZStatement s = p.readStatement();
 
             Query query = null;
@@ -585,7 +631,7 @@ public class Parser {
 
     public static void main(String argv[]) throws IOException {
 
-        if (argv.length < 1 || argv.length > 4) {
+        if (argv.length < 1 || argv.length > 6) {
             System.out.println("Invalid number of arguments.\n" + usage);
             System.exit(0);
         }
@@ -595,7 +641,7 @@ public class Parser {
         p.start(argv);
     }
 
-    static final String usage = "Usage: parser catalogFile [-explain] [-f queryFile]";
+    static final String usage = "Usage: parser catalogFile [-explain] [-f queryFile] [-parallel threads]";
 
     protected void shutdown() {
         System.out.println("Bye");
@@ -624,6 +670,14 @@ public class Parser {
                     }
                     queryFile = argv[i];
 
+                } else if (argv[i].equals("-parallel")) {
+                    if (++i == argv.length) {
+                        System.out.println("Expected thread count after -parallel\n"
+                                + usage);
+                        System.exit(0);
+                    }
+                    ParallelSeqScan.setParallelism(Integer.parseInt(argv[i]));
+                    System.out.println("Scanning with " + argv[i] + " threads.");
                 } else {
                     System.out.println("Unknown argument " + argv[i] + "\n "
                             + usage);
@@ -99,6 +99,10 @@ public class Predicate implements Serializable {
      * @return true if the comparison is true, false otherwise.
      */
     public boolean filter(Tuple t) {
+        if (this.operand instanceof IntField) {
+            // compare the primitive value rather than a new IntField
+            return IntField.compare(this.op, t.getInt(this.fieldId), ((IntField) this.operand).getValue());
+        }
         return t.getField(this.fieldId).compare(this.op, this.operand);
     }
 
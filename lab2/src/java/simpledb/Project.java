@@ -9,6 +9,7 @@ public class Project extends Operator {
 
     private static final long serialVersionUID = 1L;
     private DbIterator child;
+    private transient BatchIterator batchChild;
     private TupleDesc td;
     private ArrayList<Integer> outFieldIds;
 
@@ -73,13 +74,39 @@ public class Project extends Operator {
             Tuple newTuple = new Tuple(td);
             newTuple.setRecordId(t.getRecordId());
             for (int i = 0; i < td.numFields(); i++) {
-                newTuple.setField(i, t.getField(outFieldIds.get(i)));
+                newTuple.setField(i, t, outFieldIds.get(i));
             }
             return newTuple;
         }
         return null;
     }
 
+    /**
+     * Projects batches of the child without copying: the result shares the
+     * child's column arrays.
+     *
+     * @see BatchIterator#nextBatch
+     */
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        TupleBatch batch = batchChild().nextBatch();
+        if (batch == null) {
+            return null;
+        }
+        int[] fields = new int[outFieldIds.size()];
+        for (int i = 0; i < fields.length; i++) {
+            fields[i] = outFieldIds.get(i);
+        }
+        return batch.project(td, fields);
+    }
+
+    /** @return the child as a BatchIterator, adapting it if necessary */
+    private BatchIterator batchChild() {
+        if (batchChild == null) {
+            batchChild = BatchAdapter.adapt(child);
+        }
+        return batchChild;
+    }
+
     @Override
     public DbIterator[] getChildren() {
         return new DbIterator[] { this.child };
@@ -90,6 +117,7 @@ public class Project extends Operator {
 	if (this.child!=children[0])
 	{
 	    this.child = children[0];
+	    this.batchChild = null;
 	}
     }
     
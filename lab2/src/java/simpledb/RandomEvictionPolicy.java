@@ -0,0 +1,79 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * Evicts a uniformly random resident page. This was the original BufferPool
+ * behaviour; it is kept as a baseline to compare other policies against.
+ * <p>
+ * Resident pages are kept in an array list plus an index map, so that loads,
+ * removals and victim selection are O(1) without copying the key set.
+ */
+public class RandomEvictionPolicy implements EvictionPolicy {
+
+    public RandomEvictionPolicy() {
+        this(new Random());
+    }
+
+    /**
+     * @param random the source of randomness, e.g. a seeded Random for
+     *            repeatable experiments
+     */
+    public RandomEvictionPolicy(Random random) {
+        this.random = random;
+        this.resident = new ArrayList<PageId>();
+        this.positions = new HashMap<PageId, Integer>();
+    }
+
+    public void pageLoaded(PageId pid) {
+        if (!this.positions.containsKey(pid)) {
+            this.positions.put(pid, this.resident.size());
+            this.resident.add(pid);
+        }
+    }
+
+    public void pageAccessed(PageId pid) {
+        // access history does not matter to a random policy
+    }
+
+    public void pageRemoved(PageId pid) {
+        Integer position = this.positions.remove(pid);
+        if (position == null) {
+            return;
+        }
+        // move the last page into the hole so that removal stays O(1)
+        PageId last = this.resident.remove(this.resident.size() - 1);
+        if (position < this.resident.size()) {
+            this.resident.set(position, last);
+            this.positions.put(last, position);
+        }
+    }
+
+    public Iterator<PageId> victims() {
+        final int size = this.resident.size();
+        final int start = size == 0 ? 0 : this.random.nextInt(size);
+        // walk the resident pages cyclically from a random start position
+        return new Iterator<PageId>() {
+            public boolean hasNext() {
+                return this.visited < size;
+            }
+
+            public PageId next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return resident.get((start + this.visited++) % size);
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+
+            private int visited = 0;
+        };
+    }
+
+    private final Random random;
+    private final ArrayList<PageId> resident;
+    private final HashMap<PageId, Integer> positions;
+}
@@ -7,7 +7,7 @@ import java.util.*;
  * each tuple of a table in no particular order (e.g., as they are laid out on
  * disk).
  */
-public class SeqScan implements DbIterator {
+public class SeqScan implements BatchIterator {
 
     private static final long serialVersionUID = 1L;
 
@@ -28,11 +28,32 @@ public class SeqScan implements DbIterator {
      *            tableAlias.null, or null.null).
      */
     public SeqScan(TransactionId tid, int tableid, String tableAlias) {
+        this(tid, tableid, tableAlias, new Predicate[0]);
+    }
+
+    /**
+     * Creates a sequential scan that returns only the tuples satisfying all
+     * of the given predicates. If the table is stored in a HeapFile, the
+     * scan skips the pages whose zone map proves they hold no such tuple
+     * without fetching them.
+     *
+     * @param predicates
+     *            predicates over the fields of the table, evaluated as by a
+     *            {@link Filter}
+     */
+    public SeqScan(TransactionId tid, int tableid, String tableAlias, Predicate[] predicates) {
         this.tableAlias = tableAlias;
         this.tableId = tableid;
         this.transactionId = tid;
         this.catalog = Database.getCatalog();
-        this.dbIterator = this.catalog.getDatabaseFile(tableid).iterator(tid);
+        this.predicates = predicates.clone();
+        DbFile file = this.catalog.getDatabaseFile(tableid);
+        if (this.predicates.length > 0 && file instanceof HeapFile
+                && ((HeapFile) file).getZoneMap() != null) {
+            this.dbIterator = ((HeapFile) file).iterator(tid, this.predicates);
+        } else {
+            this.dbIterator = file.iterator(tid);
+        }
     }
 
     /**
@@ -44,6 +65,21 @@ public class SeqScan implements DbIterator {
         return this.catalog.getTableName(this.tableId);
     }
     
+    /** @return the id of the table this operator scans */
+    public int getTableId() {
+        return this.tableId;
+    }
+
+    /** @return the transaction this scan is running as a part of */
+    public TransactionId getTransactionId() {
+        return this.transactionId;
+    }
+
+    /** @return the predicates every tuple of this scan satisfies */
+    public Predicate[] getPredicates() {
+        return this.predicates.clone();
+    }
+
     /**
      * @return Return the alias of the table this operator scans. 
      * */
@@ -73,6 +109,7 @@ public class SeqScan implements DbIterator {
     }
 
     public void open() throws DbException, TransactionAbortedException {
+        this.lookahead = null;
         this.dbIterator.open();
     }
 
@@ -90,20 +127,64 @@ public class SeqScan implements DbIterator {
     }
 
     public boolean hasNext() throws TransactionAbortedException, DbException {
-        return this.dbIterator.hasNext();
+        if (this.predicates.length == 0) {
+            return this.dbIterator.hasNext();
+        }
+        while (this.lookahead == null && this.dbIterator.hasNext()) {
+            Tuple t = this.dbIterator.next();
+            if (this.matches(t)) {
+                this.lookahead = t;
+            }
+        }
+        return this.lookahead != null;
     }
 
     public Tuple next() throws NoSuchElementException,
             TransactionAbortedException, DbException {
-        return this.dbIterator.next();
+        if (this.predicates.length == 0) {
+            return this.dbIterator.next();
+        }
+        if (!this.hasNext()) {
+            throw new NoSuchElementException();
+        }
+        Tuple t = this.lookahead;
+        this.lookahead = null;
+        return t;
+    }
+
+    private boolean matches(Tuple t) {
+        for (Predicate p : this.predicates) {
+            if (!p.filter(t)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Reads the next batch of tuples straight from the file iterator.
+     *
+     * @see BatchIterator#nextBatch
+     */
+    public TupleBatch nextBatch() throws TransactionAbortedException, DbException {
+        if (this.batch == null) {
+            this.batch = new TupleBatch(this.getTupleDesc());
+        }
+        this.batch.clear();
+        while (!this.batch.isFull() && this.hasNext()) {
+            this.batch.add(this.next());
+        }
+        return this.batch.isEmpty() ? null : this.batch;
     }
 
     public void close() {
+        this.lookahead = null;
         this.dbIterator.close();
     }
 
     public void rewind() throws DbException, NoSuchElementException,
             TransactionAbortedException {
+        this.lookahead = null;
         this.dbIterator.rewind();
     }
 
@@ -112,4 +193,7 @@ public class SeqScan implements DbIterator {
     private TransactionId transactionId;
     private Catalog catalog;
     private DbFileIterator dbIterator;
+    private final Predicate[] predicates;
+    private transient Tuple lookahead;
+    private transient TupleBatch batch;
 }
@@ -0,0 +1,368 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * SortMergeJoin joins two inputs that are sorted on their join fields. It
+ * supports equality as well as the range predicates &lt;, &lt;=, &gt; and
+ * &gt;=.
+ * <p>
+ * Both children are sorted by an {@link OrderBy} on their join field, in
+ * ascending order for =, &gt; and &gt;= and in descending order for &lt;
+ * and &lt;=; a child that already is such an OrderBy is used as is. The
+ * left child is streamed, and the right child is read forward alongside it
+ * into a window buffer of at most a memory budget of tuples. Because both
+ * sides are sorted, the right tuples matching a left tuple form:
+ * <ul>
+ * <li>=: the run of keys equal to the left key, which the buffer holds
+ * until the left key changes;
+ * <li>the range predicates: a prefix of the sorted right input, which only
+ * grows as the left input advances.
+ * </ul>
+ * If a window would exceed the budget, the join rewinds the right OrderBy,
+ * which rereads its sorted output (from its spill file after an external
+ * sort), instead of buffering more tuples: a prefix is then read again from
+ * the start for every left tuple, and a run of equal keys makes the join
+ * fall back to a {@link BlockNestedLoopJoin} of the left tuples not yet
+ * joined with the whole right input.
+ */
+public class SortMergeJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private DbIterator child1;
+    private DbIterator child2;
+    private OrderBy sorted1;
+    private OrderBy sorted2;
+
+    private JoinPredicate predicate;
+    private TupleDesc td;
+    private final int budget;
+
+    private ArrayList<Tuple> window;
+    // the next right tuple not in the window, or null at the end of the input
+    private Tuple innerTup;
+    // a prefix that outgrew the budget is read from sorted2 again instead
+    private boolean rereadPrefix;
+    private Tuple outerTup;
+    private int pos;
+    private DbIterator fallback;
+
+    /**
+     * Constructor. Accepts two children to join and the predicate to join
+     * them on. Uses a memory budget derived from the capacity of the buffer
+     * pool.
+     *
+     * @param p
+     *            The predicate to use to join the children; its operator must
+     *            be one of EQUALS, LESS_THAN, LESS_THAN_OR_EQ, GREATER_THAN or
+     *            GREATER_THAN_OR_EQ
+     * @param child1
+     *            Iterator for the left(outer) relation to join
+     * @param child2
+     *            Iterator for the right(inner) relation to join
+     * @throws IllegalArgumentException if p uses another operator
+     */
+    public SortMergeJoin(JoinPredicate p, DbIterator child1, DbIterator child2) {
+        this(p, child1, child2, Database.getBufferPool().getTupleCapacity(child2.getTupleDesc()));
+    }
+
+    /**
+     * Constructor with an explicit memory budget.
+     *
+     * @param budget
+     *            the maximum number of right tuples buffered at once
+     */
+    public SortMergeJoin(JoinPredicate p, DbIterator child1, DbIterator child2, int budget) {
+        if (!supports(p.getOperator())) {
+            throw new IllegalArgumentException("SortMergeJoin does not support " + p.getOperator());
+        }
+        this.predicate = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.td = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+        this.budget = Math.max(1, budget);
+    }
+
+    /** @return true if SortMergeJoin can evaluate a join predicate using op */
+    public static boolean supports(Predicate.Op op) {
+        return op == Predicate.Op.EQUALS || op == Predicate.Op.LESS_THAN
+                || op == Predicate.Op.LESS_THAN_OR_EQ || op == Predicate.Op.GREATER_THAN
+                || op == Predicate.Op.GREATER_THAN_OR_EQ;
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return this.predicate;
+    }
+
+    /**
+     * @return
+     *       the field name of join field1. Should be quantified by
+     *       alias or table name.
+     * */
+    public String getJoinField1Name() {
+        return this.child1.getTupleDesc().getFieldName(this.predicate.getField1());
+    }
+
+    /**
+     * @return
+     *       the field name of join field2. Should be quantified by
+     *       alias or table name.
+     * */
+    public String getJoinField2Name() {
+        return this.child2.getTupleDesc().getFieldName(this.predicate.getField2());
+    }
+
+    public TupleDesc getTupleDesc() {
+        return this.td;
+    }
+
+    /**
+     * @return true if the last open() or rewind() had to fall back to a
+     *         BlockNestedLoopJoin because a run of equal keys exceeded the
+     *         budget
+     */
+    public boolean isNestedLoops() {
+        return this.fallback != null;
+    }
+
+    /** @return true if both inputs are sorted in ascending order */
+    private boolean ascending() {
+        Predicate.Op op = this.predicate.getOperator();
+        return op != Predicate.Op.LESS_THAN && op != Predicate.Op.LESS_THAN_OR_EQ;
+    }
+
+    /**
+     * @return child if it already produces tuples in the given order of
+     *         field, otherwise an OrderBy over child that does
+     */
+    private static OrderBy sortedOn(DbIterator child, int field, boolean asc) {
+        if (child instanceof OrderBy) {
+            OrderBy o = (OrderBy) child;
+            if (o.isASC() == asc && o.getOrderByField() == field) {
+                return o;
+            }
+        }
+        return new OrderBy(field, asc, child);
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        super.open();
+        this.sorted1 = sortedOn(this.child1, this.predicate.getField1(), this.ascending());
+        this.sorted2 = sortedOn(this.child2, this.predicate.getField2(), this.ascending());
+        this.sorted1.open();
+        this.sorted2.open();
+        this.window = new ArrayList<Tuple>();
+        this.resetWindow();
+    }
+
+    public void close() {
+        super.close();
+        if (this.fallback != null) {
+            this.fallback.close();
+            this.fallback = null;
+        }
+        if (this.sorted1 != null) {
+            this.sorted1.close();
+            this.sorted2.close();
+            this.sorted1 = null;
+            this.sorted2 = null;
+        }
+        this.child1.close();
+        this.child2.close();
+        this.window = null;
+        this.innerTup = null;
+        this.outerTup = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        if (this.fallback != null) {
+            this.fallback.close();
+            this.fallback = null;
+        }
+        this.sorted1.rewind();
+        this.sorted2.rewind();
+        this.resetWindow();
+    }
+
+    /** Empties the window; sorted2 must be at its start. */
+    private void resetWindow() throws DbException, TransactionAbortedException {
+        this.window.clear();
+        this.rereadPrefix = false;
+        this.outerTup = null;
+        this.pos = 0;
+        this.innerTup = this.readInner();
+    }
+
+    private Tuple readInner() throws DbException, TransactionAbortedException {
+        return this.sorted2.hasNext() ? this.sorted2.next() : null;
+    }
+
+    /** Compares a left key to a right key. */
+    private static int compareKeys(Field f1, Field f2) {
+        if (f1.compare(Predicate.Op.EQUALS, f2)) {
+            return 0;
+        }
+        return f1.compare(Predicate.Op.GREATER_THAN, f2) ? 1 : -1;
+    }
+
+    /**
+     * Moves the window of matching right tuples forward to the current left
+     * tuple. Relies on the left tuples arriving in the order of the right
+     * input.
+     */
+    private void advanceWindow() throws DbException, TransactionAbortedException {
+        if (this.predicate.getOperator() == Predicate.Op.EQUALS) {
+            this.advanceRun();
+        } else if (this.rereadPrefix) {
+            this.sorted2.rewind();
+            this.innerTup = this.readInner();
+        } else {
+            while (this.innerTup != null && this.predicate.filter(this.outerTup, this.innerTup)) {
+                if (this.window.size() >= this.budget) {
+                    // fetchNext() streams the prefix from sorted2 from now on
+                    this.window.clear();
+                    this.rereadPrefix = true;
+                    this.sorted2.rewind();
+                    this.innerTup = this.readInner();
+                    return;
+                }
+                this.window.add(this.innerTup);
+                this.innerTup = this.readInner();
+            }
+        }
+    }
+
+    /** Replaces the window with the run of right keys equal to the left key. */
+    private void advanceRun() throws DbException, TransactionAbortedException {
+        int field1 = this.predicate.getField1();
+        int field2 = this.predicate.getField2();
+        Field key = this.outerTup.getField(field1);
+        if (!this.window.isEmpty() && compareKeys(key, this.window.get(0).getField(field2)) == 0) {
+            return;
+        }
+        this.window.clear();
+        while (this.innerTup != null && compareKeys(key, this.innerTup.getField(field2)) > 0) {
+            this.innerTup = this.readInner();
+        }
+        while (this.innerTup != null && compareKeys(key, this.innerTup.getField(field2)) == 0) {
+            if (this.window.size() >= this.budget) {
+                this.startNestedLoops();
+                return;
+            }
+            this.window.add(this.innerTup);
+            this.innerTup = this.readInner();
+        }
+    }
+
+    /**
+     * Joins the current left tuple and the rest of the left input with the
+     * whole right input in a BlockNestedLoopJoin.
+     */
+    private void startNestedLoops() throws DbException, TransactionAbortedException {
+        this.window.clear();
+        this.innerTup = null;
+        this.sorted2.rewind();
+        this.fallback = new BlockNestedLoopJoin(this.predicate,
+                new Remainder(this.outerTup, this.sorted1), new Remainder(null, this.sorted2));
+        this.fallback.open();
+        this.outerTup = null;
+    }
+
+    /**
+     * Returns the next tuple generated by the join, or null if there are no
+     * more tuples.
+     *
+     * @return The next matching tuple.
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (true) {
+            if (this.fallback != null) {
+                return this.fallback.hasNext() ? this.fallback.next() : null;
+            }
+            if (this.outerTup != null) {
+                if (this.pos < this.window.size()) {
+                    return this.joinTuples(this.outerTup, this.window.get(this.pos++));
+                }
+                if (this.rereadPrefix && this.innerTup != null
+                        && this.predicate.filter(this.outerTup, this.innerTup)) {
+                    Tuple t = this.innerTup;
+                    this.innerTup = this.readInner();
+                    return this.joinTuples(this.outerTup, t);
+                }
+            }
+            if (!this.sorted1.hasNext()) {
+                return null;
+            }
+            this.outerTup = this.sorted1.next();
+            this.advanceWindow();
+            this.pos = 0;
+        }
+    }
+
+    private Tuple joinTuples(Tuple tup1, Tuple tup2) {
+        return Tuple.merge(this.td, tup1, tup2);
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { this.child1, this.child2 };
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        if (children.length > 1) {
+            this.child1 = children[0];
+            this.child2 = children[1];
+            this.td = TupleDesc.merge(this.child1.getTupleDesc(), this.child2.getTupleDesc());
+        }
+    }
+
+    /**
+     * The rest of an open input: an optional first tuple, then the tuples
+     * the input has not returned yet. Opening and closing it leave the input
+     * alone; rewinding it rewinds the input to its start.
+     */
+    private static class Remainder extends Operator {
+
+        private static final long serialVersionUID = 1L;
+
+        private DbIterator child;
+        private Tuple first;
+
+        Remainder(Tuple first, DbIterator child) {
+            this.first = first;
+            this.child = child;
+        }
+
+        public TupleDesc getTupleDesc() {
+            return this.child.getTupleDesc();
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            this.first = null;
+            this.child.rewind();
+        }
+
+        protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+            if (this.first != null) {
+                Tuple t = this.first;
+                this.first = null;
+                return t;
+            }
+            return this.child.hasNext() ? this.child.next() : null;
+        }
+
+        @Override
+        public DbIterator[] getChildren() {
+            return new DbIterator[] { this.child };
+        }
+
+        @Override
+        public void setChildren(DbIterator[] children) {
+            this.child = children[0];
+        }
+    }
+
+}
@@ -1,9 +1,10 @@
 package simpledb;
 
-import java.util.*;
-
 /**
  * Knows how to compute some aggregate over a set of StringFields.
+ * <p>
+ * Only a running count is kept per group, so memory use is proportional to
+ * the number of groups.
  */
 public class StringAggregator implements Aggregator {
 
@@ -14,8 +15,7 @@ public class StringAggregator implements Aggregator {
     private int aField;
     private Op op;
 
-    private HashMap<Field, ArrayList<StringField>> tupleStorage;
-    private ArrayList<StringField> tupleStorageNoGrouping;
+    private AggregateGroupTable groups;
     
     /**
      * Aggregate constructor
@@ -33,13 +33,7 @@ public class StringAggregator implements Aggregator {
             this.gbFieldType = gbfieldtype;
             this.aField = afield;
             this.op = what;
-            this.op = what;
-
-            if (isGrouping()) {
-                this.tupleStorage = new HashMap<Field, ArrayList<StringField>>();
-            } else {
-                this.tupleStorageNoGrouping = new ArrayList<StringField>();
-            }
+            this.groups = new AggregateGroupTable(isGrouping() ? gbfieldtype : null);
         }
     }
     
@@ -52,21 +46,19 @@ public class StringAggregator implements Aggregator {
      * @param tup the Tuple containing an aggregate field and a group-by field
      */
     public void mergeTupleIntoGroup(Tuple tup) {
+        int group = 0;
         if (isGrouping()) {
-            Field gbValue = tup.getField(this.gbField);
-            if (this.tupleStorage.containsKey(gbValue)) {
-                this.tupleStorage.get(gbValue).add((StringField)tup.getField(this.aField));
-            } else {
-                this.tupleStorage.put(gbValue, new ArrayList<StringField>());
-                this.tupleStorage.get(gbValue).add((StringField)tup.getField(this.aField));
-            }
-        } else {
-            this.tupleStorageNoGrouping.add((StringField)tup.getField(this.aField));
+            group = this.gbFieldType == Type.INT_TYPE ? this.groups.groupOfInt(tup.getInt(this.gbField))
+                    : this.groups.groupOf(tup.getField(this.gbField));
         }
+        this.groups.count(group);
     }
-    
-    public IntField getCount(ArrayList<StringField> fields) {
-        return new IntField(fields.size());
+
+    public void mergeBatchIntoGroup(TupleBatch batch) {
+        for (int row = 0; row < batch.size(); row++) {
+            int group = isGrouping() ? this.groups.groupOf(batch.getField(this.gbField, row)) : 0;
+            this.groups.count(group);
+        }
     }
 
     /**
@@ -78,35 +70,7 @@ public class StringAggregator implements Aggregator {
      *   aggregate specified in the constructor.
      */
     public DbIterator iterator() {
-        /* iterator() call recalculates all the aggregates, which may not be the efficient solution */
-        TupleDesc td;
-        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
-
-        if (isGrouping()) {
-            Type[] typeAr = new Type[2];
-            typeAr[0] = this.gbFieldType;
-            typeAr[1] = Type.INT_TYPE;
-            td = new TupleDesc(typeAr);
-
-            for (Map.Entry<Field, ArrayList<StringField>> entry : this.tupleStorage.entrySet()) {
-                IntField aggregate = this.getCount(entry.getValue());
-                Tuple tup = new Tuple(td);
-                tup.setField(0, entry.getKey());
-                tup.setField(1, aggregate);
-                tuples.add(tup);
-            }
-        } else {
-            Type[] typeAr = new Type[1];
-            typeAr[0] = Type.INT_TYPE;
-            td = new TupleDesc(typeAr);
-
-            Tuple tup = new Tuple(td);
-            tup.setField(0, this.getCount(this.tupleStorageNoGrouping));
-            tuples.add(tup);
-        }
-
-        TupleIterator iterator = new TupleIterator(td, tuples);
-        return iterator;
+        return this.groups.iterator(this.op);
     }
 
 }
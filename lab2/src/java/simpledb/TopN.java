@@ -0,0 +1,157 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * TopN implements ORDER BY followed by LIMIT n: it returns the first n
+ * tuples of its child in the order an {@link OrderBy} on the same field
+ * would produce, including the order of ties.
+ * <p>
+ * open() streams the child through a bounded heap that holds the n best
+ * tuples seen so far, with the worst of them at the root. Memory use is
+ * O(n) and the cost is O(m log n) for an input of m tuples, instead of
+ * sorting the whole input.
+ */
+public class TopN extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private DbIterator child;
+    private TupleDesc td;
+    private int orderByField;
+    private String orderByFieldName;
+    private boolean asc;
+    private int limit;
+
+    private ArrayList<Tuple> top;
+    private Iterator<Tuple> it;
+
+    /**
+     * Creates a new TopN node over the tuples from the iterator.
+     *
+     * @param orderbyField
+     *            the field to which the sort is applied.
+     * @param asc
+     *            true if the sort order is ascending.
+     * @param limit
+     *            the maximum number of tuples to return
+     * @param child
+     *            the tuples to sort.
+     */
+    public TopN(int orderbyField, boolean asc, int limit, DbIterator child) {
+        if (limit < 0) {
+            throw new IllegalArgumentException("negative limit " + limit);
+        }
+        this.child = child;
+        this.td = child.getTupleDesc();
+        this.orderByField = orderbyField;
+        this.orderByFieldName = td.getFieldName(orderbyField);
+        this.asc = asc;
+        this.limit = limit;
+    }
+
+    public boolean isASC() {
+        return this.asc;
+    }
+
+    public int getOrderByField() {
+        return this.orderByField;
+    }
+
+    public String getOrderFieldName() {
+        return this.orderByFieldName;
+    }
+
+    public int getLimit() {
+        return this.limit;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return this.td;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        this.child.open();
+        final TupleComparator comparator = new TupleComparator(this.orderByField, this.asc);
+        // the root is the tuple that would be dropped first: the greatest,
+        // and among equal ones the one that arrived last
+        PriorityQueue<Ranked> heap = new PriorityQueue<Ranked>(Math.max(1, this.limit),
+                new Comparator<Ranked>() {
+                    public int compare(Ranked r1, Ranked r2) {
+                        int c = comparator.compare(r2.tuple, r1.tuple);
+                        return c != 0 ? c : (r2.seq < r1.seq ? -1 : (r2.seq == r1.seq ? 0 : 1));
+                    }
+                });
+        long seq = 0;
+        while (this.child.hasNext()) {
+            Tuple t = this.child.next();
+            if (heap.size() < this.limit) {
+                heap.add(new Ranked(t, seq));
+            } else if (this.limit > 0 && comparator.compare(t, heap.peek().tuple) < 0) {
+                // a later tuple only wins if it is strictly better
+                heap.poll();
+                heap.add(new Ranked(t, seq));
+            }
+            seq++;
+        }
+
+        Ranked[] best = new Ranked[heap.size()];
+        for (int i = best.length - 1; i >= 0; i--) {
+            best[i] = heap.poll();
+        }
+        this.top = new ArrayList<Tuple>(best.length);
+        for (Ranked r : best) {
+            this.top.add(r.tuple);
+        }
+        this.it = this.top.iterator();
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        this.child.close();
+        this.it = null;
+        this.top = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        this.it = this.top.iterator();
+    }
+
+    /**
+     * Operator.fetchNext implementation. Returns the kept tuples in order
+     *
+     * @return The next tuple in the ordering, or null if there are no more
+     *         tuples
+     */
+    protected Tuple fetchNext() throws NoSuchElementException,
+            TransactionAbortedException, DbException {
+        if (this.it != null && this.it.hasNext()) {
+            return this.it.next();
+        }
+        return null;
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { this.child };
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        this.child = children[0];
+    }
+
+    /** A tuple and its position in the input, to keep ties in input order. */
+    private static class Ranked {
+        final Tuple tuple;
+        final long seq;
+
+        Ranked(Tuple tuple, long seq) {
+            this.tuple = tuple;
+            this.seq = seq;
+        }
+    }
+
+}
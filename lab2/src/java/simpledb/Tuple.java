@@ -7,6 +7,11 @@ import java.util.*;
  * Tuple maintains information about the contents of a tuple. Tuples have a
  * specified schema specified by a TupleDesc object and contain Field objects
  * with the data for each field.
+ * <p>
+ * The values are kept in primitive form: integers in an int[] and strings in
+ * a String[], both indexed by field number. {@link #getInt} and
+ * {@link #getString} read them without creating objects; {@link #getField}
+ * wraps the value in a new Field on every call.
  */
 public class Tuple implements Serializable {
 
@@ -14,18 +19,55 @@ public class Tuple implements Serializable {
 
     /**
      * Create a new tuple with the specified schema (type).
-     * 
+     *
      * @param td
      *            the schema of this tuple. It must be a valid TupleDesc
      *            instance with at least one field.
      */
     public Tuple(TupleDesc td) {
-        if (td.numFields() > 0) {
-            this.tupleDesc = td;
-            // this would actually cause problems when setting field, since it confuses capacity with size of a list
-            //this.fields = new ArrayList<Field>(this.tupleDesc.numFields());
-            this.fields = Arrays.asList(new Field[td.numFields()]);
+        this.tupleDesc = td;
+        int n = td.numFields();
+        this.ints = new int[n];
+        this.intSet = new long[(n + 63) / 64];
+        this.strings = null;
+    }
+
+    /**
+     * Creates a tuple with the fields of t1 followed by the fields of t2, as
+     * produced by a join. The values are copied array by array.
+     *
+     * @param td
+     *            the schema of the result, the merge of the schemas of t1
+     *            and t2
+     */
+    public static Tuple merge(TupleDesc td, Tuple t1, Tuple t2) {
+        t1.loadAll();
+        t2.loadAll();
+        Tuple result = new Tuple(td);
+        int n1 = t1.ints.length;
+        int n2 = Math.min(t2.ints.length, result.ints.length - n1);
+        System.arraycopy(t1.ints, 0, result.ints, 0, n1);
+        System.arraycopy(t2.ints, 0, result.ints, n1, n2);
+        for (int i = 0; i < n1; i++) {
+            if (t1.isIntSet(i)) {
+                result.markIntSet(i, true);
+            }
         }
+        for (int i = 0; i < n2; i++) {
+            if (t2.isIntSet(i)) {
+                result.markIntSet(n1 + i, true);
+            }
+        }
+        if (t1.strings != null || t2.strings != null) {
+            result.strings = new String[result.ints.length];
+            if (t1.strings != null) {
+                System.arraycopy(t1.strings, 0, result.strings, 0, n1);
+            }
+            if (t2.strings != null) {
+                System.arraycopy(t2.strings, 0, result.strings, n1, n2);
+            }
+        }
+        return result;
     }
 
     /**
@@ -45,7 +87,7 @@ public class Tuple implements Serializable {
 
     /**
      * Set the RecordId information for this tuple.
-     * 
+     *
      * @param rid
      *            the new RecordId for this tuple.
      */
@@ -56,71 +98,171 @@ public class Tuple implements Serializable {
 
     /**
      * Change the value of the ith field of this tuple.
-     * 
+     *
      * @param i
      *            index of the field to change. It must be a valid index.
      * @param f
-     *            new value for the field.
+     *            new value for the field, or null to clear it.
      */
     public void setField(int i, Field f) {
-        if (i < this.tupleDesc.numFields()) {
-            // to be exact (i + 1)th field of this tuple
-            this.fields.set(i, f);
+        if (i >= this.ints.length) {
+            return;
+        }
+        if (f instanceof IntField) {
+            this.setInt(i, ((IntField) f).getValue());
+        } else if (f instanceof StringField) {
+            this.setString(i, ((StringField) f).getValue());
+        } else {
+            this.markIntSet(i, false);
+            if (this.strings != null) {
+                this.strings[i] = null;
+            }
+        }
+    }
+
+    /**
+     * Sets field i of this tuple to the value of field j of src, without
+     * creating a Field object.
+     */
+    public void setField(int i, Tuple src, int j) {
+        src.load(j);
+        if (src.strings != null && src.strings[j] != null) {
+            this.setString(i, src.strings[j]);
+        } else if (src.isIntSet(j)) {
+            this.setInt(i, src.ints[j]);
+        } else {
+            this.setField(i, (Field) null);
         }
     }
 
+    /** Sets the ith field of this tuple to an integer value. */
+    public void setInt(int i, int value) {
+        this.ints[i] = value;
+        this.markIntSet(i, true);
+        if (this.strings != null) {
+            this.strings[i] = null;
+        }
+    }
+
+    /** Sets the ith field of this tuple to a string value. */
+    public void setString(int i, String value) {
+        if (this.strings == null) {
+            this.strings = new String[this.ints.length];
+        }
+        this.strings[i] = value;
+        this.markIntSet(i, false);
+    }
+
     /**
      * @return the value of the ith field, or null if it has not been set.
-     * 
+     *
      * @param i
      *            field index to return. Must be a valid index.
      */
     public Field getField(int i) {
-        if (i < this.tupleDesc.numFields()) {
-            return this.fields.get(i);
-        } else {
+        if (i >= this.ints.length) {
             return null;
         }
+        this.load(i);
+        if (this.strings != null && this.strings[i] != null) {
+            return new StringField(this.strings[i], Type.STRING_LEN);
+        } else if (this.isIntSet(i)) {
+            return new IntField(this.ints[i]);
+        }
+        return null;
+    }
+
+    /**
+     * @return the value of the ith field, which must be an integer field
+     *         that has been set
+     * @throws IllegalStateException if the field holds no integer
+     */
+    public int getInt(int i) {
+        this.load(i);
+        if (!this.isIntSet(i)) {
+            throw new IllegalStateException("field " + i + " holds no integer");
+        }
+        return this.ints[i];
+    }
+
+    /**
+     * @return the value of the ith field, which must be a string field that
+     *         has been set
+     * @throws IllegalStateException if the field holds no string
+     */
+    public String getString(int i) {
+        this.load(i);
+        if (this.strings == null || this.strings[i] == null) {
+            throw new IllegalStateException("field " + i + " holds no string");
+        }
+        return this.strings[i];
+    }
+
+    /**
+     * Called before field i is read. Subclasses that fill in their values on
+     * demand override it; the values of a plain tuple are always present.
+     */
+    protected void load(int i) {
+    }
+
+    /** Loads every field; see {@link #load}. */
+    protected void loadAll() {
+    }
+
+    private boolean isIntSet(int i) {
+        return (this.intSet[i >>> 6] & (1L << i)) != 0;
+    }
+
+    private void markIntSet(int i, boolean set) {
+        if (set) {
+            this.intSet[i >>> 6] |= 1L << i;
+        } else {
+            this.intSet[i >>> 6] &= ~(1L << i);
+        }
     }
 
     /**
      * Returns the contents of this Tuple as a string. Note that to pass the
      * system tests, the format needs to be as follows:
-     * 
+     *
      * column1\tcolumn2\tcolumn3\t...\tcolumnN\n
-     * 
+     *
      * where \t is any whitespace, except newline, and \n is a newline
      */
     public String toString() {
         // tupleDesc can't be empty, so tuple shouldn't be, either.
-        if (this.fields.size() > 0) {
-            String result = "";
+        if (this.ints.length > 0) {
+            StringBuilder result = new StringBuilder();
             // Check: in this toString, if the field is not specified, we will leave its space blank
-            if (this.getField(0) != null) {
-                result = this.getField(0).toString();
-            }
-            for (int i = 1; i < this.fields.size(); i++) {
-                result += "\t";
-                if (this.getField(i) != null) {
-                    result += this.getField(i).toString();
+            for (int i = 0; i < this.ints.length; i++) {
+                if (i > 0) {
+                    result.append('\t');
+                }
+                Field f = this.getField(i);
+                if (f != null) {
+                    result.append(f.toString());
                 }
             }
-            result += "\n";
-            return result;
+            result.append('\n');
+            return result.toString();
         } else {
             return "";
         }
     }
-    
+
     /**
      * @return
      *        An iterator which iterates over all the fields of this tuple
      * */
     public Iterator<Field> fields()
     {
-        return this.fields.listIterator();
+        Field[] fields = new Field[this.ints.length];
+        for (int i = 0; i < fields.length; i++) {
+            fields[i] = this.getField(i);
+        }
+        return Arrays.asList(fields).iterator();
     }
-    
+
     /**
      * reset the TupleDesc of thi tuple
      * */
@@ -131,5 +273,9 @@ public class Tuple implements Serializable {
 
     private RecordId recordId;
     private TupleDesc tupleDesc;
-    private List<Field> fields;
+    // the value of each integer field, by field index; valid where intSet has its bit set
+    private int[] ints;
+    private long[] intSet;
+    // the value of each string field, by field index; null until a string is set
+    private String[] strings;
 }
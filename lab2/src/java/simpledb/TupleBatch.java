@@ -0,0 +1,233 @@
+package simpledb;
+
+import java.util.NoSuchElementException;
+
+/**
+ * TupleBatch holds up to a fixed number of rows of one schema, stored
+ * column by column: an int[] for every INT_TYPE field and a String[] for
+ * every STRING_TYPE field. It is the unit of work of {@link BatchIterator}.
+ * <p>
+ * Only the first {@link #size()} entries of each column are valid. Several
+ * batches may share column arrays (see {@link #project}), so a batch should
+ * not be modified once it has been handed to another operator, except by
+ * that operator.
+ */
+public class TupleBatch {
+
+    /** Number of rows in a batch unless specified otherwise. */
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    /**
+     * Creates an empty batch with the default capacity.
+     *
+     * @param td the schema of the rows in this batch
+     */
+    public TupleBatch(TupleDesc td) {
+        this(td, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Creates an empty batch.
+     *
+     * @param td the schema of the rows in this batch
+     * @param capacity the maximum number of rows
+     */
+    public TupleBatch(TupleDesc td, int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        this.td = td;
+        this.capacity = capacity;
+        this.columns = new Object[td.numFields()];
+        for (int i = 0; i < this.columns.length; i++) {
+            switch (td.getFieldType(i)) {
+                case INT_TYPE:
+                    this.columns[i] = new int[capacity];
+                    break;
+                case STRING_TYPE:
+                    this.columns[i] = new String[capacity];
+                    break;
+            }
+        }
+        this.recordIds = new RecordId[capacity];
+        this.size = 0;
+    }
+
+    private TupleBatch(TupleDesc td, int capacity, Object[] columns, RecordId[] recordIds, int size) {
+        this.td = td;
+        this.capacity = capacity;
+        this.columns = columns;
+        this.recordIds = recordIds;
+        this.size = size;
+    }
+
+    /** @return the schema of the rows in this batch */
+    public TupleDesc getTupleDesc() {
+        return this.td;
+    }
+
+    /** @return the number of rows in this batch */
+    public int size() {
+        return this.size;
+    }
+
+    /** @return the maximum number of rows in this batch */
+    public int capacity() {
+        return this.capacity;
+    }
+
+    public boolean isEmpty() {
+        return this.size == 0;
+    }
+
+    public boolean isFull() {
+        return this.size == this.capacity;
+    }
+
+    /** Removes all rows. */
+    public void clear() {
+        this.size = 0;
+    }
+
+    /**
+     * Truncates the batch to its first size rows, e.g. after rows have been
+     * compacted with {@link #copyRow}.
+     */
+    public void setSize(int size) {
+        if (size < 0 || size > this.capacity) {
+            throw new IllegalArgumentException("size " + size + " out of range");
+        }
+        this.size = size;
+    }
+
+    /**
+     * @return the values of INT_TYPE field i; entries at and beyond
+     *         {@link #size()} are undefined
+     */
+    public int[] getIntColumn(int i) {
+        return (int[]) this.columns[i];
+    }
+
+    /**
+     * @return the values of STRING_TYPE field i; entries at and beyond
+     *         {@link #size()} are undefined
+     */
+    public String[] getStringColumn(int i) {
+        return (String[]) this.columns[i];
+    }
+
+    /** @return the value of INT_TYPE field i of the given row */
+    public int getInt(int i, int row) {
+        return ((int[]) this.columns[i])[row];
+    }
+
+    /** @return field i of the given row as a Field object */
+    public Field getField(int i, int row) {
+        if (this.columns[i] instanceof int[]) {
+            return new IntField(((int[]) this.columns[i])[row]);
+        }
+        return new StringField(((String[]) this.columns[i])[row], Type.STRING_LEN);
+    }
+
+    /** @return the RecordId of the given row, or null if it has none */
+    public RecordId getRecordId(int row) {
+        return this.recordIds[row];
+    }
+
+    /** Sets the RecordId of the given row, e.g. after writing its columns directly. */
+    public void setRecordId(int row, RecordId rid) {
+        this.recordIds[row] = rid;
+    }
+
+    /** @return the given row as a new Tuple */
+    public Tuple getTuple(int row) {
+        if (row >= this.size) {
+            throw new NoSuchElementException("row " + row + " of " + this.size);
+        }
+        Tuple t = new Tuple(this.td);
+        for (int i = 0; i < this.columns.length; i++) {
+            t.setField(i, this.getField(i, row));
+        }
+        t.setRecordId(this.recordIds[row]);
+        return t;
+    }
+
+    /**
+     * Appends a tuple.
+     *
+     * @throws IllegalStateException if the batch is full
+     */
+    public void add(Tuple t) {
+        if (this.isFull()) {
+            throw new IllegalStateException("batch is full");
+        }
+        int row = this.size++;
+        for (int i = 0; i < this.columns.length; i++) {
+            if (this.columns[i] instanceof int[]) {
+                ((int[]) this.columns[i])[row] = t.getInt(i);
+            } else {
+                ((String[]) this.columns[i])[row] = t.getString(i);
+            }
+        }
+        this.recordIds[row] = t.getRecordId();
+    }
+
+    /**
+     * Appends the concatenation of a row of left and a row of right, as
+     * produced by a join. This batch's schema must be the merge of the two
+     * schemas.
+     *
+     * @throws IllegalStateException if the batch is full
+     */
+    public void addJoined(TupleBatch left, int leftRow, TupleBatch right, int rightRow) {
+        if (this.isFull()) {
+            throw new IllegalStateException("batch is full");
+        }
+        int row = this.size++;
+        int numLeft = left.columns.length;
+        for (int i = 0; i < numLeft; i++) {
+            copyValue(left.columns[i], leftRow, this.columns[i], row);
+        }
+        for (int i = 0; i < right.columns.length; i++) {
+            copyValue(right.columns[i], rightRow, this.columns[numLeft + i], row);
+        }
+        this.recordIds[row] = null;
+    }
+
+    /** Copies row from to row to within this batch, e.g. to compact it. */
+    public void copyRow(int from, int to) {
+        for (int i = 0; i < this.columns.length; i++) {
+            copyValue(this.columns[i], from, this.columns[i], to);
+        }
+        this.recordIds[to] = this.recordIds[from];
+    }
+
+    private static void copyValue(Object src, int srcRow, Object dst, int dstRow) {
+        if (src instanceof int[]) {
+            ((int[]) dst)[dstRow] = ((int[]) src)[srcRow];
+        } else {
+            ((String[]) dst)[dstRow] = ((String[]) src)[srcRow];
+        }
+    }
+
+    /**
+     * Returns a batch with a subset of the columns of this one. The column
+     * arrays are shared, not copied.
+     *
+     * @param td the schema of the result
+     * @param fields the field of this batch that each field of td comes from
+     */
+    public TupleBatch project(TupleDesc td, int[] fields) {
+        Object[] projected = new Object[fields.length];
+        for (int i = 0; i < fields.length; i++) {
+            projected[i] = this.columns[fields[i]];
+        }
+        return new TupleBatch(td, this.capacity, projected, this.recordIds, this.size);
+    }
+
+    private final TupleDesc td;
+    private final int capacity;
+    private final Object[] columns;
+    private final RecordId[] recordIds;
+    private int size;
+}
@@ -0,0 +1,36 @@
+package simpledb;
+
+import java.util.Comparator;
+
+/**
+ * Compares tuples by the value of one field, in ascending or descending
+ * order. Used by OrderBy and TopN.
+ */
+class TupleComparator implements Comparator<Tuple> {
+    int field;
+    boolean asc;
+
+    public TupleComparator(int field, boolean asc) {
+        this.field = field;
+        this.asc = asc;
+    }
+
+    public int compare(Tuple o1, Tuple o2) {
+        if (o1.getTupleDesc().getFieldType(field) == Type.INT_TYPE) {
+            int v1 = o1.getInt(field);
+            int v2 = o2.getInt(field);
+            if (v1 == v2)
+                return 0;
+            return (v1 > v2) == asc ? 1 : -1;
+        }
+        Field t1 = (o1).getField(field);
+        Field t2 = (o2).getField(field);
+        if (t1.compare(Predicate.Op.EQUALS, t2))
+            return 0;
+        if (t1.compare(Predicate.Op.GREATER_THAN, t2))
+            return asc ? 1 : -1;
+        else
+            return asc ? -1 : 1;
+    }
+    
+}
@@ -0,0 +1,182 @@
+package simpledb;
+
+import java.io.*;
+
+/**
+ * TupleSpillFile is a temporary, append-only file of tuples used by
+ * operators that run out of memory (e.g. {@link GraceHashJoin}). Tuples are
+ * stored back to back in a compact binary format: integers as four bytes,
+ * strings as a length-prefixed UTF-8 string without the padding used on
+ * heap pages.
+ * <p>
+ * A spill file is written once through {@link #add} and then read any number
+ * of times through {@link #iterator}. The backing file is removed by
+ * {@link #delete}, or when the JVM exits.
+ */
+public class TupleSpillFile {
+
+    /**
+     * Creates an empty spill file in the default temporary directory.
+     *
+     * @param td the schema of the tuples that will be added
+     */
+    public TupleSpillFile(TupleDesc td) throws IOException {
+        this.td = td;
+        this.file = File.createTempFile("spill", ".tmp");
+        this.file.deleteOnExit();
+        this.out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(this.file), BufferPool.getPageSize()));
+        this.numTuples = 0;
+    }
+
+    /** @return the schema of the tuples in this file */
+    public TupleDesc getTupleDesc() {
+        return this.td;
+    }
+
+    /** @return the number of tuples added to this file */
+    public int size() {
+        return this.numTuples;
+    }
+
+    /**
+     * Appends a tuple to the file.
+     *
+     * @throws IllegalStateException if the file has already been read
+     */
+    public void add(Tuple t) throws IOException {
+        if (this.out == null) {
+            throw new IllegalStateException("spill file is closed for writing");
+        }
+        writeTuple(this.out, this.td, t);
+        this.numTuples++;
+    }
+
+    /**
+     * Returns an iterator over the tuples in this file, in insertion order.
+     * The first call ends the write phase; no more tuples can be added.
+     */
+    public DbIterator iterator() throws IOException {
+        this.finishWriting();
+        return new SpillIterator();
+    }
+
+    /** Removes the backing file. The spill file cannot be used afterwards. */
+    public void delete() {
+        try {
+            this.finishWriting();
+        } catch (IOException e) {
+            // we are throwing the file away anyway
+        }
+        this.file.delete();
+    }
+
+    private void finishWriting() throws IOException {
+        if (this.out != null) {
+            this.out.close();
+            this.out = null;
+        }
+    }
+
+    /** Serializes t in the spill file format. */
+    static void writeTuple(DataOutputStream dos, TupleDesc td, Tuple t) throws IOException {
+        for (int i = 0; i < td.numFields(); i++) {
+            switch (td.getFieldType(i)) {
+                case INT_TYPE:
+                    dos.writeInt(t.getInt(i));
+                    break;
+                case STRING_TYPE:
+                    dos.writeUTF(t.getString(i));
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Reads a tuple written by {@link #writeTuple}.
+     *
+     * @throws EOFException if the stream ends before the first field
+     */
+    static Tuple readTuple(DataInputStream dis, TupleDesc td) throws IOException {
+        Tuple t = new Tuple(td);
+        for (int i = 0; i < td.numFields(); i++) {
+            switch (td.getFieldType(i)) {
+                case INT_TYPE:
+                    t.setInt(i, dis.readInt());
+                    break;
+                case STRING_TYPE:
+                    t.setString(i, dis.readUTF());
+                    break;
+            }
+        }
+        return t;
+    }
+
+    /** Reads the file sequentially; rewind reopens it. */
+    private class SpillIterator extends Operator {
+
+        private static final long serialVersionUID = 1L;
+
+        private transient DataInputStream in;
+        private int read;
+
+        public void open() throws DbException, TransactionAbortedException {
+            try {
+                this.in = new DataInputStream(new BufferedInputStream(
+                        new FileInputStream(file), BufferPool.getPageSize()));
+            } catch (FileNotFoundException e) {
+                throw new DbException("spill file " + file + " is gone");
+            }
+            this.read = 0;
+            super.open();
+        }
+
+        public void close() {
+            super.close();
+            if (this.in != null) {
+                try {
+                    this.in.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+                this.in = null;
+            }
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            this.close();
+            this.open();
+        }
+
+        protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+            if (this.read >= numTuples) {
+                return null;
+            }
+            try {
+                Tuple t = readTuple(this.in, td);
+                this.read++;
+                return t;
+            } catch (IOException e) {
+                throw new DbException("error reading spill file: " + e.getMessage());
+            }
+        }
+
+        public TupleDesc getTupleDesc() {
+            return td;
+        }
+
+        @Override
+        public DbIterator[] getChildren() {
+            return new DbIterator[0];
+        }
+
+        @Override
+        public void setChildren(DbIterator[] children) {
+        }
+    }
+
+    private final TupleDesc td;
+    private final File file;
+    private DataOutputStream out;
+    private int numTuples;
+}
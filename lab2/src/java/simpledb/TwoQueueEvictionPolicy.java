@@ -0,0 +1,109 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * A scan resistant eviction policy based on the simplified 2Q algorithm of
+ * Johnson and Shasha.
+ * <p>
+ * Pages enter the buffer pool on a probationary FIFO queue (A1in). Pages
+ * that fall off A1in are remembered, by id only, on a bounded ghost queue
+ * (A1out). A page that is requested again while its id is still on A1out has
+ * proven that it is re-referenced, and is loaded into the main LRU queue (Am).
+ * A sequential scan touches each page once, so its pages pass through A1in
+ * and never displace the hot pages sitting in Am.
+ * <p>
+ * Every operation, including picking the next victim, is O(1).
+ */
+public class TwoQueueEvictionPolicy implements EvictionPolicy {
+
+    /** Fraction of the buffer pool reserved for the probationary queue. */
+    public static final double A1IN_FRACTION = 0.25;
+
+    /** Number of evicted page ids remembered, as a fraction of the pool. */
+    public static final double A1OUT_FRACTION = 0.5;
+
+    /**
+     * Creates a 2Q policy for a buffer pool of the given size.
+     *
+     * @param numPages maximum number of pages in the buffer pool
+     */
+    public TwoQueueEvictionPolicy(int numPages) {
+        this.kin = Math.max(1, (int) (numPages * A1IN_FRACTION));
+        this.kout = Math.max(1, (int) (numPages * A1OUT_FRACTION));
+        this.a1in = new LinkedHashSet<PageId>();
+        // access ordered, so that get() moves a page to the MRU end
+        this.am = new LinkedHashMap<PageId, Boolean>(16, 0.75f, true);
+        this.a1out = new LinkedHashSet<PageId>();
+    }
+
+    public void pageLoaded(PageId pid) {
+        if (this.a1out.remove(pid)) {
+            this.am.put(pid, Boolean.TRUE);
+        } else {
+            this.a1in.add(pid);
+        }
+    }
+
+    public void pageAccessed(PageId pid) {
+        // hits on A1in are deliberately ignored: they are usually correlated
+        // references from the same scan, not evidence that the page is hot
+        this.am.get(pid);
+    }
+
+    public void pageRemoved(PageId pid) {
+        if (this.a1in.remove(pid)) {
+            this.a1out.add(pid);
+            if (this.a1out.size() > this.kout) {
+                Iterator<PageId> oldest = this.a1out.iterator();
+                oldest.next();
+                oldest.remove();
+            }
+        } else {
+            this.am.remove(pid);
+        }
+    }
+
+    public Iterator<PageId> victims() {
+        // reclaim from A1in while it is over its share, otherwise take the
+        // least recently used page of Am; fall back to the other queue when
+        // every candidate in the preferred one is pinned
+        if (this.a1in.size() > this.kin || this.am.isEmpty()) {
+            return new ChainedIterator(this.a1in.iterator(), this.am.keySet().iterator());
+        } else {
+            return new ChainedIterator(this.am.keySet().iterator(), this.a1in.iterator());
+        }
+    }
+
+    /** Read-only concatenation of two iterators. */
+    private static class ChainedIterator implements Iterator<PageId> {
+        ChainedIterator(Iterator<PageId> first, Iterator<PageId> second) {
+            this.first = first;
+            this.second = second;
+        }
+
+        public boolean hasNext() {
+            return this.first.hasNext() || this.second.hasNext();
+        }
+
+        public PageId next() {
+            if (this.first.hasNext()) {
+                return this.first.next();
+            }
+            return this.second.next();
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        private final Iterator<PageId> first;
+        private final Iterator<PageId> second;
+    }
+
+    private final int kin;
+    private final int kout;
+    private final LinkedHashSet<PageId> a1in;
+    private final LinkedHashMap<PageId, Boolean> am;
+    private final LinkedHashSet<PageId> a1out;
+}
@@ -0,0 +1,257 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * ZoneMap keeps the minimum and maximum value of every INT_TYPE field on
+ * each page of a HeapFile, so that a scan with predicates can skip the pages
+ * that cannot hold a matching tuple without reading them.
+ * <p>
+ * The bounds of a page are conservative: every tuple on the page lies within
+ * them, but they may be wider than the page's current contents. A page's
+ * bounds are unknown until a scan with predicates reads the page while it is
+ * clean and records them; after that, inserts into the page widen them.
+ * Deletes leave them as they are, which keeps them valid. Rolling back
+ * restores tuples a page may have lost since its bounds were recorded, so
+ * {@link LogFile} forgets the bounds of the pages it restores.
+ * <p>
+ * The map is persisted in a file beside the heap file (see
+ * {@link #sidecarFile}), one fixed-size entry per page. An entry is written
+ * whenever it changes, before the tuple that changed it can reach the heap
+ * file, so the bounds on disk cover every tuple the page can hold after a
+ * crash. {@link HeapFileEncoder} removes the file when it rewrites a heap
+ * file.
+ *
+ * @Threadsafe
+ */
+public class ZoneMap {
+
+    /**
+     * Creates the zone map of a heap file of the given schema, loading any
+     * bounds previously persisted in the sidecar file.
+     */
+    ZoneMap(File sidecar, TupleDesc td) {
+        this.sidecar = sidecar;
+        int n = 0;
+        this.slotOf = new int[td.numFields()];
+        for (int i = 0; i < td.numFields(); i++) {
+            this.slotOf[i] = td.getFieldType(i) == Type.INT_TYPE ? n++ : -1;
+        }
+        this.numInts = n;
+        this.entrySize = 1 + 8 * n;
+        this.bounds = new int[0];
+        this.known = new byte[0];
+        this.load();
+    }
+
+    /** @return the file the zone map of the given heap file is persisted in */
+    public static File sidecarFile(File heapFile) {
+        return new File(heapFile.getPath() + ".zonemap");
+    }
+
+    /** @return true if the bounds of the given page are known */
+    public synchronized boolean isKnown(int pageNo) {
+        return pageNo >= 0 && pageNo < this.known.length && this.known[pageNo] != 0;
+    }
+
+    /**
+     * @return the smallest value of INT_TYPE field i on the page; larger than
+     *         getMax if the page holds no tuples. Only meaningful if the
+     *         page's bounds are known.
+     */
+    public synchronized int getMin(int pageNo, int i) {
+        return this.bounds[(pageNo * this.numInts + this.slotOf[i]) * 2];
+    }
+
+    /** @return the largest value of INT_TYPE field i on the page */
+    public synchronized int getMax(int pageNo, int i) {
+        return this.bounds[(pageNo * this.numInts + this.slotOf[i]) * 2 + 1];
+    }
+
+    /**
+     * @return false if the page's bounds prove that no tuple on it satisfies
+     *         all of the predicates; true otherwise, in particular if the
+     *         bounds are unknown
+     */
+    public synchronized boolean mayMatch(int pageNo, Predicate[] predicates) {
+        if (!this.isKnown(pageNo)) {
+            return true;
+        }
+        for (Predicate p : predicates) {
+            int slot = this.slotOf[p.getField()];
+            if (slot < 0 || !(p.getOperand() instanceof IntField)) {
+                continue;
+            }
+            int base = (pageNo * this.numInts + slot) * 2;
+            int min = this.bounds[base];
+            int max = this.bounds[base + 1];
+            if (min > max || !mayMatch(p.getOp(), min, max, ((IntField) p.getOperand()).getValue())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** @return true if some value in [min, max] may satisfy <tt>value op v</tt> */
+    private static boolean mayMatch(Predicate.Op op, int min, int max, int v) {
+        switch (op) {
+        case EQUALS:
+            return min <= v && v <= max;
+        case GREATER_THAN:
+            return max > v;
+        case GREATER_THAN_OR_EQ:
+            return max >= v;
+        case LESS_THAN:
+            return min < v;
+        case LESS_THAN_OR_EQ:
+            return min <= v;
+        case NOT_EQUALS:
+            return min != v || max != v;
+        default:
+            return true;
+        }
+    }
+
+    /**
+     * Records the exact bounds of a page from its contents and persists
+     * them. The page must be clean: the tuples a dirty page lost may come
+     * back if its transaction aborts.
+     */
+    synchronized void record(HeapPage page) {
+        int pageNo = page.getId().pageNumber();
+        this.ensureCapacity(pageNo);
+        int base = pageNo * this.numInts * 2;
+        for (int k = 0; k < this.numInts; k++) {
+            this.bounds[base + 2 * k] = Integer.MAX_VALUE;
+            this.bounds[base + 2 * k + 1] = Integer.MIN_VALUE;
+        }
+        this.known[pageNo] = 1;
+        java.util.Iterator<Tuple> it = page.iterator();
+        while (it.hasNext()) {
+            this.widen(pageNo, it.next());
+        }
+        this.persist(pageNo);
+    }
+
+    /** Makes the bounds of a page unknown again. */
+    synchronized void forget(int pageNo) {
+        if (this.isKnown(pageNo)) {
+            this.known[pageNo] = 0;
+            this.persist(pageNo);
+        }
+    }
+
+    /**
+     * Widens the bounds of a page to cover a tuple inserted into it. Pages
+     * with unknown bounds stay unknown.
+     */
+    synchronized void include(int pageNo, Tuple t) {
+        if (this.isKnown(pageNo) && this.widen(pageNo, t)) {
+            this.persist(pageNo);
+        }
+    }
+
+    /** @return true if the bounds changed */
+    private boolean widen(int pageNo, Tuple t) {
+        boolean changed = false;
+        for (int i = 0; i < this.slotOf.length; i++) {
+            int slot = this.slotOf[i];
+            if (slot < 0) {
+                continue;
+            }
+            int v = t.getInt(i);
+            int base = (pageNo * this.numInts + slot) * 2;
+            if (v < this.bounds[base]) {
+                this.bounds[base] = v;
+                changed = true;
+            }
+            if (v > this.bounds[base + 1]) {
+                this.bounds[base + 1] = v;
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    /** Writes the bounds of a page to the sidecar file. */
+    private void persist(int pageNo) {
+        ByteBuffer entry = ByteBuffer.allocate(this.entrySize);
+        entry.put(this.known[pageNo]);
+        for (int k = 0; k < this.numInts * 2; k++) {
+            entry.putInt(this.bounds[pageNo * this.numInts * 2 + k]);
+        }
+        entry.flip();
+        try {
+            FileChannel channel = this.getChannel();
+            long position = (long) pageNo * this.entrySize;
+            while (entry.hasRemaining()) {
+                channel.write(entry, position + entry.position());
+            }
+        } catch (IOException e) {
+            // the entry on disk may now be too narrow: forget the page's
+            // bounds and drop the file, leaving the bounds on disk unknown
+            this.known[pageNo] = 0;
+            if (this.channel != null) {
+                try {
+                    this.channel.close();
+                } catch (IOException ignored) {
+                }
+            }
+            this.sidecar.delete();
+            e.printStackTrace();
+        }
+    }
+
+    private void load() {
+        if (!this.sidecar.exists() || this.sidecar.length() % this.entrySize != 0) {
+            return;
+        }
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(this.sidecar)));
+            try {
+                int pages = (int) (this.sidecar.length() / this.entrySize);
+                this.ensureCapacity(pages - 1);
+                for (int pageNo = 0; pageNo < pages; pageNo++) {
+                    this.known[pageNo] = in.readByte();
+                    for (int k = 0; k < this.numInts * 2; k++) {
+                        this.bounds[pageNo * this.numInts * 2 + k] = in.readInt();
+                    }
+                }
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            // unreadable bounds are unknown bounds
+            Arrays.fill(this.known, (byte) 0);
+        }
+    }
+
+    private FileChannel getChannel() throws IOException {
+        if (this.channel == null || !this.channel.isOpen()) {
+            this.channel = new RandomAccessFile(this.sidecar, "rw").getChannel();
+        }
+        return this.channel;
+    }
+
+    private void ensureCapacity(int pageNo) {
+        if (pageNo < this.known.length) {
+            return;
+        }
+        int pages = Math.max(pageNo + 1, this.known.length * 2);
+        this.known = Arrays.copyOf(this.known, pages);
+        this.bounds = Arrays.copyOf(this.bounds, pages * this.numInts * 2);
+    }
+
+    private final File sidecar;
+    // the position of each field among the INT_TYPE fields, or -1
+    private final int[] slotOf;
+    private final int numInts;
+    private final int entrySize;
+    // min and max of each INT_TYPE field, by page
+    private int[] bounds;
+    private byte[] known;
+    private FileChannel channel;
+}
@@ -0,0 +1,184 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SmallPageTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class BTreeFileTest extends SmallPageTestBase {
+
+  private static final Predicate.Op[] OPS = { Predicate.Op.EQUALS, Predicate.Op.LESS_THAN,
+      Predicate.Op.LESS_THAN_OR_EQ, Predicate.Op.GREATER_THAN, Predicate.Op.GREATER_THAN_OR_EQ };
+
+  private TransactionId tid;
+
+  /**
+   * Small pages, so that a few thousand entries make a tree of several levels
+   */
+  @Before public void setUp() throws Exception {
+    super.setUp();
+    this.tid = new TransactionId();
+  }
+
+  private static int count(ArrayList<Integer> keys, Predicate.Op op, int operand) {
+    int n = 0;
+    for (int key : keys) {
+      if (IntField.compare(op, key, operand)) {
+        n++;
+      }
+    }
+    return n;
+  }
+
+  /**
+   * Inserted tuples come back in key order, ranges return exactly the
+   * matching keys, and deleted tuples are gone
+   */
+  @Test public void insertRangeAndDelete() throws Exception {
+    BTreeFile file = new BTreeFile(TestUtil.tempFile("btree"), Utility.getTupleDesc(2), 0);
+    Database.getCatalog().addTable(file, SystemTestUtil.getUUID());
+    Random random = new Random(17);
+    ArrayList<Integer> keys = new ArrayList<Integer>();
+    ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+    for (int i = 0; i < ROWS; i++) {
+      int key = random.nextInt(500);
+      Tuple t = Utility.getHeapTuple(new int[] { key, i });
+      file.insertTuple(this.tid, t);
+      keys.add(key);
+      tuples.add(t);
+    }
+    assertTrue(file.getHeight(this.tid) >= 3);
+
+    DbFileIterator all = file.iterator(this.tid);
+    all.open();
+    int previous = Integer.MIN_VALUE;
+    int n = 0;
+    while (all.hasNext()) {
+      int key = all.next().getInt(0);
+      assertTrue(key >= previous);
+      previous = key;
+      n++;
+    }
+    all.close();
+    assertEquals(ROWS, n);
+
+    for (Predicate.Op op : OPS) {
+      for (int operand : new int[] { -1, 0, 250, 499, 600 }) {
+        DbFileIterator it = file.indexIterator(this.tid, op, new IntField(operand));
+        assertEquals(op + " " + operand, count(keys, op, operand), TestUtil.drain(it).size());
+      }
+    }
+
+    for (int i = 0; i < ROWS; i += 2) {
+      file.deleteTuple(this.tid, tuples.get(i));
+    }
+    ArrayList<Integer> remaining = new ArrayList<Integer>();
+    for (int i = 1; i < ROWS; i += 2) {
+      remaining.add(keys.get(i));
+    }
+    assertEquals(remaining.size(), TestUtil.drain(file.iterator(this.tid)).size());
+    assertEquals(count(remaining, Predicate.Op.EQUALS, 250),
+        TestUtil.drain(file.indexIterator(this.tid, Predicate.Op.EQUALS, new IntField(250))).size());
+
+    try {
+      file.deleteTuple(this.tid, tuples.get(0));
+      fail("deleted a tuple twice");
+    } catch (DbException expected) {
+    }
+  }
+
+  /**
+   * An IndexScan returns the same tuples as a Filter over a SeqScan, and
+   * sees tuples inserted and deleted through the BufferPool
+   */
+  @Test public void indexScanMatchesFilter() throws Exception {
+    ArrayList<ArrayList<Integer>> rows = new ArrayList<ArrayList<Integer>>();
+    HeapFile table = SystemTestUtil.createRandomHeapFile(2, ROWS, 300, null, rows, "t.c");
+    BTreeFile index = BTreeFile.createIndex(this.tid, table.getId(), 1, TestUtil.tempFile("btree"));
+    assertSame(index, Database.getCatalog().getIndex(table.getId(), 1));
+    assertNull(Database.getCatalog().getIndex(table.getId(), 0));
+
+    for (Predicate.Op op : OPS) {
+      IntField key = new IntField(150);
+      DbIterator expected = new Filter(new Predicate(1, op, key), new SeqScan(this.tid, table.getId(), "t"));
+      DbIterator actual = new IndexScan(this.tid, table.getId(), "t", index, op, key);
+      assertEquals(TestUtil.drainSorted(expected), TestUtil.drainSorted(actual));
+    }
+
+    Tuple t = Utility.getHeapTuple(new int[] { 7, -5 });
+    Database.getBufferPool().insertTuple(this.tid, table.getId(), t);
+    DbIterator scan = new IndexScan(this.tid, table.getId(), "t", index, Predicate.Op.EQUALS, new IntField(-5));
+    assertEquals(1, TestUtil.drainSorted(scan).size());
+    Database.getBufferPool().deleteTuple(this.tid, t);
+    assertEquals(0, TestUtil.drainSorted(scan).size());
+  }
+
+  /**
+   * TableStats that make the table expensive to scan and the predicate very
+   * selective
+   */
+  private static class SelectiveStats extends TableStats {
+    SelectiveStats(int tableid) {
+      super(tableid, 1000);
+    }
+
+    public double estimateScanCost() {
+      return 1000000;
+    }
+
+    public double estimateSelectivity(int field, Predicate.Op op, Field constant) {
+      return 0.001;
+    }
+
+    public int totalTuples() {
+      return ROWS;
+    }
+  }
+
+  /**
+   * LogicalPlan answers a selective filter on an indexed field with an
+   * IndexScan, and keeps the sequential scan when there is no index
+   */
+  @Test public void physicalPlanUsesIndexScan() throws Exception {
+    ArrayList<ArrayList<Integer>> rows = new ArrayList<ArrayList<Integer>>();
+    HeapFile table = SystemTestUtil.createRandomHeapFile(2, ROWS, 300, null, rows, "t.c");
+    String name = Database.getCatalog().getTableName(table.getId());
+    TableStats.setTableStats(name, new SelectiveStats(table.getId()));
+
+    LogicalPlan lp = new LogicalPlan();
+    lp.addScan(table.getId(), "t");
+    lp.addProjectField("t.c0", null);
+    lp.addFilter("t.c1", Predicate.Op.EQUALS, "42");
+    DbIterator plan = lp.physicalPlan(this.tid, TableStats.getStatsMap(), false);
+    DbIterator node = plan;
+    while (node instanceof Operator) {
+      node = ((Operator) node).getChildren()[0];
+    }
+    assertTrue(node instanceof SeqScan);
+    int expected = TestUtil.drainSorted(plan).size();
+
+    BTreeFile.createIndex(this.tid, table.getId(), 1, TestUtil.tempFile("btree"));
+    plan = lp.physicalPlan(this.tid, TableStats.getStatsMap(), false);
+    node = plan;
+    while (node instanceof Operator) {
+      node = ((Operator) node).getChildren()[0];
+    }
+    assertTrue(node instanceof IndexScan);
+    assertEquals(expected, TestUtil.drainSorted(plan).size());
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(BTreeFileTest.class);
+  }
+}
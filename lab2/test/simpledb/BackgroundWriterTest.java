@@ -0,0 +1,245 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class BackgroundWriterTest extends SimpleDbTestBase {
+
+  private static final int PAGES = 16;
+  private static final int DIRTY = 10;
+
+  private File file;
+  private HeapFile table;
+  private BufferPool bp;
+
+  /** A heap file whose coalesced writes wait to be released, then fail if asked to */
+  private static class StalledHeapFile extends HeapFile {
+    final CountDownLatch started = new CountDownLatch(1);
+    final CountDownLatch released = new CountDownLatch(1);
+    volatile boolean fail;
+
+    StalledHeapFile(File f, TupleDesc td) {
+      super(f, td);
+    }
+
+    void writePages(int firstPageNo, List<byte[]> pageData) throws IOException {
+      this.started.countDown();
+      try {
+        this.released.await();
+      } catch (InterruptedException e) {
+        throw new IOException("interrupted");
+      }
+      if (this.fail) {
+        throw new IOException("write failed");
+      }
+      super.writePages(firstPageNo, pageData);
+    }
+  }
+
+  @Before public void setUp() throws Exception {
+    super.setUp();
+    this.file = File.createTempFile("writer", ".dat");
+    this.file.deleteOnExit();
+    this.table = Utility.createEmptyHeapFile(this.file.getAbsolutePath(), 2);
+    for (int i = 1; i < PAGES; i++) {
+      this.table.writePage(new HeapPage(new HeapPageId(this.table.getId(), i),
+          HeapPage.createEmptyPageData()));
+    }
+  }
+
+  @After public void tearDown() {
+    if (this.bp != null) {
+      this.bp.setBackgroundWriter(0, 0);
+    }
+  }
+
+  /** Dirties pages 0 to DIRTY - 1 with one new tuple each */
+  private HeapPage[] dirtyPages() throws Exception {
+    TransactionId tid = new TransactionId();
+    HeapPage[] pages = new HeapPage[DIRTY];
+    for (int i = 0; i < DIRTY; i++) {
+      pages[i] = (HeapPage) this.bp.getPage(tid, new HeapPageId(this.table.getId(), i), Permissions.READ_WRITE);
+      pages[i].insertTuple(Utility.getHeapTuple(i, 2));
+      pages[i].markDirty(true, tid);
+    }
+    return pages;
+  }
+
+  private void awaitPagesWritten(long n) throws Exception {
+    for (int i = 0; i < 1000 && this.bp.getBackgroundPagesWritten() < n; i++) {
+      Thread.sleep(5);
+    }
+  }
+
+  /** Adjacent dirty pages of a file are written with a single write */
+  @Test public void coalescesAdjacentPages() throws Exception {
+    this.bp = Database.resetBufferPool(2 * PAGES);
+    HeapPage[] pages = dirtyPages();
+    this.bp.setBackgroundWriter(5, 1.0);
+    awaitPagesWritten(DIRTY);
+    this.bp.setBackgroundWriter(0, 0);
+
+    assertEquals(DIRTY, this.bp.getBackgroundPagesWritten());
+    assertEquals(1, this.bp.getBackgroundWriteCount());
+    for (int i = 0; i < DIRTY; i++) {
+      assertNull(pages[i].isDirty());
+      HeapPage onDisk = (HeapPage) this.table.readPage(pages[i].getId());
+      assertEquals(pages[i].getNumEmptySlots(), onDisk.getNumEmptySlots());
+    }
+  }
+
+  /**
+   * The writer cleans only as many pages as it takes to keep the
+   * requested fraction of frames free or clean
+   */
+  @Test public void keepsCleanFraction() throws Exception {
+    this.bp = Database.resetBufferPool(2 * DIRTY);
+    HeapPage[] pages = dirtyPages();
+    // 10 of 20 frames are free; 15 must be free or clean
+    this.bp.setBackgroundWriter(5, 0.75);
+    awaitPagesWritten(5);
+    Thread.sleep(50);
+    this.bp.setBackgroundWriter(0, 0);
+
+    assertEquals(5, this.bp.getBackgroundPagesWritten());
+    int dirty = 0;
+    for (HeapPage page : pages) {
+      if (page.isDirty() != null) {
+        dirty++;
+      }
+    }
+    assertEquals(DIRTY - 5, dirty);
+  }
+
+  /** Replaces the table in the catalog with a StalledHeapFile on the same file */
+  private StalledHeapFile stallWrites() {
+    StalledHeapFile stalled = new StalledHeapFile(this.file, this.table.getTupleDesc());
+    Database.getCatalog().addTable(stalled);
+    this.table = stalled;
+    return stalled;
+  }
+
+  /** Pages whose background write fails are dirty again afterwards */
+  @Test public void failedWriteKeepsPagesDirty() throws Exception {
+    StalledHeapFile stalled = stallWrites();
+    stalled.fail = true;
+    stalled.released.countDown();
+    this.bp = Database.resetBufferPool(2 * PAGES);
+    HeapPage[] pages = dirtyPages();
+    TransactionId tid = pages[0].isDirty();
+    this.bp.setBackgroundWriter(5, 1.0);
+    stalled.started.await();
+    this.bp.setBackgroundWriter(0, 0);
+    this.bp.awaitWritesInFlight();
+
+    assertEquals(0, this.bp.getBackgroundPagesWritten());
+    for (int i = 0; i < DIRTY; i++) {
+      assertEquals(tid, pages[i].isDirty());
+      HeapPage onDisk = (HeapPage) this.table.readPage(pages[i].getId());
+      assertEquals(onDisk.numSlots, onDisk.getNumEmptySlots());
+    }
+  }
+
+  /** Inserts a tuple into a cached page on behalf of tid and logs the update */
+  private HeapPage insert(LogFile log, TransactionId tid, int pageNo) throws Exception {
+    HeapPage page = (HeapPage) this.bp.getPage(tid, new HeapPageId(this.table.getId(), pageNo),
+        Permissions.READ_WRITE);
+    HeapPage before = page.getBeforeImage();
+    page.insertTuple(Utility.getHeapTuple(1, 2));
+    page.markDirty(true, tid);
+    log.logWrite(tid, before, page);
+    page.setBeforeImage();
+    return page;
+  }
+
+  /**
+   * A rollback waits for the copy the writer took before the rollback to
+   * be written, so the copy does not overwrite the restored page
+   */
+  @Test public void rollbackWaitsForWrites() throws Exception {
+    final StalledHeapFile stalled = stallWrites();
+    this.bp = Database.resetBufferPool(2 * PAGES);
+    final LogFile log = Database.getLogFile();
+    final TransactionId tid = new TransactionId();
+    log.logXactionBegin(tid);
+    HeapPage page = insert(log, tid, 0);
+
+    this.bp.setBackgroundWriter(5, 1.0);
+    stalled.started.await();
+    final AtomicReference<Exception> failure = new AtomicReference<Exception>();
+    Thread abort = new Thread() {
+      public void run() {
+        try {
+          log.logAbort(tid);
+        } catch (IOException e) {
+          failure.set(e);
+        }
+      }
+    };
+    abort.start();
+    Thread.sleep(50);
+    stalled.released.countDown();
+    abort.join();
+    this.bp.setBackgroundWriter(0, 0);
+    if (failure.get() != null) {
+      throw failure.get();
+    }
+
+    HeapPage onDisk = (HeapPage) this.table.readPage(page.getId());
+    assertEquals(onDisk.numSlots, onDisk.getNumEmptySlots());
+  }
+
+  /**
+   * A page logged again after the writer took its copy stays in the dirty
+   * page table, even if a checkpoint truncates the log before the copy is
+   * written
+   */
+  @Test public void checkpointDuringWrite() throws Exception {
+    StalledHeapFile stalled = stallWrites();
+    this.bp = Database.resetBufferPool(2 * PAGES);
+    LogFile log = Database.getLogFile();
+    // a log prefix the checkpoint truncates
+    for (int i = 0; i < 1000; i++) {
+      TransactionId tid = new TransactionId();
+      log.logXactionBegin(tid);
+      log.logCommit(tid);
+    }
+    TransactionId tid = new TransactionId();
+    log.logXactionBegin(tid);
+    HeapPage page = insert(log, tid, 0);
+
+    this.bp.setBackgroundWriter(5, 1.0);
+    stalled.started.await();
+    insert(log, tid, 0);
+    long logLength = log.logFile.length();
+    log.logCheckpoint();
+    assertTrue(log.logFile.length() < logLength);
+    assertTrue(log.getDirtyPages().containsKey(page.getId()));
+    stalled.released.countDown();
+    this.bp.setBackgroundWriter(0, 0);
+    this.bp.awaitWritesInFlight();
+
+    assertEquals(1, this.bp.getBackgroundPagesWritten());
+    assertTrue(log.getDirtyPages().containsKey(page.getId()));
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(BackgroundWriterTest.class);
+  }
+}
@@ -0,0 +1,146 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class ColumnFileTest extends SimpleDbTestBase {
+
+  private static final int COLUMNS = 20;
+  private static final int ROWS = 3000;
+
+  private ArrayList<ArrayList<Integer>> tuples;
+  private HeapFile heapFile;
+  private ColumnFile columnFile;
+  private TransactionId tid;
+
+  /**
+   * Encode the same random tuples as a HeapFile and as a ColumnFile
+   */
+  @Before public void setUp() throws Exception {
+    this.tuples = new ArrayList<ArrayList<Integer>>();
+    this.heapFile = SystemTestUtil.createRandomHeapFile(COLUMNS, ROWS, 1000, null, this.tuples, "t.c");
+    File f = TestUtil.tempFile("column");
+    ColumnFileEncoder.convert(this.tuples, f, BufferPool.getPageSize(), COLUMNS);
+    this.columnFile = new ColumnFile(f, Utility.getTupleDesc(COLUMNS, "t.c"));
+    Database.getCatalog().addTable(this.columnFile, SystemTestUtil.getUUID());
+    this.tid = new TransactionId();
+  }
+
+  /**
+   * A ColumnFile returns the same tuples, in the same slots, as the HeapFile
+   * encoded from the same input
+   */
+  @Test public void sameTuplesAsHeapFile() throws Exception {
+    assertEquals(this.heapFile.numPages(), this.columnFile.numPages());
+    assertEquals(TestUtil.drain(this.heapFile.iterator(this.tid)), TestUtil.drain(this.columnFile.iterator(this.tid)));
+    SystemTestUtil.matchTuples(this.columnFile, this.tuples);
+  }
+
+  /**
+   * getPageData produces bytes that parse back to the same page
+   */
+  @Test public void pageDataRoundTrip() throws Exception {
+    HeapPageId pid = new HeapPageId(this.columnFile.getId(), 1);
+    ColumnPage page = (ColumnPage) this.columnFile.readPage(pid);
+    ColumnPage copy = new ColumnPage(pid, page.getPageData());
+    assertEquals(page.getNumEmptySlots(), copy.getNumEmptySlots());
+    for (int i = 0; i < page.getNumSlots(); i++) {
+      if (page.isSlotUsed(i)) {
+        assertEquals(page.getTuple(i).toString(), copy.getTuple(i).toString());
+      }
+    }
+  }
+
+  /**
+   * ColumnScan returns the projected fields of the rows matching its
+   * predicate, in both tuple and batch mode
+   */
+  @Test public void projectedScan() throws Exception {
+    int[] fields = { 17, 3 };
+    Predicate p = new Predicate(5, Predicate.Op.LESS_THAN, new IntField(100));
+    ArrayList<Integer> projected = new ArrayList<Integer>();
+    projected.add(17);
+    projected.add(3);
+    DbIterator expected = new Project(projected, new Type[] { Type.INT_TYPE, Type.INT_TYPE },
+        new Filter(p, new SeqScan(this.tid, this.heapFile.getId(), "t")));
+    ArrayList<String> rows = TestUtil.drain(expected);
+    assertTrue(rows.size() > 0);
+
+    ColumnScan scan = new ColumnScan(this.tid, this.columnFile.getId(), "t", fields, p);
+    assertEquals("t.c17", scan.getTupleDesc().getFieldName(0));
+    assertEquals(rows, TestUtil.drain(scan));
+
+    ArrayList<String> batched = new ArrayList<String>();
+    scan.open();
+    TupleBatch batch;
+    while ((batch = scan.nextBatch()) != null) {
+      for (int row = 0; row < batch.size(); row++) {
+        batched.add(batch.getTuple(row).toString());
+      }
+    }
+    scan.close();
+    assertEquals(rows, batched);
+  }
+
+  /**
+   * Inserted tuples are found by scans, deleted ones are not
+   */
+  @Test public void insertAndDelete() throws Exception {
+    Tuple t = Utility.getHeapTuple(-7, COLUMNS);
+    Database.getBufferPool().insertTuple(this.tid, this.columnFile.getId(), t);
+    assertNotNull(t.getRecordId());
+
+    DbIterator scan = new ColumnScan(this.tid, this.columnFile.getId(), "t", new int[] { 0 },
+        new Predicate(0, Predicate.Op.EQUALS, new IntField(-7)));
+    assertEquals(1, TestUtil.drain(scan).size());
+
+    Database.getBufferPool().deleteTuple(this.tid, t);
+    assertEquals(0, TestUtil.drain(scan).size());
+  }
+
+  /**
+   * LogicalPlan scans a ColumnFile through a ColumnScan over the fields the
+   * query refers to
+   */
+  @Test public void physicalPlanUsesColumnScan() throws Exception {
+    TableStats.setTableStats(Database.getCatalog().getTableName(this.columnFile.getId()),
+        new TableStats(this.columnFile.getId(), 1000));
+    LogicalPlan lp = new LogicalPlan();
+    lp.addScan(this.columnFile.getId(), "t");
+    lp.addProjectField("t.c2", null);
+    lp.addFilter("t.c9", Predicate.Op.GREATER_THAN, "500");
+    DbIterator plan = lp.physicalPlan(this.tid, TableStats.getStatsMap(), false);
+
+    DbIterator node = plan;
+    while (node instanceof Operator) {
+      node = ((Operator) node).getChildren()[0];
+    }
+    assertTrue(node instanceof ColumnScan);
+    assertArrayEquals(new int[] { 2, 9 }, ((ColumnScan) node).getFields());
+
+    int count = 0;
+    for (ArrayList<Integer> tuple : this.tuples) {
+      if (tuple.get(9) > 500) {
+        count++;
+      }
+    }
+    assertEquals(count, TestUtil.drain(plan).size());
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(ColumnFileTest.class);
+  }
+}
@@ -0,0 +1,124 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SmallPageTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class HashIndexFileTest extends SmallPageTestBase {
+
+  private TransactionId tid;
+
+  /**
+   * Small pages, so that a few thousand entries split buckets many times
+   */
+  @Before public void setUp() throws Exception {
+    super.setUp();
+    this.tid = new TransactionId();
+  }
+
+  private static int count(DbFileIterator it) throws Exception {
+    int n = 0;
+    it.open();
+    while (it.hasNext()) {
+      it.next();
+      n++;
+    }
+    it.close();
+    return n;
+  }
+
+  /**
+   * Lookups find exactly the tuples with the given key, including a key
+   * with more duplicates than fit on a bucket, and deleted tuples are gone
+   */
+  @Test public void insertLookupAndDelete() throws Exception {
+    HashIndexFile file = new HashIndexFile(TestUtil.tempFile("hashindex"), Utility.getTupleDesc(2), 0);
+    Database.getCatalog().addTable(file, SystemTestUtil.getUUID());
+    Random random = new Random(3);
+    HashMap<Integer, Integer> counts = new HashMap<Integer, Integer>();
+    ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+    for (int i = 0; i < ROWS; i++) {
+      // every fifth tuple has the same key
+      int key = i % 5 == 0 ? 7 : random.nextInt(1000);
+      Tuple t = Utility.getHeapTuple(new int[] { key, i });
+      file.insertTuple(this.tid, t);
+      tuples.add(t);
+      Integer n = counts.get(key);
+      counts.put(key, n == null ? 1 : n + 1);
+    }
+    assertTrue(file.getGlobalDepth(this.tid) > 1);
+    assertEquals(ROWS, count(file.iterator(this.tid)));
+    for (int key = 0; key < 1000; key++) {
+      Integer expected = counts.get(key);
+      assertEquals("key " + key, expected == null ? 0 : expected.intValue(),
+          count(file.lookup(this.tid, new IntField(key))));
+    }
+
+    for (int i = 0; i < ROWS; i += 2) {
+      file.deleteTuple(this.tid, tuples.get(i));
+      int key = tuples.get(i).getInt(0);
+      counts.put(key, counts.get(key) - 1);
+    }
+    assertEquals(ROWS / 2, count(file.iterator(this.tid)));
+    assertEquals(counts.get(7).intValue(), count(file.lookup(this.tid, new IntField(7))));
+
+    try {
+      file.deleteTuple(this.tid, tuples.get(0));
+      fail("deleted a tuple twice");
+    } catch (DbException expected) {
+    }
+  }
+
+  /**
+   * instantiateJoin probes a hash index on the inner join field, and the
+   * IndexNestedLoopJoin returns the same tuples as a nested loop Join
+   */
+  @Test public void indexNestedLoopJoinMatchesJoin() throws Exception {
+    HeapFile outer = SystemTestUtil.createRandomHeapFile(2, 500, 400, null,
+        new ArrayList<ArrayList<Integer>>(), "a.c");
+    HeapFile inner = SystemTestUtil.createRandomHeapFile(2, 1000, 400, null,
+        new ArrayList<ArrayList<Integer>>(), "b.c");
+    LogicalJoinNode lj = new LogicalJoinNode("a", "b", "a.c1", "b.c0", Predicate.Op.EQUALS);
+    JoinPredicate p = new JoinPredicate(1, Predicate.Op.EQUALS, 0);
+    ArrayList<String> expected = TestUtil.drainSorted(new Join(p, new SeqScan(this.tid, outer.getId(), "a"),
+        new SeqScan(this.tid, inner.getId(), "b")));
+    assertTrue(expected.size() > 0);
+
+    DbIterator j = JoinOptimizer.instantiateJoin(lj, new SeqScan(this.tid, outer.getId(), "a"),
+        new SeqScan(this.tid, inner.getId(), "b"));
+    assertFalse(j instanceof IndexNestedLoopJoin);
+
+    HashIndexFile.createIndex(this.tid, inner.getId(), 0, TestUtil.tempFile("hashindex"));
+    j = JoinOptimizer.instantiateJoin(lj, new SeqScan(this.tid, outer.getId(), "a"),
+        new SeqScan(this.tid, inner.getId(), "b"));
+    assertTrue(j instanceof IndexNestedLoopJoin);
+    assertEquals(expected, TestUtil.drainSorted(j));
+
+    // inserts through the BufferPool reach the index
+    Tuple t = Utility.getHeapTuple(new int[] { -3, 0 });
+    Database.getBufferPool().insertTuple(this.tid, inner.getId(), t);
+    DbIterator probe = new IndexNestedLoopJoin(p, new Filter(new Predicate(1, Predicate.Op.EQUALS,
+        new IntField(-3)), new TupleIterator(Utility.getTupleDesc(2), Collections.singletonList(
+        Utility.getHeapTuple(new int[] { 1, -3 })))), new SeqScan(this.tid, inner.getId(), "b"),
+        Database.getCatalog().getHashIndex(inner.getId(), 0));
+    assertEquals(1, TestUtil.drainSorted(probe).size());
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(HashIndexFileTest.class);
+  }
+}
@@ -43,6 +43,41 @@ public class HeapFileWriteTest extends TestUtil.CreateHeapFile {
         assertEquals(3, empty.numPages());
     }
 
+    /**
+     * Unit test for HeapFile.insertTuple() using the free space map: a bulk
+     * insert should touch each page a bounded number of times instead of
+     * probing every page from the start of the file for every tuple.
+     */
+    @Test public void bulkInsertIsLinear() throws Exception {
+        BufferPool pool = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        int tuples = 504 * 20;
+        for (int i = 0; i < tuples; ++i) {
+            empty.insertTuple(tid, Utility.getHeapTuple(i, 2));
+        }
+        assertEquals(20, empty.numPages());
+        // one getPage per insert, plus one probe of each full page
+        assertTrue(pool.getHitCount() + pool.getMissCount() <= tuples + empty.numPages());
+    }
+
+    /**
+     * Unit test for HeapFile.insertTuple() reusing a slot freed by
+     * HeapFile.deleteTuple() on an earlier page.
+     */
+    @Test public void insertReusesFreedSlot() throws Exception {
+        Tuple first = Utility.getHeapTuple(0, 2);
+        empty.insertTuple(tid, first);
+        for (int i = 1; i < 504 * 2; ++i) {
+            empty.insertTuple(tid, Utility.getHeapTuple(i, 2));
+        }
+        assertEquals(2, empty.numPages());
+        empty.deleteTuple(tid, first);
+
+        Tuple t = Utility.getHeapTuple(42, 2);
+        empty.insertTuple(tid, t);
+        assertEquals(2, empty.numPages());
+        assertEquals(0, t.getRecordId().getPageId().pageNumber());
+    }
+
     /**
      * JUnit suite target
      */
@@ -7,6 +7,8 @@ import simpledb.systemtest.SystemTestUtil;
 import java.io.File;
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -99,6 +101,73 @@ public class HeapPageReadTest extends SimpleDbTestBase {
         }
     }
 
+    /**
+     * Unit test for HeapPage.getPageData() on a page whose tuples are
+     * partly decoded: the bytes must come back unchanged
+     */
+    @Test public void getPageDataAfterPartialRead() throws Exception {
+        HeapPage page = new HeapPage(pid, EXAMPLE_DATA);
+        assertTrue(Arrays.equals(EXAMPLE_DATA, page.getPageData()));
+
+        Iterator<Tuple> it = page.iterator();
+        for (int row = 0; row < EXAMPLE_VALUES.length; row += 2) {
+            Tuple tup = it.next();
+            assertEquals(EXAMPLE_VALUES[row][1], ((IntField) tup.getField(1)).getValue());
+            it.next();
+        }
+        assertTrue(Arrays.equals(EXAMPLE_DATA, page.getPageData()));
+    }
+
+    /**
+     * Threads that decode different fields of the same cached tuples at
+     * once all see every field's value, and so do later readers
+     */
+    @Test public void concurrentDecode() throws Exception {
+        final int rounds = 2000;
+        final HeapPage[] pages = new HeapPage[rounds];
+        for (int r = 0; r < rounds; r++) {
+            pages[r] = new HeapPage(pid, EXAMPLE_DATA);
+        }
+        // two readers per field
+        final Thread[] readers = new Thread[4];
+        final CyclicBarrier barrier = new CyclicBarrier(readers.length);
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        for (int k = 0; k < readers.length; k++) {
+            final int field = k % 2;
+            readers[k] = new Thread() {
+                public void run() {
+                    try {
+                        for (int r = 0; r < rounds; r++) {
+                            barrier.await();
+                            Iterator<Tuple> it = pages[r].iterator();
+                            for (int row = 0; it.hasNext(); row++) {
+                                assertEquals(EXAMPLE_VALUES[row][field], it.next().getInt(field));
+                            }
+                        }
+                    } catch (Throwable t) {
+                        failure.compareAndSet(null, t);
+                        barrier.reset();
+                    }
+                }
+            };
+            readers[k].start();
+        }
+        for (Thread t : readers) {
+            t.join();
+        }
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get().toString());
+        }
+        for (HeapPage page : pages) {
+            Iterator<Tuple> it = page.iterator();
+            for (int row = 0; it.hasNext(); row++) {
+                Tuple tup = it.next();
+                assertEquals(EXAMPLE_VALUES[row][0], tup.getInt(0));
+                assertEquals(EXAMPLE_VALUES[row][1], tup.getInt(1));
+            }
+        }
+    }
+
     /**
      * Unit test for HeapPage.getNumEmptySlots()
      */
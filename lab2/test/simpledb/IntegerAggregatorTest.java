@@ -178,6 +178,35 @@ public class IntegerAggregatorTest extends SimpleDbTestBase {
     }
   }
 
+  /**
+   * Test IntegerAggregator with enough distinct groups to grow its hash
+   * table several times, including negative and colliding keys
+   */
+  @Test public void manyGroups() throws Exception {
+    int groups = 5000;
+    IntegerAggregator agg = new IntegerAggregator(0, Type.INT_TYPE, 1, Aggregator.Op.MAX);
+    for (int round = 0; round < 3; round++) {
+      for (int g = 0; g < groups; g++) {
+        Tuple t = new Tuple(Utility.getTupleDesc(2));
+        t.setField(0, new IntField(g % 2 == 0 ? g << 16 : -g));
+        t.setField(1, new IntField(round * groups + g));
+        agg.mergeTupleIntoGroup(t);
+      }
+    }
+
+    DbIterator it = agg.iterator();
+    it.open();
+    int count = 0;
+    while (it.hasNext()) {
+      Tuple t = it.next();
+      int key = ((IntField) t.getField(0)).getValue();
+      int g = key < 0 ? -key : key >> 16;
+      assertEquals(2 * groups + g, ((IntField) t.getField(1)).getValue());
+      count++;
+    }
+    assertEquals(groups, count);
+  }
+
   /**
    * JUnit suite target
    */
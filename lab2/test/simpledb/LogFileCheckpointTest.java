@@ -0,0 +1,110 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class LogFileCheckpointTest extends SimpleDbTestBase {
+
+  private static final int ROWS = 10;
+
+  private File logFile;
+  private HeapFile table;
+  private HeapPageId pid;
+
+  @Before public void setUp() throws Exception {
+    super.setUp();
+    this.logFile = File.createTempFile("checkpoint", ".log");
+    this.logFile.deleteOnExit();
+    this.table = SystemTestUtil.createRandomHeapFile(2, ROWS, null,
+        new ArrayList<ArrayList<Integer>>());
+    this.pid = new HeapPageId(this.table.getId(), 0);
+  }
+
+  /** Inserts a tuple into the cached page on behalf of tid and logs the update */
+  private HeapPage insert(LogFile log, TransactionId tid, int value) throws Exception {
+    HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, this.pid, Permissions.READ_WRITE);
+    HeapPage before = page.getBeforeImage();
+    page.insertTuple(Utility.getHeapTuple(value, 2));
+    page.markDirty(true, tid);
+    log.logWrite(tid, before, page);
+    page.setBeforeImage();
+    return page;
+  }
+
+  private int tuplesOnDisk() {
+    HeapPage page = (HeapPage) this.table.readPage(this.pid);
+    return page.numSlots - page.getNumEmptySlots();
+  }
+
+  /** A checkpoint records the dirty page table without writing pages */
+  @Test public void checkpointDoesNotFlush() throws Exception {
+    LogFile log = new LogFile(this.logFile);
+    TransactionId tid = new TransactionId();
+    log.logXactionBegin(tid);
+    HeapPage page = insert(log, tid, 1);
+    log.logCheckpoint();
+    assertEquals(ROWS, tuplesOnDisk());
+    assertNotNull(page.isDirty());
+    assertTrue(log.getDirtyPages().containsKey(this.pid));
+  }
+
+  /**
+   * Recovery redoes a committed update logged before the checkpoint, since
+   * the page was still dirty at the checkpoint
+   */
+  @Test public void recoverFromRecLsn() throws Exception {
+    LogFile log = new LogFile(this.logFile);
+    TransactionId committed = new TransactionId();
+    log.logXactionBegin(committed);
+    insert(log, committed, 1);
+    log.logCommit(committed);
+    log.logCheckpoint();
+    TransactionId loser = new TransactionId();
+    log.logXactionBegin(loser);
+    insert(log, loser, 2);
+    assertEquals(ROWS, tuplesOnDisk());
+
+    Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    new LogFile(this.logFile).recover();
+    assertEquals(ROWS + 1, tuplesOnDisk());
+  }
+
+  /** The background writer writes dirty pages and empties the dirty page table */
+  @Test public void backgroundWriterCleansPages() throws Exception {
+    LogFile log = Database.getLogFile();
+    TransactionId tid = new TransactionId();
+    log.logXactionBegin(tid);
+    HeapPage page = insert(log, tid, 1);
+    assertTrue(log.getDirtyPages().containsKey(this.pid));
+
+    BufferPool bp = Database.getBufferPool();
+    bp.setBackgroundWriter(5, 1.0);
+    try {
+      for (int i = 0; i < 1000 && log.getDirtyPages().containsKey(this.pid); i++) {
+        Thread.sleep(5);
+      }
+    } finally {
+      bp.setBackgroundWriter(0, 0);
+    }
+    assertFalse(log.getDirtyPages().containsKey(this.pid));
+    assertNull(page.isDirty());
+    assertEquals(ROWS + 1, tuplesOnDisk());
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(LogFileCheckpointTest.class);
+  }
+}
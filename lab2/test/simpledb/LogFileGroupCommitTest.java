@@ -0,0 +1,105 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicReference;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class LogFileGroupCommitTest {
+
+  private static final int THREADS = 8;
+  private static final int COMMITS_PER_THREAD = 50;
+  // BEGIN and COMMIT records: type, tid and start offset
+  private static final int RECORD_SIZE = LogFile.INT_SIZE + 2 * LogFile.LONG_SIZE;
+
+  private File file;
+  private LogFile log;
+
+  @Before public void setUp() throws Exception {
+    this.file = File.createTempFile("groupcommit", ".log");
+    this.file.deleteOnExit();
+    this.log = new LogFile(this.file);
+  }
+
+  @After public void tearDown() throws Exception {
+    this.log.setGroupCommit(0);
+  }
+
+  /** Runs transactions on several threads, each beginning and committing in turn */
+  private void commitConcurrently() throws Exception {
+    final AtomicReference<Exception> failure = new AtomicReference<Exception>();
+    ArrayList<Thread> threads = new ArrayList<Thread>();
+    for (int i = 0; i < THREADS; i++) {
+      threads.add(new Thread() {
+        public void run() {
+          try {
+            for (int j = 0; j < COMMITS_PER_THREAD; j++) {
+              TransactionId tid = new TransactionId();
+              log.logXactionBegin(tid);
+              log.logCommit(tid);
+            }
+          } catch (IOException e) {
+            failure.compareAndSet(null, e);
+          }
+        }
+      });
+    }
+    for (Thread t : threads) {
+      t.start();
+    }
+    for (Thread t : threads) {
+      t.join();
+    }
+    if (failure.get() != null) {
+      throw failure.get();
+    }
+  }
+
+  /** Without group commit, every commit forces the log */
+  @Test public void forcesPerCommit() throws Exception {
+    commitConcurrently();
+    assertEquals(THREADS * COMMITS_PER_THREAD, this.log.totalForces);
+    assertEquals(LogFile.LONG_SIZE + 2 * RECORD_SIZE * THREADS * COMMITS_PER_THREAD,
+        this.file.length());
+  }
+
+  /**
+   * With group commit, concurrent commits share forces, and every record is
+   * on disk once its commit returns
+   */
+  @Test public void groupCommitSharesForces() throws Exception {
+    this.log.setGroupCommit(2000);
+    commitConcurrently();
+    assertTrue(this.log.totalForces < THREADS * COMMITS_PER_THREAD);
+    assertEquals(2 * THREADS * COMMITS_PER_THREAD, this.log.getTotalRecords());
+    assertEquals(LogFile.LONG_SIZE + 2 * RECORD_SIZE * THREADS * COMMITS_PER_THREAD,
+        this.file.length());
+  }
+
+  /** Turning group commit off forces what is buffered */
+  @Test public void turnOffForcesBuffer() throws Exception {
+    this.log.setGroupCommit(1000);
+    TransactionId tid = new TransactionId();
+    this.log.logXactionBegin(tid);
+    assertEquals(LogFile.LONG_SIZE, this.file.length());
+    this.log.setGroupCommit(0);
+    assertEquals(LogFile.LONG_SIZE + RECORD_SIZE, this.file.length());
+    this.log.logCommit(tid);
+    assertEquals(LogFile.LONG_SIZE + 2 * RECORD_SIZE, this.file.length());
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(LogFileGroupCommitTest.class);
+  }
+}
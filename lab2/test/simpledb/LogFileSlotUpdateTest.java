@@ -0,0 +1,112 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class LogFileSlotUpdateTest extends SimpleDbTestBase {
+
+  private static final int ROWS = 10;
+
+  private File logFile;
+  private LogFile log;
+  private HeapFile table;
+  private HeapPageId pid;
+
+  @Before public void setUp() throws Exception {
+    super.setUp();
+    this.logFile = File.createTempFile("slotupdate", ".log");
+    this.logFile.deleteOnExit();
+    this.log = new LogFile(this.logFile);
+    this.table = SystemTestUtil.createRandomHeapFile(2, ROWS, null,
+        new ArrayList<ArrayList<Integer>>());
+    this.pid = new HeapPageId(this.table.getId(), 0);
+  }
+
+  /** Inserts a tuple into the cached page on behalf of tid and logs the update */
+  private void insert(TransactionId tid, int value) throws Exception {
+    HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, this.pid, Permissions.READ_WRITE);
+    HeapPage before = page.getBeforeImage();
+    page.insertTuple(Utility.getHeapTuple(value, 2));
+    page.markDirty(true, tid);
+    this.log.logWrite(tid, before, page);
+    page.setBeforeImage();
+  }
+
+  private int tuplesOnDisk() {
+    HeapPage page = (HeapPage) this.table.readPage(this.pid);
+    return page.numSlots - page.getNumEmptySlots();
+  }
+
+  /**
+   * The first update of a page after a checkpoint logs full images; later
+   * ones log only the changed slot
+   */
+  @Test public void laterUpdatesLogSlots() throws Exception {
+    TransactionId tid = new TransactionId();
+    this.log.logXactionBegin(tid);
+    long start = this.logFile.length();
+    insert(tid, 1);
+    long full = this.logFile.length() - start;
+    insert(tid, 2);
+    long delta = this.logFile.length() - start - full;
+    assertTrue(full > 2 * BufferPool.getPageSize());
+    assertTrue(delta < 100);
+
+    this.log.logCheckpoint();
+    start = this.logFile.length();
+    insert(tid, 3);
+    assertTrue(this.logFile.length() - start > 2 * BufferPool.getPageSize());
+  }
+
+  /** Aborting undoes the transaction's full image and slot updates */
+  @Test public void rollbackUndoesSlots() throws Exception {
+    TransactionId tid = new TransactionId();
+    this.log.logXactionBegin(tid);
+    insert(tid, 1);
+    insert(tid, 2);
+    insert(tid, 3);
+    this.log.logAbort(tid);
+    assertEquals(ROWS, tuplesOnDisk());
+    HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, this.pid, Permissions.READ_ONLY);
+    assertEquals(ROWS, page.numSlots - page.getNumEmptySlots());
+  }
+
+  /**
+   * Recovery redoes the updates of committed transactions and undoes those
+   * of transactions that did not commit
+   */
+  @Test public void recoverAppliesSlots() throws Exception {
+    TransactionId committed = new TransactionId();
+    TransactionId loser = new TransactionId();
+    this.log.logXactionBegin(committed);
+    this.log.logXactionBegin(loser);
+    insert(committed, 1);
+    insert(loser, 2);
+    insert(committed, 3);
+    this.log.logCommit(committed);
+    insert(loser, 4);
+    // nothing was written to the table file
+    assertEquals(ROWS, tuplesOnDisk());
+
+    Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    new LogFile(this.logFile).recover();
+    assertEquals(ROWS + 2, tuplesOnDisk());
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(LogFileSlotUpdateTest.class);
+  }
+}
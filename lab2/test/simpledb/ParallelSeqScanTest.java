@@ -0,0 +1,149 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SmallPageTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class ParallelSeqScanTest extends SmallPageTestBase {
+
+  private static final int TABLE_ROWS = 5000;
+
+  private TransactionId tid;
+  private HeapFile table;
+
+  /**
+   * Small pages and a small buffer pool, so that the threads of a scan
+   * evict each other's pages
+   */
+  @Before public void setUp() throws Exception {
+    super.setUp();
+    Database.resetBufferPool(8);
+    ParallelSeqScan.setParallelism(4);
+    this.tid = new TransactionId();
+    this.table = SystemTestUtil.createRandomHeapFile(3, TABLE_ROWS, 1000, null,
+        new ArrayList<ArrayList<Integer>>(), "t.c");
+  }
+
+  @After public void tearDown() {
+    ParallelSeqScan.setParallelism(1);
+    super.tearDown();
+  }
+
+  /**
+   * The parallel scan returns the tuples Filter and Project return over a
+   * SeqScan, also when rewound
+   */
+  @Test public void matchesFilterAndProject() throws Exception {
+    Predicate p = new Predicate(1, Predicate.Op.LESS_THAN, new IntField(300));
+    ArrayList<Integer> fields = new ArrayList<Integer>();
+    fields.add(2);
+    fields.add(0);
+    ArrayList<Type> types = new ArrayList<Type>();
+    types.add(Type.INT_TYPE);
+    types.add(Type.INT_TYPE);
+    ArrayList<String> expected = TestUtil.drainSorted(new Project(fields, types,
+        new Filter(p, new SeqScan(this.tid, this.table.getId(), "t"))));
+    assertTrue(expected.size() > 0);
+
+    ParallelSeqScan scan = new ParallelSeqScan(this.tid, this.table.getId(), "t",
+        new int[] { 2, 0 }, new Predicate[] { p });
+    assertEquals(2, scan.getTupleDesc().numFields());
+    assertEquals(expected, TestUtil.drainSorted(scan));
+
+    ArrayList<String> all = TestUtil.drainSorted(new ParallelSeqScan(this.tid, this.table.getId(), "t",
+        null, new Predicate[0]));
+    assertEquals(TestUtil.drainSorted(new SeqScan(this.tid, this.table.getId(), "t")), all);
+  }
+
+  /**
+   * Closing a scan before it is exhausted stops its tasks, and the next
+   * scan on the same pool still sees every tuple
+   */
+  @Test public void closeBeforeExhausted() throws Exception {
+    for (int i = 0; i < 5; i++) {
+      ParallelSeqScan scan = new ParallelSeqScan(this.tid, this.table.getId(), "t", null, new Predicate[0]);
+      scan.open();
+      assertTrue(scan.hasNext());
+      scan.next();
+      scan.close();
+    }
+    ParallelSeqScan scan = new ParallelSeqScan(this.tid, this.table.getId(), "t", null, new Predicate[0]);
+    int n = 0;
+    scan.open();
+    while (scan.hasNext()) {
+      scan.next();
+      n++;
+    }
+    scan.rewind();
+    while (scan.hasNext()) {
+      scan.next();
+      n++;
+    }
+    scan.close();
+    assertEquals(2 * TABLE_ROWS, n);
+  }
+
+  /**
+   * A join of two parallel scans completes although the outer scan's tasks
+   * fill its queue and wait before the inner scan is opened
+   */
+  @Test public void joinsTwoParallelScans() throws Exception {
+    ParallelSeqScan.setParallelism(2);
+    HeapFile inner = SystemTestUtil.createRandomHeapFile(2, 300, 1000, null,
+        new ArrayList<ArrayList<Integer>>(), "s.c");
+    JoinPredicate p = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    ArrayList<String> expected = TestUtil.drainSorted(new Join(p,
+        new SeqScan(this.tid, this.table.getId(), "t"),
+        new SeqScan(this.tid, inner.getId(), "s")));
+    assertTrue(expected.size() > 0);
+
+    ArrayList<String> result = TestUtil.drainSorted(new Join(p,
+        new ParallelSeqScan(this.tid, this.table.getId(), "t", null, new Predicate[0]),
+        new ParallelSeqScan(this.tid, inner.getId(), "s", null, new Predicate[0])));
+    assertEquals(expected, result);
+  }
+
+  /**
+   * With a parallelism above one, the planner scans heap files in parallel
+   * and the aggregate over the scan is unchanged
+   */
+  @Test public void physicalPlanUsesParallelScan() throws Exception {
+    String name = Database.getCatalog().getTableName(this.table.getId());
+    TableStats.setTableStats(name, new TableStats(this.table.getId(), 1000));
+    LogicalPlan lp = new LogicalPlan();
+    lp.addScan(this.table.getId(), "t");
+    lp.addFilter("t.c1", Predicate.Op.GREATER_THAN, "500");
+    lp.addAggregate("sum", "t.c2", null);
+    lp.addProjectField("t.c2", "sum");
+
+    ParallelSeqScan.setParallelism(1);
+    DbIterator serial = lp.physicalPlan(this.tid, TableStats.getStatsMap(), false);
+    ArrayList<String> expected = TestUtil.drainSorted(serial);
+
+    ParallelSeqScan.setParallelism(4);
+    DbIterator plan = lp.physicalPlan(this.tid, TableStats.getStatsMap(), false);
+    DbIterator node = plan;
+    while (node instanceof Operator) {
+      node = ((Operator) node).getChildren()[0];
+    }
+    assertTrue(node instanceof ParallelSeqScan);
+    assertEquals(1, ((ParallelSeqScan) node).getPredicates().length);
+    assertEquals(expected, TestUtil.drainSorted(plan));
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(ParallelSeqScanTest.class);
+  }
+}
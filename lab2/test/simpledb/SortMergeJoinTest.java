@@ -0,0 +1,198 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class SortMergeJoinTest extends SimpleDbTestBase {
+
+  int width1 = 2;
+  int width2 = 3;
+  DbIterator scan1;
+  DbIterator scan2;
+  DbIterator eqJoin;
+  DbIterator gtJoin;
+
+  /**
+   * Initialize each unit test
+   */
+  @Before public void createTupleLists() throws Exception {
+    // unsorted on purpose
+    this.scan1 = TestUtil.createTupleList(width1,
+        new int[] { 5, 6,
+                    1, 2,
+                    7, 8,
+                    3, 4 });
+    this.scan2 = TestUtil.createTupleList(width2,
+        new int[] { 4, 5, 6,
+                    2, 3, 4,
+                    5, 6, 7,
+                    1, 2, 3,
+                    3, 4, 5 });
+    this.eqJoin = TestUtil.createTupleList(width1 + width2,
+        new int[] { 1, 2, 1, 2, 3,
+                    3, 4, 3, 4, 5,
+                    5, 6, 5, 6, 7 });
+    this.gtJoin = TestUtil.createTupleList(width1 + width2,
+        new int[] {
+                    3, 4, 1, 2, 3, // 1, 2 < 3
+                    3, 4, 2, 3, 4,
+                    5, 6, 1, 2, 3, // 1, 2, 3, 4 < 5
+                    5, 6, 2, 3, 4,
+                    5, 6, 3, 4, 5,
+                    5, 6, 4, 5, 6,
+                    7, 8, 1, 2, 3, // 1, 2, 3, 4, 5 < 7
+                    7, 8, 2, 3, 4,
+                    7, 8, 3, 4, 5,
+                    7, 8, 4, 5, 6,
+                    7, 8, 5, 6, 7 });
+  }
+
+  /**
+   * Unit test for SortMergeJoin.getTupleDesc()
+   */
+  @Test public void getTupleDesc() {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    SortMergeJoin op = new SortMergeJoin(pred, scan1, scan2);
+    TupleDesc expected = Utility.getTupleDesc(width1 + width2);
+    TupleDesc actual = op.getTupleDesc();
+    assertEquals(expected, actual);
+  }
+
+  /**
+   * Unit test for SortMergeJoin.rewind()
+   */
+  @Test public void rewind() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    SortMergeJoin op = new SortMergeJoin(pred, scan1, scan2);
+    op.open();
+    while (op.hasNext()) {
+      assertNotNull(op.next());
+    }
+    assertTrue(TestUtil.checkExhausted(op));
+    op.rewind();
+
+    eqJoin.open();
+    Tuple expected = eqJoin.next();
+    Tuple actual = op.next();
+    assertTrue(TestUtil.compareTuples(expected, actual));
+  }
+
+  /**
+   * Unit test for SortMergeJoin.getNext() using a &gt; predicate
+   */
+  @Test public void gtJoin() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.GREATER_THAN, 0);
+    SortMergeJoin op = new SortMergeJoin(pred, scan1, scan2);
+    op.open();
+    gtJoin.open();
+    TestUtil.matchAllTuples(gtJoin, op);
+  }
+
+  /**
+   * Unit test for SortMergeJoin.getNext() using an = predicate
+   */
+  @Test public void eqJoin() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    SortMergeJoin op = new SortMergeJoin(pred, scan1, scan2);
+    op.open();
+    eqJoin.open();
+    TestUtil.matchAllTuples(eqJoin, op);
+  }
+
+  /**
+   * Input that is already sorted by an ascending OrderBy is not sorted again
+   */
+  @Test public void sortedInput() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    OrderBy sorted1 = new OrderBy(0, true, scan1);
+    OrderBy sorted2 = new OrderBy(0, true, scan2);
+    SortMergeJoin op = new SortMergeJoin(pred, sorted1, sorted2);
+    op.open();
+    eqJoin.open();
+    TestUtil.matchAllTuples(eqJoin, op);
+  }
+
+  private static final Predicate.Op[] OPS = { Predicate.Op.EQUALS, Predicate.Op.LESS_THAN,
+      Predicate.Op.LESS_THAN_OR_EQ, Predicate.Op.GREATER_THAN,
+      Predicate.Op.GREATER_THAN_OR_EQ };
+
+  /** Random rows of the given width with keys in [0, 20), so keys repeat */
+  private static int[] randomRows(Random rand, int rows, int width) {
+    int[] values = new int[rows * width];
+    for (int i = 0; i < values.length; i++) {
+      values[i] = rand.nextInt(20);
+    }
+    return values;
+  }
+
+  /**
+   * Every supported operator produces the same multiset of tuples as a
+   * nested-loops Join, including on inputs with many duplicate keys
+   */
+  @Test public void matchesNestedLoops() throws Exception {
+    Random rand = new Random(42);
+    int[] left = randomRows(rand, 200, width1);
+    int[] right = randomRows(rand, 150, width2);
+    for (Predicate.Op o : OPS) {
+      JoinPredicate pred = new JoinPredicate(0, o, 1);
+      Join expected = new Join(pred, TestUtil.createTupleList(width1, left),
+          TestUtil.createTupleList(width2, right));
+      SortMergeJoin actual = new SortMergeJoin(pred, TestUtil.createTupleList(width1, left),
+          TestUtil.createTupleList(width2, right));
+      assertEquals(o.toString(), TestUtil.drainSorted(expected), TestUtil.drainSorted(actual));
+      assertFalse(actual.isNestedLoops());
+    }
+  }
+
+  /**
+   * With a budget smaller than the windows, range joins reread their
+   * prefixes and equi-joins fall back to nested loops; the results, also
+   * after a rewind, are still those of a nested-loops Join
+   */
+  @Test public void windowsExceedBudget() throws Exception {
+    Random rand = new Random(7);
+    int[] left = randomRows(rand, 200, width1);
+    int[] right = randomRows(rand, 150, width2);
+    for (Predicate.Op o : OPS) {
+      JoinPredicate pred = new JoinPredicate(0, o, 1);
+      Join expected = new Join(pred, TestUtil.createTupleList(width1, left),
+          TestUtil.createTupleList(width2, right));
+      ArrayList<String> expectedTuples = TestUtil.drainSorted(expected);
+      SortMergeJoin actual = new SortMergeJoin(pred, TestUtil.createTupleList(width1, left),
+          TestUtil.createTupleList(width2, right), 4);
+      actual.open();
+      for (int pass = 0; pass < 2; pass++) {
+        ArrayList<String> result = TestUtil.readTuples(actual, Integer.MAX_VALUE);
+        Collections.sort(result);
+        assertEquals(o.toString(), expectedTuples, result);
+        assertEquals(o == Predicate.Op.EQUALS, actual.isNestedLoops());
+        actual.rewind();
+      }
+      actual.close();
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class) public void notEqualsUnsupported() {
+    new SortMergeJoin(new JoinPredicate(0, Predicate.Op.NOT_EQUALS, 0), scan1, scan2);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(SortMergeJoinTest.class);
+  }
+}
@@ -166,6 +166,68 @@ public class TestUtil {
         }
     }
 
+    /**
+     * @return the next tuples of an open DbIterator, at most max of them,
+     *   as strings
+     */
+    public static ArrayList<String> readTuples(DbIterator it, int max)
+        throws DbException, TransactionAbortedException {
+        ArrayList<String> result = new ArrayList<String>();
+        while (result.size() < max && it.hasNext()) {
+            result.add(it.next().toString());
+        }
+        return result;
+    }
+
+    /**
+     * Opens the DbIterator, reads all of its tuples and closes it.
+     * @return the tuples as strings, in the order the iterator returned them
+     */
+    public static ArrayList<String> drain(DbIterator it)
+        throws DbException, TransactionAbortedException {
+        it.open();
+        ArrayList<String> result = readTuples(it, Integer.MAX_VALUE);
+        it.close();
+        return result;
+    }
+
+    /**
+     * Opens the DbFileIterator, reads all of its tuples and closes it.
+     * @return the tuples as strings, in the order the iterator returned them
+     */
+    public static ArrayList<String> drain(DbFileIterator it)
+        throws DbException, TransactionAbortedException {
+        ArrayList<String> result = new ArrayList<String>();
+        it.open();
+        while (it.hasNext()) {
+            result.add(it.next().toString());
+        }
+        it.close();
+        return result;
+    }
+
+    /**
+     * Like drain, for results whose order is unspecified.
+     * @return the tuples as strings, sorted
+     */
+    public static ArrayList<String> drainSorted(DbIterator it)
+        throws DbException, TransactionAbortedException {
+        ArrayList<String> result = drain(it);
+        Collections.sort(result);
+        return result;
+    }
+
+    /**
+     * @return a file in the temporary directory that does not exist yet and
+     *   is deleted when the VM exits
+     */
+    public static File tempFile(String prefix) throws IOException {
+        File f = File.createTempFile(prefix, ".dat");
+        f.delete();
+        f.deleteOnExit();
+        return f;
+    }
+
     /**
      * @return a byte array containing the contents of the file 'path'
      */
@@ -0,0 +1,81 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class TopNTest extends SimpleDbTestBase {
+
+  /**
+   * TopN returns exactly the prefix of the corresponding OrderBy, including
+   * the order of tuples with equal keys
+   */
+  @Test public void matchesOrderBy() throws Exception {
+    Random rand = new Random(7);
+    int[] data = new int[2000 * 2];
+    for (int i = 0; i < data.length; i++) {
+      data[i] = rand.nextInt(50);
+    }
+    int[] limits = { 0, 1, 10, 2000, 5000 };
+    for (int limit : limits) {
+      for (int asc = 0; asc < 2; asc++) {
+        OrderBy orderBy = new OrderBy(0, asc == 1, TestUtil.createTupleList(2, data));
+        TopN topN = new TopN(0, asc == 1, limit, TestUtil.createTupleList(2, data));
+        orderBy.open();
+        topN.open();
+        ArrayList<String> expected = TestUtil.readTuples(orderBy, limit);
+        assertEquals(expected, TestUtil.readTuples(topN, Integer.MAX_VALUE));
+        topN.rewind();
+        assertEquals(expected, TestUtil.readTuples(topN, Integer.MAX_VALUE));
+        topN.close();
+      }
+    }
+  }
+
+  /**
+   * LogicalPlan.physicalPlan fuses ORDER BY and LIMIT into a TopN
+   */
+  @Test public void physicalPlanUsesTopN() throws Exception {
+    // SeqScan does not qualify field names with the alias, so the column
+    // names already carry it
+    HeapFile table = SystemTestUtil.createRandomHeapFile(2, 100, null, null, "t.c");
+    LogicalPlan lp = new LogicalPlan();
+    lp.addScan(table.getId(), "t");
+    lp.addProjectField("t.c0", null);
+    lp.addOrderBy("t.c0", false);
+    lp.addLimit(5);
+    TransactionId tid = new TransactionId();
+    DbIterator plan = lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+    DbIterator child = ((Operator) plan).getChildren()[0];
+    assertTrue(child instanceof TopN);
+    assertEquals(5, ((TopN) child).getLimit());
+
+    plan.open();
+    int count = 0;
+    int last = Integer.MAX_VALUE;
+    while (plan.hasNext()) {
+      int value = ((IntField) plan.next().getField(0)).getValue();
+      assertTrue(value <= last);
+      last = value;
+      count++;
+    }
+    plan.close();
+    assertEquals(5, count);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(TopNTest.class);
+  }
+}
@@ -1,6 +1,7 @@
 package simpledb;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 import junit.framework.JUnit4TestAdapter;
 
 import org.junit.Test;
@@ -30,6 +31,51 @@ public class TupleTest extends SimpleDbTestBase {
         assertEquals(new IntField(37), tup.getField(1));
     }
 
+    /**
+     * Unit test for the typed accessors Tuple.getInt(), Tuple.getString()
+     * and their setters
+     */
+    @Test public void typedFields() {
+        TupleDesc td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE });
+        Tuple tup = new Tuple(td);
+        assertNull(tup.getField(0));
+
+        tup.setInt(0, 42);
+        tup.setString(1, "abc");
+        assertEquals(42, tup.getInt(0));
+        assertEquals("abc", tup.getString(1));
+        assertEquals(new IntField(42), tup.getField(0));
+        assertEquals(new StringField("abc", Type.STRING_LEN), tup.getField(1));
+
+        tup.setField(0, new IntField(-3));
+        assertEquals(-3, tup.getInt(0));
+        tup.setField(1, null);
+        assertNull(tup.getField(1));
+    }
+
+    /**
+     * Unit test for Tuple.merge() and Tuple.setField(int, Tuple, int)
+     */
+    @Test public void mergeAndCopy() {
+        TupleDesc td1 = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE });
+        Tuple t1 = new Tuple(td1);
+        t1.setInt(0, 1);
+        t1.setString(1, "x");
+        Tuple t2 = Utility.getHeapTuple(new int[] { 2, 3 });
+
+        Tuple merged = Tuple.merge(TupleDesc.merge(td1, t2.getTupleDesc()), t1, t2);
+        assertEquals(1, merged.getInt(0));
+        assertEquals("x", merged.getString(1));
+        assertEquals(2, merged.getInt(2));
+        assertEquals(3, merged.getInt(3));
+
+        Tuple copy = new Tuple(td1);
+        copy.setField(0, merged, 3);
+        copy.setField(1, merged, 1);
+        assertEquals(3, copy.getInt(0));
+        assertEquals("x", copy.getString(1));
+    }
+
     /**
      * Unit test for Tuple.getTupleDesc()
      */
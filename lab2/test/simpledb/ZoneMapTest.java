@@ -0,0 +1,175 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SmallPageTestBase;
+
+public class ZoneMapTest extends SmallPageTestBase {
+
+  private TransactionId tid;
+  private File file;
+  private HeapFile table;
+
+  /**
+   * Small pages, so that the table spans many pages; the first field grows
+   * with the tuple's position, like a timestamp
+   */
+  @Before public void setUp() throws Exception {
+    super.setUp();
+    this.tid = new TransactionId();
+    this.file = TestUtil.tempFile("zonemap");
+    ZoneMap.sidecarFile(this.file).deleteOnExit();
+    ArrayList<ArrayList<Integer>> rows = new ArrayList<ArrayList<Integer>>();
+    for (int i = 0; i < ROWS; i++) {
+      rows.add(new ArrayList<Integer>(Arrays.asList(i, i % 7)));
+    }
+    HeapFileEncoder.convert(rows, this.file, BufferPool.getPageSize(), 2);
+    this.table = Utility.openHeapFile(2, "t.c", this.file);
+  }
+
+  private Predicate[] range(int lo, int hi) {
+    return new Predicate[] {
+        new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(lo)),
+        new Predicate(0, Predicate.Op.LESS_THAN, new IntField(hi)),
+        new Predicate(1, Predicate.Op.NOT_EQUALS, new IntField(3)) };
+  }
+
+  private ArrayList<String> filtered(Predicate[] predicates) throws Exception {
+    DbIterator it = new SeqScan(this.tid, this.table.getId(), "t");
+    for (Predicate p : predicates) {
+      it = new Filter(p, it);
+    }
+    return TestUtil.drainSorted(it);
+  }
+
+  /**
+   * A scan with pushed-down predicates returns what a Filter returns; once
+   * it has recorded the zones, it only fetches the pages that may match
+   */
+  @Test public void pushedDownRangeSkipsPages() throws Exception {
+    Predicate[] predicates = range(1000, 1100);
+    ArrayList<String> expected = this.filtered(predicates);
+    assertTrue(expected.size() > 0);
+
+    assertEquals(expected, TestUtil.drainSorted(new SeqScan(this.tid, this.table.getId(), "t", predicates)));
+    ZoneMap zones = this.table.getZoneMap();
+    for (int pageNo = 0; pageNo < this.table.numPages(); pageNo++) {
+      assertTrue(zones.isKnown(pageNo));
+    }
+
+    BufferPool pool = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    assertEquals(expected, TestUtil.drainSorted(new SeqScan(this.tid, this.table.getId(), "t", predicates)));
+    int perPage = ROWS / this.table.numPages();
+    assertTrue(pool.getMissCount() <= 100 / perPage + 2);
+    assertTrue(pool.getMissCount() < this.table.numPages());
+
+    // a range beyond the data reads no page at all
+    pool = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    assertEquals(0, TestUtil.drainSorted(new SeqScan(this.tid, this.table.getId(), "t", range(ROWS, ROWS + 10))).size());
+    assertEquals(0, pool.getMissCount());
+  }
+
+  /**
+   * Inserts widen the zones of known pages, and the zones outlive the
+   * HeapFile object until the file is rewritten
+   */
+  @Test public void insertsWidenZonesAndZonesPersist() throws Exception {
+    Predicate[] below = { new Predicate(0, Predicate.Op.LESS_THAN, new IntField(0)) };
+    assertEquals(0, TestUtil.drainSorted(new SeqScan(this.tid, this.table.getId(), "t", below)).size());
+
+    Tuple t = Utility.getHeapTuple(new int[] { -5, 1 });
+    Database.getBufferPool().insertTuple(this.tid, this.table.getId(), t);
+    int pageNo = t.getRecordId().getPageId().pageNumber();
+    assertEquals(-5, this.table.getZoneMap().getMin(pageNo, 0));
+    assertEquals(this.filtered(below), TestUtil.drainSorted(new SeqScan(this.tid, this.table.getId(), "t", below)));
+    assertEquals(1, this.filtered(below).size());
+
+    ZoneMap reloaded = new HeapFile(this.file, this.table.getTupleDesc()).getZoneMap();
+    assertTrue(reloaded.isKnown(pageNo));
+    assertEquals(-5, reloaded.getMin(pageNo, 0));
+    assertFalse(reloaded.mayMatch(0, new Predicate[] {
+        new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(ROWS)) }));
+
+    HeapFileEncoder.convert(new ArrayList<ArrayList<Integer>>(), this.file, BufferPool.getPageSize(), 2);
+    assertFalse(ZoneMap.sidecarFile(this.file).exists());
+    assertFalse(new HeapFile(this.file, this.table.getTupleDesc()).getZoneMap().isKnown(0));
+  }
+
+  /**
+   * A scan does not record the bounds of a page with uncommitted deletes,
+   * and aborting forgets the bounds of the pages it restores
+   */
+  @Test public void abortRestoresTuplesOutsideZones() throws Exception {
+    Predicate[] equals = { new Predicate(0, Predicate.Op.EQUALS, new IntField(1000)) };
+    Tuple victim = null;
+    DbIterator it = new SeqScan(this.tid, this.table.getId(), "t");
+    it.open();
+    while (victim == null && it.hasNext()) {
+      Tuple t = it.next();
+      if (t.getInt(0) == 1000) {
+        victim = t;
+      }
+    }
+    it.close();
+
+    LogFile log = Database.getLogFile();
+    log.logXactionBegin(this.tid);
+    HeapPage page = (HeapPage) Database.getBufferPool().getPage(this.tid,
+        victim.getRecordId().getPageId(), Permissions.READ_WRITE);
+    HeapPage before = page.getBeforeImage();
+    page.deleteTuple(victim);
+    page.markDirty(true, this.tid);
+    log.logWrite(this.tid, before, page);
+    page.setBeforeImage();
+    assertEquals(0, TestUtil.drainSorted(new SeqScan(this.tid, this.table.getId(), "t", equals)).size());
+    assertFalse(this.table.getZoneMap().isKnown(page.getId().pageNumber()));
+
+    // the page is written and recorded while the delete is still live
+    Database.getBufferPool().flushAllPages();
+    assertEquals(0, TestUtil.drainSorted(new SeqScan(this.tid, this.table.getId(), "t", equals)).size());
+    assertTrue(this.table.getZoneMap().isKnown(page.getId().pageNumber()));
+
+    log.logAbort(this.tid);
+    assertFalse(this.table.getZoneMap().isKnown(page.getId().pageNumber()));
+    assertEquals(1, TestUtil.drainSorted(new SeqScan(this.tid, this.table.getId(), "t", equals)).size());
+  }
+
+  /**
+   * The planner hands filters on a heap file to its SeqScan instead of
+   * adding Filter operators
+   */
+  @Test public void physicalPlanPushesFiltersIntoScan() throws Exception {
+    String name = Database.getCatalog().getTableName(this.table.getId());
+    TableStats.setTableStats(name, new TableStats(this.table.getId(), 1000));
+    LogicalPlan lp = new LogicalPlan();
+    lp.addScan(this.table.getId(), "t");
+    lp.addProjectField("t.c1", null);
+    lp.addFilter("t.c0", Predicate.Op.GREATER_THAN_OR_EQ, "1000");
+    lp.addFilter("t.c0", Predicate.Op.LESS_THAN, "1100");
+    DbIterator plan = lp.physicalPlan(this.tid, TableStats.getStatsMap(), false);
+    DbIterator node = plan;
+    while (node instanceof Operator) {
+      assertFalse(node instanceof Filter);
+      node = ((Operator) node).getChildren()[0];
+    }
+    assertTrue(node instanceof SeqScan);
+    assertEquals(2, ((SeqScan) node).getPredicates().length);
+    assertEquals(100, TestUtil.drainSorted(plan).size());
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(ZoneMapTest.class);
+  }
+}
@@ -0,0 +1,135 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+
+import simpledb.*;
+
+/**
+ * Runs pipelines once in tuple mode and once in batch mode and checks that
+ * both produce the same tuples. Also prints a rough timing comparison of the
+ * two modes on a scan-filter-project pipeline.
+ */
+public class BatchModeTest extends SimpleDbTestBase {
+    private static final int COLUMNS = 4;
+
+    private static ArrayList<String> drainBatches(DbIterator it) throws Exception {
+        ArrayList<String> result = new ArrayList<String>();
+        BatchIterator in = BatchAdapter.adapt(it);
+        in.open();
+        TupleBatch batch;
+        while ((batch = in.nextBatch()) != null) {
+            assertFalse(batch.isEmpty());
+            for (int row = 0; row < batch.size(); row++) {
+                result.add(batch.getTuple(row).toString());
+            }
+        }
+        in.close();
+        Collections.sort(result);
+        return result;
+    }
+
+    private DbIterator scanFilterProject(TransactionId tid, HeapFile f) {
+        DbIterator scan = new SeqScan(tid, f.getId(), "");
+        DbIterator filter = new Filter(new Predicate(1, Predicate.Op.LESS_THAN, new IntField(300)), scan);
+        return new Project(new ArrayList<Integer>(Arrays.asList(3, 0)),
+                new Type[] { Type.INT_TYPE, Type.INT_TYPE }, filter);
+    }
+
+    @Test public void testScanFilterProject() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(COLUMNS, 5000, 1000, null, null);
+        TransactionId tid = new TransactionId();
+        ArrayList<String> tuples = TestUtil.drainSorted(scanFilterProject(tid, f));
+        assertTrue(tuples.size() > 0);
+        assertEquals(tuples, drainBatches(scanFilterProject(tid, f)));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testAggregate() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(COLUMNS, 5000, 100, null, null);
+        TransactionId tid = new TransactionId();
+        for (Aggregator.Op op : new Aggregator.Op[] { Aggregator.Op.SUM, Aggregator.Op.MIN,
+                Aggregator.Op.MAX, Aggregator.Op.AVG, Aggregator.Op.COUNT }) {
+            // the tuple-mode reference merges tuples one at a time
+            IntegerAggregator reference = new IntegerAggregator(0, Type.INT_TYPE, 2, op);
+            DbIterator scan = new SeqScan(tid, f.getId(), "");
+            scan.open();
+            while (scan.hasNext()) {
+                reference.mergeTupleIntoGroup(scan.next());
+            }
+            scan.close();
+            Aggregate agg = new Aggregate(new SeqScan(tid, f.getId(), ""), 2, 0, op);
+            assertEquals(TestUtil.drainSorted(reference.iterator()), drainBatches(agg));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testJoin() throws Exception {
+        HeapFile f1 = SystemTestUtil.createRandomHeapFile(2, 3000, 500, null, null);
+        HeapFile f2 = SystemTestUtil.createRandomHeapFile(3, 700, 500, null, null);
+        TransactionId tid = new TransactionId();
+        for (Predicate.Op op : new Predicate.Op[] { Predicate.Op.EQUALS, Predicate.Op.LESS_THAN }) {
+            JoinPredicate p = new JoinPredicate(0, op, 1);
+            ArrayList<String> tuples = TestUtil.drainSorted(new Join(p,
+                    new SeqScan(tid, f1.getId(), "a"), new SeqScan(tid, f2.getId(), "b")));
+            assertEquals(tuples, drainBatches(new Join(p,
+                    new SeqScan(tid, f1.getId(), "a"), new SeqScan(tid, f2.getId(), "b"))));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testAdapter() throws Exception {
+        // an operator without a native implementation, and a plain DbIterator
+        DbIterator list = new TupleIterator(Utility.getTupleDesc(1), tupleList(2500));
+        ArrayList<String> expected = TestUtil.drainSorted(list);
+        assertEquals(expected, drainBatches(new TupleIterator(Utility.getTupleDesc(1), tupleList(2500))));
+        assertEquals(expected, drainBatches(new OrderBy(0, true,
+                new TupleIterator(Utility.getTupleDesc(1), tupleList(2500)))));
+    }
+
+    private static ArrayList<Tuple> tupleList(int n) {
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        for (int i = 0; i < n; i++) {
+            Tuple t = new Tuple(Utility.getTupleDesc(1));
+            t.setField(0, new IntField(n - i));
+            tuples.add(t);
+        }
+        return tuples;
+    }
+
+    /**
+     * Not a benchmark harness, but enough to spot a regression: times a
+     * scan-filter-project pipeline over a cached table in both modes.
+     */
+    @Test public void testTiming() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(COLUMNS, 100000, 1000, null, null);
+        Database.resetBufferPool(1000);
+        TransactionId tid = new TransactionId();
+        long[] best = { Long.MAX_VALUE, Long.MAX_VALUE };
+        for (int round = 0; round < 5; round++) {
+            for (int mode = 0; mode < 2; mode++) {
+                DbIterator plan = scanFilterProject(tid, f);
+                long start = System.nanoTime();
+                if (mode == 0) {
+                    TestUtil.drainSorted(plan);
+                } else {
+                    drainBatches(plan);
+                }
+                best[mode] = Math.min(best[mode], System.nanoTime() - start);
+            }
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        System.out.println("BatchModeTest scan-filter-project ms: tuple = " + best[0] / 1000000
+                + ", batch = " + best[1] / 1000000);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(BatchModeTest.class);
+    }
+}
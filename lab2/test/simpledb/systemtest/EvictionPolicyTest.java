@@ -0,0 +1,86 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import simpledb.*;
+
+/**
+ * Replays a scan-plus-lookup trace against buffer pools using different
+ * eviction policies and compares their hit ratios. The trace interleaves a
+ * sequential scan of a large table with point lookups on a small, hot table,
+ * which is the access pattern that lets a random (or plain LRU) policy flush
+ * the hot pages.
+ */
+public class EvictionPolicyTest extends SimpleDbTestBase {
+    private static final int BUFFER_PAGES = 20;
+    private static final int HOT_PAGES = 4;
+    private static final int COLUMNS = 2;
+    private static final int SCANS = 3;
+
+    private double replayTrace(BufferPool pool, HeapFile hot, HeapFile big)
+            throws DbException, TransactionAbortedException {
+        TransactionId tid = new TransactionId();
+        Random lookups = new Random(42);
+        for (int scan = 0; scan < SCANS; scan++) {
+            for (int i = 0; i < big.numPages(); i++) {
+                pool.getPage(tid, new HeapPageId(big.getId(), i), Permissions.READ_ONLY);
+                int hotPage = lookups.nextInt(hot.numPages());
+                pool.getPage(tid, new HeapPageId(hot.getId(), hotPage), Permissions.READ_ONLY);
+            }
+        }
+        return (double) pool.getHitCount() / (pool.getHitCount() + pool.getMissCount());
+    }
+
+    @Test public void testScanResistance() throws Exception {
+        int tuplesPerPage = BufferPool.getPageSize() * 8 / (COLUMNS * Type.INT_TYPE.getLen() * 8 + 1);
+        HeapFile hot = SystemTestUtil.createRandomHeapFile(COLUMNS, HOT_PAGES * tuplesPerPage, null, null);
+        HeapFile big = SystemTestUtil.createRandomHeapFile(COLUMNS, BUFFER_PAGES * 10 * tuplesPerPage, null, null);
+
+        double random = replayTrace(new BufferPool(BUFFER_PAGES,
+                new RandomEvictionPolicy(new Random(0))), hot, big);
+        double twoQueue = replayTrace(new BufferPool(BUFFER_PAGES,
+                new TwoQueueEvictionPolicy(BUFFER_PAGES)), hot, big);
+        System.out.println("EvictionPolicyTest hit ratio: random = " + random + ", 2Q = " + twoQueue);
+
+        // every lookup on the hot table should hit once its pages have been
+        // promoted, so 2Q approaches the 50% ceiling of this trace
+        assertTrue(twoQueue > random);
+        assertTrue(twoQueue > 0.45);
+    }
+
+    @Test public void testPinnedPagesAreNotEvicted() throws Exception {
+        HeapFile big = SystemTestUtil.createRandomHeapFile(COLUMNS, 5000, null, null);
+        BufferPool pool = new BufferPool(2, new TwoQueueEvictionPolicy(2));
+        TransactionId tid = new TransactionId();
+        HeapPageId first = new HeapPageId(big.getId(), 0);
+        Page pinned = pool.getPinnedPage(tid, first, Permissions.READ_ONLY);
+        assertTrue(pool.isPinned(first));
+        for (int i = 1; i < big.numPages(); i++) {
+            pool.getPage(tid, new HeapPageId(big.getId(), i), Permissions.READ_ONLY);
+        }
+        assertSame(pinned, pool.getPage(tid, first, Permissions.READ_ONLY));
+
+        // once every frame is pinned there is nothing left to evict
+        HeapPageId second = new HeapPageId(big.getId(), 1);
+        // a resident page is pinned as well
+        pool.getPage(tid, second, Permissions.READ_ONLY);
+        pool.getPinnedPage(tid, second, Permissions.READ_ONLY);
+        try {
+            pool.getPage(tid, new HeapPageId(big.getId(), 2), Permissions.READ_ONLY);
+            fail("expected DbException");
+        } catch (DbException e) {
+            // expected
+        }
+        pool.unpinPage(second);
+        pool.getPage(tid, new HeapPageId(big.getId(), 2), Permissions.READ_ONLY);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(EvictionPolicyTest.class);
+    }
+}
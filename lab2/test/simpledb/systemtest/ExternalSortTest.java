@@ -0,0 +1,114 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+
+import org.junit.Test;
+
+import simpledb.*;
+
+/**
+ * Sorts tables with OrderBy under memory budgets much smaller than the
+ * table, so that it has to sort externally, and checks order, contents and
+ * rewind behaviour.
+ */
+public class ExternalSortTest extends SimpleDbTestBase {
+    private static final int COLUMNS = 2;
+
+    private ArrayList<ArrayList<Integer>> drain(DbIterator it) throws Exception {
+        ArrayList<ArrayList<Integer>> result = new ArrayList<ArrayList<Integer>>();
+        while (it.hasNext()) {
+            result.add(SystemTestUtil.tupleToList(it.next()));
+        }
+        return result;
+    }
+
+    private void validateSort(int rows, int budget, int bufferPages, final boolean asc,
+            boolean expectExternal) throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(COLUMNS, rows, 1000, null, tuples);
+        Database.resetBufferPool(bufferPages);
+
+        // a stable sort of the input on column 0 is the only valid output
+        // order for column 0; column 1 only has to match as a multiset
+        ArrayList<Integer> expectedKeys = new ArrayList<Integer>();
+        for (ArrayList<Integer> t : tuples) {
+            expectedKeys.add(t.get(0));
+        }
+        Collections.sort(expectedKeys, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                return asc ? a.compareTo(b) : b.compareTo(a);
+            }
+        });
+
+        TransactionId tid = new TransactionId();
+        OrderBy op = new OrderBy(0, asc, new SeqScan(tid, table.getId(), ""), budget);
+        op.open();
+        assertEquals(expectExternal, op.isExternal());
+
+        // stop half way, rewind, and read everything
+        for (int i = 0; i < rows / 2; i++) {
+            assertTrue(op.hasNext());
+            op.next();
+        }
+        op.rewind();
+        ArrayList<ArrayList<Integer>> first = drain(op);
+        op.rewind();
+        ArrayList<ArrayList<Integer>> second = drain(op);
+        op.close();
+        Database.getBufferPool().transactionComplete(tid);
+
+        assertEquals(rows, first.size());
+        assertEquals(first, second);
+        for (int i = 0; i < rows; i++) {
+            assertEquals(expectedKeys.get(i), first.get(i).get(0));
+        }
+        ArrayList<ArrayList<Integer>> sortedInput = new ArrayList<ArrayList<Integer>>(tuples);
+        ArrayList<ArrayList<Integer>> sortedOutput = new ArrayList<ArrayList<Integer>>(first);
+        Comparator<ArrayList<Integer>> byColumns = new Comparator<ArrayList<Integer>>() {
+            public int compare(ArrayList<Integer> a, ArrayList<Integer> b) {
+                int c = a.get(0).compareTo(b.get(0));
+                return c != 0 ? c : a.get(1).compareTo(b.get(1));
+            }
+        };
+        Collections.sort(sortedInput, byColumns);
+        Collections.sort(sortedOutput, byColumns);
+        assertEquals(sortedInput, sortedOutput);
+    }
+
+    @Test public void testInMemory() throws Exception {
+        validateSort(1000, 5000, 50, true, false);
+    }
+
+    @Test public void testSinglePassMerge() throws Exception {
+        validateSort(10000, 1000, 50, true, true);
+    }
+
+    @Test public void testMultiPassMerge() throws Exception {
+        // 100 runs with a fan-in of 4
+        validateSort(10000, 100, 5, false, true);
+    }
+
+    @Test public void testFullDrainThenRewind() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(COLUMNS, 3000, null, tuples);
+        TransactionId tid = new TransactionId();
+        OrderBy op = new OrderBy(1, true, new SeqScan(tid, table.getId(), ""), 200);
+        op.open();
+        ArrayList<ArrayList<Integer>> first = drain(op);
+        assertFalse(op.hasNext());
+        op.rewind();
+        assertEquals(first, drain(op));
+        op.close();
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(3000, first.size());
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(ExternalSortTest.class);
+    }
+}
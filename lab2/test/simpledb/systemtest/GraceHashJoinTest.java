@@ -0,0 +1,124 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import org.junit.Test;
+
+import simpledb.*;
+
+/**
+ * Runs GraceHashJoin with memory budgets much smaller than its inputs, so
+ * that it has to partition them to disk, and checks the results against a
+ * nested-loops join computed in memory.
+ */
+public class GraceHashJoinTest extends SimpleDbTestBase {
+    private static final int COLUMNS = 2;
+
+    private void validateJoin(int table1Rows, int table2Rows, int maxValue,
+            Integer table2Key, int budget, boolean expectSpill) throws Exception {
+        ArrayList<ArrayList<Integer>> t1Tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile table1 = SystemTestUtil.createRandomHeapFile(
+                COLUMNS, table1Rows, maxValue, null, t1Tuples);
+
+        HashMap<Integer, Integer> columnSpecification = null;
+        if (table2Key != null) {
+            columnSpecification = new HashMap<Integer, Integer>();
+            columnSpecification.put(0, table2Key);
+        }
+        ArrayList<ArrayList<Integer>> t2Tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile table2 = SystemTestUtil.createRandomHeapFile(
+                COLUMNS, table2Rows, maxValue, columnSpecification, t2Tuples);
+
+        ArrayList<ArrayList<Integer>> expectedResults = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t1 : t1Tuples) {
+            for (ArrayList<Integer> t2 : t2Tuples) {
+                if (t1.get(0).equals(t2.get(0))) {
+                    ArrayList<Integer> out = new ArrayList<Integer>(t1);
+                    out.addAll(t2);
+                    expectedResults.add(out);
+                }
+            }
+        }
+
+        TransactionId tid = new TransactionId();
+        SeqScan ss1 = new SeqScan(tid, table1.getId(), "");
+        SeqScan ss2 = new SeqScan(tid, table2.getId(), "");
+        JoinPredicate p = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+        GraceHashJoin joinOp = new GraceHashJoin(p, ss1, ss2, budget);
+
+        joinOp.open();
+        assertEquals(expectSpill, joinOp.isSpilling());
+        joinOp.close();
+
+        SystemTestUtil.matchTuples(joinOp, expectedResults);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testFitsInMemory() throws Exception {
+        validateJoin(1000, 100, 200, null, 1000, false);
+    }
+
+    @Test public void testSpill() throws Exception {
+        validateJoin(2000, 2000, 1000, null, 50, true);
+    }
+
+    @Test public void testRecursivePartitioning() throws Exception {
+        // a budget of one tuple forces every non-empty partition to be split again
+        validateJoin(500, 500, 100, null, 1, true);
+    }
+
+    @Test public void testSkewedBuildSide() throws Exception {
+        // every inner tuple has the same key, so no partitioning can split them
+        validateJoin(300, 200, 20, 7, 10, true);
+    }
+
+    @Test public void testRewindAfterSpill() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(COLUMNS, 1000, 100000, null, tuples);
+        TransactionId tid = new TransactionId();
+        JoinPredicate p = new JoinPredicate(1, Predicate.Op.EQUALS, 1);
+        GraceHashJoin joinOp = new GraceHashJoin(p, new SeqScan(tid, table.getId(), "a"),
+                new SeqScan(tid, table.getId(), "b"), 20);
+
+        joinOp.open();
+        assertTrue(joinOp.isSpilling());
+        int first = 0;
+        while (joinOp.hasNext()) {
+            joinOp.next();
+            first++;
+        }
+        joinOp.rewind();
+        int second = 0;
+        while (joinOp.hasNext()) {
+            joinOp.next();
+            second++;
+        }
+        joinOp.close();
+        assertTrue(first >= tuples.size());
+        assertEquals(first, second);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testCostModel() throws Exception {
+        // a spill costs extra passes over both inputs but stays far below
+        // nested loops on large inputs
+        JoinOptimizer jo = new JoinOptimizer(null, new java.util.Vector<LogicalJoinNode>());
+        LogicalJoinNode equalsJoin = new LogicalJoinNode("t1", "t2", "c0", "c0", Predicate.Op.EQUALS);
+        Database.resetBufferPool(50);
+        double inMemory = jo.estimateJoinCost(equalsJoin, 100000, 100, 1000, 10);
+        double spilling = jo.estimateJoinCost(equalsJoin, 100000, 1000000, 1000, 10000);
+        LogicalJoinNode neJoin = new LogicalJoinNode("t1", "t2", "c0", "c0", Predicate.Op.NOT_EQUALS);
+        double nestedLoops = jo.estimateJoinCost(neJoin, 100000, 1000000, 1000, 10000);
+        assertEquals(1000 + 10 + 100000 + 100, inMemory, 0.001);
+        assertTrue(spilling > 1000 + 10000 + 100000 + 1000000);
+        assertTrue(spilling < nestedLoops);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(GraceHashJoinTest.class);
+    }
+}
@@ -0,0 +1,88 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.UUID;
+
+import org.junit.Test;
+
+import simpledb.*;
+
+/**
+ * Scans the same table through a HeapFile and a MappedHeapFile, checks that
+ * both return the same tuples, and reports cold and repeated scan times of
+ * the two access paths.
+ */
+public class MappedHeapFileTest extends SimpleDbTestBase {
+    private static final int COLUMNS = 3;
+    private static final int ROWS = 50000;
+    private static final int BUFFER_PAGES = 50;
+
+    private MappedHeapFile openMapped(File f) {
+        MappedHeapFile mf = new MappedHeapFile(f, Utility.getTupleDesc(COLUMNS));
+        Database.getCatalog().addTable(mf, UUID.randomUUID().toString());
+        return mf;
+    }
+
+    private long timeScan(DbFile f) throws Exception {
+        long start = System.nanoTime();
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, f.getId(), "");
+        scan.open();
+        int count = 0;
+        while (scan.hasNext()) {
+            scan.next();
+            count++;
+        }
+        scan.close();
+        assertEquals(ROWS, count);
+        return System.nanoTime() - start;
+    }
+
+    @Test public void testScan() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        File temp = SystemTestUtil.createRandomHeapFileUnopened(COLUMNS, ROWS, 1 << 16, null, tuples);
+        MappedHeapFile mf = openMapped(temp);
+        SystemTestUtil.matchTuples(mf, tuples);
+        mf.close();
+    }
+
+    @Test public void testReadOnly() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        File temp = SystemTestUtil.createRandomHeapFileUnopened(COLUMNS, 10, 1 << 16, null, tuples);
+        MappedHeapFile mf = openMapped(temp);
+        TransactionId tid = new TransactionId();
+        try {
+            mf.insertTuple(tid, Utility.getHeapTuple(1, COLUMNS));
+            fail("expected DbException");
+        } catch (DbException e) {
+            // expected
+        }
+        mf.close();
+    }
+
+    @Test public void compareScanTimes() throws Exception {
+        File temp = SystemTestUtil.createRandomHeapFileUnopened(COLUMNS, ROWS, 1 << 16, null, null);
+        HeapFile hf = Utility.openHeapFile(COLUMNS, temp);
+        MappedHeapFile mf = openMapped(temp);
+
+        Database.resetBufferPool(BUFFER_PAGES);
+        long heapCold = timeScan(hf);
+        long heapWarm = timeScan(hf);
+        Database.resetBufferPool(BUFFER_PAGES);
+        long mappedCold = timeScan(mf);
+        long mappedWarm = timeScan(mf);
+        System.out.println("MappedHeapFileTest scan ms: HeapFile cold = " + heapCold / 1000000
+                + ", repeated = " + heapWarm / 1000000 + "; MappedHeapFile cold = "
+                + mappedCold / 1000000 + ", repeated = " + mappedWarm / 1000000);
+        hf.close();
+        mf.close();
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(MappedHeapFileTest.class);
+    }
+}
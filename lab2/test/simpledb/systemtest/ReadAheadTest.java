@@ -0,0 +1,84 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import simpledb.*;
+
+/**
+ * Scans tables with asynchronous read-ahead enabled and checks that the
+ * scans still see every tuple exactly once, including with a buffer pool
+ * much smaller than the read-ahead window.
+ */
+public class ReadAheadTest extends SimpleDbTestBase {
+    private static final int COLUMNS = 2;
+
+    private void validateScan(int rows, int bufferPages, int readAhead) throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(COLUMNS, rows, null, tuples);
+        f.setReadAhead(readAhead);
+        Database.resetBufferPool(bufferPages);
+        SystemTestUtil.matchTuples(f, tuples);
+        // scan a second time, now with part of the table cached
+        SystemTestUtil.matchTuples(f, tuples);
+    }
+
+    @Test public void testReadAheadScan() throws Exception {
+        validateScan(20000, 50, 8);
+    }
+
+    @Test public void testReadAheadLargerThanPool() throws Exception {
+        validateScan(20000, 4, 64);
+    }
+
+    @Test public void testPrefetchLoadsPages() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(COLUMNS, 5000, null, null);
+        BufferPool pool = Database.resetBufferPool(50);
+        HeapPageId pid = new HeapPageId(f.getId(), 1);
+        pool.prefetchPages(Arrays.asList(new PageId[] { pid }));
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!pool.isResident(pid) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(pool.isResident(pid));
+        TransactionId tid = new TransactionId();
+        pool.getPage(tid, pid, Permissions.READ_ONLY);
+        assertEquals(1, pool.getHitCount());
+        assertEquals(0, pool.getMissCount());
+    }
+
+    /**
+     * Read-ahead fills free frames only; it does not evict the pages other
+     * callers got from getPage
+     */
+    @Test public void testPrefetchDoesNotEvict() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(COLUMNS, 5000, null, null);
+        BufferPool pool = Database.resetBufferPool(3);
+        TransactionId tid = new TransactionId();
+        HeapPageId[] pids = new HeapPageId[4];
+        for (int i = 0; i < pids.length; i++) {
+            pids[i] = new HeapPageId(f.getId(), i);
+        }
+        pool.getPage(tid, pids[0], Permissions.READ_WRITE);
+        pool.getPage(tid, pids[1], Permissions.READ_WRITE);
+        pool.prefetchPages(Arrays.asList(new PageId[] { pids[2], pids[3] }));
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!pool.isResident(pids[2]) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Thread.sleep(50);
+        assertTrue(pool.isResident(pids[0]));
+        assertTrue(pool.isResident(pids[1]));
+        assertTrue(pool.isResident(pids[2]));
+        assertFalse(pool.isResident(pids[3]));
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(ReadAheadTest.class);
+    }
+}
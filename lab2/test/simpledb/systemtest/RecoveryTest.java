@@ -0,0 +1,153 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.Iterator;
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.*;
+
+/**
+ * Generates a large log of transactions inserting into a table, drops the
+ * buffer pool as a crash would, and measures how long recovery with one
+ * and with several threads takes to restore the table.
+ */
+public class RecoveryTest extends SimpleDbTestBase {
+
+    private static final int PAGES = 64;
+    private static final int TRANSACTIONS = 2000;
+    private static final int UPDATES_PER_TRANSACTION = 4;
+    private static final int CHECKPOINT_EVERY = 500;
+    // live at the crash; each updates a page of its own
+    private static final int LOSERS = 8;
+
+    private HeapFile table;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        File f = File.createTempFile("recovery", ".dat");
+        f.deleteOnExit();
+        this.table = Utility.createEmptyHeapFile(f.getAbsolutePath(), 2);
+        for (int i = 1; i < PAGES; i++) {
+            this.table.writePage(new HeapPage(new HeapPageId(this.table.getId(), i),
+                    HeapPage.createEmptyPageData()));
+        }
+    }
+
+    private void insert(LogFile log, TransactionId tid, int pageNo, int value) throws Exception {
+        HeapPageId pid = new HeapPageId(this.table.getId(), pageNo);
+        HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
+        HeapPage before = page.getBeforeImage();
+        page.insertTuple(Utility.getHeapTuple(new int[] { pageNo, value }));
+        page.markDirty(true, tid);
+        log.logWrite(tid, before, page);
+        page.setBeforeImage();
+    }
+
+    /**
+     * Runs the transactions, committing all but the losers, and checkpoints
+     * every CHECKPOINT_EVERY transactions; the buffer pool is smaller than
+     * the table, so some dirty pages are written before the crash.
+     *
+     * @return the number of committed tuples on each page
+     */
+    private int[] generateLog() throws Exception {
+        LogFile log = Database.getLogFile();
+        Random rand = new Random(0);
+        int[] expected = new int[PAGES];
+        for (int t = 0; t < TRANSACTIONS + LOSERS; t++) {
+            TransactionId tid = new TransactionId();
+            log.logXactionBegin(tid);
+            boolean loser = t >= TRANSACTIONS;
+            for (int u = 0; u < UPDATES_PER_TRANSACTION; u++) {
+                int pageNo = loser ? t - TRANSACTIONS : rand.nextInt(PAGES);
+                insert(log, tid, pageNo, t);
+                if (!loser) {
+                    expected[pageNo]++;
+                }
+            }
+            if (!loser) {
+                log.logCommit(tid);
+            }
+            if (t % CHECKPOINT_EVERY == CHECKPOINT_EVERY - 1) {
+                log.logCheckpoint();
+            }
+        }
+        return expected;
+    }
+
+    private void assertRecovered(int[] expected) {
+        for (int i = 0; i < PAGES; i++) {
+            HeapPage page = (HeapPage) this.table.readPage(new HeapPageId(this.table.getId(), i));
+            int n = 0;
+            Iterator<Tuple> it = page.iterator();
+            while (it.hasNext()) {
+                it.next();
+                n++;
+            }
+            assertEquals("tuples on page " + i, expected[i], n);
+        }
+    }
+
+    /**
+     * Drops the buffer pool as a crash would and recovers the log with the
+     * given number of threads, reporting the time taken
+     *
+     * @return the recovered log, to log further transactions to
+     */
+    private LogFile crashAndRecover(int threads) throws Exception {
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        // the log file of the Database instance
+        File logFile = new File("log");
+        LogFile log = new LogFile(logFile);
+        log.setRecoveryThreads(threads);
+        long start = System.nanoTime();
+        log.recover();
+        long millis = (System.nanoTime() - start) / 1000000;
+        System.out.println("Recovered " + logFile.length() + " byte log with " + threads
+                + " thread(s) in " + millis + " ms");
+        return log;
+    }
+
+    /**
+     * Recovery restores the committed tuples and no others, with one thread
+     * and with several; recovering again is harmless
+     */
+    @Test public void recoverLargeLog() throws Exception {
+        int[] expected = generateLog();
+        crashAndRecover(1);
+        assertRecovered(expected);
+        crashAndRecover(4);
+        assertRecovered(expected);
+    }
+
+    /**
+     * A transaction that commits after recovery survives a second crash,
+     * although it updated a page the first recovery undid a loser's update
+     * of; the loser is not undone again
+     */
+    @Test public void commitBetweenCrashes() throws Exception {
+        int[] expected = generateLog();
+        LogFile log = crashAndRecover(4);
+        assertRecovered(expected);
+
+        TransactionId tid = new TransactionId();
+        log.logXactionBegin(tid);
+        insert(log, tid, 0, -1);
+        log.logCommit(tid);
+        expected[0]++;
+        crashAndRecover(4);
+        assertRecovered(expected);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(RecoveryTest.class);
+    }
+}
@@ -0,0 +1,29 @@
+package simpledb.systemtest;
+
+import org.junit.After;
+import org.junit.Before;
+
+import simpledb.BufferPool;
+
+/**
+ * Base class for tests that need tables spanning many pages: the database
+ * is reset with pages of SMALL_PAGE_SIZE bytes, so that a few thousand
+ * small tuples fill many pages.
+ */
+public class SmallPageTestBase extends SimpleDbTestBase {
+
+	public static final int SMALL_PAGE_SIZE = 256;
+
+	/** Rows of two int fields that span about a hundred small pages. */
+	protected static final int ROWS = 3000;
+
+	@Before public void setUp() throws Exception {
+		BufferPool.setPageSize(SMALL_PAGE_SIZE);
+		super.setUp();
+	}
+
+	@After public void tearDown() {
+		BufferPool.setPageSize(BufferPool.PAGE_SIZE);
+	}
+
+}